@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.impl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+
+/**
+ * Parsing and sending of a LightFactory command, with the command parser and with the reference patterns.
+ * <br>The OSC datagrams go to a loopback socket that is never read, the kernel drops them once its buffer is full.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LightFactoryProtocolBenchmark {
+
+    /**
+     * Loopback socket receiving the OSC datagrams.
+     */
+    private DatagramChannel sink;
+    /**
+     * The shared OSC sender.
+     */
+    private OSCDatagramSender sender;
+    /**
+     * The shared endpoint cache.
+     */
+    private EndpointCache endpoints;
+    /**
+     * Protocol with the native OSC encoder.
+     */
+    private LightFactoryProtocol nativeProtocol;
+    /**
+     * Protocol with the javaosc serializer.
+     */
+    private LightFactoryProtocol javaoscProtocol;
+    /**
+     * The command parser.
+     */
+    private final LightFactoryCommandParser parser = new LightFactoryCommandParser();
+    /**
+     * A typical LightFactory command.
+     */
+    private String command;
+
+    @Setup
+    public void setUp() throws IOException {
+        sink = DatagramChannel.open();
+        sink.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        sender = new OSCDatagramSender(1);
+        endpoints = new EndpointCache(TimeUnit.MINUTES.toMillis(5), TimeUnit.SECONDS.toMillis(10));
+        nativeProtocol = new LightFactoryProtocol(sender, endpoints, true);
+        javaoscProtocol = new LightFactoryProtocol(sender, endpoints, false);
+        command = "osc@127.0.0.1:" + ((InetSocketAddress) sink.getLocalAddress()).getPort()
+                + " /message/receiving testoscproxy 123 0.222 \"quoted argument\"";
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        sender.close();
+        endpoints.shutdown();
+        sink.close();
+    }
+
+    @Benchmark
+    public String processNative() {
+        return nativeProtocol.process(command);
+    }
+
+    @Benchmark
+    public String processJavaosc() {
+        return javaoscProtocol.process(command);
+    }
+
+    @Benchmark
+    public int parser() {
+        int tokens = 0;
+        parser.reset(command);
+        while (parser.find()) {
+            tokens += parser.tokenCount() + parser.port();
+        }
+        return tokens;
+    }
+
+    @Benchmark
+    public void patterns(final Blackhole blackhole) {
+        Matcher matcher = LightFactoryProtocol.oscPattern.matcher(command);
+        while (matcher.find()) {
+            blackhole.consume(matcher.group(1));
+            blackhole.consume(Integer.parseInt(matcher.group(2)));
+            blackhole.consume(matcher.group(3));
+            Matcher data = LightFactoryProtocol.dataPattern.matcher(matcher.group(4));
+            while (data.find()) {
+                String token = data.group("token");
+                blackhole.consume(token != null ? token : data.group("token1"));
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.impl;
+
+import com.illposed.osc.OSCMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trips of OSC messages to an in-process mock LightFactory over loopback TCP, through the pooled sessions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoopbackBenchmark {
+
+    /**
+     * Commands written in one batch.
+     */
+    private static final int BATCH_SIZE = 8;
+
+    /**
+     * The mock LightFactory.
+     */
+    private ServerSocket server;
+    /**
+     * Port of the mock LightFactory.
+     */
+    private int port;
+    /**
+     * The shared endpoint cache.
+     */
+    private EndpointCache endpoints;
+    /**
+     * The pooled LightFactory sessions.
+     */
+    private LightFactorySessionPool sessions;
+    /**
+     * A typical OSC message for the mock LightFactory.
+     */
+    private List<OSCMessage> message;
+    /**
+     * A batch of OSC messages for the mock LightFactory.
+     */
+    private List<OSCMessage> batch;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        port = server.getLocalPort();
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "LoopbackBenchmark - LightFactory");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        endpoints = new EndpointCache(TimeUnit.MINUTES.toMillis(5), TimeUnit.SECONDS.toMillis(10));
+        sessions = new LightFactorySessionPool(4, TimeUnit.MINUTES.toMillis(1), endpoints);
+        message = Collections.singletonList(message(0));
+        batch = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(message(i));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        sessions.shutdown();
+        endpoints.shutdown();
+        server.close();
+    }
+
+    @Benchmark
+    public String execute() throws IOException {
+        return sessions.execute("127.0.0.1", port, "cue 1 go");
+    }
+
+    @Benchmark
+    public void oscMessage() {
+        new OSCProtocol(message, sessions).run();
+    }
+
+    @Benchmark
+    public void oscBatch() {
+        new OSCProtocol(batch, sessions).run();
+    }
+
+    /**
+     * Build an OSC message for the mock LightFactory.
+     *
+     * @param cue the cue number
+     * @return the message
+     */
+    private OSCMessage message(final int cue) {
+        OSCMessage osc = new OSCMessage("/lf/127.0.0.1:" + port + "/cue");
+        osc.addArgument(cue);
+        osc.addArgument("go");
+        return osc;
+    }
+
+    /**
+     * Accept mock LightFactory connections until the server is closed.
+     */
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                final Socket socket = server.accept();
+                Thread connection = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        answer(socket);
+                    }
+                }, "LoopbackBenchmark - Session");
+                connection.setDaemon(true);
+                connection.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Answer each command like LightFactory, echo it followed by a prompt.
+     *
+     * @param socket the session socket
+     */
+    private static void answer(final Socket socket) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(),
+                     StandardCharsets.US_ASCII))) {
+            //answers to a batch are separate writes, do not let Nagle hold them for the delayed ack
+            s.setTcpNoDelay(true);
+            OutputStream out = s.getOutputStream();
+            out.write("LightFactory MOCK-SERVER\n>\n".getBytes(StandardCharsets.US_ASCII));
+            String line;
+            while ((line = in.readLine()) != null) {
+                out.write(("> " + line + " : Success\n>\n").getBytes(StandardCharsets.US_ASCII));
+            }
+        } catch (IOException e) {
+            //the session was closed
+        }
+    }
+}
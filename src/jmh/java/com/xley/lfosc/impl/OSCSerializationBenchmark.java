@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.impl;
+
+import com.illposed.osc.OSCBundle;
+import com.illposed.osc.OSCMessage;
+import com.illposed.osc.OSCPacket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OSC serialization of a typical message and bundle, javaosc against {@link OSCEncoder} and {@link OSCBundleEncoder}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OSCSerializationBenchmark {
+
+    /**
+     * Messages in the bundle.
+     */
+    private static final int BUNDLE_SIZE = 4;
+
+    /**
+     * The javaosc message.
+     */
+    private OSCMessage message;
+    /**
+     * The javaosc bundle.
+     */
+    private OSCBundle bundle;
+    /**
+     * The native encoder.
+     */
+    private final OSCEncoder encoder = new OSCEncoder();
+    /**
+     * The native bundle encoder.
+     */
+    private final OSCBundleEncoder bundleEncoder = new OSCBundleEncoder();
+    /**
+     * Destination of the bundle.
+     */
+    private final InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(), 57110);
+    /**
+     * The output buffer.
+     */
+    private final ByteBuffer out = ByteBuffer.allocateDirect(OSCDatagramSender.MAX_DATAGRAM);
+
+    @Setup
+    public void setUp() {
+        message = new OSCMessage("/message/receiving");
+        message.addArgument("testoscproxy");
+        message.addArgument(123);
+        message.addArgument(0.222f);
+        List<OSCPacket> packets = new ArrayList<>();
+        for (int i = 0; i < BUNDLE_SIZE; i++) {
+            packets.add(message);
+        }
+        bundle = new OSCBundle(packets);
+    }
+
+    @Benchmark
+    public byte[] messageJavaosc() {
+        return message.getByteArray();
+    }
+
+    @Benchmark
+    public ByteBuffer messageNative() {
+        out.clear();
+        return encode().encode(out);
+    }
+
+    @Benchmark
+    public byte[] bundleJavaosc() {
+        return bundle.getByteArray();
+    }
+
+    @Benchmark
+    public ByteBuffer bundleNative() {
+        out.clear();
+        bundleEncoder.reset();
+        for (int i = 0; i < BUNDLE_SIZE; i++) {
+            bundleEncoder.add(target, encode());
+        }
+        return bundleEncoder.encode(0, out);
+    }
+
+    /**
+     * Encode the typical message.
+     *
+     * @return the encoder holding the message
+     */
+    private OSCEncoder encode() {
+        return encoder.start("/message/receiving").addString("testoscproxy").addInt(123).addFloat(0.222f);
+    }
+}
@@ -1,122 +1,292 @@
-/*
- * Copyright (c) 2014. Peter Crossley (xley.com)
- *  Licensed to the Apache Software Foundation (ASF) under one
- *  or more contributor license agreements.  See the NOTICE file
- *  distributed with this work for additional information
- *  regarding copyright ownership.  The ASF licenses this file
- *  to you under the Apache License, Version 2.0 (the
- *  "License"); you may not use this file except in compliance
- *  with the License.  You may obtain a copy of the License at
- *
- *    http://www.apache.org/licenses/LICENSE-2.0
- *
- *  Unless required by applicable law or agreed to in writing,
- *  software distributed under the License is distributed on an
- *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
- *  KIND, either express or implied.  See the License for the
- *  specific language governing permissions and limitations
- *  under the License.
- */
-
-package com.xley.lfosc;
-
-import com.xley.lfosc.util.LogUtil;
-import joptsimple.OptionParser;
-import joptsimple.OptionSet;
-import org.apache.log4j.Level;
-
-import java.io.IOException;
-import java.util.Locale;
-import java.util.ResourceBundle;
-
-/**
- * The primary OSC proxy class.
- */
-public class OSCProxy {
-
-    /**
-     * The constant resources.
-     */
-    public static final ResourceBundle resources = ResourceBundle.getBundle(OSCProxy.class.getSimpleName(),
-            Locale.getDefault());
-
-    /**
-     * Instantiates a new OSC proxy.
-     */
-    public OSCProxy() {
-    }
-
-    /**
-     * The entry point of application.
-     *
-     * @param args the input arguments
-     */
-    public static void main(final String[] args) {
-        System.exit(new OSCProxy().execute(args));
-    }
-
-    /**
-     * Execution workflow for LightFactory-OSC Proxy.
-     *
-     * @param args the args normally from the command line
-     * @return the error code of the exiting process
-     */
-    public final int execute(final String[] args) {
-        OptionParser parser = new OptionParser() {
-            {
-                accepts("p").withOptionalArg().ofType(Integer.class)
-                        .describedAs(resources.getString("option.lf.port.desc"))
-                        .defaultsTo(Integer.parseInt(resources.getString("option.lf.port.default")));
-                accepts("l").withOptionalArg().ofType(Integer.class)
-                        .describedAs(resources.getString("option.osc.port.desc"))
-                        .defaultsTo(Integer.parseInt(resources.getString("option.osc.port.default")));
-                accepts("m").withOptionalArg().ofType(String.class)
-                        .describedAs(resources.getString("option.mode.desc"))
-                        .defaultsTo(resources.getString("option.mode.default"));
-                accepts("b").withOptionalArg().ofType(String.class)
-                        .describedAs(resources.getString("option.bind.address.desc"))
-                        .defaultsTo(resources.getString("option.bind.address.default"));
-                accepts("t").withOptionalArg().ofType(Integer.class)
-                        .describedAs(resources.getString("option.socket.threads.desc"))
-                        .defaultsTo(Integer.parseInt(resources.getString("option.socket.threads.default")));
-                accepts("d").withOptionalArg().ofType(String.class)
-                        .describedAs(resources.getString("option.verbosity.desc"));
-                accepts("?").withOptionalArg().describedAs(resources.getString("option.help.desc"));
-            }
-        };
-        OptionSet options = parser.parse(args);
-        if (options.has("?")) {
-            System.out.println(resources.getString("console.header.1"));
-            try {
-                parser.printHelpOn(System.out);
-            } catch (IOException e) {
-                LogUtil.error(e);
-            }
-            return 0;
-        }
-
-        System.out.println(resources.getString("console.header.1"));
-        System.out.println(resources.getString("console.header.2"));
-
-        if (options.has("d")) {
-            LogUtil.setLevel(Level.toLevel(((String) options.valueOf("d")).toUpperCase()));
-        }
-
-        //start the main thread
-        ProxyDaemon daemon = new ProxyDaemon(options);
-        Thread mainThread = new Thread(daemon, "OSCProxy - Daemon");
-        mainThread.setDaemon(true);
-        mainThread.start();
-
-        while (mainThread.isAlive()) {
-            if (Thread.interrupted()) {
-                daemon.shutdown();
-                break;
-            }
-        }
-
-        LogUtil.info(resources.getString("shutdown.complete"));
-        return daemon.errorcode();
-    }
-
-}
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc;
+
+import com.xley.lfosc.util.LogUtil;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import org.apache.log4j.Level;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.ResourceBundle;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The primary OSC proxy class.
+ */
+public class OSCProxy {
+
+    /**
+     * The constant resources.
+     */
+    public static final ResourceBundle resources = ResourceBundle.getBundle(OSCProxy.class.getSimpleName(),
+            Locale.getDefault());
+    /**
+     * Seconds to wait for the daemon to stop once the proxy is interrupted.
+     */
+    private static final int SHUTDOWN_TIMEOUT = 10;
+
+    /**
+     * Instantiates a new OSC proxy.
+     */
+    public OSCProxy() {
+    }
+
+    /**
+     * The entry point of application.
+     *
+     * @param args the input arguments
+     */
+    public static void main(final String[] args) {
+        int errorcode = new OSCProxy().execute(args);
+        //drain the async log buffer before exiting
+        LogUtil.setAsync(0);
+        System.exit(errorcode);
+    }
+
+    /**
+     * Execution workflow for LightFactory-OSC Proxy.
+     *
+     * @param args the args normally from the command line
+     * @return the error code of the exiting process
+     */
+    public final int execute(final String[] args) {
+        OptionParser parser = parser();
+        OptionSet options = parser.parse(args);
+        if (options.has("?")) {
+            System.out.println(resources.getString("console.header.1"));
+            try {
+                parser.printHelpOn(System.out);
+            } catch (IOException e) {
+                LogUtil.error(e);
+            }
+            return 0;
+        }
+
+        System.out.println(resources.getString("console.header.1"));
+        System.out.println(resources.getString("console.header.2"));
+
+        return execute(create(options));
+    }
+
+    /**
+     * Run a proxy daemon until it stops or the calling thread is interrupted.
+     *
+     * @param daemon the daemon, see {@link #create(String...)}
+     * @return the error code of the daemon
+     */
+    public final int execute(final ProxyDaemon daemon) {
+        //start the main thread
+        daemon.start();
+        try {
+            daemon.terminated().get();
+        } catch (InterruptedException e) {
+            try {
+                daemon.stop().get(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS);
+            } catch (InterruptedException | ExecutionException | TimeoutException stopError) {
+                LogUtil.trace(this.getClass(), stopError);
+            } finally {
+                Thread.currentThread().interrupt();
+            }
+        } catch (ExecutionException e) {
+            LogUtil.trace(this.getClass(), e);
+        }
+
+        LogUtil.info(resources.getString("shutdown.complete"));
+        return daemon.errorcode();
+    }
+
+    /**
+     * Create a proxy daemon for embedding, the daemon is started with {@link ProxyDaemon#start()}.
+     *
+     * @param args the args as given on the command line
+     * @return the daemon, not yet started
+     */
+    public final ProxyDaemon create(final String... args) {
+        return create(parser().parse(args));
+    }
+
+    /**
+     * Create a proxy daemon.
+     *
+     * @param options the parsed options
+     * @return the daemon, not yet started
+     */
+    private ProxyDaemon create(final OptionSet options) {
+        if (options.has("d")) {
+            LogUtil.setLevel(Level.toLevel(((String) options.valueOf("d")).toUpperCase()));
+        }
+        if (options.has("log-async")) {
+            LogUtil.setAsync((int) options.valueOf("log-async"));
+        }
+        return new ProxyDaemon(options);
+    }
+
+    /**
+     * Build the command line parser.
+     *
+     * @return the parser
+     */
+    private OptionParser parser() {
+        return new OptionParser() {
+            {
+                accepts("p").withOptionalArg().ofType(Integer.class)
+                        .describedAs(resources.getString("option.lf.port.desc"))
+                        .defaultsTo(Integer.parseInt(resources.getString("option.lf.port.default")));
+                accepts("l").withOptionalArg().ofType(Integer.class)
+                        .describedAs(resources.getString("option.osc.port.desc"))
+                        .defaultsTo(Integer.parseInt(resources.getString("option.osc.port.default")));
+                accepts("m").withOptionalArg().ofType(String.class)
+                        .describedAs(resources.getString("option.mode.desc"))
+                        .defaultsTo(resources.getString("option.mode.default"));
+                accepts("bridge-io").withOptionalArg().ofType(String.class)
+                        .describedAs(resources.getString("option.bridge.io.desc"))
+                        .defaultsTo(resources.getString("option.bridge.io.default"));
+                accepts("thread-mode").withOptionalArg().ofType(String.class)
+                        .describedAs(resources.getString("option.thread.mode.desc"))
+                        .defaultsTo(resources.getString("option.thread.mode.default"));
+                accepts("bridge-selectors").withOptionalArg().ofType(Integer.class)
+                        .describedAs(resources.getString("option.bridge.selectors.desc"))
+                        .defaultsTo(Integer.parseInt(resources.getString("option.bridge.selectors.default")));
+                accepts("bridge-workers").withOptionalArg().ofType(Integer.class)
+                        .describedAs(resources.getString("option.bridge.workers.desc"))
+                        .defaultsTo(Integer.parseInt(resources.getString("option.bridge.workers.default")));
+                accepts("bridge-idle").withOptionalArg().ofType(Integer.class)
+                        .describedAs(resources.getString("option.bridge.idle.desc"))
+                        .defaultsTo(Integer.parseInt(resources.getString("option.bridge.idle.default")));
+                accepts("bridge-max-commands").withOptionalArg().ofType(Integer.class)
+                        .describedAs(resources.getString("option.bridge.max.commands.desc"))
+                        .defaultsTo(Integer.parseInt(resources.getString("option.bridge.max.commands.default")));
+                accepts("bridge-ack").withOptionalArg().ofType(String.class)
+                        .describedAs(resources.getString("option.bridge.ack.desc"))
+                        .defaultsTo(resources.getString("option.bridge.ack.default"));
+                accepts("bridge-ack-queue").withOptionalArg().ofType(Integer.class)
+                        .describedAs(resources.getString("option.bridge.ack.queue.desc"))
+                        .defaultsTo(Integer.parseInt(resources.getString("option.bridge.ack.queue.default")));
+                accepts("b").withOptionalArg().ofType(String.class)
+                        .describedAs(resources.getString("option.bind.address.desc"))
+                        .defaultsTo(resources.getString("option.bind.address.default"));
+                accepts("t").withOptionalArg().ofType(Integer.class)
+                        .describedAs(resources.getString("option.socket.threads.desc"))
+                        .defaultsTo(Integer.parseInt(resources.getString("option.socket.threads.default")));
+                accepts("lf-targets").withOptionalArg().ofType(String.class).withValuesSeparatedBy(',')
+                        .describedAs(resources.getString("option.lf.targets.desc"));
+                accepts("lf-pool-size").withOptionalArg().ofType(Integer.class)
+                        .describedAs(resources.getString("option.lf.pool.size.desc"))
+                        .defaultsTo(Integer.parseInt(resources.getString("option.lf.pool.size.default")));
+                accepts("lf-connect-timeout").withOptionalArg().ofType(Integer.class)
+                        .describedAs(resources.getString("option.lf.connect.timeout.desc"))
+                        .defaultsTo(Integer.parseInt(resources.getString("option.lf.connect.timeout.default")));
+                accepts("lf-read-timeout").withOptionalArg().ofType(Integer.class)
+                        .describedAs(resources.getString("option.lf.read.timeout.desc"))
+                        .defaultsTo(Integer.parseInt(resources.getString("option.lf.read.timeout.default")));
+                accepts("lf-breaker-failures").withOptionalArg().ofType(Integer.class)
+                        .describedAs(resources.getString("option.lf.breaker.failures.desc"))
+                        .defaultsTo(Integer.parseInt(resources.getString("option.lf.breaker.failures.default")));
+                accepts("lf-breaker-open").withOptionalArg().ofType(Integer.class)
+                        .describedAs(resources.getString("option.lf.breaker.open.desc"))
+                        .defaultsTo(Integer.parseInt(resources.getString("option.lf.breaker.open.default")));
+                accepts("lf-group").withOptionalArg().ofType(String.class)
+                        .describedAs(resources.getString("option.lf.group.desc"));
+                accepts("lf-group-policy").withOptionalArg().ofType(String.class)
+                        .describedAs(resources.getString("option.lf.group.policy.desc"))
+                        .defaultsTo(resources.getString("option.lf.group.policy.default"));
+                accepts("lf-pool-idle").withOptionalArg().ofType(Integer.class)
+                        .describedAs(resources.getString("option.lf.pool.idle.desc"))
+                        .defaultsTo(Integer.parseInt(resources.getString("option.lf.pool.idle.default")));
+                accepts("osc-lanes").withOptionalArg().ofType(Integer.class)
+                        .describedAs(resources.getString("option.osc.lanes.desc"))
+                        .defaultsTo(Integer.parseInt(resources.getString("option.osc.lanes.default")));
+                accepts("osc-tick").withOptionalArg().ofType(Integer.class)
+                        .describedAs(resources.getString("option.osc.tick.desc"))
+                        .defaultsTo(Integer.parseInt(resources.getString("option.osc.tick.default")));
+                accepts("osc-senders").withOptionalArg().ofType(Integer.class)
+                        .describedAs(resources.getString("option.osc.senders.desc"))
+                        .defaultsTo(Integer.parseInt(resources.getString("option.osc.senders.default")));
+                accepts("osc-queue").withOptionalArg().ofType(Integer.class)
+                        .describedAs(resources.getString("option.osc.queue.desc"))
+                        .defaultsTo(Integer.parseInt(resources.getString("option.osc.queue.default")));
+                accepts("osc-target-queue").withOptionalArg().ofType(Integer.class)
+                        .describedAs(resources.getString("option.osc.target.queue.desc"))
+                        .defaultsTo(Integer.parseInt(resources.getString("option.osc.target.queue.default")));
+                accepts("osc-batch").withOptionalArg().ofType(Integer.class)
+                        .describedAs(resources.getString("option.osc.batch.desc"))
+                        .defaultsTo(Integer.parseInt(resources.getString("option.osc.batch.default")));
+                accepts("osc-batch-window").withOptionalArg().ofType(Integer.class)
+                        .describedAs(resources.getString("option.osc.batch.window.desc"))
+                        .defaultsTo(Integer.parseInt(resources.getString("option.osc.batch.window.default")));
+                accepts("osc-coalesce").withOptionalArg().ofType(String.class).withValuesSeparatedBy(',')
+                        .describedAs(resources.getString("option.osc.coalesce.desc"));
+                accepts("osc-coalesce-hold").withOptionalArg().ofType(Integer.class)
+                        .describedAs(resources.getString("option.osc.coalesce.hold.desc"))
+                        .defaultsTo(Integer.parseInt(resources.getString("option.osc.coalesce.hold.default")));
+                accepts("osc-late").withOptionalArg().ofType(String.class)
+                        .describedAs(resources.getString("option.osc.late.desc"))
+                        .defaultsTo(resources.getString("option.osc.late.default"));
+                accepts("osc-overload").withOptionalArg().ofType(String.class)
+                        .describedAs(resources.getString("option.osc.overload.desc"))
+                        .defaultsTo(resources.getString("option.osc.overload.default"));
+                accepts("osc-rate").withOptionalArg().ofType(Integer.class)
+                        .describedAs(resources.getString("option.osc.rate.desc"))
+                        .defaultsTo(Integer.parseInt(resources.getString("option.osc.rate.default")));
+                accepts("osc-burst").withOptionalArg().ofType(Integer.class)
+                        .describedAs(resources.getString("option.osc.burst.desc"))
+                        .defaultsTo(Integer.parseInt(resources.getString("option.osc.burst.default")));
+                accepts("osc-receiver").withOptionalArg().ofType(String.class)
+                        .describedAs(resources.getString("option.osc.receiver.desc"))
+                        .defaultsTo(resources.getString("option.osc.receiver.default"));
+                accepts("osc-receive-buffer").withOptionalArg().ofType(Integer.class)
+                        .describedAs(resources.getString("option.osc.receive.buffer.desc"))
+                        .defaultsTo(Integer.parseInt(resources.getString("option.osc.receive.buffer.default")));
+                accepts("osc-reply").withOptionalArg().ofType(String.class)
+                        .describedAs(resources.getString("option.osc.reply.desc"));
+                accepts("osc-reply-port").withOptionalArg().ofType(Integer.class)
+                        .describedAs(resources.getString("option.osc.reply.port.desc"))
+                        .defaultsTo(Integer.parseInt(resources.getString("option.osc.reply.port.default")));
+                accepts("osc-encoder").withOptionalArg().ofType(String.class)
+                        .describedAs(resources.getString("option.osc.encoder.desc"))
+                        .defaultsTo(resources.getString("option.osc.encoder.default"));
+                accepts("dns-ttl").withOptionalArg().ofType(Integer.class)
+                        .describedAs(resources.getString("option.dns.ttl.desc"))
+                        .defaultsTo(Integer.parseInt(resources.getString("option.dns.ttl.default")));
+                accepts("dns-negative-ttl").withOptionalArg().ofType(Integer.class)
+                        .describedAs(resources.getString("option.dns.negative.ttl.desc"))
+                        .defaultsTo(Integer.parseInt(resources.getString("option.dns.negative.ttl.default")));
+                accepts("metrics-jmx").withOptionalArg().ofType(String.class)
+                        .describedAs(resources.getString("option.metrics.jmx.desc"))
+                        .defaultsTo(resources.getString("option.metrics.jmx.default"));
+                accepts("metrics-log").withOptionalArg().ofType(Integer.class)
+                        .describedAs(resources.getString("option.metrics.log.desc"))
+                        .defaultsTo(Integer.parseInt(resources.getString("option.metrics.log.default")));
+                accepts("log-async").withOptionalArg().ofType(Integer.class)
+                        .describedAs(resources.getString("option.log.async.desc"))
+                        .defaultsTo(Integer.parseInt(resources.getString("option.log.async.default")));
+                accepts("d").withOptionalArg().ofType(String.class)
+                        .describedAs(resources.getString("option.verbosity.desc"));
+                accepts("?").withOptionalArg().describedAs(resources.getString("option.help.desc"));
+            }
+        };
+    }
+
+}
@@ -1,185 +1,671 @@
-/*
- * Copyright (c) 2014. Peter Crossley (xley.com)
- *  Licensed to the Apache Software Foundation (ASF) under one
- *  or more contributor license agreements.  See the NOTICE file
- *  distributed with this work for additional information
- *  regarding copyright ownership.  The ASF licenses this file
- *  to you under the Apache License, Version 2.0 (the
- *  "License"); you may not use this file except in compliance
- *  with the License.  You may obtain a copy of the License at
- *
- *    http://www.apache.org/licenses/LICENSE-2.0
- *
- *  Unless required by applicable law or agreed to in writing,
- *  software distributed under the License is distributed on an
- *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
- *  KIND, either express or implied.  See the License for the
- *  specific language governing permissions and limitations
- *  under the License.
- */
-
-package com.xley.lfosc;
-
-import com.illposed.osc.OSCPortIn;
-import com.xley.lfosc.impl.LightFactoryProxyThread;
-import com.xley.lfosc.impl.OSCProxyListener;
-import com.xley.lfosc.util.LogUtil;
-import joptsimple.OptionSet;
-
-import java.io.IOException;
-import java.net.*;
-import java.text.MessageFormat;
-import java.util.Locale;
-import java.util.ResourceBundle;
-
-/**
- * The type Proxy daemon.
- */
-public class ProxyDaemon implements Runnable {
-
-    /**
-     * The constant resources.
-     */
-    public static final ResourceBundle resources = ResourceBundle.getBundle(ProxyDaemon.class.getSimpleName(),
-            Locale.getDefault());
-    private final Object monitor = true;
-
-    //configuration
-    private final OptionSet options;
-    OSCProxyListener listener = new OSCProxyListener();
-    //daemon vars
-    private Boolean shutdown = false;
-    private Thread runner;
-    private int errorcode = 0;
-    //connections
-    private ServerSocket serverSocket;
-    private OSCPortIn receiver = null;
-
-
-    /**
-     * Instantiates a new Proxy daemon.
-     *
-     * @param optionSet the options from the command line
-     */
-    protected ProxyDaemon(final OptionSet optionSet) {
-        this.options = optionSet;
-    }
-
-    /**
-     * Get the current error code.
-     *
-     * @return the error code
-     */
-    public final int errorcode() {
-        return this.errorcode;
-    }
-
-    /**
-     * Shutdown the OSC proxy.
-     */
-    public final void shutdown() {
-        synchronized (monitor) {
-            if (shutdown) {
-                return;
-            }
-        }
-        shutdown = true;
-        LogUtil.info(this.getClass(), resources.getString("shutdown.inprogress"));
-        runner.interrupt();
-        if (receiver != null) {
-            receiver.stopListening();
-            receiver.close();
-        }
-
-        if (listener != null) {
-            listener.shutdown();
-        }
-
-        if (serverSocket != null) {
-            try {
-                serverSocket.close();
-                serverSocket = null;
-            } catch (Throwable e) {
-                LogUtil.trace(e);
-            }
-        }
-    }
-
-    @Override
-    public final void run() {
-        runner = Thread.currentThread();
-
-        int portNumber = (int) options.valueOf("p");
-        int oscPortNumber = (int) options.valueOf("l");
-        int threads = (int) options.valueOf("t");
-        boolean oscEnabled = true;
-        boolean lfBridgeEnabled = true;
-
-        switch (String.valueOf(options.valueOf("m"))) {
-            case "osc":
-                oscEnabled = true;
-                lfBridgeEnabled = false;
-                break;
-            case "bridge":
-                oscEnabled = false;
-                lfBridgeEnabled = true;
-                break;
-            case "both":
-                break;
-            default:
-                LogUtil.error(this.getClass(), resources.getString("options.mode.invalid"));
-                errorcode = 1;
-                shutdown();
-                return;
-        }
-
-        String host = String.valueOf(options.valueOf("b"));
-        try {
-            //bindings
-            InetSocketAddress binding = new InetSocketAddress(InetAddress.getByName(host), portNumber);
-            InetSocketAddress oscBinding = new InetSocketAddress(InetAddress.getByName(host), oscPortNumber);
-
-            if (oscEnabled) {
-                LogUtil.info(this.getClass(), MessageFormat.format(resources.getString("osc.listener.on"), host, oscPortNumber));
-                receiver = new OSCPortIn(new DatagramSocket(oscBinding));
-                receiver.addListener(resources.getString("osc.listener.binding"), listener);
-                receiver.startListening();
-
-                //check to see if we are the only listener to run.
-                if (!lfBridgeEnabled) {
-                    while (!shutdown) {
-                        if (!receiver.isListening() || Thread.currentThread().isInterrupted()) {
-                            break;
-                        }
-                    }
-                }
-
-            }
-            if (lfBridgeEnabled) {
-                try {
-                    serverSocket = new ServerSocket(binding.getPort(), threads, binding.getAddress());
-                    LogUtil.info(this.getClass(), MessageFormat.format(resources.getString("lf.listener.on"), host, portNumber));
-                    while (!shutdown && !Thread.currentThread().isInterrupted()) {
-                        new LightFactoryProxyThread(serverSocket.accept()).start();
-                    }
-                } catch (IOException e) {
-                    if (!shutdown) {
-                        LogUtil.fatal(this.getClass(), MessageFormat.format(resources.getString("lf.listener.on.error"),
-                                host, portNumber), e);
-                        errorcode = 2;
-                    }
-                }
-            }
-
-        } catch (UnknownHostException e) {
-            LogUtil.fatal(this.getClass(), MessageFormat.format(resources.getString("daemon.error.unknown.host"), host), e);
-            errorcode = 2;
-        } catch (SocketException e) {
-            LogUtil.fatal(this.getClass(), MessageFormat.format(resources.getString("daemon.error.socket"), host), e);
-            LogUtil.fatal(this.getClass(), "", e);
-            errorcode = 2;
-        } finally {
-            shutdown();
-        }
-    }
-}
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc;
+
+import com.illposed.osc.OSCPortIn;
+import com.xley.lfosc.impl.EndpointCache;
+import com.xley.lfosc.impl.LightFactoryBridgeServer;
+import com.xley.lfosc.impl.LightFactoryProtocol;
+import com.xley.lfosc.impl.LightFactoryProxyThread;
+import com.xley.lfosc.impl.LightFactorySessionPool;
+import com.xley.lfosc.impl.OSCDatagramReceiver;
+import com.xley.lfosc.impl.OSCDatagramSender;
+import com.xley.lfosc.impl.OSCEncoder;
+import com.xley.lfosc.impl.OSCFanOut;
+import com.xley.lfosc.impl.OSCProxyListener;
+import com.xley.lfosc.impl.OSCReplier;
+import com.xley.lfosc.impl.ProxyMetrics;
+import com.xley.lfosc.util.CompletionPolicy;
+import com.xley.lfosc.util.LatePolicy;
+import com.xley.lfosc.util.LogUtil;
+import com.xley.lfosc.util.OverloadPolicy;
+import com.xley.lfosc.util.ThreadMode;
+import joptsimple.OptionSet;
+
+import java.io.IOException;
+import java.net.*;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The type Proxy daemon.
+ * <br>The daemon can be embedded, {@link #start()} runs it on its own thread and completes once all sockets are bound,
+ * {@link #stop()} shuts it down and completes with the error code once the daemon thread has finished.
+ */
+public class ProxyDaemon implements Runnable {
+
+    /**
+     * The constant resources.
+     */
+    public static final ResourceBundle resources = ResourceBundle.getBundle(ProxyDaemon.class.getSimpleName(),
+            Locale.getDefault());
+    /**
+     * Number of OSC lanes with virtual threads, unless set on the command line.
+     */
+    private static final int VIRTUAL_LANES = 256;
+    /**
+     * Seconds between checks that the OSC receiver is still listening in OSC only mode.
+     */
+    private static final int LISTEN_CHECK = 1;
+    private final Object monitor = true;
+
+    //configuration
+    private final OptionSet options;
+    OSCProxyListener listener = null;
+    LightFactorySessionPool sessions = null;
+    OSCDatagramSender sender = null;
+    EndpointCache endpoints = null;
+    /**
+     * The proxy metrics.
+     */
+    private final ProxyMetrics metrics = new ProxyMetrics();
+    //daemon vars
+    private volatile boolean shutdown = false;
+    private volatile Thread runner;
+    private volatile int errorcode = 0;
+    /**
+     * Completed once all sockets are bound, failed if the daemon stops before.
+     */
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
+    /**
+     * Completed with the error code once the daemon has stopped.
+     */
+    private final CompletableFuture<Integer> terminated = new CompletableFuture<>();
+    /**
+     * Released on shutdown.
+     */
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    /**
+     * The daemon thread, null until started.
+     */
+    private Thread thread;
+    //connections
+    private ServerSocket serverSocket;
+    private LightFactoryBridgeServer bridgeServer;
+    /**
+     * The LightFactory protocol of the bridge, null until the bridge starts.
+     */
+    private LightFactoryProtocol protocol;
+    private OSCPortIn receiver = null;
+    /**
+     * The NIO OSC receiver.
+     */
+    private OSCDatagramReceiver datagramReceiver = null;
+    /**
+     * The kind of threads for blocking work, null if the option is invalid.
+     */
+    private final ThreadMode threadMode;
+
+    /**
+     * Instantiates a new Proxy daemon.
+     *
+     * @param optionSet the options from the command line
+     */
+    protected ProxyDaemon(final OptionSet optionSet) {
+        this.options = optionSet;
+        ThreadMode mode;
+        try {
+            mode = ThreadMode.fromOption(String.valueOf(optionSet.valueOf("thread-mode")));
+        } catch (IllegalArgumentException e) {
+            mode = null;
+        }
+        this.threadMode = mode;
+    }
+
+    /**
+     * Get the kind of threads used for blocking work.
+     *
+     * @return the thread mode, {@link ThreadMode#PLATFORM} if virtual threads are not supported or the option is
+     * invalid
+     */
+    public final ThreadMode threadMode() {
+        return threadMode != null && threadMode.isSupported() ? threadMode : ThreadMode.PLATFORM;
+    }
+
+    /**
+     * Start the daemon on its own thread, starting an already started daemon has no effect.
+     *
+     * @return the readiness of the daemon, see {@link #ready()}
+     */
+    public final CompletableFuture<Void> start() {
+        synchronized (monitor) {
+            if (thread == null && !shutdown) {
+                if (threadMode() == ThreadMode.VIRTUAL) {
+                    thread = ThreadMode.VIRTUAL.factory("OSCProxy - Daemon ").newThread(this);
+                } else {
+                    thread = new Thread(this, "OSCProxy - Daemon");
+                }
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+        return ready;
+    }
+
+    /**
+     * Stop the daemon.
+     *
+     * @return the termination of the daemon, see {@link #terminated()}
+     */
+    public final CompletableFuture<Integer> stop() {
+        boolean started;
+        synchronized (monitor) {
+            started = thread != null;
+        }
+        shutdown();
+        if (!started) {
+            finish();
+        }
+        return terminated;
+    }
+
+    /**
+     * Get the readiness of the daemon.
+     *
+     * @return a future completed once the OSC receiver and the LightFactory listener are bound, completed
+     * exceptionally if the daemon stops before
+     */
+    public final CompletableFuture<Void> ready() {
+        return ready;
+    }
+
+    /**
+     * Get the termination of the daemon.
+     *
+     * @return a future completed with the error code once the daemon has stopped
+     */
+    public final CompletableFuture<Integer> terminated() {
+        return terminated;
+    }
+
+    /**
+     * Get the current error code.
+     *
+     * @return the error code
+     */
+    public final int errorcode() {
+        return this.errorcode;
+    }
+
+    /**
+     * Shutdown the OSC proxy, the daemon thread closes the components once it stops serving.
+     */
+    public final void shutdown() {
+        synchronized (monitor) {
+            if (shutdown) {
+                return;
+            }
+            shutdown = true;
+        }
+        LogUtil.info(this.getClass(), resources.getString("shutdown.inprogress"));
+        stopped.countDown();
+        if (runner != null && runner != Thread.currentThread()) {
+            runner.interrupt();
+        }
+        //unblock the daemon thread
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (Throwable e) {
+                LogUtil.trace(e);
+            }
+        }
+
+        if (bridgeServer != null) {
+            bridgeServer.close();
+        }
+    }
+
+    /**
+     * Check if the daemon is shutting down, called after a component is assigned so that either this returns true
+     * or {@link #shutdown()} sees the component.
+     *
+     * @return true once shutdown has started
+     */
+    private boolean stopping() {
+        synchronized (monitor) {
+            return shutdown;
+        }
+    }
+
+    /**
+     * Close every component started by the daemon thread, called once it stops serving.
+     */
+    private void close() {
+        if (receiver != null) {
+            receiver.stopListening();
+            receiver.close();
+        }
+        if (datagramReceiver != null) {
+            datagramReceiver.close();
+        }
+
+        if (listener != null) {
+            listener.shutdown();
+        }
+
+        if (sessions != null) {
+            sessions.shutdown();
+        }
+
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (Throwable e) {
+                LogUtil.trace(e);
+            }
+        }
+
+        if (bridgeServer != null) {
+            bridgeServer.close();
+        }
+
+        if (protocol != null) {
+            protocol.shutdown();
+        }
+
+        if (sender != null) {
+            sender.close();
+        }
+
+        if (endpoints != null) {
+            endpoints.shutdown();
+        }
+
+        metrics.close();
+    }
+
+    /**
+     * Get the proxy metrics.
+     *
+     * @return the metrics
+     */
+    public final ProxyMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Open LightFactory sessions for the targets given on the command line.
+     */
+    private void prewarm() {
+        int size = (int) options.valueOf("lf-pool-size");
+        for (Object target : options.valuesOf("lf-targets")) {
+            String value = String.valueOf(target).trim();
+            int separator = value.lastIndexOf(':');
+            try {
+                sessions.prewarm(value.substring(0, separator), Integer.parseInt(value.substring(separator + 1)), size);
+            } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                LogUtil.warn(this.getClass(), resources.getString("options.lf.target.invalid"), value);
+            }
+        }
+    }
+
+    /**
+     * Checks if the OSC receiver is running.
+     *
+     * @return true while OSC events are received
+     */
+    private boolean isListening() {
+        if (datagramReceiver != null) {
+            return datagramReceiver.isListening();
+        }
+        return receiver != null && receiver.isListening();
+    }
+
+    /**
+     * Complete the lifecycle futures of a stopped daemon.
+     */
+    private void finish() {
+        ready.completeExceptionally(new IllegalStateException(MessageFormat.format(
+                resources.getString("daemon.not.ready"), errorcode)));
+        terminated.complete(errorcode);
+    }
+
+    @Override
+    public final void run() {
+        runner = Thread.currentThread();
+        try {
+            serve();
+        } finally {
+            shutdown();
+            close();
+            finish();
+        }
+    }
+
+    /**
+     * Bind the sockets and serve until shutdown.
+     */
+    private void serve() {
+
+        int portNumber = (int) options.valueOf("p");
+        int oscPortNumber = (int) options.valueOf("l");
+        int threads = (int) options.valueOf("t");
+        boolean oscEnabled = true;
+        boolean lfBridgeEnabled = true;
+
+        switch (String.valueOf(options.valueOf("m"))) {
+            case "osc":
+                oscEnabled = true;
+                lfBridgeEnabled = false;
+                break;
+            case "bridge":
+                oscEnabled = false;
+                lfBridgeEnabled = true;
+                break;
+            case "both":
+                break;
+            default:
+                LogUtil.error(this.getClass(), resources.getString("options.mode.invalid"));
+                errorcode = 1;
+                shutdown();
+                return;
+        }
+
+        if (threadMode == null) {
+            LogUtil.error(this.getClass(), resources.getString("options.thread.mode.invalid"));
+            errorcode = 1;
+            shutdown();
+            return;
+        }
+        if (threadMode == ThreadMode.VIRTUAL && !threadMode.isSupported()) {
+            LogUtil.warn(this.getClass(), resources.getString("options.thread.mode.unsupported"));
+        }
+        boolean virtualThreads = threadMode == ThreadMode.VIRTUAL && threadMode.isSupported();
+
+        boolean nioBridge = !virtualThreads || options.has("bridge-io");
+        switch (String.valueOf(options.valueOf("bridge-io"))) {
+            case "nio":
+                break;
+            case "blocking":
+                nioBridge = false;
+                break;
+            default:
+                LogUtil.error(this.getClass(), resources.getString("options.bridge.io.invalid"));
+                errorcode = 1;
+                shutdown();
+                return;
+        }
+
+        boolean asyncAck = false;
+        switch (String.valueOf(options.valueOf("bridge-ack"))) {
+            case "sync":
+                break;
+            case "async":
+                asyncAck = true;
+                break;
+            default:
+                LogUtil.error(this.getClass(), resources.getString("options.bridge.ack.invalid"));
+                errorcode = 1;
+                shutdown();
+                return;
+        }
+
+        boolean nioReceiver = true;
+        switch (String.valueOf(options.valueOf("osc-receiver"))) {
+            case "nio":
+                break;
+            case "javaosc":
+                nioReceiver = false;
+                break;
+            default:
+                LogUtil.error(this.getClass(), resources.getString("options.osc.receiver.invalid"));
+                errorcode = 1;
+                shutdown();
+                return;
+        }
+
+        OverloadPolicy overload;
+        try {
+            overload = OverloadPolicy.fromOption(String.valueOf(options.valueOf("osc-overload")));
+        } catch (IllegalArgumentException e) {
+            LogUtil.error(this.getClass(), resources.getString("options.osc.overload.invalid"));
+            errorcode = 1;
+            shutdown();
+            return;
+        }
+
+        LatePolicy latePolicy;
+        try {
+            latePolicy = LatePolicy.fromOption(String.valueOf(options.valueOf("osc-late")));
+        } catch (IllegalArgumentException e) {
+            LogUtil.error(this.getClass(), resources.getString("options.osc.late.invalid"));
+            errorcode = 1;
+            shutdown();
+            return;
+        }
+
+        CompletionPolicy groupPolicy;
+        try {
+            groupPolicy = CompletionPolicy.fromOption(String.valueOf(options.valueOf("lf-group-policy")));
+        } catch (IllegalArgumentException e) {
+            LogUtil.error(this.getClass(), resources.getString("options.lf.group.policy.invalid"));
+            errorcode = 1;
+            shutdown();
+            return;
+        }
+        List<OSCFanOut> groups = new ArrayList<>();
+        for (Object group : options.valuesOf("lf-group")) {
+            try {
+                groups.add(OSCFanOut.fromOption(String.valueOf(group), groupPolicy));
+            } catch (IllegalArgumentException e) {
+                LogUtil.error(this.getClass(), MessageFormat.format(resources.getString("options.lf.group.invalid"),
+                        group));
+                errorcode = 1;
+                shutdown();
+                return;
+            }
+        }
+
+        boolean nativeEncoder = true;
+        switch (String.valueOf(options.valueOf("osc-encoder"))) {
+            case "native":
+                break;
+            case "javaosc":
+                nativeEncoder = false;
+                break;
+            default:
+                LogUtil.error(this.getClass(), resources.getString("options.osc.encoder.invalid"));
+                errorcode = 1;
+                shutdown();
+                return;
+        }
+
+        String replyAddress = null;
+        if (options.has("osc-reply")) {
+            replyAddress = String.valueOf(options.valueOf("osc-reply")).trim();
+            if (!OSCEncoder.isValidAddress(replyAddress, 0, replyAddress.length())) {
+                LogUtil.error(this.getClass(), MessageFormat.format(resources.getString("options.osc.reply.invalid"),
+                        replyAddress));
+                errorcode = 1;
+                shutdown();
+                return;
+            }
+        }
+
+        switch (String.valueOf(options.valueOf("metrics-jmx"))) {
+            case "on":
+                metrics.export();
+                break;
+            case "off":
+                break;
+            default:
+                LogUtil.error(this.getClass(), resources.getString("options.metrics.jmx.invalid"));
+                errorcode = 1;
+                shutdown();
+                return;
+        }
+        metrics.startReporting((int) options.valueOf("metrics-log"));
+
+        String host = String.valueOf(options.valueOf("b"));
+        try {
+            //bindings
+            InetSocketAddress binding = new InetSocketAddress(InetAddress.getByName(host), portNumber);
+            InetSocketAddress oscBinding = new InetSocketAddress(InetAddress.getByName(host), oscPortNumber);
+            endpoints = new EndpointCache(TimeUnit.SECONDS.toMillis((int) options.valueOf("dns-ttl")),
+                    TimeUnit.SECONDS.toMillis((int) options.valueOf("dns-negative-ttl")));
+
+            if (oscEnabled) {
+                sessions = new LightFactorySessionPool((int) options.valueOf("lf-pool-size"),
+                        TimeUnit.SECONDS.toMillis((int) options.valueOf("lf-pool-idle")), endpoints);
+                sessions.setTimeouts((int) options.valueOf("lf-connect-timeout"),
+                        (int) options.valueOf("lf-read-timeout"));
+                sessions.setCircuitBreaker((int) options.valueOf("lf-breaker-failures"),
+                        (int) options.valueOf("lf-breaker-open"));
+                metrics.setSessions(sessions);
+                int lanes = (int) options.valueOf("osc-lanes");
+                if (virtualThreads && !options.has("osc-lanes")) {
+                    lanes = VIRTUAL_LANES;
+                }
+                listener = new OSCProxyListener(sessions, lanes, (int) options.valueOf("osc-queue"), overload,
+                        virtualThreads ? ThreadMode.VIRTUAL : ThreadMode.PLATFORM);
+                List<String> coalesce = new ArrayList<>();
+                for (Object pattern : options.valuesOf("osc-coalesce")) {
+                    coalesce.add(String.valueOf(pattern).trim());
+                }
+                listener.setCoalescing(coalesce, (int) options.valueOf("osc-coalesce-hold"));
+                listener.setBatching((int) options.valueOf("osc-batch"), (int) options.valueOf("osc-batch-window"));
+                listener.setScheduling((int) options.valueOf("osc-tick"), latePolicy);
+                listener.setTargetLimit((int) options.valueOf("osc-target-queue"));
+                listener.setGroups(groups);
+                listener.setMetrics(metrics);
+                LogUtil.info(this.getClass(), resources.getString("osc.listener.on"), host, oscPortNumber);
+                if (nioReceiver) {
+                    datagramReceiver = new OSCDatagramReceiver(oscBinding, (int) options.valueOf("osc-receive-buffer"));
+                    datagramReceiver.addListener(resources.getString("osc.listener.binding"), listener);
+                    int rate = (int) options.valueOf("osc-rate");
+                    int burst = (int) options.valueOf("osc-burst");
+                    datagramReceiver.setRateLimit(rate, burst > 0 ? burst : rate);
+                    if (replyAddress != null) {
+                        listener.setReplies(new OSCReplier(datagramReceiver, replyAddress,
+                                (int) options.valueOf("osc-reply-port")));
+                    }
+                    datagramReceiver.startListening();
+                } else {
+                    if ((int) options.valueOf("osc-rate") > 0) {
+                        LogUtil.warn(this.getClass(), resources.getString("options.osc.rate.unsupported"));
+                    }
+                    if (replyAddress != null) {
+                        LogUtil.warn(this.getClass(), resources.getString("options.osc.reply.unsupported"));
+                    }
+                    receiver = new OSCPortIn(new DatagramSocket(oscBinding));
+                    receiver.addListener(resources.getString("osc.listener.binding"), listener);
+                    receiver.startListening();
+                }
+                prewarm();
+
+                //check to see if we are the only listener to run.
+                if (!lfBridgeEnabled) {
+                    if (stopping()) {
+                        return;
+                    }
+                    ready.complete(null);
+                    try {
+                        boolean listening = true;
+                        while (listening && !stopped.await(LISTEN_CHECK, TimeUnit.SECONDS)) {
+                            listening = isListening();
+                        }
+                    } catch (InterruptedException e) {
+                        LogUtil.trace(this.getClass(), e);
+                    }
+                }
+
+            }
+            if (lfBridgeEnabled) {
+                try {
+                    sender = new OSCDatagramSender((int) options.valueOf("osc-senders"));
+                    protocol = new LightFactoryProtocol(sender, endpoints, nativeEncoder);
+                    protocol.setMetrics(metrics);
+                    if (asyncAck) {
+                        protocol.setAsyncAcknowledge((int) options.valueOf("osc-senders"),
+                                (int) options.valueOf("bridge-ack-queue"));
+                    }
+                    int idleTimeout = (int) TimeUnit.SECONDS.toMillis((int) options.valueOf("bridge-idle"));
+                    int maxCommands = (int) options.valueOf("bridge-max-commands");
+                    if (nioBridge) {
+                        bridgeServer = new LightFactoryBridgeServer(protocol, (int) options.valueOf("bridge-selectors"),
+                                (int) options.valueOf("bridge-workers"),
+                                virtualThreads ? ThreadMode.VIRTUAL : ThreadMode.PLATFORM, idleTimeout, maxCommands);
+                        bridgeServer.bind(binding, threads);
+                        if (stopping()) {
+                            return;
+                        }
+                        LogUtil.info(this.getClass(), resources.getString("lf.listener.on"), host, portNumber);
+                        ready.complete(null);
+                        bridgeServer.run();
+                    } else {
+                        serverSocket = new ServerSocket(binding.getPort(), threads, binding.getAddress());
+                        if (stopping()) {
+                            return;
+                        }
+                        LogUtil.info(this.getClass(), resources.getString("lf.listener.on"), host, portNumber);
+                        ready.complete(null);
+                        ThreadFactory connections = virtualThreads
+                                ? ThreadMode.VIRTUAL.factory("LightFactoryProxyThread - ") : null;
+                        while (!shutdown && !Thread.currentThread().isInterrupted()) {
+                            LightFactoryProxyThread connection = new LightFactoryProxyThread(serverSocket.accept(),
+                                    protocol, idleTimeout, maxCommands);
+                            if (connections != null) {
+                                connections.newThread(connection).start();
+                            } else {
+                                connection.start();
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    if (!shutdown) {
+                        LogUtil.fatal(this.getClass(), MessageFormat.format(resources.getString("lf.listener.on.error"),
+                                host, portNumber), e);
+                        errorcode = 2;
+                    }
+                }
+            }
+
+        } catch (UnknownHostException e) {
+            LogUtil.fatal(this.getClass(), MessageFormat.format(resources.getString("daemon.error.unknown.host"), host), e);
+            errorcode = 2;
+        } catch (SocketException e) {
+            if (shutdown) {
+                LogUtil.trace(this.getClass(), e);
+                return;
+            }
+            LogUtil.fatal(this.getClass(), MessageFormat.format(resources.getString("daemon.error.socket"), host), e);
+            LogUtil.fatal(this.getClass(), "", e);
+            errorcode = 2;
+        } catch (IOException e) {
+            if (shutdown) {
+                LogUtil.trace(this.getClass(), e);
+                return;
+            }
+            LogUtil.fatal(this.getClass(), MessageFormat.format(resources.getString("daemon.error.socket"), host), e);
+            errorcode = 2;
+        } finally {
+            shutdown();
+        }
+    }
+}
@@ -0,0 +1,436 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.impl;
+
+import com.xley.lfosc.util.LogUtil;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of resolved OSC and LightFactory endpoints keyed by <i>host:port</i>.
+ * <br>Successful lookups are kept for the positive TTL and refreshed in the background shortly before they expire,
+ * failed lookups are kept for the negative TTL so a bad host name does not hit DNS for every message.
+ * <br>Concurrent misses for the same endpoint share a single lookup. Endpoints come from the network, so the cache
+ * holds at most {@value #MAX_ENTRIES} endpoints by default, a full cache drops its expired entries and then an
+ * arbitrary one to make room.
+ */
+public class EndpointCache {
+    /**
+     * The constant resources.
+     */
+    public static final ResourceBundle resources = ResourceBundle.getBundle(EndpointCache.class.getSimpleName(),
+            Locale.getDefault());
+
+    /**
+     * Default max number of cached endpoints.
+     */
+    public static final int MAX_ENTRIES = 1024;
+
+    /**
+     * Portion of the positive TTL after which a background refresh is started.
+     */
+    private static final double REFRESH_AHEAD = 0.8;
+
+    /**
+     * The cached endpoints.
+     */
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    /**
+     * Lookups in progress, later misses for the same endpoint wait for them.
+     */
+    private final ConcurrentMap<String, FutureTask<Entry>> lookups = new ConcurrentHashMap<>();
+    /**
+     * Resolves host names.
+     */
+    private final Resolver resolver;
+    /**
+     * Max number of cached endpoints.
+     */
+    private final int maxEntries;
+    /**
+     * Time in milliseconds a resolved endpoint is kept.
+     */
+    private final long positiveTtl;
+    /**
+     * Time in milliseconds a failed lookup is kept.
+     */
+    private final long negativeTtl;
+    /**
+     * Background refresh of endpoints about to expire.
+     */
+    private final ExecutorService refresher;
+
+    /**
+     * Lookups answered from the cache.
+     */
+    private final AtomicLong hits = new AtomicLong();
+    /**
+     * Lookups that had to be resolved.
+     */
+    private final AtomicLong misses = new AtomicLong();
+    /**
+     * Background refreshes completed.
+     */
+    private final AtomicLong refreshes = new AtomicLong();
+    /**
+     * Lookups that failed to resolve.
+     */
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * Instantiates a new endpoint cache.
+     *
+     * @param positiveTtl the time in milliseconds a resolved endpoint is kept
+     * @param negativeTtl the time in milliseconds a failed lookup is kept
+     */
+    public EndpointCache(final long positiveTtl, final long negativeTtl) {
+        this(positiveTtl, negativeTtl, new Resolver() {
+            @Override
+            public InetAddress resolve(final String host) throws UnknownHostException {
+                return InetAddress.getByName(host);
+            }
+        });
+    }
+
+    /**
+     * Instantiates a new endpoint cache with the given resolver.
+     *
+     * @param positiveTtl the time in milliseconds a resolved endpoint is kept
+     * @param negativeTtl the time in milliseconds a failed lookup is kept
+     * @param resolver    resolves host names
+     */
+    public EndpointCache(final long positiveTtl, final long negativeTtl, final Resolver resolver) {
+        this(positiveTtl, negativeTtl, resolver, MAX_ENTRIES);
+    }
+
+    /**
+     * Instantiates a new endpoint cache with the given resolver and size.
+     *
+     * @param positiveTtl the time in milliseconds a resolved endpoint is kept
+     * @param negativeTtl the time in milliseconds a failed lookup is kept
+     * @param resolver    resolves host names
+     * @param maxEntries  the max number of cached endpoints
+     */
+    public EndpointCache(final long positiveTtl, final long negativeTtl, final Resolver resolver,
+                         final int maxEntries) {
+        this.resolver = resolver;
+        this.maxEntries = maxEntries;
+        this.positiveTtl = positiveTtl;
+        this.negativeTtl = negativeTtl;
+        this.refresher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(r, "EndpointCache - Refresh");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Resolve an endpoint.
+     *
+     * @param host the host name or address
+     * @param port the port
+     * @return the resolved socket address
+     * @throws UnknownHostException if the host could not be resolved, possibly from the negative cache
+     */
+    public final InetSocketAddress resolve(final String host, final int port) throws UnknownHostException {
+        return resolve(host, port, System.currentTimeMillis());
+    }
+
+    /**
+     * Resolve an endpoint at the given time.
+     *
+     * @param host the host name or address
+     * @param port the port
+     * @param now  the current time in milliseconds
+     * @return the resolved socket address
+     * @throws UnknownHostException if the host could not be resolved, possibly from the negative cache
+     */
+    public final InetSocketAddress resolve(final String host, final int port, final long now)
+            throws UnknownHostException {
+        String key = host + ":" + port;
+        Entry entry = entries.get(key);
+        if (entry != null && now < entry.expires) {
+            hits.incrementAndGet();
+            if (entry.address == null) {
+                throw entry.error;
+            }
+            if (now >= entry.refreshAt && entry.refreshing.compareAndSet(false, true)) {
+                refresh(key, host, port, entry, now);
+            }
+            return entry.address;
+        }
+        misses.incrementAndGet();
+        entry = sharedLookup(key, host, port, now);
+        if (entry.address == null) {
+            throw entry.error;
+        }
+        return entry.address;
+    }
+
+    /**
+     * Gets the number of lookups answered from the cache.
+     *
+     * @return the hit count
+     */
+    public final long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of lookups that had to be resolved.
+     *
+     * @return the miss count
+     */
+    public final long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Gets the number of background refreshes completed.
+     *
+     * @return the refresh count
+     */
+    public final long getRefreshes() {
+        return refreshes.get();
+    }
+
+    /**
+     * Gets the number of lookups that failed to resolve.
+     *
+     * @return the failure count
+     */
+    public final long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Gets the number of cached endpoints.
+     *
+     * @return the cache size
+     */
+    public final int size() {
+        return entries.size();
+    }
+
+    /**
+     * Stop the background refresh.
+     */
+    public final void shutdown() {
+        refresher.shutdownNow();
+        LogUtil.debug(this.getClass(), resources.getString("endpoint.cache.stats"), hits.get(), misses.get(),
+                refreshes.get(), failures.get());
+    }
+
+    /**
+     * Resolve a missing or expired endpoint, joining a lookup of the same endpoint that is already in progress.
+     *
+     * @param key  the cache key
+     * @param host the host name or address
+     * @param port the port
+     * @param now  the current time in milliseconds
+     * @return the cached entry
+     */
+    private Entry sharedLookup(final String key, final String host, final int port, final long now) {
+        FutureTask<Entry> task = new FutureTask<>(new Callable<Entry>() {
+            @Override
+            public Entry call() {
+                Entry entry = lookup(host, port, now);
+                if (!entries.containsKey(key)) {
+                    makeRoom(now);
+                }
+                entries.put(key, entry);
+                return entry;
+            }
+        });
+        FutureTask<Entry> running = lookups.putIfAbsent(key, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                lookups.remove(key, task);
+            }
+        }
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return running.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    //lookup only throws unchecked exceptions
+                    throw (RuntimeException) e.getCause();
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Make room for a new endpoint in a full cache, expired entries go first, an arbitrary entry otherwise.
+     *
+     * @param now the current time in milliseconds
+     */
+    private void makeRoom(final long now) {
+        if (entries.size() < maxEntries) {
+            return;
+        }
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (now >= iterator.next().expires) {
+                iterator.remove();
+            }
+        }
+        iterator = entries.values().iterator();
+        while (entries.size() >= maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Refresh an endpoint in the background, a failed refresh keeps serving the current address until it expires.
+     *
+     * @param key     the cache key
+     * @param host    the host name or address
+     * @param port    the port
+     * @param current the entry being refreshed
+     * @param now     the current time in milliseconds
+     */
+    private void refresh(final String key, final String host, final int port, final Entry current, final long now) {
+        try {
+            refresher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Entry entry = lookup(host, port, now);
+                    if (entry.address != null) {
+                        entries.replace(key, current, entry);
+                        refreshes.incrementAndGet();
+                    } else {
+                        current.refreshing.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            current.refreshing.set(false);
+        }
+    }
+
+    /**
+     * Resolve the host name.
+     *
+     * @param host the host name or address
+     * @param port the port
+     * @param now  the current time in milliseconds
+     * @return a positive or negative cache entry
+     */
+    private Entry lookup(final String host, final int port, final long now) {
+        try {
+            InetSocketAddress address = new InetSocketAddress(resolver.resolve(host), port);
+            LogUtil.trace(this.getClass(), resources.getString("endpoint.cache.resolved"), host,
+                    address.getAddress().getHostAddress());
+            return new Entry(address, null, now + (long) (positiveTtl * REFRESH_AHEAD), now + positiveTtl);
+        } catch (UnknownHostException e) {
+            failures.incrementAndGet();
+            LogUtil.debug(this.getClass(), resources.getString("endpoint.cache.failed"), host, e.getMessage());
+            return new Entry(null, e, Long.MAX_VALUE, now + negativeTtl);
+        }
+    }
+
+    /**
+     * Resolves host names, e.g. with DNS.
+     */
+    public interface Resolver {
+        /**
+         * Resolve a host name.
+         *
+         * @param host the host name or address
+         * @return the address
+         * @throws UnknownHostException if the host could not be resolved
+         */
+        InetAddress resolve(String host) throws UnknownHostException;
+    }
+
+    /**
+     * A cached lookup result.
+     */
+    private static final class Entry {
+        /**
+         * The resolved address, null for a failed lookup.
+         */
+        private final InetSocketAddress address;
+        /**
+         * The lookup failure, null for a resolved address.
+         */
+        private final UnknownHostException error;
+        /**
+         * Time after which a background refresh is started.
+         */
+        private final long refreshAt;
+        /**
+         * Time after which the entry is no longer used.
+         */
+        private final long expires;
+        /**
+         * True while a background refresh is running.
+         */
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        /**
+         * Instantiates a new entry.
+         *
+         * @param address   the resolved address
+         * @param error     the lookup failure
+         * @param refreshAt the refresh time
+         * @param expires   the expiry time
+         */
+        private Entry(final InetSocketAddress address, final UnknownHostException error, final long refreshAt,
+                      final long expires) {
+            this.address = address;
+            this.error = error;
+            this.refreshAt = refreshAt;
+            this.expires = expires;
+        }
+    }
+}
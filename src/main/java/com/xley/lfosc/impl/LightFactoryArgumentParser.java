@@ -0,0 +1,584 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.impl;
+
+import com.illposed.osc.OSCImpulse;
+
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Typing of LightFactory command arguments.
+ * <br><b>Typed:</b> an argument starting with an OSC type tag and a colon has that type, e.g. <i>h:42 d:0.5
+ * s:123 T: N:</i>. The types are the OSC 1.0 types <i>i f s b</i> and the OSC 1.1 types <i>h d t S c r m T F N
+ * I</i>:
+ * <ul>
+ * <li><i>i h</i> decimal or <i>0x</i> hexadecimal integers</li>
+ * <li><i>f d</i> decimal numbers, <i>NaN</i> and <i>Infinity</i></li>
+ * <li><i>s S</i> the text after the colon</li>
+ * <li><i>c</i> a single character</li>
+ * <li><i>r m</i> 8 hexadecimal digits, RGBA color or port, status, data1 and data2 of a MIDI message</li>
+ * <li><i>b</i> an even number of hexadecimal digits</li>
+ * <li><i>t</i> milliseconds since 1970</li>
+ * <li><i>T F N I</i> nothing after the colon</li>
+ * </ul>
+ * A typed argument whose value does not match its type is a string of the whole argument, so legacy text such as
+ * <i>c:\show</i> or <i>i:abc</i> is sent unchanged.
+ * <br><b>Untyped:</b> any other argument is an int32 if it is a decimal integer in range, a float32 if it is a decimal
+ * number, <i>NaN</i> or <i>Infinity</i>, otherwise a string.
+ * <br>Arguments are classified in a single scan that does not throw, the number parsers of the JDK are only called
+ * for input the scan has validated. Usage follows {@link LightFactoryCommandParser}, {@link #parse} an argument and
+ * read it with {@link #encode(OSCEncoder)} or {@link #toJava()}. A parser instance is not thread safe.
+ */
+public final class LightFactoryArgumentParser {
+
+    /**
+     * The type tags of the typed syntax.
+     */
+    private static final String TYPES = "ihfdsScrmbtTFNI";
+    /**
+     * Length of a type prefix.
+     */
+    private static final int PREFIX = 2;
+    /**
+     * Largest mantissa converted to a float without rounding, 2^24.
+     */
+    private static final long FLOAT_EXACT_MANTISSA = 1L << 24;
+    /**
+     * Powers of ten that are exact floats.
+     */
+    private static final float[] FLOAT_POWERS_OF_TEN = {
+            1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+    };
+    /**
+     * Largest mantissa converted to a double without rounding, 2^53.
+     */
+    private static final long DOUBLE_EXACT_MANTISSA = 1L << 53;
+    /**
+     * Powers of ten that are exact doubles.
+     */
+    private static final double[] DOUBLE_POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18,
+            1e19, 1e20, 1e21, 1e22
+    };
+    /**
+     * Number of hexadecimal digits of a color or MIDI argument.
+     */
+    private static final int PACKED_DIGITS = 8;
+
+    /**
+     * The text holding the argument.
+     */
+    private CharSequence source = "";
+    /**
+     * Start of the value, after a type prefix.
+     */
+    private int valueStart;
+    /**
+     * End of the value.
+     */
+    private int valueEnd;
+    /**
+     * Type tag of the argument.
+     */
+    private char type;
+    /**
+     * Value of integer, character, color, MIDI and time tag arguments.
+     */
+    private long bits;
+    /**
+     * Value of float32 arguments.
+     */
+    private float floatValue;
+    /**
+     * Value of float64 arguments.
+     */
+    private double doubleValue;
+    /**
+     * Data of blob arguments.
+     */
+    private byte[] blob = new byte[64];
+    /**
+     * Length of the blob data.
+     */
+    private int blobLength;
+
+    /**
+     * Result of the last number scan: sign.
+     */
+    private boolean negative;
+    /**
+     * Result of the last number scan: significant digits, without the decimal point.
+     */
+    private long mantissa;
+    /**
+     * Result of the last number scan: power of ten the mantissa is scaled by.
+     */
+    private int scale;
+    /**
+     * Result of the last number scan: no fraction, exponent or type suffix.
+     */
+    private boolean integral;
+
+    /**
+     * Parse an argument.
+     *
+     * @param text  the text holding the argument
+     * @param start the start of the argument
+     * @param end   the end of the argument
+     */
+    public void parse(final CharSequence text, final int start, final int end) {
+        this.source = text;
+        this.valueStart = start;
+        this.valueEnd = end;
+        if (end - start >= PREFIX && text.charAt(start + 1) == ':' && TYPES.indexOf(text.charAt(start)) >= 0) {
+            type = text.charAt(start);
+            valueStart = start + PREFIX;
+            if (!parseTyped()) {
+                type = 's';
+                valueStart = start;
+            }
+            return;
+        }
+        parseUntyped();
+    }
+
+    /**
+     * Parse a whole text as an argument.
+     *
+     * @param text the argument
+     */
+    public void parse(final CharSequence text) {
+        parse(text, 0, text.length());
+    }
+
+    /**
+     * Gets the type tag of the argument.
+     *
+     * @return the OSC type tag
+     */
+    public char type() {
+        return type;
+    }
+
+    /**
+     * Add the argument to an OSC message.
+     *
+     * @param encoder the encoder of the message
+     */
+    public void encode(final OSCEncoder encoder) {
+        switch (type) {
+            case 'i':
+                encoder.addInt((int) bits);
+                break;
+            case 'h':
+                encoder.addLong(bits);
+                break;
+            case 'f':
+                encoder.addFloat(floatValue);
+                break;
+            case 'd':
+                encoder.addDouble(doubleValue);
+                break;
+            case 'S':
+                encoder.addSymbol(source, valueStart, valueEnd);
+                break;
+            case 'c':
+                encoder.addChar((char) bits);
+                break;
+            case 'r':
+                encoder.addColor((int) bits);
+                break;
+            case 'm':
+                encoder.addMidi((int) bits);
+                break;
+            case 'b':
+                encoder.addBlob(blob, 0, blobLength);
+                break;
+            case 't':
+                encoder.addTimeTag(OSCEncoder.toNtpTime(bits));
+                break;
+            case 'T':
+                encoder.addBoolean(true);
+                break;
+            case 'F':
+                encoder.addBoolean(false);
+                break;
+            case 'N':
+                encoder.addNil();
+                break;
+            case 'I':
+                encoder.addImpulse();
+                break;
+            default:
+                encoder.addString(source, valueStart, valueEnd);
+                break;
+        }
+    }
+
+    /**
+     * Gets the argument as the Java type written by the javaosc serializer. Colors and MIDI messages are Integers
+     * and symbols are Strings, javaosc has no types for them.
+     *
+     * @return the argument
+     */
+    public Object toJava() {
+        switch (type) {
+            case 'i':
+            case 'r':
+            case 'm':
+                return (int) bits;
+            case 'h':
+                return bits;
+            case 'f':
+                return floatValue;
+            case 'd':
+                return doubleValue;
+            case 'c':
+                return (char) bits;
+            case 'b':
+                return Arrays.copyOf(blob, blobLength);
+            case 't':
+                return new Date(bits);
+            case 'T':
+                return Boolean.TRUE;
+            case 'F':
+                return Boolean.FALSE;
+            case 'N':
+                return null;
+            case 'I':
+                return OSCImpulse.INSTANCE;
+            default:
+                return source.subSequence(valueStart, valueEnd).toString();
+        }
+    }
+
+    /**
+     * Classify an untyped argument.
+     */
+    private void parseUntyped() {
+        if (scanNumber(valueStart, valueEnd)) {
+            if (integral && scale == 0) {
+                long value = negative ? -mantissa : mantissa;
+                if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                    type = 'i';
+                    bits = value;
+                    return;
+                }
+            }
+            type = 'f';
+            floatValue = toFloat();
+            return;
+        }
+        if (scanSpecial(valueStart, valueEnd)) {
+            type = 'f';
+            floatValue = (float) doubleValue;
+            return;
+        }
+        type = 's';
+    }
+
+    /**
+     * Parse the value of a typed argument.
+     *
+     * @return false if the value does not match the type
+     */
+    private boolean parseTyped() {
+        int length = valueEnd - valueStart;
+        switch (type) {
+            case 'i':
+                return parseInteger(Integer.MIN_VALUE, Integer.MAX_VALUE, PACKED_DIGITS);
+            case 'h':
+                return parseInteger(Long.MIN_VALUE, Long.MAX_VALUE, PACKED_DIGITS * 2);
+            case 't':
+                return parseInteger(Long.MIN_VALUE, Long.MAX_VALUE, 0);
+            case 'f':
+                if (scanNumber(valueStart, valueEnd)) {
+                    floatValue = toFloat();
+                    return true;
+                }
+                if (scanSpecial(valueStart, valueEnd)) {
+                    floatValue = (float) doubleValue;
+                    return true;
+                }
+                return false;
+            case 'd':
+                if (scanNumber(valueStart, valueEnd)) {
+                    doubleValue = toDouble();
+                    return true;
+                }
+                return scanSpecial(valueStart, valueEnd);
+            case 'c':
+                bits = length == 1 ? source.charAt(valueStart) : 0;
+                return length == 1 && bits <= 0xFF;
+            case 'r':
+            case 'm':
+                return length == PACKED_DIGITS && parseHex(valueStart, valueEnd);
+            case 'b':
+                return parseBlob();
+            case 'T':
+            case 'F':
+            case 'N':
+            case 'I':
+                return length == 0;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Scan a decimal number with an optional sign, fraction, exponent and <i>f</i> or <i>d</i> type suffix, as
+     * accepted by {@link Float#parseFloat(String)}.
+     *
+     * @param start the start of the number
+     * @param end   the end of the number
+     * @return true if the text is a decimal number
+     */
+    private boolean scanNumber(final int start, final int end) {
+        int i = start;
+        negative = false;
+        mantissa = 0;
+        scale = 0;
+        integral = true;
+        if (i < end && (source.charAt(i) == '-' || source.charAt(i) == '+')) {
+            negative = source.charAt(i) == '-';
+            i++;
+        }
+        int digits = 0;
+        for (; i < end && isDigit(source.charAt(i)); i++) {
+            if (mantissa < Long.MAX_VALUE / 100) {
+                mantissa = mantissa * 10 + (source.charAt(i) - '0');
+            } else {
+                scale++;
+            }
+            digits++;
+        }
+        if (i < end && source.charAt(i) == '.') {
+            integral = false;
+            for (i++; i < end && isDigit(source.charAt(i)); i++) {
+                if (mantissa < Long.MAX_VALUE / 100) {
+                    mantissa = mantissa * 10 + (source.charAt(i) - '0');
+                    scale--;
+                }
+                digits++;
+            }
+        }
+        if (digits == 0) {
+            return false;
+        }
+        if (i < end && (source.charAt(i) == 'e' || source.charAt(i) == 'E')) {
+            integral = false;
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (source.charAt(i) == '-' || source.charAt(i) == '+')) {
+                negativeExponent = source.charAt(i) == '-';
+                i++;
+            }
+            int exponentStart = i;
+            int exponent = 0;
+            for (; i < end && isDigit(source.charAt(i)); i++) {
+                exponent = Math.min(exponent * 10 + (source.charAt(i) - '0'), 1000);
+            }
+            if (i == exponentStart) {
+                return false;
+            }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+        if (i + 1 == end && "fFdD".indexOf(source.charAt(i)) >= 0) {
+            integral = false;
+            i++;
+        }
+        return i == end;
+    }
+
+    /**
+     * Scan <i>NaN</i> and <i>Infinity</i> with an optional sign into {@link #doubleValue}.
+     *
+     * @param start the start of the text
+     * @param end   the end of the text
+     * @return true if the text is NaN or Infinity
+     */
+    private boolean scanSpecial(final int start, final int end) {
+        int i = start;
+        boolean minus = false;
+        if (i < end && (source.charAt(i) == '-' || source.charAt(i) == '+')) {
+            minus = source.charAt(i) == '-';
+            i++;
+        }
+        if (regionEquals(i, end, "NaN")) {
+            doubleValue = Double.NaN;
+            return true;
+        }
+        if (regionEquals(i, end, "Infinity")) {
+            doubleValue = minus ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Convert the scanned number to a float.
+     *
+     * @return the float closest to the number
+     */
+    private float toFloat() {
+        if (mantissa < FLOAT_EXACT_MANTISSA && Math.abs(scale) < FLOAT_POWERS_OF_TEN.length) {
+            //exact mantissa and power of ten, a single rounding gives the same result as Float.parseFloat
+            float value = scale < 0 ? mantissa / FLOAT_POWERS_OF_TEN[-scale] : mantissa * FLOAT_POWERS_OF_TEN[scale];
+            return negative ? -value : value;
+        }
+        //validated by the scan, does not throw
+        return Float.parseFloat(source.subSequence(valueStart, valueEnd).toString());
+    }
+
+    /**
+     * Convert the scanned number to a double.
+     *
+     * @return the double closest to the number
+     */
+    private double toDouble() {
+        if (mantissa < DOUBLE_EXACT_MANTISSA && Math.abs(scale) < DOUBLE_POWERS_OF_TEN.length) {
+            double value = scale < 0 ? mantissa / DOUBLE_POWERS_OF_TEN[-scale]
+                    : mantissa * DOUBLE_POWERS_OF_TEN[scale];
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(source.subSequence(valueStart, valueEnd).toString());
+    }
+
+    /**
+     * Parse a decimal integer in range, or a <i>0x</i> hexadecimal integer of up to the given number of digits
+     * taken as unsigned, into {@link #bits}.
+     *
+     * @param min       the smallest decimal value
+     * @param max       the largest decimal value
+     * @param hexDigits the max number of hexadecimal digits, 0 for decimal only
+     * @return true if the value is an integer in range
+     */
+    private boolean parseInteger(final long min, final long max, final int hexDigits) {
+        int i = valueStart;
+        int end = valueEnd;
+        if (hexDigits > 0 && end - i > PREFIX && source.charAt(i) == '0'
+                && (source.charAt(i + 1) == 'x' || source.charAt(i + 1) == 'X')) {
+            return end - i - PREFIX <= hexDigits && parseHex(i + PREFIX, end);
+        }
+        boolean minus = false;
+        if (i < end && (source.charAt(i) == '-' || source.charAt(i) == '+')) {
+            minus = source.charAt(i) == '-';
+            i++;
+        }
+        if (i == end) {
+            return false;
+        }
+        //accumulate negatively like Long.parseLong, so Long.MIN_VALUE fits
+        long limit = minus ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long value = 0;
+        for (; i < end; i++) {
+            char c = source.charAt(i);
+            if (!isDigit(c) || value < limit / 10) {
+                return false;
+            }
+            value *= 10;
+            if (value < limit + (c - '0')) {
+                return false;
+            }
+            value -= c - '0';
+        }
+        value = minus ? value : -value;
+        bits = value;
+        return value >= min && value <= max;
+    }
+
+    /**
+     * Parse hexadecimal digits into {@link #bits}.
+     *
+     * @param start the start of the digits
+     * @param end   the end of the digits
+     * @return true if there are only hexadecimal digits
+     */
+    private boolean parseHex(final int start, final int end) {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(source.charAt(i), 16);
+            if (digit < 0 || source.charAt(i) > 'f') {
+                return false;
+            }
+            value = (value << 4) | digit;
+        }
+        bits = value;
+        return end > start;
+    }
+
+    /**
+     * Parse hexadecimal blob data.
+     *
+     * @return true if the value is pairs of hexadecimal digits
+     */
+    private boolean parseBlob() {
+        int length = valueEnd - valueStart;
+        if ((length & 1) != 0) {
+            return false;
+        }
+        blobLength = length >> 1;
+        if (blob.length < blobLength) {
+            blob = new byte[Integer.highestOneBit(blobLength) << 1];
+        }
+        for (int i = 0; i < blobLength; i++) {
+            int high = Character.digit(source.charAt(valueStart + 2 * i), 16);
+            int low = Character.digit(source.charAt(valueStart + 2 * i + 1), 16);
+            if (high < 0 || low < 0 || source.charAt(valueStart + 2 * i) > 'f'
+                    || source.charAt(valueStart + 2 * i + 1) > 'f') {
+                return false;
+            }
+            blob[i] = (byte) ((high << 4) | low);
+        }
+        return true;
+    }
+
+    /**
+     * Check if a region equals a text.
+     *
+     * @param start the start of the region
+     * @param end   the end of the region
+     * @param text  the text
+     * @return true if the region equals the text
+     */
+    private boolean regionEquals(final int start, final int end, final String text) {
+        if (end - start != text.length()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (source.charAt(start + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Digit check.
+     *
+     * @param c the character
+     * @return true for an ASCII digit
+     */
+    private static boolean isDigit(final char c) {
+        return c >= '0' && c <= '9';
+    }
+}
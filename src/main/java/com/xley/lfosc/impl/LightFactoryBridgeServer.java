@@ -0,0 +1,646 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.impl;
+
+import com.xley.lfosc.util.BufferPool;
+import com.xley.lfosc.util.LogUtil;
+import com.xley.lfosc.util.OverloadPolicy;
+import com.xley.lfosc.util.StripedExecutor;
+import com.xley.lfosc.util.ThreadMode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Selector based LightFactory bridge listener.
+ * <br>A single acceptor hands new connections to a fixed set of event loops, each event loop reads, frames and
+ * answers LightFactory command lines for its connections without blocking, replacing a thread per connection.
+ * <br>Complete lines are processed on a {@link StripedExecutor} keyed by connection, so a command that blocks, e.g. on
+ * a DNS lookup, only holds up its own connection and the lines of one connection still run in order. The response
+ * is handed back to the event loop of the connection for writing.
+ * <br>A connection may carry any number of pipelined commands, the responses are written in request order and the
+ * connection is closed by the client, after the idle timeout or once the per session command limit is reached.
+ */
+public class LightFactoryBridgeServer implements Runnable, Closeable {
+    /**
+     * The constant resources.
+     */
+    public static final ResourceBundle resources = ResourceBundle.getBundle(LightFactoryBridgeServer.class.
+            getSimpleName(), Locale.getDefault());
+
+    /**
+     * Size of the read buffer of each event loop.
+     */
+    private static final int READ_BUFFER_SIZE = 8192;
+    /**
+     * Size of the pooled line buffers.
+     */
+    private static final int LINE_BUFFER_SIZE = 1024;
+    /**
+     * Max number of idle line buffers kept.
+     */
+    private static final int LINE_BUFFERS_POOLED = 256;
+    /**
+     * Longest command line accepted.
+     */
+    private static final int MAX_LINE = 65536;
+    /**
+     * Longest time in milliseconds an event loop waits before checking for idle connections.
+     */
+    private static final long IDLE_CHECK = 1000;
+    /**
+     * Max number of lines waiting on each worker lane.
+     */
+    private static final int WORKER_QUEUE = 1000;
+    /**
+     * Time in milliseconds the workers get to finish their lines on close.
+     */
+    private static final long WORKER_DRAIN = 1000;
+
+    /**
+     * The protocol handling the LightFactory commands.
+     */
+    private final LightFactoryProtocol protocol;
+    /**
+     * The connection event loops.
+     */
+    private final EventLoop[] loops;
+    /**
+     * The workers processing complete lines, one lane per group of connections.
+     */
+    private final StripedExecutor workers;
+    /**
+     * Time in milliseconds a connection may stay idle, 0 to wait forever.
+     */
+    private final long idleTimeout;
+    /**
+     * Max number of commands per connection, 0 for no limit.
+     */
+    private final int maxCommands;
+    /**
+     * Buffers for partially received lines.
+     */
+    private final BufferPool lineBuffers = new BufferPool(LINE_BUFFER_SIZE, LINE_BUFFERS_POOLED, false);
+    /**
+     * Number of open connections.
+     */
+    private final AtomicInteger connections = new AtomicInteger();
+    /**
+     * Sequence of the connections, spreads consecutive connections over the worker lanes.
+     */
+    private final AtomicInteger sequence = new AtomicInteger();
+    /**
+     * The charset of the command lines.
+     */
+    private final Charset charset = Charset.defaultCharset();
+
+    /**
+     * The listening channel.
+     */
+    private ServerSocketChannel serverChannel;
+    /**
+     * The acceptor selector.
+     */
+    private Selector acceptSelector;
+    /**
+     * Next event loop to receive a connection.
+     */
+    private int next = 0;
+    /**
+     * Server state.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Instantiates a new LightFactory bridge server.
+     *
+     * @param protocol    the shared LightFactory protocol
+     * @param selectors   the number of event loops
+     * @param workers     the number of threads processing command lines
+     * @param mode        the kind of worker threads
+     * @param idleTimeout the time in milliseconds a connection may stay idle, 0 to wait forever
+     * @param maxCommands the max number of commands per connection, 0 for no limit
+     */
+    public LightFactoryBridgeServer(final LightFactoryProtocol protocol, final int selectors, final int workers,
+                                    final ThreadMode mode, final long idleTimeout, final int maxCommands) {
+        this.protocol = protocol;
+        this.loops = new EventLoop[Math.max(1, selectors)];
+        this.workers = new StripedExecutor(LightFactoryBridgeServer.class.getSimpleName() + " - Worker", workers,
+                WORKER_QUEUE, OverloadPolicy.REJECT, mode);
+        this.idleTimeout = idleTimeout;
+        this.maxCommands = maxCommands;
+    }
+
+    /**
+     * Bind the listening socket and start the event loops.
+     *
+     * @param address the bind address
+     * @param backlog the accept backlog
+     * @throws IOException if the socket could not be bound
+     */
+    public final void bind(final InetSocketAddress address, final int backlog) throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.configureBlocking(false);
+            serverChannel.bind(address, backlog);
+            acceptSelector = Selector.open();
+            serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new EventLoop(i + 1);
+                loops[i].start();
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Accept connections until the server is closed.
+     */
+    @Override
+    public final void run() {
+        try {
+            while (!closed) {
+                acceptSelector.select();
+                acceptSelector.selectedKeys().clear();
+                SocketChannel channel;
+                while (!closed && (channel = serverChannel.accept()) != null) {
+                    try {
+                        channel.configureBlocking(false);
+                        channel.socket().setTcpNoDelay(true);
+                        loops[Math.floorMod(next++, loops.length)].register(channel);
+                    } catch (IOException e) {
+                        LogUtil.error(this.getClass(), resources.getString("lf.bridge.connection.error"), e);
+                        closeQuietly(channel);
+                    }
+                }
+            }
+        } catch (ClosedSelectorException | ClosedChannelException e) {
+            LogUtil.trace(this.getClass(), e);
+        } catch (IOException e) {
+            if (!closed) {
+                LogUtil.error(this.getClass(), resources.getString("lf.bridge.error"), e);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of open connections.
+     *
+     * @return the connection count
+     */
+    public final int getActiveConnections() {
+        return connections.get();
+    }
+
+    @Override
+    public final void close() {
+        closed = true;
+        closeQuietly(acceptSelector);
+        closeQuietly(serverChannel);
+        for (EventLoop loop : loops) {
+            if (loop != null) {
+                loop.selector.wakeup();
+            }
+        }
+        try {
+            workers.shutdown(WORKER_DRAIN, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            LogUtil.trace(this.getClass(), e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Close without reporting errors.
+     *
+     * @param closeable the resource to close
+     */
+    private void closeQuietly(final Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                LogUtil.trace(this.getClass(), e);
+            }
+        }
+    }
+
+    /**
+     * A selector thread serving a share of the connections.
+     */
+    private final class EventLoop extends Thread {
+        /**
+         * The selector of this loop.
+         */
+        private final Selector selector;
+        /**
+         * Connections waiting to be registered with the selector.
+         */
+        private final Queue<SocketChannel> registrations = new ConcurrentLinkedQueue<>();
+        /**
+         * Connections with responses handed back by the workers.
+         */
+        private final Queue<Connection> ready = new ConcurrentLinkedQueue<>();
+        /**
+         * The read buffer shared by all connections of this loop.
+         */
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+        /**
+         * Instantiates a new event loop.
+         *
+         * @param id the loop id
+         * @throws IOException if the selector could not be opened
+         */
+        private EventLoop(final int id) throws IOException {
+            super("LightFactoryBridgeServer - " + id);
+            setDaemon(true);
+            selector = Selector.open();
+        }
+
+        /**
+         * Hand a new connection to this loop.
+         *
+         * @param channel the accepted channel
+         */
+        private void register(final SocketChannel channel) {
+            registrations.add(channel);
+            selector.wakeup();
+        }
+
+        /**
+         * Hand a connection with a processed line back to this loop.
+         *
+         * @param connection the connection
+         */
+        private void ready(final Connection connection) {
+            ready.add(connection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                long timeout = idleTimeout > 0 ? Math.min(idleTimeout, IDLE_CHECK) : 0;
+                while (!closed) {
+                    selector.select(timeout);
+                    SocketChannel channel;
+                    while ((channel = registrations.poll()) != null) {
+                        Connection connection = new Connection(channel, this);
+                        try {
+                            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                        } catch (ClosedChannelException e) {
+                            connection.close();
+                        }
+                    }
+                    Connection processed;
+                    while ((processed = ready.poll()) != null) {
+                        try {
+                            if (processed.key.isValid()) {
+                                processed.flush();
+                            }
+                        } catch (IOException e) {
+                            LogUtil.error(LightFactoryBridgeServer.class,
+                                    resources.getString("lf.bridge.connection.error"), e);
+                            processed.close();
+                        }
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                connection.read(readBuffer);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.flush();
+                            }
+                        } catch (IOException e) {
+                            LogUtil.error(LightFactoryBridgeServer.class,
+                                    resources.getString("lf.bridge.connection.error"), e);
+                            connection.close();
+                        }
+                    }
+                    if (idleTimeout > 0) {
+                        closeIdle();
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (!closed) {
+                    LogUtil.error(LightFactoryBridgeServer.class, resources.getString("lf.bridge.error"), e);
+                }
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Connection) {
+                        ((Connection) key.attachment()).close();
+                    }
+                }
+                closeQuietly(selector);
+            }
+        }
+
+        /**
+         * Close connections that exceeded the idle timeout.
+         */
+        private void closeIdle() {
+            long expired = System.currentTimeMillis() - idleTimeout;
+            for (SelectionKey key : selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                if (key.isValid() && connection.lastActivity < expired) {
+                    LogUtil.debug(LightFactoryBridgeServer.class, resources.getString("lf.bridge.connection.idle"),
+                            connection.remote);
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * A single LightFactory connection.
+     */
+    private final class Connection {
+        /**
+         * The connection channel.
+         */
+        private final SocketChannel channel;
+        /**
+         * The remote address for logging.
+         */
+        private final SocketAddress remote;
+        /**
+         * The event loop serving the connection.
+         */
+        private final EventLoop loop;
+        /**
+         * The worker lane key of the connection.
+         */
+        private final Integer id = sequence.incrementAndGet();
+        /**
+         * Lines handed to the workers, in request order.
+         */
+        private final Deque<Reply> pending = new ArrayDeque<>();
+        /**
+         * Responses waiting to be written.
+         */
+        private final Deque<ByteBuffer> responses = new ArrayDeque<>();
+        /**
+         * The selection key of the channel.
+         */
+        private SelectionKey key;
+        /**
+         * The partial line received so far, null when no partial line is pending.
+         */
+        private ByteBuffer line;
+        /**
+         * Skip a line feed following a carriage return.
+         */
+        private boolean skipLF = false;
+        /**
+         * Close once all responses have been written.
+         */
+        private boolean closing = false;
+        /**
+         * Number of commands received.
+         */
+        private int commands = 0;
+        /**
+         * Last time data was received, in milliseconds.
+         */
+        private long lastActivity = System.currentTimeMillis();
+
+        /**
+         * Instantiates a new connection.
+         *
+         * @param channel the accepted channel
+         * @param loop    the event loop serving the connection
+         */
+        private Connection(final SocketChannel channel, final EventLoop loop) {
+            this.channel = channel;
+            this.loop = loop;
+            this.remote = channel.socket().getRemoteSocketAddress();
+            connections.incrementAndGet();
+            if (protocol.getMetrics() != null) {
+                protocol.getMetrics().connectionOpened();
+            }
+            LogUtil.info(LightFactoryBridgeServer.class, resources.getString("lf.bridge.connection.established"),
+                    remote);
+        }
+
+        /**
+         * Read available bytes and process every complete line.
+         *
+         * @param buffer the loop read buffer
+         * @throws IOException if the channel failed
+         */
+        private void read(final ByteBuffer buffer) throws IOException {
+            buffer.clear();
+            int count = channel.read(buffer);
+            lastActivity = System.currentTimeMillis();
+            if (count < 0) {
+                if (line != null && line.position() > 0) {
+                    complete();
+                }
+                closing = true;
+                flush();
+                return;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining() && !closing) {
+                byte b = buffer.get();
+                if (b == '\n' || b == '\r') {
+                    if (b == '\n' && skipLF) {
+                        skipLF = false;
+                        continue;
+                    }
+                    skipLF = b == '\r';
+                    complete();
+                } else {
+                    skipLF = false;
+                    append(b);
+                }
+            }
+            flush();
+        }
+
+        /**
+         * Append a byte to the partial line.
+         *
+         * @param b the byte
+         */
+        private void append(final byte b) {
+            if (line == null) {
+                line = lineBuffers.acquire();
+            } else if (!line.hasRemaining()) {
+                if (line.capacity() >= MAX_LINE) {
+                    pending.add(new Reply(LightFactoryProtocol.resources.getString("lf.osc.error.invalid")));
+                    closing = true;
+                    return;
+                }
+                ByteBuffer larger = ByteBuffer.allocate(Math.min(line.capacity() << 1, MAX_LINE));
+                line.flip();
+                larger.put(line);
+                lineBuffers.release(line);
+                line = larger;
+            }
+            line.put(b);
+        }
+
+        /**
+         * Hand the received line to the workers, its response is queued behind those of earlier commands.
+         */
+        private void complete() {
+            String inputLine = "";
+            if (line != null) {
+                inputLine = new String(line.array(), line.arrayOffset(), line.position(), charset).trim();
+                lineBuffers.release(line);
+                line = null;
+            }
+            LogUtil.trace(LightFactoryBridgeServer.class, ">> {0}", inputLine);
+            final String command = inputLine;
+            final Reply reply = new Reply(null);
+            pending.add(reply);
+            try {
+                workers.execute(id, new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            reply.output = protocol.process(command);
+                        } catch (RuntimeException e) {
+                            LogUtil.error(LightFactoryBridgeServer.class,
+                                    resources.getString("lf.bridge.command.error"), e);
+                            reply.output = resources.getString("lf.bridge.command.error");
+                        } finally {
+                            loop.ready(Connection.this);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                reply.output = LightFactoryProtocol.resources.getString("lf.osc.error.busy");
+            }
+            if (maxCommands > 0 && ++commands >= maxCommands) {
+                closing = true;
+            }
+        }
+
+        /**
+         * Queue a response line.
+         *
+         * @param outputLine the response
+         */
+        private void respond(final String outputLine) {
+            responses.add(ByteBuffer.wrap((outputLine + System.lineSeparator()).getBytes(charset)));
+        }
+
+        /**
+         * Write queued responses, waiting for the channel to become writable if needed.
+         *
+         * @throws IOException if the channel failed
+         */
+        private void flush() throws IOException {
+            Reply reply;
+            while ((reply = pending.peek()) != null && reply.output != null) {
+                pending.poll();
+                respond(reply.output);
+                LogUtil.trace(LightFactoryBridgeServer.class, "<< {0}", reply.output);
+            }
+            ByteBuffer response;
+            while ((response = responses.peek()) != null) {
+                channel.write(response);
+                if (response.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+                responses.poll();
+            }
+            if (closing && pending.isEmpty()) {
+                close();
+            } else if (closing) {
+                //wait for the workers to answer the remaining lines
+                key.interestOps(0);
+            } else {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * Close the connection and return its buffers.
+         */
+        private void close() {
+            if (key != null) {
+                key.cancel();
+            }
+            if (channel.isOpen()) {
+                closeQuietly(channel);
+                connections.decrementAndGet();
+                if (protocol.getMetrics() != null) {
+                    protocol.getMetrics().connectionClosed();
+                }
+                LogUtil.info(LightFactoryBridgeServer.class, resources.getString("lf.bridge.connection.disconnected"),
+                        remote);
+            }
+            lineBuffers.release(line);
+            line = null;
+        }
+    }
+
+    /**
+     * The response of a command line, filled in by a worker.
+     */
+    private static final class Reply {
+        /**
+         * The response, null until the line was processed.
+         */
+        private volatile String output;
+
+        /**
+         * Instantiates a new reply.
+         *
+         * @param output the response, null if the line is still to be processed
+         */
+        private Reply(final String output) {
+            this.output = output;
+        }
+    }
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.impl;
+
+import java.util.Arrays;
+
+/**
+ * Single pass parser for LightFactory remote commands.
+ * <br><b>Syntax:</b> <i>osc@host:port /address arg "quoted arg" ...</i>
+ * <br>The parser accepts the same input as {@link LightFactoryProtocol#oscPattern} and splits arguments like
+ * {@link LightFactoryProtocol#dataPattern}, quoted arguments keep their quotes and a quote preceded by a backslash
+ * does not end a quoted argument. Unlike the patterns it preserves the case of the input, does not allocate while
+ * scanning and rejects ports that are not valid. Each line of the input holds at most one command, the whitespace
+ * between the port and the address may not span lines.
+ * <br>Usage follows {@link java.util.regex.Matcher}, {@link #reset(CharSequence)} the parser and call
+ * {@link #find()} for each command. A parser instance is not thread safe.
+ */
+public final class LightFactoryCommandParser {
+
+    /**
+     * Length of the <i>osc@</i> prefix.
+     */
+    private static final int PREFIX = 4;
+    /**
+     * Largest valid port.
+     */
+    private static final int MAX_PORT = 65535;
+
+    /**
+     * The command being parsed.
+     */
+    private CharSequence input = "";
+    /**
+     * Start of the next line to parse.
+     */
+    private int position = 0;
+
+    /**
+     * Start of the host of the current command.
+     */
+    private int hostStart;
+    /**
+     * End of the host of the current command.
+     */
+    private int hostEnd;
+    /**
+     * Port of the current command.
+     */
+    private int port;
+    /**
+     * Start of the OSC address of the current command.
+     */
+    private int addressStart;
+    /**
+     * End of the OSC address of the current command.
+     */
+    private int addressEnd;
+    /**
+     * Start and end offsets of the arguments of the current command.
+     */
+    private int[] tokens = new int[16];
+    /**
+     * Number of arguments of the current command.
+     */
+    private int tokenCount;
+
+    /**
+     * Reset the parser with new input.
+     *
+     * @param command the LightFactory command
+     * @return this parser
+     */
+    public LightFactoryCommandParser reset(final CharSequence command) {
+        this.input = command;
+        this.position = 0;
+        this.tokenCount = 0;
+        return this;
+    }
+
+    /**
+     * Find the next command.
+     *
+     * @return true if a command was found
+     */
+    public boolean find() {
+        int length = input.length();
+        while (position < length) {
+            int lineStart = position;
+            int lineEnd = lineStart;
+            while (lineEnd < length && !isLineTerminator(input.charAt(lineEnd))) {
+                lineEnd++;
+            }
+            position = nextLine(lineEnd);
+            if (parseLine(lineStart, lineEnd)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the input being parsed.
+     *
+     * @return the input
+     */
+    public CharSequence input() {
+        return input;
+    }
+
+    /**
+     * Gets the host of the current command.
+     *
+     * @return the host
+     */
+    public String host() {
+        return input.subSequence(hostStart, hostEnd).toString();
+    }
+
+    /**
+     * Gets the port of the current command.
+     *
+     * @return the port
+     */
+    public int port() {
+        return port;
+    }
+
+    /**
+     * Gets the OSC address of the current command.
+     *
+     * @return the OSC address
+     */
+    public String address() {
+        return input.subSequence(addressStart, addressEnd).toString();
+    }
+
+    /**
+     * Gets the start offset of the OSC address.
+     *
+     * @return the start offset
+     */
+    public int addressStart() {
+        return addressStart;
+    }
+
+    /**
+     * Gets the end offset of the OSC address.
+     *
+     * @return the end offset
+     */
+    public int addressEnd() {
+        return addressEnd;
+    }
+
+    /**
+     * Gets the number of arguments of the current command.
+     *
+     * @return the argument count
+     */
+    public int tokenCount() {
+        return tokenCount;
+    }
+
+    /**
+     * Gets the start offset of an argument.
+     *
+     * @param index the argument index
+     * @return the start offset
+     */
+    public int tokenStart(final int index) {
+        return tokens[index << 1];
+    }
+
+    /**
+     * Gets the end offset of an argument.
+     *
+     * @param index the argument index
+     * @return the end offset
+     */
+    public int tokenEnd(final int index) {
+        return tokens[(index << 1) + 1];
+    }
+
+    /**
+     * Gets an argument.
+     *
+     * @param index the argument index
+     * @return the argument text
+     */
+    public String token(final int index) {
+        return input.subSequence(tokenStart(index), tokenEnd(index)).toString();
+    }
+
+    /**
+     * Parse a single line.
+     *
+     * @param start the line start
+     * @param end   the line end
+     * @return true if the line holds a command
+     */
+    private boolean parseLine(final int start, final int end) {
+        if (end - start < PREFIX || !startsWithPrefix(start)) {
+            return false;
+        }
+        //the host is greedy, so the last colon followed by a valid port and address wins
+        for (int colon = end - 1; colon >= start + PREFIX; colon--) {
+            if (input.charAt(colon) == ':' && parseTarget(colon, end)) {
+                hostStart = start + PREFIX;
+                hostEnd = colon;
+                parseTokens(addressEnd, end);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parse the port and OSC address following the colon.
+     *
+     * @param colon the colon offset
+     * @param end   the line end
+     * @return true if a port, whitespace and an OSC address follow the colon
+     */
+    private boolean parseTarget(final int colon, final int end) {
+        int i = colon + 1;
+        int value = 0;
+        while (i < end && isDigit(input.charAt(i))) {
+            if (value <= MAX_PORT) {
+                value = value * 10 + (input.charAt(i) - '0');
+            }
+            i++;
+        }
+        if (i == colon + 1 || i >= end || !isWhitespace(input.charAt(i))) {
+            return false;
+        }
+        while (i < end && isWhitespace(input.charAt(i))) {
+            i++;
+        }
+        if (i + 1 >= end || input.charAt(i) != '/' || isWhitespace(input.charAt(i + 1))) {
+            return false;
+        }
+        if (value > MAX_PORT) {
+            return false;
+        }
+        int addressFrom = i;
+        i += 2;
+        while (i < end && !isWhitespace(input.charAt(i))) {
+            i++;
+        }
+        port = value;
+        addressStart = addressFrom;
+        addressEnd = i;
+        return true;
+    }
+
+    /**
+     * Split the argument section of a line.
+     *
+     * @param start the argument section start
+     * @param end   the line end
+     */
+    private void parseTokens(final int start, final int end) {
+        tokenCount = 0;
+        int i = start;
+        while (i < end) {
+            char c = input.charAt(i);
+            if (isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            int tokenEnd = -1;
+            if (c == '"') {
+                //quoted token, ends with the first quote that is not escaped
+                for (int j = i + 1; j < end; j++) {
+                    if (input.charAt(j) == '"' && input.charAt(j - 1) != '\\') {
+                        tokenEnd = j + 1;
+                        break;
+                    }
+                }
+            }
+            if (tokenEnd < 0) {
+                tokenEnd = i + 1;
+                while (tokenEnd < end && !isWhitespace(input.charAt(tokenEnd))) {
+                    tokenEnd++;
+                }
+            }
+            addToken(i, tokenEnd);
+            i = tokenEnd;
+        }
+    }
+
+    /**
+     * Record an argument.
+     *
+     * @param start the argument start
+     * @param end   the argument end
+     */
+    private void addToken(final int start, final int end) {
+        int index = tokenCount << 1;
+        if (index + 1 >= tokens.length) {
+            tokens = Arrays.copyOf(tokens, tokens.length << 1);
+        }
+        tokens[index] = start;
+        tokens[index + 1] = end;
+        tokenCount++;
+    }
+
+    /**
+     * Check for the case insensitive <i>osc@</i> prefix.
+     *
+     * @param start the line start
+     * @return true if the line starts with the prefix
+     */
+    private boolean startsWithPrefix(final int start) {
+        return (input.charAt(start) | 0x20) == 'o'
+                && (input.charAt(start + 1) | 0x20) == 's'
+                && (input.charAt(start + 2) | 0x20) == 'c'
+                && input.charAt(start + 3) == '@';
+    }
+
+    /**
+     * Gets the start of the line following a line terminator, CR LF counts as a single terminator.
+     *
+     * @param lineEnd the line end
+     * @return the start of the next line
+     */
+    private int nextLine(final int lineEnd) {
+        if (lineEnd >= input.length()) {
+            return input.length();
+        }
+        if (input.charAt(lineEnd) == '\r' && lineEnd + 1 < input.length() && input.charAt(lineEnd + 1) == '\n') {
+            return lineEnd + 2;
+        }
+        return lineEnd + 1;
+    }
+
+    /**
+     * Whitespace as matched by <i>\s</i>.
+     *
+     * @param c the character
+     * @return true for whitespace
+     */
+    static boolean isWhitespace(final char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Digit as matched by <i>\d</i>.
+     *
+     * @param c the character
+     * @return true for a digit
+     */
+    private static boolean isDigit(final char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Line terminators as used by <i>.</i> and <i>$</i>.
+     *
+     * @param c the character
+     * @return true for a line terminator
+     */
+    private static boolean isLineTerminator(final char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+}
@@ -1,179 +1,516 @@
-/*
- * Copyright (c) 2014. Peter Crossley (xley.com)
- *  Licensed to the Apache Software Foundation (ASF) under one
- *  or more contributor license agreements.  See the NOTICE file
- *  distributed with this work for additional information
- *  regarding copyright ownership.  The ASF licenses this file
- *  to you under the Apache License, Version 2.0 (the
- *  "License"); you may not use this file except in compliance
- *  with the License.  You may obtain a copy of the License at
- *
- *    http://www.apache.org/licenses/LICENSE-2.0
- *
- *  Unless required by applicable law or agreed to in writing,
- *  software distributed under the License is distributed on an
- *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
- *  KIND, either express or implied.  See the License for the
- *  specific language governing permissions and limitations
- *  under the License.
- */
-
-package com.xley.lfosc.impl;
-
-import com.illposed.osc.OSCMessage;
-import com.illposed.osc.OSCPortOut;
-import com.xley.lfosc.util.LogUtil;
-
-import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.net.InetAddress;
-import java.net.SocketException;
-import java.net.UnknownHostException;
-import java.nio.charset.Charset;
-import java.text.MessageFormat;
-import java.util.Locale;
-import java.util.ResourceBundle;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-/**
- * The type OSC proxy protocol.
- */
-public class LightFactoryProtocol {
-    /**
-     * The constant resources.
-     */
-    public static final ResourceBundle resources = ResourceBundle.getBundle(LightFactoryProtocol.class.getSimpleName(),
-            Locale.getDefault());
-    /**
-     * The constant osc pattern.
-     */
-    protected static final Pattern oscPattern = Pattern.compile("^osc@(.*):(\\d+)\\s+(\\/\\S+)(.*)$",
-            Pattern.CASE_INSENSITIVE + Pattern.MULTILINE);
-    /**
-     * The constant data pattern.
-     */
-    protected static final Pattern dataPattern = Pattern.
-            compile("((\"((?<token>.*?)(?<!\\\\)\")|(?<token1>[\\S]+))(\\s)*)",
-                    Pattern.CASE_INSENSITIVE + Pattern.MULTILINE);
-
-
-    /**
-     * Address section of the LF command.
-     */
-    private static final int PARTS_ADDRESS = 1;
-    /**
-     * Port for the address section of the LF command.
-     */
-    private static final int PARTS_PORTS = 2;
-    /**
-     * OSC container section from the LF command.
-     */
-    private static final int PARTS_CONTAINER = 3;
-    /**
-     * OSC data section from the LF command.
-     */
-    private static final int PARTS_DATA = 4;
-
-
-    /**
-     * Process incoming LightFactory remote command.
-     * <br/><b>Example input:</b> <i>osc@address:port /first/this/one data</i>
-     *
-     * @param cmd the the input from LightFactory
-     * @return the string
-     */
-    protected final String process(final String cmd) {
-
-        /**
-         * 1. parse input syntax
-         *   osc@address:port /first/this/one data
-         */
-        final String command = cmd.toLowerCase();
-        boolean sent = false;
-        Matcher matches = oscPattern.matcher(command);
-        try {
-            //find the address and verify
-            while (matches.find()) {
-                LogUtil.debug(this.getClass(), resources.getString("lf.event.valid"));
-                String address = matches.group(PARTS_ADDRESS);
-                int port = Integer.parseInt(matches.group(PARTS_PORTS));
-                String container = matches.group(PARTS_CONTAINER);
-                String data = matches.group(PARTS_DATA);
-                OSCPortOut oscPortOut = null;
-
-                try {
-                    LogUtil.debug(this.getClass(), MessageFormat.format(resources.getString("lf.osc.port.connect"),
-                            address, port));
-
-                    OSCMessage message = new OSCMessage(container);
-
-                    if (data != null && data.length() > 0) {
-                        Matcher dataMatches = dataPattern.matcher(data);
-                        while (dataMatches.find()) {
-                            message.addArgument(convertToOSCType(dataMatches.group(2)));
-                        }
-                    }
-
-                    LogUtil.debug(this.getClass(), MessageFormat.format(resources.getString("lf.osc.port.send"),
-                            message.getAddress(), String.valueOf(message.getArguments()),
-                            address, port));
-
-                    //send the packet
-                    oscPortOut = new OSCPortOut(InetAddress.getByName(address), port);
-                    oscPortOut.send(message);
-                    sent = true;
-                } finally {
-                    if (oscPortOut != null) {
-                        oscPortOut.close();
-                        LogUtil.debug(this.getClass(), MessageFormat.format(resources.getString("lf.osc.port.close"),
-                                address, port));
-                    }
-                }
-            }
-
-        } catch (UnknownHostException e) {
-            return MessageFormat.format(resources.getString("lf.osc.error.unknownhost"), e.getMessage());
-        } catch (UnsupportedEncodingException e) {
-            return MessageFormat.format(resources.getString("lf.osc.error.encoding"), e.getMessage());
-        } catch (SocketException e) {
-            return MessageFormat.format(resources.getString("lf.osc.error.socket"), e.getMessage());
-        } catch (IOException e) {
-            return MessageFormat.format(resources.getString("lf.osc.error.io"), e.getMessage());
-        }
-        if (sent) {
-            return resources.getString("lf.osc.success");
-        }
-        return resources.getString("lf.osc.error.invalid");
-    }
-
-    /**
-     * Convert from String to OSC type.
-     *
-     * @param data the data
-     * @return the object
-     * @throws UnsupportedEncodingException the unsupported encoding exception
-     */
-    private Object convertToOSCType(final String data) throws UnsupportedEncodingException {
-        Object ret = new String(data.getBytes("UTF-8"), Charset.defaultCharset());
-        try {
-            try {
-                ret = Integer.parseInt(data);
-                return ret;
-            } catch (NumberFormatException nfe) {
-                LogUtil.trace(this.getClass(), nfe);
-            }
-
-            try {
-                return ret = Float.parseFloat(data);
-            } catch (NumberFormatException nfe) {
-                LogUtil.trace(this.getClass(), nfe);
-            }
-
-            return ret;
-        } finally {
-            LogUtil.trace(this.getClass(), MessageFormat.format(resources.getString("lf.osc.type.convert"),
-                    data, ret.getClass().getName()));
-        }
-    }
-}
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.impl;
+
+import com.illposed.osc.OSCBundle;
+import com.illposed.osc.OSCMessage;
+import com.illposed.osc.OSCPacket;
+import com.xley.lfosc.util.LogUtil;
+import com.xley.lfosc.util.ObjectPool;
+import com.xley.lfosc.util.OverloadPolicy;
+import com.xley.lfosc.util.StripedExecutor;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * The type OSC proxy protocol.
+ */
+public class LightFactoryProtocol {
+    /**
+     * The constant resources.
+     */
+    public static final ResourceBundle resources = ResourceBundle.getBundle(LightFactoryProtocol.class.getSimpleName(),
+            Locale.getDefault());
+    /**
+     * The constant osc pattern, the reference grammar of {@link LightFactoryCommandParser}.
+     */
+    protected static final Pattern oscPattern = Pattern.compile("^osc@(.*):(\\d+)\\s+(\\/\\S+)(.*)$",
+            Pattern.CASE_INSENSITIVE + Pattern.MULTILINE);
+    /**
+     * The constant data pattern, the reference argument split of {@link LightFactoryCommandParser}.
+     */
+    protected static final Pattern dataPattern = Pattern.
+            compile("((\"((?<token>.*?)(?<!\\\\)\")|(?<token1>[\\S]+))(\\s)*)",
+                    Pattern.CASE_INSENSITIVE + Pattern.MULTILINE);
+
+    /**
+     * Max number of parser and encoder sets kept for reuse.
+     */
+    private static final int SCRATCH_POOLED = 64;
+    /**
+     * Parsers and encoders shared by all connections, a set is taken for each command.
+     */
+    private static final ObjectPool<Scratch> scratches = new ObjectPool<Scratch>(SCRATCH_POOLED) {
+        @Override
+        protected Scratch create() {
+            return new Scratch();
+        }
+    };
+    /**
+     * Milliseconds to wait for acknowledged commands to be sent on shutdown.
+     */
+    private static final int DRAIN_TIMEOUT = 5000;
+
+    /**
+     * The shared OSC sender.
+     */
+    private final OSCDatagramSender sender;
+    /**
+     * The shared endpoint cache.
+     */
+    private final EndpointCache endpoints;
+    /**
+     * Encode with {@link OSCEncoder} instead of the javaosc serializer.
+     */
+    private final boolean nativeEncoder;
+    /**
+     * The metrics deliveries are recorded with, null to not record.
+     */
+    private volatile ProxyMetrics metrics;
+    /**
+     * Sends acknowledged commands in the background, null to answer once a command is sent.
+     */
+    private volatile StripedExecutor dispatcher;
+    /**
+     * Acknowledged commands that failed to send.
+     */
+    private final AtomicLong asyncFailures = new AtomicLong();
+
+    /**
+     * Instantiates a new LightFactory protocol using the native OSC encoder.
+     *
+     * @param sender    the OSC sender used for all outbound messages
+     * @param endpoints the endpoint cache used to resolve OSC destinations
+     */
+    public LightFactoryProtocol(final OSCDatagramSender sender, final EndpointCache endpoints) {
+        this(sender, endpoints, true);
+    }
+
+    /**
+     * Instantiates a new LightFactory protocol.
+     *
+     * @param sender        the OSC sender used for all outbound messages
+     * @param endpoints     the endpoint cache used to resolve OSC destinations
+     * @param nativeEncoder true to encode with {@link OSCEncoder}, false to use the javaosc serializer
+     */
+    public LightFactoryProtocol(final OSCDatagramSender sender, final EndpointCache endpoints,
+                                final boolean nativeEncoder) {
+        this.sender = sender;
+        this.endpoints = endpoints;
+        this.nativeEncoder = nativeEncoder;
+    }
+
+    /**
+     * Record deliveries and bridge connections with the proxy metrics, set before commands are processed.
+     *
+     * @param proxyMetrics the metrics
+     */
+    public final void setMetrics(final ProxyMetrics proxyMetrics) {
+        this.metrics = proxyMetrics;
+    }
+
+    /**
+     * Gets the metrics deliveries are recorded with.
+     *
+     * @return the metrics, null if deliveries are not recorded
+     */
+    public final ProxyMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Answer commands as soon as their syntax is valid and send them on background lanes, set before commands are
+     * processed. Commands to the same host are sent in the order they were received, failures to resolve or send are
+     * logged and counted instead of being answered.
+     *
+     * @param lanes    the number of dispatch lanes
+     * @param capacity the max number of commands waiting on each lane, 0 for no limit
+     */
+    public final void setAsyncAcknowledge(final int lanes, final int capacity) {
+        this.dispatcher = new StripedExecutor("LightFactoryProtocol - Dispatch", lanes, capacity,
+                OverloadPolicy.REJECT);
+    }
+
+    /**
+     * Checks if commands are answered before they are sent.
+     *
+     * @return true if commands are sent in the background
+     */
+    public final boolean isAsyncAcknowledge() {
+        return dispatcher != null;
+    }
+
+    /**
+     * Gets the number of acknowledged commands that failed to send.
+     *
+     * @return the failure count
+     */
+    public final long getAsyncFailures() {
+        return asyncFailures.get();
+    }
+
+    /**
+     * Send the acknowledged commands still waiting and stop the background lanes.
+     */
+    public final void shutdown() {
+        StripedExecutor current = dispatcher;
+        if (current == null) {
+            return;
+        }
+        LogUtil.debug(this.getClass(), resources.getString("lf.osc.async.stats"), asyncFailures.get(),
+                current.getRejected(), Arrays.toString(current.getQueueDepths()));
+        try {
+            current.shutdown(DRAIN_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            LogUtil.trace(this.getClass(), e);
+        }
+    }
+
+    /**
+     * Process incoming LightFactory remote command.
+     * <br/><b>Example input:</b> <i>osc@address:port /first/this/one data</i>
+     * <br/>All OSC messages of a command going to the same destination are sent as one bundle, nothing is sent if
+     * any line of the command fails. Arguments are typed by {@link LightFactoryArgumentParser}, e.g.
+     * <i>osc@address:port /first/this/one 1 0.5 d:0.25 T:</i>.
+     * <br/>With {@link #setAsyncAcknowledge(int, int)} the command is answered once its syntax is checked and sent
+     * in the background.
+     *
+     * @param cmd the the input from LightFactory
+     * @return the string
+     */
+    protected final String process(final String cmd) {
+        StripedExecutor async = dispatcher;
+        if (async != null) {
+            return dispatch(async, cmd);
+        }
+        return deliver(cmd, System.nanoTime());
+    }
+
+    /**
+     * Check the syntax of a command and queue it for sending.
+     *
+     * @param async the dispatcher
+     * @param cmd   the input from LightFactory
+     * @return the success response, or the error response if the syntax is invalid or the dispatcher is full
+     */
+    private String dispatch(final StripedExecutor async, final String cmd) {
+        final long received = System.nanoTime();
+        Scratch scratch = scratches.acquire();
+        LightFactoryCommandParser parser = scratch.parser.reset(cmd);
+        String host = null;
+        try {
+            while (parser.find()) {
+                if (nativeEncoder) {
+                    scratch.encoder.start(parser.input(), parser.addressStart(), parser.addressEnd());
+                }
+                if (host == null) {
+                    host = parser.host();
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            failed(null, 1);
+            return MessageFormat.format(resources.getString("lf.osc.error.address"), e.getMessage());
+        } finally {
+            scratches.release(scratch);
+        }
+        if (host == null) {
+            failed(null, 1);
+            return resources.getString("lf.osc.error.invalid");
+        }
+        try {
+            //keyed by the first host so commands to a host are not reordered
+            async.execute(host, new Runnable() {
+                @Override
+                public void run() {
+                    String response = deliver(cmd, received);
+                    if (!resources.getString("lf.osc.success").equals(response)) {
+                        asyncFailures.incrementAndGet();
+                        LogUtil.warn(LightFactoryProtocol.this.getClass(), resources.getString("lf.osc.async.failed"),
+                                cmd.trim(), response);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            failed(null, 1);
+            return resources.getString("lf.osc.error.busy");
+        }
+        return resources.getString("lf.osc.success");
+    }
+
+    /**
+     * Parse a command and send its OSC messages.
+     *
+     * @param cmd      the input from LightFactory
+     * @param received the {@link System#nanoTime()} the command was received
+     * @return the response
+     */
+    private String deliver(final String cmd, final long received) {
+
+        /**
+         * 1. parse input syntax
+         *   osc@address:port /first/this/one data
+         */
+        boolean sent = false;
+        Scratch scratch = scratches.acquire();
+        LightFactoryCommandParser parser = scratch.parser.reset(cmd);
+        OSCBundleEncoder bundles = scratch.bundles.reset();
+        LightFactoryArgumentParser argument = scratch.argument;
+        Map<InetSocketAddress, List<OSCPacket>> packets = nativeEncoder ? null
+                : new LinkedHashMap<InetSocketAddress, List<OSCPacket>>();
+        try {
+            //find the address and verify
+            while (parser.find()) {
+                LogUtil.debug(this.getClass(), resources.getString("lf.event.valid"));
+                String address = parser.host();
+                int port = parser.port();
+
+                if (nativeEncoder) {
+                    OSCEncoder encoder = scratch.encoder.start(parser.input(), parser.addressStart(),
+                            parser.addressEnd());
+                    for (int i = 0; i < parser.tokenCount(); i++) {
+                        argument.parse(parser.input(), parser.tokenStart(i), parser.tokenEnd(i));
+                        argument.encode(encoder);
+                    }
+                    if (LogUtil.isDebugEnabled(this.getClass())) {
+                        LogUtil.debug(this.getClass(), resources.getString("lf.osc.port.send"), parser.address(),
+                                arguments(parser), address, port);
+                    }
+
+                    bundles.add(endpoints.resolve(address, port), encoder);
+                } else {
+                    OSCMessage message = new OSCMessage(parser.address());
+                    for (int i = 0; i < parser.tokenCount(); i++) {
+                        argument.parse(parser.input(), parser.tokenStart(i), parser.tokenEnd(i));
+                        message.addArgument(argument.toJava());
+                    }
+
+                    LogUtil.debug(this.getClass(), resources.getString("lf.osc.port.send"), message.getAddress(),
+                            message.getArguments(), address, port);
+
+                    InetSocketAddress target = endpoints.resolve(address, port);
+                    if (!packets.containsKey(target)) {
+                        packets.put(target, new ArrayList<OSCPacket>());
+                    }
+                    packets.get(target).add(message);
+                }
+                sent = true;
+            }
+
+            //send the packets
+            if (nativeEncoder) {
+                send(bundles, received);
+            } else {
+                send(packets, received);
+            }
+
+        } catch (UnknownHostException e) {
+            failed(null, 1);
+            return MessageFormat.format(resources.getString("lf.osc.error.unknownhost"), e.getMessage());
+        } catch (SocketException e) {
+            //recorded for the destination when sending
+            return MessageFormat.format(resources.getString("lf.osc.error.socket"), e.getMessage());
+        } catch (IOException e) {
+            //recorded for the destination when sending
+            return MessageFormat.format(resources.getString("lf.osc.error.io"), e.getMessage());
+        } catch (IllegalArgumentException e) {
+            failed(null, 1);
+            return MessageFormat.format(resources.getString("lf.osc.error.address"), e.getMessage());
+        } finally {
+            scratches.release(scratch);
+        }
+        if (sent) {
+            return resources.getString("lf.osc.success");
+        }
+        failed(null, 1);
+        return resources.getString("lf.osc.error.invalid");
+    }
+
+    /**
+     * Send the packet of each destination collected by the bundle encoder.
+     *
+     * @param bundles  the bundle encoder
+     * @param received the {@link System#nanoTime()} the command was received
+     * @throws IOException if a packet could not be sent
+     */
+    private void send(final OSCBundleEncoder bundles, final long received) throws IOException {
+        for (int i = 0; i < bundles.getTargetCount(); i++) {
+            InetSocketAddress target = bundles.getTarget(i);
+            int size = bundles.size(i);
+            try {
+                if (size <= OSCDatagramSender.MAX_DATAGRAM) {
+                    if (bundles.getMessageCount(i) > 1) {
+                        LogUtil.debug(this.getClass(), resources.getString("lf.osc.bundle.send"),
+                                bundles.getMessageCount(i), target);
+                    }
+                    ByteBuffer buffer = sender.buffer(size);
+                    try {
+                        bundles.encode(i, buffer).flip();
+                        sender.send(buffer, target);
+                    } finally {
+                        sender.release(buffer);
+                    }
+                } else {
+                    //the bundle does not fit a datagram, fall back to a datagram per message
+                    for (int m = 0; m < bundles.getMessageCount(i); m++) {
+                        ByteBuffer buffer = sender.buffer(bundles.size(i, m));
+                        try {
+                            bundles.encode(i, m, buffer).flip();
+                            sender.send(buffer, target);
+                        } finally {
+                            sender.release(buffer);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                failed(target, bundles.getMessageCount(i));
+                throw e;
+            }
+            delivered(target, bundles.getMessageCount(i), received);
+        }
+    }
+
+    /**
+     * Send the javaosc messages collected for each destination, bundling the messages of a destination.
+     *
+     * @param packets  the messages of each destination
+     * @param received the {@link System#nanoTime()} the command was received
+     * @throws IOException if a packet could not be sent
+     */
+    private void send(final Map<InetSocketAddress, List<OSCPacket>> packets, final long received)
+            throws IOException {
+        for (Map.Entry<InetSocketAddress, List<OSCPacket>> entry : packets.entrySet()) {
+            try {
+                if (entry.getValue().size() == 1) {
+                    sender.send(entry.getValue().get(0), entry.getKey());
+                } else {
+                    LogUtil.debug(this.getClass(), resources.getString("lf.osc.bundle.send"), entry.getValue().size(),
+                            entry.getKey());
+                    sender.send(new OSCBundle(entry.getValue()), entry.getKey());
+                }
+            } catch (IOException e) {
+                failed(entry.getKey(), entry.getValue().size());
+                throw e;
+            }
+            delivered(entry.getKey(), entry.getValue().size(), received);
+        }
+    }
+
+    /**
+     * Record OSC messages sent to a destination.
+     *
+     * @param target   the destination
+     * @param count    the number of messages
+     * @param received the {@link System#nanoTime()} the command was received
+     */
+    private void delivered(final InetSocketAddress target, final int count, final long received) {
+        ProxyMetrics current = metrics;
+        if (current != null) {
+            current.delivered(ProxyMetrics.Direction.LF_TO_OSC, target, count, received);
+        }
+    }
+
+    /**
+     * Record OSC messages or commands that failed.
+     *
+     * @param target the destination, null if the command failed before a destination was known
+     * @param count  the number of messages or commands
+     */
+    private void failed(final InetSocketAddress target, final int count) {
+        ProxyMetrics current = metrics;
+        if (current != null) {
+            if (target == null) {
+                current.failed(ProxyMetrics.Direction.LF_TO_OSC, (String) null, count);
+            } else {
+                current.failed(ProxyMetrics.Direction.LF_TO_OSC, target, count);
+            }
+        }
+    }
+
+    /**
+     * Gets the argument section of the current command for logging.
+     *
+     * @param parser the parser
+     * @return the arguments
+     */
+    private static String arguments(final LightFactoryCommandParser parser) {
+        if (parser.tokenCount() == 0) {
+            return "[]";
+        }
+        return "[" + parser.input().subSequence(parser.tokenStart(0), parser.tokenEnd(parser.tokenCount() - 1)) + "]";
+    }
+
+    /**
+     * Convert from String to OSC type, as done for the javaosc serializer.
+     *
+     * @param data the data
+     * @return the object
+     */
+    final Object convertToOSCType(final String data) {
+        Scratch scratch = scratches.acquire();
+        try {
+            LightFactoryArgumentParser argument = scratch.argument;
+            argument.parse(data);
+            Object ret = argument.toJava();
+            LogUtil.trace(this.getClass(), resources.getString("lf.osc.type.convert"), data, argument.type());
+            return ret;
+        } finally {
+            scratches.release(scratch);
+        }
+    }
+
+    /**
+     * The parsers and encoders of a command, used by one thread at a time.
+     */
+    private static final class Scratch {
+        /**
+         * The command parser.
+         */
+        private final LightFactoryCommandParser parser = new LightFactoryCommandParser();
+        /**
+         * The OSC encoder.
+         */
+        private final OSCEncoder encoder = new OSCEncoder();
+        /**
+         * The bundle encoder.
+         */
+        private final OSCBundleEncoder bundles = new OSCBundleEncoder();
+        /**
+         * The argument parser.
+         */
+        private final LightFactoryArgumentParser argument = new LightFactoryArgumentParser();
+    }
+}
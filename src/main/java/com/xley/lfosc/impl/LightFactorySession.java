@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.impl;
+
+import com.xley.lfosc.util.LogUtil;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.text.MessageFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.ResourceBundle;
+
+/**
+ * A single telnet session to a LightFactory remote command interface.
+ * <br>The session is considered ready once the banner has been consumed and the <i>&gt;</i> prompt was seen, each
+ * command is then framed by the next prompt so the connection can be reused for the following command.
+ * <br>The connect timeout bounds opening the session, the read timeout bounds the wait for each prompt as a whole, so
+ * a LightFactory that keeps talking without returning to the prompt does not hold the caller either.
+ */
+public class LightFactorySession implements Closeable {
+    /**
+     * The constant resources.
+     */
+    public static final ResourceBundle resources = ResourceBundle.getBundle(LightFactorySession.class.getSimpleName(),
+            Locale.getDefault());
+
+    /**
+     * The LightFactory prompt line.
+     */
+    private static final String PROMPT = ">";
+
+    /**
+     * The LightFactory host.
+     */
+    private final String host;
+    /**
+     * The LightFactory port.
+     */
+    private final int port;
+    /**
+     * Time in milliseconds to wait for the connection, 0 to wait forever.
+     */
+    private final int connectTimeout;
+    /**
+     * Time in milliseconds to wait for the prompt, 0 to wait forever.
+     */
+    private final int readTimeout;
+
+    /**
+     * Socket for this session.
+     */
+    private Socket socket;
+    /**
+     * Command output towards LightFactory.
+     */
+    private DataOutputStream outToLF;
+    /**
+     * Response input from LightFactory.
+     */
+    private BufferedReader inFromLF;
+    /**
+     * Last time this session completed a command, in milliseconds.
+     */
+    private volatile long lastUsed;
+    /**
+     * Number of commands executed on this session.
+     */
+    private int commands;
+    /**
+     * True once the session can no longer be reused.
+     */
+    private volatile boolean broken;
+
+    /**
+     * Instantiates a new LightFactory session.
+     *
+     * @param host the LightFactory host
+     * @param port the LightFactory port
+     */
+    public LightFactorySession(final String host, final int port) {
+        this(host, port, 0, 0);
+    }
+
+    /**
+     * Instantiates a new LightFactory session with timeouts.
+     *
+     * @param host           the LightFactory host
+     * @param port           the LightFactory port
+     * @param connectTimeout the time in milliseconds to wait for the connection, 0 to wait forever
+     * @param readTimeout    the time in milliseconds to wait for the prompt, 0 to wait forever
+     */
+    public LightFactorySession(final String host, final int port, final int connectTimeout, final int readTimeout) {
+        this.host = host;
+        this.port = port;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Connect to LightFactory and wait for the command prompt.
+     *
+     * @param endpoint the resolved LightFactory address
+     * @throws IOException if the connection could not be established or was closed before the prompt
+     */
+    public final void open(final InetSocketAddress endpoint) throws IOException {
+        LogUtil.debug(this.getClass(), resources.getString("lf.session.connect"), host, String.valueOf(port));
+        socket = new Socket();
+        socket.setTcpNoDelay(true);
+        try {
+            socket.connect(endpoint, connectTimeout);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        outToLF = new DataOutputStream(socket.getOutputStream());
+        inFromLF = new BufferedReader(new InputStreamReader(socket.getInputStream(), Charset.defaultCharset()));
+        try {
+            readToPrompt();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Execute a command and wait for LightFactory to return to the prompt.
+     *
+     * @param command the LightFactory command
+     * @return the response lines sent by LightFactory before the prompt
+     * @throws IOException if the session failed, an {@link EOFException} means LightFactory closed the session before
+     *                     any response was received
+     */
+    public final String execute(final String command) throws IOException {
+        try {
+            LogUtil.trace(this.getClass(), " >> [{0}] - {1}", socket, command);
+            outToLF.writeBytes(command + "\n");
+            outToLF.flush();
+            String response = readToPrompt();
+            commands++;
+            lastUsed = System.currentTimeMillis();
+            return response;
+        } catch (IOException e) {
+            broken = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Execute several commands with a single write, LightFactory answers each command with a prompt in order.
+     * <br>The responses are added as their prompts arrive, so after a failure the responses hold one entry for each
+     * command LightFactory acknowledged.
+     *
+     * @param batch     the LightFactory commands
+     * @param responses receives the response of each acknowledged command
+     * @throws IOException if the session failed, an {@link EOFException} means LightFactory closed the session before
+     *                     any response was received
+     */
+    public final void executeBatch(final List<String> batch, final List<String> responses) throws IOException {
+        try {
+            StringBuilder burst = new StringBuilder();
+            for (String command : batch) {
+                LogUtil.trace(this.getClass(), " >> [{0}] - {1}", socket, command);
+                burst.append(command).append('\n');
+            }
+            outToLF.writeBytes(burst.toString());
+            outToLF.flush();
+            for (int i = 0; i < batch.size(); i++) {
+                responses.add(readToPrompt());
+                commands++;
+            }
+            lastUsed = System.currentTimeMillis();
+        } catch (IOException e) {
+            broken = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Read lines until the prompt is seen.
+     *
+     * @return the lines read before the prompt
+     * @throws IOException if the stream ended before the prompt, a {@link SocketTimeoutException} if the prompt did
+     *                     not arrive within the read timeout
+     */
+    private String readToPrompt() throws IOException {
+        StringBuilder response = new StringBuilder();
+        boolean received = false;
+        long deadline = readTimeout > 0 ? System.currentTimeMillis() + readTimeout : 0;
+        String inputLine;
+        while ((inputLine = readLine(deadline)) != null) {
+            received = true;
+            LogUtil.trace(this.getClass(), " << [{0}] - {1}", socket, inputLine);
+            if (inputLine.trim().equals(PROMPT)) {
+                return response.toString();
+            }
+            if (response.length() > 0) {
+                response.append('\n');
+            }
+            response.append(inputLine);
+        }
+        broken = true;
+        if (!received) {
+            throw new EOFException(MessageFormat.format(resources.getString("lf.session.closed"), host,
+                    String.valueOf(port)));
+        }
+        throw new IOException(MessageFormat.format(resources.getString("lf.session.incomplete"), host,
+                String.valueOf(port)));
+    }
+
+    /**
+     * Read a line before the deadline.
+     *
+     * @param deadline the time in milliseconds the prompt is due, 0 for no deadline
+     * @return the line, null at the end of the stream
+     * @throws IOException if the line could not be read before the deadline
+     */
+    private String readLine(final long deadline) throws IOException {
+        if (deadline > 0) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw timeout();
+            }
+            socket.setSoTimeout((int) remaining);
+        }
+        try {
+            return inFromLF.readLine();
+        } catch (SocketTimeoutException e) {
+            throw timeout();
+        }
+    }
+
+    /**
+     * Mark the session broken after the prompt did not arrive in time, the rest of the response would be taken for
+     * the response of the next command.
+     *
+     * @return the exception to throw
+     */
+    private SocketTimeoutException timeout() {
+        broken = true;
+        return new SocketTimeoutException(MessageFormat.format(resources.getString("lf.session.timeout"), host,
+                String.valueOf(port), readTimeout));
+    }
+
+    /**
+     * Gets the pool key of this session.
+     *
+     * @return the host:port key
+     */
+    public final String getKey() {
+        return host + ":" + port;
+    }
+
+    /**
+     * Gets the last time this session completed a command.
+     *
+     * @return the time in milliseconds
+     */
+    public final long getLastUsed() {
+        return lastUsed;
+    }
+
+    /**
+     * Gets the number of commands executed on this session.
+     *
+     * @return the command count
+     */
+    public final int getCommands() {
+        return commands;
+    }
+
+    /**
+     * Is this session still usable.
+     *
+     * @return true if the session is connected and has not failed
+     */
+    public final boolean isOpen() {
+        return !broken && socket != null && socket.isConnected() && !socket.isClosed();
+    }
+
+    @Override
+    public final void close() {
+        broken = true;
+        if (socket != null) {
+            try {
+                LogUtil.debug(this.getClass(), resources.getString("lf.session.close"), host, String.valueOf(port));
+                socket.close();
+            } catch (IOException e) {
+                LogUtil.trace(this.getClass(), e);
+            }
+        }
+    }
+}
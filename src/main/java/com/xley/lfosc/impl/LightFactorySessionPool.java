@@ -0,0 +1,690 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.impl;
+
+import com.xley.lfosc.util.CircuitBreaker;
+import com.xley.lfosc.util.LogUtil;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of prompted LightFactory sessions keyed by <i>host:port</i>.
+ * <br>Sessions are borrowed for a single command and returned afterwards, idle sessions are reaped in the
+ * background and a session that was dropped by LightFactory while idle is transparently replaced.
+ * <br>With circuit breakers enabled, a target that failed several times in a row fails fast with a
+ * {@link CircuitOpenException} until a probe command gets through again, so a console that is switched off does not
+ * hold the callers for a connect timeout on every command.
+ * <br>Targets come from OSC addresses, so the reaper drops the breakers of healthy targets and the idle deques of
+ * targets without idle sessions, and at most {@value #MAX_TARGETS} targets get a breaker or idle sessions at a time.
+ */
+public class LightFactorySessionPool {
+    /**
+     * The constant resources.
+     */
+    public static final ResourceBundle resources = ResourceBundle.getBundle(LightFactorySessionPool.class.
+            getSimpleName(), Locale.getDefault());
+
+    /**
+     * Max number of targets with a circuit breaker or idle sessions.
+     */
+    public static final int MAX_TARGETS = 1024;
+
+    /**
+     * Idle sessions for each target, the deque of a target without idle sessions is removed by the reaper.
+     */
+    private final ConcurrentMap<String, LinkedBlockingDeque<LightFactorySession>> idle = new ConcurrentHashMap<>();
+    /**
+     * Max number of idle sessions kept per target.
+     */
+    private final int maxIdle;
+    /**
+     * Time in milliseconds a session may stay idle before it is closed.
+     */
+    private final long idleTimeout;
+    /**
+     * Background reaper for idle sessions.
+     */
+    private final ScheduledExecutorService reaper;
+    /**
+     * The shared endpoint cache.
+     */
+    private final EndpointCache endpoints;
+    /**
+     * Time in milliseconds to wait for a new session to connect, 0 to wait forever.
+     */
+    private volatile int connectTimeout;
+    /**
+     * Time in milliseconds to wait for LightFactory to return to the prompt, 0 to wait forever.
+     */
+    private volatile int readTimeout;
+    /**
+     * Consecutive failures that open the circuit breaker of a target, 0 to not use circuit breakers.
+     */
+    private volatile int breakerFailures;
+    /**
+     * Time in milliseconds an open circuit breaker fails fast before a probe.
+     */
+    private volatile long breakerOpen;
+    /**
+     * Circuit breaker of each target.
+     */
+    private final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    /**
+     * Commands refused by an open circuit breaker.
+     */
+    private final AtomicLong failedFast = new AtomicLong();
+    /**
+     * Pool state.
+     */
+    private volatile boolean shutdown = false;
+    /**
+     * Batches written.
+     */
+    private final AtomicLong batches = new AtomicLong();
+    /**
+     * Commands written as part of a batch.
+     */
+    private final AtomicLong batchedCommands = new AtomicLong();
+    /**
+     * Batched commands LightFactory did not acknowledge.
+     */
+    private final AtomicLong failedCommands = new AtomicLong();
+
+    /**
+     * Instantiates a new LightFactory session pool.
+     *
+     * @param maxIdle     the max number of idle sessions per target
+     * @param idleTimeout the time in milliseconds a session may stay idle
+     * @param endpoints   the endpoint cache used to resolve LightFactory hosts
+     */
+    public LightFactorySessionPool(final int maxIdle, final long idleTimeout, final EndpointCache endpoints) {
+        this.maxIdle = maxIdle;
+        this.idleTimeout = idleTimeout;
+        this.endpoints = endpoints;
+        this.reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(r, "LightFactorySessionPool - Reaper");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long period = Math.max(idleTimeout / 2, 100);
+        this.reaper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                reap();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Bound the time spent connecting to and waiting on LightFactory, set before sessions are opened.
+     * <br>A command that times out is not retried, LightFactory may already have run it.
+     *
+     * @param connectMillis the time in milliseconds to wait for a new session to connect, 0 to wait forever
+     * @param readMillis    the time in milliseconds to wait for LightFactory to return to the prompt, 0 to wait
+     *                      forever
+     */
+    public final void setTimeouts(final int connectMillis, final int readMillis) {
+        this.connectTimeout = connectMillis;
+        this.readTimeout = readMillis;
+    }
+
+    /**
+     * Fail fast for targets that keep failing, set before commands are executed.
+     *
+     * @param failures   the consecutive failures that open the circuit breaker of a target, 0 to not use circuit
+     *                   breakers
+     * @param openMillis the time in milliseconds an open circuit breaker fails fast before a probe command is let
+     *                   through
+     */
+    public final void setCircuitBreaker(final int failures, final long openMillis) {
+        this.breakerOpen = openMillis;
+        this.breakerFailures = failures;
+    }
+
+    /**
+     * Execute a command on a pooled session for the given target.
+     * <br>If a reused session turns out to be closed by LightFactory the command is retried once on a new session.
+     *
+     * @param host    the LightFactory host
+     * @param port    the LightFactory port
+     * @param command the command to execute
+     * @return the LightFactory response
+     * @throws IOException if the command could not be delivered, a {@link CircuitOpenException} if the target fails
+     *                     fast
+     */
+    public final String execute(final String host, final int port, final String command) throws IOException {
+        String key = host + ":" + port;
+        CircuitBreaker breaker = admit(key);
+        boolean success = false;
+        try {
+            String response = send(host, port, command);
+            success = true;
+            return response;
+        } finally {
+            record(key, breaker, success);
+        }
+    }
+
+    /**
+     * Execute a command, retrying once on a new session if a reused session was dropped.
+     *
+     * @param host    the LightFactory host
+     * @param port    the LightFactory port
+     * @param command the command to execute
+     * @return the LightFactory response
+     * @throws IOException if the command could not be delivered
+     */
+    private String send(final String host, final int port, final String command) throws IOException {
+        LightFactorySession session = pollIdle(host + ":" + port);
+        boolean reused = session != null;
+        if (!reused) {
+            session = open(host, port);
+        }
+        try {
+            String response = session.execute(command);
+            release(session);
+            return response;
+        } catch (EOFException | SocketException e) {
+            session.close();
+            if (!reused) {
+                throw e;
+            }
+            LogUtil.debug(this.getClass(), resources.getString("lf.pool.reconnect"), session.getKey());
+            LightFactorySession fresh = open(host, port);
+            try {
+                String response = fresh.execute(command);
+                release(fresh);
+                return response;
+            } catch (IOException retry) {
+                fresh.close();
+                throw retry;
+            }
+        } catch (IOException e) {
+            session.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Execute several commands for the same target with a single write on a pooled session.
+     * <br>The returned responses are matched to the commands by the order of the prompts. If a reused session turns
+     * out to be closed by LightFactory before any command was acknowledged the batch is retried once on a new session.
+     *
+     * @param host     the LightFactory host
+     * @param port     the LightFactory port
+     * @param commands the commands to execute
+     * @return the LightFactory response of each command
+     * @throws IOException if the target fails fast with a {@link CircuitOpenException}, a {@link BatchException}
+     *                     holding the responses of the commands acknowledged before the batch failed otherwise
+     */
+    public final List<String> executeBatch(final String host, final int port, final List<String> commands)
+            throws IOException {
+        String key = host + ":" + port;
+        CircuitBreaker breaker = admit(key);
+        List<String> responses = new ArrayList<>(commands.size());
+        batches.incrementAndGet();
+        batchedCommands.addAndGet(commands.size());
+        boolean success = false;
+        try {
+            runBatch(host, port, commands, responses);
+            success = true;
+            return responses;
+        } catch (IOException e) {
+            int failed = commands.size() - responses.size();
+            failedCommands.addAndGet(failed);
+            throw new BatchException(MessageFormat.format(resources.getString("lf.pool.batch.failed"), failed,
+                    commands.size(), key, e.getMessage()), e, responses);
+        } finally {
+            record(key, breaker, success);
+        }
+    }
+
+    /**
+     * Gets the number of commands refused by an open circuit breaker.
+     *
+     * @return the failed fast count
+     */
+    public final long getFailedFast() {
+        return failedFast.get();
+    }
+
+    /**
+     * Gets the state of the circuit breaker of a target.
+     *
+     * @param key the host:port key
+     * @return the state, {@link CircuitBreaker.State#CLOSED} for a target without a breaker
+     */
+    public final CircuitBreaker.State getCircuitState(final String key) {
+        CircuitBreaker breaker = breakers.get(key);
+        return breaker == null ? CircuitBreaker.State.CLOSED : breaker.getState();
+    }
+
+    /**
+     * Gets the number of targets with a circuit breaker.
+     *
+     * @return the breaker count
+     */
+    public final int getCircuitCount() {
+        return breakers.size();
+    }
+
+    /**
+     * Gets the targets whose circuit breaker is not closed.
+     *
+     * @return the host:port keys
+     */
+    public final List<String> getOpenCircuits() {
+        List<String> open = new ArrayList<>();
+        for (Map.Entry<String, CircuitBreaker> entry : breakers.entrySet()) {
+            if (entry.getValue().getState() != CircuitBreaker.State.CLOSED) {
+                open.add(entry.getKey());
+            }
+        }
+        return open;
+    }
+
+    /**
+     * Gets the number of batches written.
+     *
+     * @return the batch count
+     */
+    public final long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * Gets the number of commands written as part of a batch.
+     *
+     * @return the batched command count
+     */
+    public final long getBatchedCommands() {
+        return batchedCommands.get();
+    }
+
+    /**
+     * Gets the number of batched commands LightFactory did not acknowledge.
+     *
+     * @return the failed command count
+     */
+    public final long getFailedCommands() {
+        return failedCommands.get();
+    }
+
+    /**
+     * Borrow a session for the given target, opening a new one when none is idle.
+     *
+     * @param host the LightFactory host
+     * @param port the LightFactory port
+     * @return a prompted session
+     * @throws IOException if a new session could not be opened
+     */
+    public final LightFactorySession borrow(final String host, final int port) throws IOException {
+        LightFactorySession session = pollIdle(host + ":" + port);
+        return session != null ? session : open(host, port);
+    }
+
+    /**
+     * Return a session to the pool, closing it if it can no longer be used or the pool is full.
+     *
+     * @param session the session
+     */
+    public final void release(final LightFactorySession session) {
+        if (shutdown || !session.isOpen()) {
+            session.close();
+            return;
+        }
+        while (true) {
+            LinkedBlockingDeque<LightFactorySession> sessions = sessionsFor(session.getKey());
+            if (sessions == null || sessions.size() >= maxIdle || !sessions.offerFirst(session)) {
+                session.close();
+                return;
+            }
+            if (idle.get(session.getKey()) == sessions || !sessions.removeFirstOccurrence(session)) {
+                //still pooled, or the reaper moved the session on when it removed the deque
+                return;
+            }
+        }
+    }
+
+    /**
+     * Open sessions ahead of time for a known target, the sessions are opened in the background.
+     *
+     * @param host  the LightFactory host
+     * @param port  the LightFactory port
+     * @param count the number of sessions to open
+     */
+    public final void prewarm(final String host, final int port, final int count) {
+        reaper.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < Math.min(count, maxIdle) && !shutdown; i++) {
+                    try {
+                        release(open(host, port));
+                    } catch (IOException e) {
+                        LogUtil.warn(LightFactorySessionPool.class, resources.getString("lf.pool.prewarm.error"),
+                                host + ":" + port, e.getMessage());
+                        return;
+                    }
+                }
+                LogUtil.info(LightFactorySessionPool.class, resources.getString("lf.pool.prewarm"), host + ":" + port,
+                        getIdleCount(host + ":" + port));
+            }
+        });
+    }
+
+    /**
+     * Close all idle sessions and stop the reaper.
+     */
+    public final void shutdown() {
+        shutdown = true;
+        if (batches.get() > 0) {
+            LogUtil.debug(this.getClass(), resources.getString("lf.pool.batch.stats"), batches.get(),
+                    batchedCommands.get(), failedCommands.get());
+        }
+        if (!breakers.isEmpty()) {
+            LogUtil.debug(this.getClass(), resources.getString("lf.pool.circuit.stats"), failedFast.get(),
+                    getOpenCircuits());
+        }
+        reaper.shutdownNow();
+        for (LinkedBlockingDeque<LightFactorySession> sessions : idle.values()) {
+            LightFactorySession session;
+            while ((session = sessions.pollFirst()) != null) {
+                session.close();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of idle sessions for a target.
+     *
+     * @param key the host:port key
+     * @return the idle session count
+     */
+    public final int getIdleCount(final String key) {
+        LinkedBlockingDeque<LightFactorySession> sessions = idle.get(key);
+        return sessions == null ? 0 : sessions.size();
+    }
+
+    /**
+     * Gets the number of targets with idle sessions.
+     *
+     * @return the target count
+     */
+    public final int getIdleTargets() {
+        return idle.size();
+    }
+
+    /**
+     * Write a batch on a pooled session, retrying on a new session like {@link #execute(String, int, String)} as
+     * long as nothing was acknowledged.
+     *
+     * @param host      the LightFactory host
+     * @param port      the LightFactory port
+     * @param commands  the commands to execute
+     * @param responses receives the response of each acknowledged command
+     * @throws IOException if the batch could not be delivered
+     */
+    private void runBatch(final String host, final int port, final List<String> commands,
+                          final List<String> responses) throws IOException {
+        LightFactorySession session = pollIdle(host + ":" + port);
+        boolean reused = session != null;
+        if (!reused) {
+            session = open(host, port);
+        }
+        try {
+            session.executeBatch(commands, responses);
+            release(session);
+        } catch (EOFException | SocketException e) {
+            session.close();
+            if (!reused || !responses.isEmpty()) {
+                throw e;
+            }
+            LogUtil.debug(this.getClass(), resources.getString("lf.pool.reconnect"), session.getKey());
+            LightFactorySession fresh = open(host, port);
+            try {
+                fresh.executeBatch(commands, responses);
+                release(fresh);
+            } catch (IOException retry) {
+                fresh.close();
+                throw retry;
+            }
+        } catch (IOException e) {
+            session.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Check the circuit breaker of a target before a command.
+     *
+     * @param key the host:port key
+     * @return the breaker to report the outcome to, null without circuit breakers
+     * @throws CircuitOpenException if the breaker refuses the command
+     */
+    private CircuitBreaker admit(final String key) throws CircuitOpenException {
+        int failures = breakerFailures;
+        if (failures <= 0) {
+            return null;
+        }
+        CircuitBreaker breaker = breakers.get(key);
+        if (breaker == null && breakers.size() >= MAX_TARGETS) {
+            //full until the reaper drops the breakers of healthy targets, the command runs without one
+            return null;
+        }
+        if (breaker == null) {
+            CircuitBreaker created = new CircuitBreaker(failures, breakerOpen);
+            breaker = breakers.putIfAbsent(key, created);
+            if (breaker == null) {
+                breaker = created;
+            }
+        }
+        if (!breaker.tryAcquire()) {
+            failedFast.incrementAndGet();
+            throw new CircuitOpenException(MessageFormat.format(resources.getString("lf.pool.circuit.failfast"),
+                    key));
+        }
+        if (breaker.getState() == CircuitBreaker.State.HALF_OPEN) {
+            LogUtil.info(this.getClass(), resources.getString("lf.pool.circuit.probe"), key);
+        }
+        return breaker;
+    }
+
+    /**
+     * Report the outcome of a command to the circuit breaker of its target, logging state changes.
+     *
+     * @param key     the host:port key
+     * @param breaker the breaker, null without circuit breakers
+     * @param success true if LightFactory answered the command
+     */
+    private void record(final String key, final CircuitBreaker breaker, final boolean success) {
+        if (breaker == null) {
+            return;
+        }
+        if (success) {
+            if (breaker.success() != CircuitBreaker.State.CLOSED) {
+                LogUtil.info(this.getClass(), resources.getString("lf.pool.circuit.closed"), key);
+            }
+        } else if (breaker.failure() != CircuitBreaker.State.OPEN
+                && breaker.getState() == CircuitBreaker.State.OPEN) {
+            LogUtil.warn(this.getClass(), resources.getString("lf.pool.circuit.opened"), key, breaker.getFailures(),
+                    breakerOpen);
+        }
+    }
+
+    /**
+     * Close idle sessions that exceeded the idle timeout and drop the breakers of healthy targets.
+     */
+    private void reap() {
+        for (Map.Entry<String, CircuitBreaker> entry : breakers.entrySet()) {
+            CircuitBreaker breaker = entry.getValue();
+            if (breaker.getState() == CircuitBreaker.State.CLOSED && breaker.getFailures() == 0) {
+                breakers.remove(entry.getKey(), breaker);
+            }
+        }
+        long expired = System.currentTimeMillis() - idleTimeout;
+        for (Map.Entry<String, LinkedBlockingDeque<LightFactorySession>> entry : idle.entrySet()) {
+            LinkedBlockingDeque<LightFactorySession> sessions = entry.getValue();
+            for (LightFactorySession session : sessions) {
+                if ((session.getLastUsed() < expired || !session.isOpen())
+                        && sessions.removeFirstOccurrence(session)) {
+                    LogUtil.debug(this.getClass(), resources.getString("lf.pool.reap"), entry.getKey());
+                    session.close();
+                }
+            }
+            if (sessions.isEmpty() && idle.remove(entry.getKey(), sessions)) {
+                //a session released while the deque was removed goes to the deque that replaces it
+                LightFactorySession session;
+                while ((session = sessions.pollFirst()) != null) {
+                    release(session);
+                }
+            }
+        }
+    }
+
+    /**
+     * Take the most recently used idle session for a target.
+     *
+     * @param key the host:port key
+     * @return an open session or null if none is idle
+     */
+    private LightFactorySession pollIdle(final String key) {
+        LinkedBlockingDeque<LightFactorySession> sessions = idle.get(key);
+        if (sessions != null) {
+            LightFactorySession session;
+            while ((session = sessions.pollFirst()) != null) {
+                if (session.isOpen()) {
+                    return session;
+                }
+                session.close();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Open a new session.
+     *
+     * @param host the LightFactory host
+     * @param port the LightFactory port
+     * @return the prompted session
+     * @throws IOException if the session could not be opened
+     */
+    private LightFactorySession open(final String host, final int port) throws IOException {
+        LightFactorySession session = new LightFactorySession(host, port, connectTimeout, readTimeout);
+        session.open(endpoints.resolve(host, port));
+        return session;
+    }
+
+    /**
+     * Gets or creates the idle deque for a target.
+     *
+     * @param key the host:port key
+     * @return the idle deque, null if {@value #MAX_TARGETS} other targets already hold idle sessions
+     */
+    private LinkedBlockingDeque<LightFactorySession> sessionsFor(final String key) {
+        LinkedBlockingDeque<LightFactorySession> sessions = idle.get(key);
+        if (sessions == null && idle.size() >= MAX_TARGETS) {
+            return null;
+        }
+        if (sessions == null) {
+            LinkedBlockingDeque<LightFactorySession> created = new LinkedBlockingDeque<>();
+            sessions = idle.putIfAbsent(key, created);
+            if (sessions == null) {
+                sessions = created;
+            }
+        }
+        return sessions;
+    }
+
+    /**
+     * Thrown when a batch failed, the commands before the failure may have been acknowledged.
+     */
+    public static class BatchException extends IOException {
+        /**
+         * The serial version.
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * The responses of the acknowledged commands.
+         */
+        private final List<String> responses;
+
+        /**
+         * Instantiates a new batch exception.
+         *
+         * @param message   the message
+         * @param cause     the failure
+         * @param responses the responses of the commands acknowledged before the failure, in command order
+         */
+        public BatchException(final String message, final Throwable cause, final List<String> responses) {
+            super(message, cause);
+            this.responses = Collections.unmodifiableList(new ArrayList<>(responses));
+        }
+
+        /**
+         * Gets the responses of the commands acknowledged before the failure, the first commands of the batch.
+         *
+         * @return the responses in command order
+         */
+        public final List<String> getResponses() {
+            return responses;
+        }
+    }
+
+    /**
+     * Thrown instead of contacting a target whose circuit breaker is open.
+     */
+    public static class CircuitOpenException extends IOException {
+        /**
+         * The serial version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Instantiates a new circuit open exception.
+         *
+         * @param message the message
+         */
+        public CircuitOpenException(final String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.impl;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Collects the OSC messages produced by one LightFactory command and packs the messages for each destination into a
+ * single <i>#bundle</i> with an immediate time tag.
+ * <br>The encoded messages are kept in reusable buffers owned by the encoder, one per destination in the order the
+ * destinations were first seen. A destination with a single message is sent the plain message instead of a bundle.
+ * <br>Usage: {@link #reset()} the encoder, {@link #add(InetSocketAddress, OSCEncoder)} each message and
+ * {@link #encode(int, ByteBuffer)} the packet of each destination. An encoder instance is not thread safe.
+ */
+public final class OSCBundleEncoder {
+
+    /**
+     * The <i>#bundle</i> address, null terminated.
+     */
+    private static final byte[] BUNDLE = {'#', 'b', 'u', 'n', 'd', 'l', 'e', 0};
+    /**
+     * The immediate time tag.
+     */
+    private static final long IMMEDIATE = 1L;
+    /**
+     * Size of the bundle header, the address and the time tag.
+     */
+    private static final int HEADER_SIZE = 16;
+    /**
+     * Size of the element size prefix.
+     */
+    private static final int ELEMENT_PREFIX = 4;
+    /**
+     * Initial size of the element buffer of a destination.
+     */
+    private static final int ELEMENT_BUFFER_SIZE = 1024;
+
+    /**
+     * Destinations seen since the last reset.
+     */
+    private InetSocketAddress[] targets = new InetSocketAddress[4];
+    /**
+     * Size prefixed messages of each destination.
+     */
+    private ByteBuffer[] elements = new ByteBuffer[4];
+    /**
+     * Number of messages of each destination.
+     */
+    private int[] counts = new int[4];
+    /**
+     * Number of destinations seen since the last reset.
+     */
+    private int targetCount;
+
+    /**
+     * Forget the messages collected so far.
+     *
+     * @return this encoder
+     */
+    public OSCBundleEncoder reset() {
+        for (int i = 0; i < targetCount; i++) {
+            targets[i] = null;
+            elements[i].clear();
+            counts[i] = 0;
+        }
+        targetCount = 0;
+        return this;
+    }
+
+    /**
+     * Add the current message of an OSC encoder.
+     *
+     * @param target  the destination
+     * @param message the encoder holding the message
+     * @return this encoder
+     */
+    public OSCBundleEncoder add(final InetSocketAddress target, final OSCEncoder message) {
+        int index = indexOf(target);
+        int size = message.size();
+        ByteBuffer element = elements[index];
+        if (element.remaining() < ELEMENT_PREFIX + size) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(element.capacity() << 1,
+                    element.position() + ELEMENT_PREFIX + size));
+            element.flip();
+            grown.put(element);
+            elements[index] = grown;
+            element = grown;
+        }
+        element.putInt(size);
+        message.encode(element);
+        counts[index]++;
+        return this;
+    }
+
+    /**
+     * Gets the number of destinations.
+     *
+     * @return the destination count
+     */
+    public int getTargetCount() {
+        return targetCount;
+    }
+
+    /**
+     * Gets a destination.
+     *
+     * @param index the destination index
+     * @return the destination
+     */
+    public InetSocketAddress getTarget(final int index) {
+        return targets[index];
+    }
+
+    /**
+     * Gets the number of messages for a destination.
+     *
+     * @param index the destination index
+     * @return the message count
+     */
+    public int getMessageCount(final int index) {
+        return counts[index];
+    }
+
+    /**
+     * Gets the size of the packet for a destination.
+     *
+     * @param index the destination index
+     * @return the packet size in bytes
+     */
+    public int size(final int index) {
+        int length = elements[index].position();
+        return counts[index] == 1 ? length - ELEMENT_PREFIX : HEADER_SIZE + length;
+    }
+
+    /**
+     * Write the packet for a destination, the plain message if it has a single message, a bundle otherwise.
+     *
+     * @param index the destination index
+     * @param out   the output, with room for {@link #size(int)} bytes
+     * @return the output
+     */
+    public ByteBuffer encode(final int index, final ByteBuffer out) {
+        ByteBuffer element = elements[index];
+        if (counts[index] == 1) {
+            out.put(element.array(), ELEMENT_PREFIX, element.position() - ELEMENT_PREFIX);
+            return out;
+        }
+        out.put(BUNDLE);
+        out.putLong(IMMEDIATE);
+        out.put(element.array(), 0, element.position());
+        return out;
+    }
+
+    /**
+     * Write a single message of a destination, for a bundle that does not fit a datagram.
+     *
+     * @param index   the destination index
+     * @param message the message index
+     * @param out     the output, with room for the message
+     * @return the output
+     */
+    public ByteBuffer encode(final int index, final int message, final ByteBuffer out) {
+        byte[] data = elements[index].array();
+        int offset = 0;
+        for (int i = 0; i < message; i++) {
+            offset += ELEMENT_PREFIX + elementSize(data, offset);
+        }
+        out.put(data, offset + ELEMENT_PREFIX, elementSize(data, offset));
+        return out;
+    }
+
+    /**
+     * Gets the size of a single message of a destination.
+     *
+     * @param index   the destination index
+     * @param message the message index
+     * @return the message size in bytes
+     */
+    public int size(final int index, final int message) {
+        byte[] data = elements[index].array();
+        int offset = 0;
+        for (int i = 0; i < message; i++) {
+            offset += ELEMENT_PREFIX + elementSize(data, offset);
+        }
+        return elementSize(data, offset);
+    }
+
+    /**
+     * Gets the index of a destination, adding it if it was not seen yet.
+     *
+     * @param target the destination
+     * @return the destination index
+     */
+    private int indexOf(final InetSocketAddress target) {
+        for (int i = 0; i < targetCount; i++) {
+            if (targets[i].equals(target)) {
+                return i;
+            }
+        }
+        if (targetCount == targets.length) {
+            targets = Arrays.copyOf(targets, targetCount << 1);
+            elements = Arrays.copyOf(elements, targetCount << 1);
+            counts = Arrays.copyOf(counts, targetCount << 1);
+        }
+        if (elements[targetCount] == null) {
+            elements[targetCount] = ByteBuffer.allocate(ELEMENT_BUFFER_SIZE);
+        }
+        targets[targetCount] = target;
+        return targetCount++;
+    }
+
+    /**
+     * Read a big endian element size.
+     *
+     * @param data   the elements
+     * @param offset the offset of the size prefix
+     * @return the element size
+     */
+    private static int elementSize(final byte[] data, final int offset) {
+        return (data[offset] & 0xFF) << 24 | (data[offset + 1] & 0xFF) << 16 | (data[offset + 2] & 0xFF) << 8
+                | data[offset + 3] & 0xFF;
+    }
+}
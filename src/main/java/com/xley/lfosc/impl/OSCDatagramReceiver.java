@@ -0,0 +1,633 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.impl;
+
+import com.illposed.osc.AddressSelector;
+import com.illposed.osc.OSCBundle;
+import com.illposed.osc.OSCListener;
+import com.illposed.osc.OSCMessage;
+import com.illposed.osc.OSCPacket;
+import com.illposed.osc.utility.OSCByteArrayToJavaConverter;
+import com.illposed.osc.utility.OSCPacketDispatcher;
+import com.illposed.osc.utility.OSCPatternAddressSelector;
+import com.xley.lfosc.util.BufferPool;
+import com.xley.lfosc.util.LogUtil;
+import com.xley.lfosc.util.TokenBucket;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OSC receiver built on a {@link DatagramChannel}, an alternative to {@link com.illposed.osc.OSCPortIn}.
+ * <br>Datagrams are read into pooled direct buffers and only the OSC address is read before routing, packets are
+ * decoded into javaosc objects only when a listener selects one of their addresses. Dispatching is done by the
+ * javaosc {@link OSCPacketDispatcher} so listeners see the same calls as with {@link com.illposed.osc.OSCPortIn}.
+ * <br>The messages of a bundle, including nested bundles, are handed to each listener in bundle order. A
+ * {@link BundleListener} receives all messages of a bundle it selects in a single call, a {@link SourceListener} is
+ * told the sender of each datagram before its messages.
+ */
+public class OSCDatagramReceiver implements Runnable {
+    /**
+     * The constant resources.
+     */
+    public static final ResourceBundle resources = ResourceBundle.getBundle(OSCDatagramReceiver.class.getSimpleName(),
+            Locale.getDefault());
+
+    /**
+     * Size of the receive buffers, a datagram filling a buffer was truncated.
+     */
+    private static final int BUFFER_SIZE = 8192;
+    /**
+     * Address of an OSC bundle.
+     */
+    private static final byte[] BUNDLE = {'#', 'b', 'u', 'n', 'd', 'l', 'e', 0};
+    /**
+     * Size of the bundle header, the address and the time tag.
+     */
+    private static final int BUNDLE_HEADER = 16;
+    /**
+     * Max nesting of bundles.
+     */
+    private static final int MAX_BUNDLE_DEPTH = 8;
+    /**
+     * Max number of sources with a rate limit bucket, the least recently seen source loses its bucket when exceeded.
+     */
+    private static final int MAX_SOURCES = 4096;
+
+    /**
+     * The receive channel.
+     */
+    private final DatagramChannel channel;
+    /**
+     * Pool of receive buffers.
+     */
+    private final BufferPool buffers = new BufferPool(BUFFER_SIZE, 4, true);
+    /**
+     * The registered address selectors.
+     */
+    private final List<AddressSelector> selectors = new CopyOnWriteArrayList<>();
+    /**
+     * The registered listeners, in the order of their selectors.
+     */
+    private final List<OSCListener> listeners = new CopyOnWriteArrayList<>();
+    /**
+     * Dispatches decoded packets to the listeners.
+     */
+    private final OSCPacketDispatcher dispatcher = new OSCPacketDispatcher();
+    /**
+     * Decodes selected packets.
+     */
+    private final OSCByteArrayToJavaConverter converter = new OSCByteArrayToJavaConverter();
+    /**
+     * Copy of a selected datagram handed to the converter.
+     */
+    private final byte[] packet = new byte[BUFFER_SIZE];
+    /**
+     * Charset of OSC strings.
+     */
+    private final Charset charset = Charset.forName("UTF-8");
+
+    /**
+     * Address bytes of the last routed message.
+     */
+    private byte[] lastAddress = new byte[0];
+    /**
+     * The last routed address.
+     */
+    private String lastAddressString = "";
+    /**
+     * Routing result of the last routed address.
+     */
+    private boolean lastSelected;
+
+    /**
+     * Datagrams received.
+     */
+    private final AtomicLong received = new AtomicLong();
+    /**
+     * Datagrams handed to the listeners.
+     */
+    private final AtomicLong dispatched = new AtomicLong();
+    /**
+     * Datagrams dropped because no listener selected them.
+     */
+    private final AtomicLong unmatched = new AtomicLong();
+    /**
+     * Datagrams dropped because they are not valid OSC.
+     */
+    private final AtomicLong malformed = new AtomicLong();
+    /**
+     * Datagrams dropped because they did not fit the receive buffer.
+     */
+    private final AtomicLong overruns = new AtomicLong();
+    /**
+     * Datagrams dropped by the per source rate limit.
+     */
+    private final AtomicLong rateLimited = new AtomicLong();
+
+    /**
+     * Rate limit buckets by source address in least recently seen order, only used by the receive thread.
+     */
+    private final Map<InetAddress, TokenBucket> limits = new LinkedHashMap<InetAddress, TokenBucket>(16, 0.75f,
+            true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<InetAddress, TokenBucket> eldest) {
+            return size() > MAX_SOURCES;
+        }
+    };
+    /**
+     * Datagrams per second allowed from each source, 0 for no limit.
+     */
+    private double rateLimit;
+    /**
+     * Datagrams a source may send in a burst above the rate limit.
+     */
+    private int rateBurst;
+
+    /**
+     * The receive thread.
+     */
+    private Thread thread;
+    /**
+     * True while receiving.
+     */
+    private volatile boolean listening;
+
+    /**
+     * Instantiates a new OSC datagram receiver.
+     *
+     * @param binding           the address to receive on
+     * @param receiveBufferSize the socket receive buffer size in bytes, 0 for the system default
+     * @throws IOException if the channel could not be opened or bound
+     */
+    public OSCDatagramReceiver(final InetSocketAddress binding, final int receiveBufferSize) throws IOException {
+        channel = DatagramChannel.open();
+        try {
+            if (receiveBufferSize > 0) {
+                channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+            }
+            channel.bind(binding);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        LogUtil.debug(this.getClass(), resources.getString("osc.receiver.buffer"),
+                String.valueOf(channel.getOption(StandardSocketOptions.SO_RCVBUF)));
+    }
+
+    /**
+     * Register a listener for an OSC address pattern, listeners are registered before {@link #startListening()}.
+     *
+     * @param pattern  the address pattern
+     * @param listener the listener
+     */
+    public final void addListener(final String pattern, final OSCListener listener) {
+        addListener(new OSCPatternAddressSelector(pattern), listener);
+    }
+
+    /**
+     * Register a listener for an address selector, listeners are registered before {@link #startListening()}.
+     *
+     * @param selector the address selector
+     * @param listener the listener
+     */
+    public final synchronized void addListener(final AddressSelector selector, final OSCListener listener) {
+        dispatcher.addListener(selector, listener);
+        selectors.add(selector);
+        listeners.add(listener);
+    }
+
+    /**
+     * Limit the datagrams accepted from each source address, set before {@link #startListening()}.
+     *
+     * @param perSecond the datagrams per second allowed from each source, 0 for no limit
+     * @param burst     the datagrams a source may send in a burst
+     */
+    public final synchronized void setRateLimit(final double perSecond, final int burst) {
+        this.rateLimit = perSecond;
+        this.rateBurst = burst;
+    }
+
+    /**
+     * Start the receive thread.
+     */
+    public final synchronized void startListening() {
+        if (thread != null) {
+            return;
+        }
+        listening = true;
+        thread = new Thread(this, "OSCDatagramReceiver - Listener");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Checks if the receiver is running.
+     *
+     * @return true while receiving
+     */
+    public final boolean isListening() {
+        return listening;
+    }
+
+    /**
+     * Gets the local address of the channel.
+     *
+     * @return the local address
+     * @throws IOException if the channel is closed
+     */
+    public final SocketAddress getLocalAddress() throws IOException {
+        return channel.getLocalAddress();
+    }
+
+    @Override
+    public final void run() {
+        ByteBuffer buffer = buffers.acquire();
+        try {
+            while (listening) {
+                buffer.clear();
+                SocketAddress source = channel.receive(buffer);
+                if (source == null) {
+                    continue;
+                }
+                received.incrementAndGet();
+                if (rateLimit > 0 && !allow(source)) {
+                    rateLimited.incrementAndGet();
+                    continue;
+                }
+                if (!buffer.hasRemaining()) {
+                    overruns.incrementAndGet();
+                    continue;
+                }
+                buffer.flip();
+                process(buffer, (InetSocketAddress) source);
+            }
+        } catch (ClosedChannelException e) {
+            LogUtil.trace(this.getClass(), e);
+        } catch (IOException e) {
+            if (listening) {
+                LogUtil.error(this.getClass(), resources.getString("osc.receiver.error"), e);
+            }
+        } finally {
+            listening = false;
+            buffers.release(buffer);
+        }
+    }
+
+    /**
+     * Send a packet from the receive channel, so the packet comes from the address OSC senders send to.
+     *
+     * @param buffer the packet between position and limit
+     * @param target the destination
+     * @throws IOException if the packet could not be sent
+     */
+    public final void send(final ByteBuffer buffer, final SocketAddress target) throws IOException {
+        channel.send(buffer, target);
+    }
+
+    /**
+     * Stop receiving and close the channel.
+     */
+    public final void close() {
+        listening = false;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LogUtil.trace(this.getClass(), e);
+        }
+        LogUtil.debug(this.getClass(), resources.getString("osc.receiver.stats"), received.get(), dispatched.get(),
+                unmatched.get(), malformed.get(), overruns.get(), rateLimited.get());
+    }
+
+    /**
+     * Gets the number of datagrams received.
+     *
+     * @return the received count
+     */
+    public final long getReceived() {
+        return received.get();
+    }
+
+    /**
+     * Gets the number of datagrams handed to the listeners.
+     *
+     * @return the dispatched count
+     */
+    public final long getDispatched() {
+        return dispatched.get();
+    }
+
+    /**
+     * Gets the number of datagrams dropped because no listener selected them.
+     *
+     * @return the unmatched count
+     */
+    public final long getUnmatched() {
+        return unmatched.get();
+    }
+
+    /**
+     * Gets the number of datagrams dropped because they are not valid OSC.
+     *
+     * @return the malformed count
+     */
+    public final long getMalformed() {
+        return malformed.get();
+    }
+
+    /**
+     * Gets the number of datagrams dropped because they did not fit the receive buffer.
+     *
+     * @return the overrun count
+     */
+    public final long getOverruns() {
+        return overruns.get();
+    }
+
+    /**
+     * Gets the number of datagrams dropped by the per source rate limit.
+     *
+     * @return the rate limited count
+     */
+    public final long getRateLimited() {
+        return rateLimited.get();
+    }
+
+    /**
+     * Take a rate limit token for a source.
+     *
+     * @param source the source address
+     * @return true if the datagram is allowed
+     */
+    private boolean allow(final SocketAddress source) {
+        InetAddress address = ((InetSocketAddress) source).getAddress();
+        TokenBucket bucket = limits.get(address);
+        if (bucket == null) {
+            bucket = new TokenBucket(rateLimit, rateBurst);
+            limits.put(address, bucket);
+        }
+        return bucket.tryAcquire();
+    }
+
+    /**
+     * Route a datagram, decoding and dispatching it if a listener selects it.
+     *
+     * @param buffer the datagram between position and limit
+     * @param source the sender of the datagram
+     */
+    private void process(final ByteBuffer buffer, final InetSocketAddress source) {
+        int length = buffer.remaining();
+        int selected = select(buffer, buffer.position(), length, 0);
+        if (selected < 0) {
+            malformed.incrementAndGet();
+            return;
+        }
+        if (selected == 0) {
+            unmatched.incrementAndGet();
+            return;
+        }
+        buffer.get(packet, 0, length);
+        OSCPacket oscPacket;
+        try {
+            oscPacket = converter.convert(packet, length);
+        } catch (RuntimeException e) {
+            malformed.incrementAndGet();
+            LogUtil.trace(this.getClass(), e);
+            return;
+        }
+        for (OSCListener listener : listeners) {
+            if (listener instanceof SourceListener) {
+                ((SourceListener) listener).acceptSource(source);
+            }
+        }
+        if (oscPacket instanceof OSCBundle) {
+            dispatch((OSCBundle) oscPacket);
+        } else {
+            dispatcher.dispatchPacket(oscPacket);
+        }
+        dispatched.incrementAndGet();
+    }
+
+    /**
+     * Hand the messages of a bundle to the listeners selecting them, in bundle order.
+     *
+     * @param bundle the bundle
+     */
+    private void dispatch(final OSCBundle bundle) {
+        List<OSCMessage> messages = new ArrayList<>();
+        flatten(bundle, messages);
+        for (int i = 0; i < selectors.size(); i++) {
+            AddressSelector selector = selectors.get(i);
+            OSCListener listener = listeners.get(i);
+            List<OSCMessage> selected = new ArrayList<>(messages.size());
+            for (OSCMessage message : messages) {
+                if (selector.matches(message.getAddress())) {
+                    selected.add(message);
+                }
+            }
+            if (selected.isEmpty()) {
+                continue;
+            }
+            if (listener instanceof BundleListener) {
+                ((BundleListener) listener).acceptBundle(bundle.getTimestamp(), selected);
+            } else {
+                for (OSCMessage message : selected) {
+                    listener.acceptMessage(bundle.getTimestamp(), message);
+                }
+            }
+        }
+    }
+
+    /**
+     * Collect the messages of a bundle and its nested bundles in order.
+     *
+     * @param bundle   the bundle
+     * @param messages receives the messages
+     */
+    private static void flatten(final OSCBundle bundle, final List<OSCMessage> messages) {
+        for (OSCPacket element : bundle.getPackets()) {
+            if (element instanceof OSCBundle) {
+                flatten((OSCBundle) element, messages);
+            } else {
+                messages.add((OSCMessage) element);
+            }
+        }
+    }
+
+    /**
+     * Count the messages of a packet selected by a listener, looking only at the addresses.
+     *
+     * @param buffer the datagram
+     * @param offset the start of the packet
+     * @param length the length of the packet
+     * @param depth  the bundle nesting
+     * @return the number of selected messages, -1 if the packet is malformed
+     */
+    private int select(final ByteBuffer buffer, final int offset, final int length, final int depth) {
+        if (length < 4 || (length & 3) != 0) {
+            return -1;
+        }
+        if (!isBundle(buffer, offset, length)) {
+            return selectMessage(buffer, offset, length);
+        }
+        if (depth >= MAX_BUNDLE_DEPTH) {
+            return -1;
+        }
+        int selected = 0;
+        int position = offset + BUNDLE_HEADER;
+        int end = offset + length;
+        while (position < end) {
+            if (position + 4 > end) {
+                return -1;
+            }
+            int size = buffer.getInt(position);
+            position += 4;
+            if (size < 0 || position + size > end) {
+                return -1;
+            }
+            int element = select(buffer, position, size, depth + 1);
+            if (element < 0) {
+                return -1;
+            }
+            selected += element;
+            position += size;
+        }
+        return selected;
+    }
+
+    /**
+     * Check if a listener selects the address of a message.
+     *
+     * @param buffer the datagram
+     * @param offset the start of the message
+     * @param length the length of the message
+     * @return 1 if a listener selects the message, 0 if not, -1 if the address is not terminated
+     */
+    private int selectMessage(final ByteBuffer buffer, final int offset, final int length) {
+        int end = offset;
+        while (end < offset + length && buffer.get(end) != 0) {
+            end++;
+        }
+        if (end == offset + length) {
+            return -1;
+        }
+        if (!sameAddress(buffer, offset, end)) {
+            byte[] address = new byte[end - offset];
+            for (int i = 0; i < address.length; i++) {
+                address[i] = buffer.get(offset + i);
+            }
+            lastAddress = address;
+            lastAddressString = new String(address, charset);
+            lastSelected = false;
+            for (AddressSelector selector : selectors) {
+                if (selector.matches(lastAddressString)) {
+                    lastSelected = true;
+                    break;
+                }
+            }
+        }
+        return lastSelected ? 1 : 0;
+    }
+
+    /**
+     * Compare an address with the last routed address.
+     *
+     * @param buffer the datagram
+     * @param start  the start of the address
+     * @param end    the end of the address
+     * @return true if it is the last routed address
+     */
+    private boolean sameAddress(final ByteBuffer buffer, final int start, final int end) {
+        byte[] address = lastAddress;
+        if (address.length != end - start || address.length == 0) {
+            return false;
+        }
+        for (int i = 0; i < address.length; i++) {
+            if (address[i] != buffer.get(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check for the bundle address.
+     *
+     * @param buffer the datagram
+     * @param offset the start of the packet
+     * @param length the length of the packet
+     * @return true for a bundle
+     */
+    private static boolean isBundle(final ByteBuffer buffer, final int offset, final int length) {
+        if (length < BUNDLE_HEADER) {
+            return false;
+        }
+        for (int i = 0; i < BUNDLE.length; i++) {
+            if (buffer.get(offset + i) != BUNDLE[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A listener receiving the messages of a bundle as one ordered batch.
+     */
+    public interface BundleListener extends OSCListener {
+        /**
+         * Accept the messages of a bundle selected by the listener.
+         *
+         * @param time     the bundle time tag
+         * @param messages the selected messages in bundle order
+         */
+        void acceptBundle(Date time, List<OSCMessage> messages);
+    }
+
+    /**
+     * A listener that wants to know the sender of the messages it is handed.
+     */
+    public interface SourceListener extends OSCListener {
+        /**
+         * Called on the receive thread before the messages of a datagram are handed to the listeners.
+         *
+         * @param source the sender of the datagram
+         */
+        void acceptSource(InetSocketAddress source);
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.impl;
+
+import com.illposed.osc.OSCPacket;
+import com.xley.lfosc.util.BufferPool;
+import com.xley.lfosc.util.LogUtil;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long lived OSC datagram sender shared by all LightFactory connections.
+ * <br>Packets are sent over a small striped set of unconnected non-blocking channels, packets are serialized into
+ * direct buffers taken from a small pool shared by all sending threads.
+ * <br>Send counters are kept for the first {@value #MAX_TARGETS} destinations, the packets of any further destination
+ * are counted together.
+ */
+public class OSCDatagramSender {
+    /**
+     * The constant resources.
+     */
+    public static final ResourceBundle resources = ResourceBundle.getBundle(OSCDatagramSender.class.getSimpleName(),
+            Locale.getDefault());
+
+    /**
+     * Max number of destinations with their own send counters.
+     */
+    public static final int MAX_TARGETS = 256;
+
+    /**
+     * Size of the pooled send buffers, larger packets use a buffer of their own.
+     */
+    private static final int BUFFER_SIZE = 1536;
+    /**
+     * Max number of send buffers kept in the pool.
+     */
+    private static final int BUFFERS_POOLED = 64;
+    /**
+     * Largest payload of a UDP datagram.
+     */
+    static final int MAX_DATAGRAM = 65507;
+
+    /**
+     * The striped send channels.
+     */
+    private final DatagramChannel[] channels;
+    /**
+     * Reusable send buffers.
+     */
+    private final BufferPool buffers = new BufferPool(BUFFER_SIZE, BUFFERS_POOLED, true);
+    /**
+     * Send counters for each destination.
+     */
+    private final ConcurrentMap<InetSocketAddress, Counters> counters = new ConcurrentHashMap<>();
+    /**
+     * Send counters of the destinations beyond the max number of destinations.
+     */
+    private final Counters others = new Counters();
+
+    /**
+     * Instantiates a new OSC datagram sender.
+     *
+     * @param stripes the number of channels to spread the sends over
+     * @throws IOException if a channel could not be opened
+     */
+    public OSCDatagramSender(final int stripes) throws IOException {
+        channels = new DatagramChannel[Math.max(1, stripes)];
+        try {
+            for (int i = 0; i < channels.length; i++) {
+                channels[i] = DatagramChannel.open();
+                channels[i].configureBlocking(false);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Send an OSC packet.
+     *
+     * @param packet the packet
+     * @param target the destination
+     * @throws IOException if the packet could not be sent
+     */
+    public final void send(final OSCPacket packet, final InetSocketAddress target) throws IOException {
+        byte[] data = packet.getByteArray();
+        ByteBuffer buffer = buffer(data.length);
+        try {
+            buffer.put(data);
+            buffer.flip();
+            send(buffer, target);
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * Send an already serialized OSC packet.
+     *
+     * @param buffer the packet between position and limit
+     * @param target the destination
+     * @throws IOException if the packet could not be sent
+     */
+    public final void send(final ByteBuffer buffer, final InetSocketAddress target) throws IOException {
+        Counters counter = countersFor(target);
+        DatagramChannel channel = channels[(int) (Thread.currentThread().getId() % channels.length)];
+        try {
+            if (channel.send(buffer, target) == 0) {
+                throw new IOException(MessageFormat.format(resources.getString("osc.sender.full"), target));
+            }
+            counter.sent.incrementAndGet();
+        } catch (IOException e) {
+            counter.failed.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Take a cleared send buffer with room for the given size, give it back with {@link #release(ByteBuffer)}.
+     *
+     * @param size the number of bytes needed
+     * @return the buffer
+     * @throws IOException if the size exceeds a datagram
+     */
+    public final ByteBuffer buffer(final int size) throws IOException {
+        if (size > MAX_DATAGRAM) {
+            throw new IOException(MessageFormat.format(resources.getString("osc.sender.size"), size));
+        }
+        if (size > BUFFER_SIZE) {
+            return ByteBuffer.allocate(size);
+        }
+        return buffers.acquire();
+    }
+
+    /**
+     * Give back a send buffer taken with {@link #buffer(int)}.
+     *
+     * @param buffer the buffer, not used by the caller afterwards
+     */
+    public final void release(final ByteBuffer buffer) {
+        buffers.release(buffer);
+    }
+
+    /**
+     * Gets the number of packets sent to a destination.
+     *
+     * @param target the destination
+     * @return the sent count
+     */
+    public final long getSentCount(final InetSocketAddress target) {
+        Counters counter = counters.get(target);
+        return counter == null ? 0 : counter.sent.get();
+    }
+
+    /**
+     * Gets the number of packets that failed to send to a destination.
+     *
+     * @param target the destination
+     * @return the failed count
+     */
+    public final long getFailedCount(final InetSocketAddress target) {
+        Counters counter = counters.get(target);
+        return counter == null ? 0 : counter.failed.get();
+    }
+
+    /**
+     * Gets the destinations packets have been sent to, up to the max number of destinations.
+     *
+     * @return the destinations
+     */
+    public final Iterable<InetSocketAddress> getTargets() {
+        return Collections.unmodifiableSet(counters.keySet());
+    }
+
+    /**
+     * Close all channels.
+     */
+    public final void close() {
+        for (DatagramChannel channel : channels) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    LogUtil.trace(this.getClass(), e);
+                }
+            }
+        }
+        for (Map.Entry<InetSocketAddress, Counters> entry : counters.entrySet()) {
+            LogUtil.debug(this.getClass(), resources.getString("osc.sender.stats"), entry.getKey(),
+                    entry.getValue().sent.get(), entry.getValue().failed.get());
+        }
+        if (others.sent.get() > 0 || others.failed.get() > 0) {
+            LogUtil.debug(this.getClass(), resources.getString("osc.sender.stats"), "other", others.sent.get(),
+                    others.failed.get());
+        }
+    }
+
+    /**
+     * Gets or creates the counters for a destination, the shared counters once the max number of destinations is
+     * reached.
+     *
+     * @param target the destination
+     * @return the counters
+     */
+    private Counters countersFor(final InetSocketAddress target) {
+        Counters counter = counters.get(target);
+        if (counter == null && counters.size() >= MAX_TARGETS) {
+            return others;
+        }
+        if (counter == null) {
+            Counters created = new Counters();
+            counter = counters.putIfAbsent(target, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Send counters of a destination.
+     */
+    private static final class Counters {
+        /**
+         * Packets sent.
+         */
+        private final AtomicLong sent = new AtomicLong();
+        /**
+         * Packets that failed to send.
+         */
+        private final AtomicLong failed = new AtomicLong();
+    }
+}
@@ -0,0 +1,482 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.impl;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * OSC 1.0 message encoder writing straight into a {@link ByteBuffer}.
+ * <br>Supports the OSC 1.0 types <i>i f s b</i> and the OSC 1.1 types <i>h d t S c r m T F N I</i>. Type tags and
+ * arguments are collected in reusable buffers owned by the encoder, so encoding a message does not allocate once the
+ * buffers have grown to the largest message seen. Strings are written as UTF-8 and padded on their byte length.
+ * <br>Usage: {@link #start(CharSequence, int, int)} a message, add the arguments, size the output with
+ * {@link #size()} and {@link #encode(ByteBuffer)} it. An encoder instance is not thread safe.
+ */
+public final class OSCEncoder {
+
+    /**
+     * Characters not allowed in an OSC address, as checked by {@link com.illposed.osc.OSCMessage}.
+     */
+    private static final String ILLEGAL_ADDRESS_CHARS = " #*,?[]{}";
+    /**
+     * Initial size of the argument buffer.
+     */
+    private static final int ARGUMENT_BUFFER_SIZE = 512;
+    /**
+     * Seconds between the NTP epoch (1900) and the Java epoch (1970).
+     */
+    private static final long NTP_EPOCH_OFFSET = 2208988800L;
+
+    /**
+     * Source of the address of the current message.
+     */
+    private CharSequence address = "";
+    /**
+     * Start of the address.
+     */
+    private int addressStart;
+    /**
+     * End of the address.
+     */
+    private int addressEnd;
+    /**
+     * Type tags of the current message, without the leading comma.
+     */
+    private byte[] tags = new byte[16];
+    /**
+     * Number of type tags.
+     */
+    private int tagCount;
+    /**
+     * Encoded arguments of the current message.
+     */
+    private ByteBuffer arguments = ByteBuffer.allocate(ARGUMENT_BUFFER_SIZE);
+
+    /**
+     * Start a new message.
+     *
+     * @param source the text holding the OSC address
+     * @param start  the start of the address
+     * @param end    the end of the address
+     * @return this encoder
+     * @throws IllegalArgumentException if the address is not a valid OSC address
+     */
+    public OSCEncoder start(final CharSequence source, final int start, final int end) {
+        if (!isValidAddress(source, start, end)) {
+            throw new IllegalArgumentException(source.subSequence(start, end).toString());
+        }
+        this.address = source;
+        this.addressStart = start;
+        this.addressEnd = end;
+        this.tagCount = 0;
+        this.arguments.clear();
+        return this;
+    }
+
+    /**
+     * Start a new message.
+     *
+     * @param oscAddress the OSC address
+     * @return this encoder
+     * @throws IllegalArgumentException if the address is not a valid OSC address
+     */
+    public OSCEncoder start(final CharSequence oscAddress) {
+        return start(oscAddress, 0, oscAddress.length());
+    }
+
+    /**
+     * Add an int32 argument.
+     *
+     * @param value the value
+     * @return this encoder
+     */
+    public OSCEncoder addInt(final int value) {
+        tag('i');
+        ensure(4).putInt(value);
+        return this;
+    }
+
+    /**
+     * Add a float32 argument.
+     *
+     * @param value the value
+     * @return this encoder
+     */
+    public OSCEncoder addFloat(final float value) {
+        tag('f');
+        ensure(4).putFloat(value);
+        return this;
+    }
+
+    /**
+     * Add an int64 argument.
+     *
+     * @param value the value
+     * @return this encoder
+     */
+    public OSCEncoder addLong(final long value) {
+        tag('h');
+        ensure(8).putLong(value);
+        return this;
+    }
+
+    /**
+     * Add a float64 argument.
+     *
+     * @param value the value
+     * @return this encoder
+     */
+    public OSCEncoder addDouble(final double value) {
+        tag('d');
+        ensure(8).putDouble(value);
+        return this;
+    }
+
+    /**
+     * Add a string argument.
+     *
+     * @param source the text holding the string
+     * @param start  the start of the string
+     * @param end    the end of the string
+     * @return this encoder
+     */
+    public OSCEncoder addString(final CharSequence source, final int start, final int end) {
+        tag('s');
+        writeString(ensure(paddedLength(utf8Length(source, start, end) + 1)), source, start, end);
+        return this;
+    }
+
+    /**
+     * Add a string argument.
+     *
+     * @param value the string
+     * @return this encoder
+     */
+    public OSCEncoder addString(final CharSequence value) {
+        return addString(value, 0, value.length());
+    }
+
+    /**
+     * Add a symbol argument, encoded like a string.
+     *
+     * @param source the text holding the symbol
+     * @param start  the start of the symbol
+     * @param end    the end of the symbol
+     * @return this encoder
+     */
+    public OSCEncoder addSymbol(final CharSequence source, final int start, final int end) {
+        tag('S');
+        writeString(ensure(paddedLength(utf8Length(source, start, end) + 1)), source, start, end);
+        return this;
+    }
+
+    /**
+     * Add a blob argument.
+     *
+     * @param data   the blob data
+     * @param offset the start of the blob
+     * @param length the length of the blob
+     * @return this encoder
+     */
+    public OSCEncoder addBlob(final byte[] data, final int offset, final int length) {
+        tag('b');
+        ByteBuffer buffer = ensure(4 + paddedLength(length));
+        buffer.putInt(length);
+        buffer.put(data, offset, length);
+        pad(buffer, length);
+        return this;
+    }
+
+    /**
+     * Add an OSC time tag argument.
+     *
+     * @param ntpTime the time in 64 bit NTP format
+     * @return this encoder
+     */
+    public OSCEncoder addTimeTag(final long ntpTime) {
+        tag('t');
+        ensure(8).putLong(ntpTime);
+        return this;
+    }
+
+    /**
+     * Add an ASCII character argument.
+     *
+     * @param value the character
+     * @return this encoder
+     */
+    public OSCEncoder addChar(final char value) {
+        tag('c');
+        ensure(4).putInt(value & 0xFF);
+        return this;
+    }
+
+    /**
+     * Add a 32 bit RGBA color argument.
+     *
+     * @param rgba the color
+     * @return this encoder
+     */
+    public OSCEncoder addColor(final int rgba) {
+        tag('r');
+        ensure(4).putInt(rgba);
+        return this;
+    }
+
+    /**
+     * Add a 4 byte MIDI message argument.
+     *
+     * @param midi the port id, status byte, data1 and data2 from most to least significant byte
+     * @return this encoder
+     */
+    public OSCEncoder addMidi(final int midi) {
+        tag('m');
+        ensure(4).putInt(midi);
+        return this;
+    }
+
+    /**
+     * Add a true or false argument, these carry no data.
+     *
+     * @param value the value
+     * @return this encoder
+     */
+    public OSCEncoder addBoolean(final boolean value) {
+        tag(value ? 'T' : 'F');
+        return this;
+    }
+
+    /**
+     * Add a nil argument.
+     *
+     * @return this encoder
+     */
+    public OSCEncoder addNil() {
+        tag('N');
+        return this;
+    }
+
+    /**
+     * Add an impulse argument.
+     *
+     * @return this encoder
+     */
+    public OSCEncoder addImpulse() {
+        tag('I');
+        return this;
+    }
+
+    /**
+     * Gets the number of arguments of the current message.
+     *
+     * @return the argument count
+     */
+    public int getArgumentCount() {
+        return tagCount;
+    }
+
+    /**
+     * Gets the encoded size of the current message.
+     *
+     * @return the size in bytes
+     */
+    public int size() {
+        return paddedLength(utf8Length(address, addressStart, addressEnd) + 1)
+                + paddedLength(tagCount + 2)
+                + arguments.position();
+    }
+
+    /**
+     * Write the current message at the position of the buffer.
+     *
+     * @param out the buffer, with at least {@link #size()} bytes remaining
+     * @return the buffer, positioned after the message
+     */
+    public ByteBuffer encode(final ByteBuffer out) {
+        writeString(out, address, addressStart, addressEnd);
+        out.put((byte) ',');
+        out.put(tags, 0, tagCount);
+        out.put((byte) 0);
+        pad(out, tagCount + 2);
+        out.put(arguments.array(), 0, arguments.position());
+        return out;
+    }
+
+    /**
+     * Convert a Java time to the 64 bit NTP format used by OSC time tags.
+     *
+     * @param millis the milliseconds since the Java epoch
+     * @return the NTP time
+     */
+    public static long toNtpTime(final long millis) {
+        long remainder = millis % 1000L;
+        long seconds = millis / 1000L;
+        if (remainder < 0) {
+            remainder += 1000L;
+            seconds--;
+        }
+        seconds += NTP_EPOCH_OFFSET;
+        long fraction = (remainder << 32) / 1000L;
+        return (seconds << 32) | fraction;
+    }
+
+    /**
+     * Check an OSC address, it has to start with a slash and may not hold an empty part or a pattern character.
+     *
+     * @param source the text holding the address
+     * @param start  the start of the address
+     * @param end    the end of the address
+     * @return true if the address is valid
+     */
+    public static boolean isValidAddress(final CharSequence source, final int start, final int end) {
+        if (end <= start || source.charAt(start) != '/') {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            char c = source.charAt(i);
+            if (ILLEGAL_ADDRESS_CHARS.indexOf(c) >= 0 || (c == '/' && i + 1 < end && source.charAt(i + 1) == '/')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the UTF-8 length of a text, unpaired surrogates count as the single replacement byte.
+     *
+     * @param source the text
+     * @param start  the start of the text
+     * @param end    the end of the text
+     * @return the length in bytes
+     */
+    static int utf8Length(final CharSequence source, final int start, final int end) {
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            char c = source.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(source.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Write a null terminated and padded UTF-8 string.
+     *
+     * @param out    the buffer
+     * @param source the text
+     * @param start  the start of the text
+     * @param end    the end of the text
+     */
+    private static void writeString(final ByteBuffer out, final CharSequence source, final int start,
+                                    final int end) {
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            char c = source.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+                length++;
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(source.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, source.charAt(++i));
+                out.put((byte) (0xF0 | (codePoint >> 18)));
+                out.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                out.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (codePoint & 0x3F)));
+                length += 4;
+            } else if (Character.isSurrogate(c)) {
+                out.put((byte) '?');
+                length++;
+            } else {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+                length += 3;
+            }
+        }
+        out.put((byte) 0);
+        pad(out, length + 1);
+    }
+
+    /**
+     * Pad to the next 4 byte boundary with zero bytes.
+     *
+     * @param out    the buffer
+     * @param length the length written so far
+     */
+    private static void pad(final ByteBuffer out, final int length) {
+        for (int i = length; (i & 3) != 0; i++) {
+            out.put((byte) 0);
+        }
+    }
+
+    /**
+     * Round up to the next 4 byte boundary.
+     *
+     * @param length the length
+     * @return the padded length
+     */
+    private static int paddedLength(final int length) {
+        return (length + 3) & ~3;
+    }
+
+    /**
+     * Record a type tag.
+     *
+     * @param tag the type tag
+     */
+    private void tag(final char tag) {
+        if (tagCount == tags.length) {
+            tags = Arrays.copyOf(tags, tags.length << 1);
+        }
+        tags[tagCount++] = (byte) tag;
+    }
+
+    /**
+     * Gets the argument buffer with room for more data.
+     *
+     * @param size the number of bytes needed
+     * @return the argument buffer
+     */
+    private ByteBuffer ensure(final int size) {
+        if (arguments.remaining() < size) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(arguments.capacity() << 1,
+                    arguments.position() + size));
+            arguments.flip();
+            grown.put(arguments);
+            arguments = grown;
+        }
+        return arguments;
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.impl;
+
+import com.illposed.osc.OSCMessage;
+import com.xley.lfosc.util.CompletionPolicy;
+import com.xley.lfosc.util.LogUtil;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.ResourceBundle;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A named group of LightFactory targets, an OSC message addressed to the group is delivered to every member.
+ * <br><b>Example OSC message:</b> <i>/lf/&lt;group&gt;/&lt;cmd&gt; arguments</i> is sent as
+ * <i>/lf/&lt;ipaddress:port&gt;/&lt;cmd&gt; arguments</i> to each member of the group.
+ * <br>Each member copy is queued on the lane of its own target, so members are written in parallel and a slow member
+ * only holds up its own copy. As soon as the answers decide the {@link CompletionPolicy}, e.g. the first success for
+ * {@link CompletionPolicy#ANY} or the first failure for {@link CompletionPolicy#ALL}, the message as a whole
+ * succeeded or failed and the sender gets a single reply listing the outcome of each member, members that answer
+ * later are ignored.
+ */
+public class OSCFanOut {
+    /**
+     * The constant resources.
+     */
+    public static final ResourceBundle resources = ResourceBundle.getBundle(OSCFanOut.class.getSimpleName(),
+            Locale.getDefault());
+
+    /**
+     * Prefix of the OSC addresses handled by the listener.
+     */
+    private static final String PREFIX = "/lf/";
+    /**
+     * Largest valid port.
+     */
+    private static final int MAX_PORT = 65535;
+
+    /**
+     * The group name.
+     */
+    private final String name;
+    /**
+     * The host:port targets of the members.
+     */
+    private final List<String> members;
+    /**
+     * When a message counts as delivered.
+     */
+    private final CompletionPolicy policy;
+    /**
+     * Messages that met the completion policy.
+     */
+    private final AtomicLong met = new AtomicLong();
+    /**
+     * Messages that did not meet the completion policy.
+     */
+    private final AtomicLong notMet = new AtomicLong();
+
+    /**
+     * Instantiates a new group.
+     *
+     * @param name    the group name
+     * @param members the host:port targets of the members
+     * @param policy  when a message counts as delivered
+     */
+    public OSCFanOut(final String name, final List<String> members, final CompletionPolicy policy) {
+        this.name = name;
+        this.members = Collections.unmodifiableList(new ArrayList<>(members));
+        this.policy = policy;
+    }
+
+    /**
+     * Parse a group from its option value, <i>name=host:port,host:port,...</i>.
+     *
+     * @param value  the option value
+     * @param policy when a message counts as delivered
+     * @return the group
+     * @throws IllegalArgumentException if the value is not a group
+     */
+    public static OSCFanOut fromOption(final String value, final CompletionPolicy policy) {
+        int equals = value.indexOf('=');
+        if (equals < 1) {
+            throw new IllegalArgumentException(value);
+        }
+        String name = value.substring(0, equals).trim();
+        if (name.isEmpty() || name.indexOf('/') >= 0 || name.indexOf(':') >= 0) {
+            //a name with a colon could not be told apart from a host:port target
+            throw new IllegalArgumentException(value);
+        }
+        List<String> targets = new ArrayList<>();
+        for (String member : value.substring(equals + 1).split(",", -1)) {
+            String target = member.trim();
+            int colon = target.lastIndexOf(':');
+            if (colon < 1 || target.indexOf('/') >= 0 || targets.contains(target)) {
+                throw new IllegalArgumentException(value);
+            }
+            int port;
+            try {
+                port = Integer.parseInt(target.substring(colon + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(value, e);
+            }
+            if (port < 1 || port > MAX_PORT) {
+                throw new IllegalArgumentException(value);
+            }
+            targets.add(target);
+        }
+        return new OSCFanOut(name, targets, policy);
+    }
+
+    /**
+     * Create the member copies of a message addressed to the group.
+     *
+     * @param message the message, <i>/lf/&lt;group&gt;/&lt;cmd&gt;</i>
+     * @param replier answers the message once every member answered, null to not answer
+     * @return a copy for each member, in member order
+     */
+    public final List<Member> expand(final OSCMessage message, final OSCReplier replier) {
+        String address = message.getAddress();
+        String command = address.substring(PREFIX.length() + name.length());
+        Delivery delivery = new Delivery(message, replier);
+        List<Member> copies = new ArrayList<>(members.size());
+        for (int i = 0; i < members.size(); i++) {
+            copies.add(new Member(PREFIX + members.get(i) + command, message.getArguments(), delivery, i));
+        }
+        return copies;
+    }
+
+    /**
+     * Report member copies that will not be written to LightFactory as failed.
+     *
+     * @param messages the messages, copies of other messages are ignored
+     * @param reason   the failure text
+     */
+    public static void abandon(final Collection<OSCMessage> messages, final String reason) {
+        for (OSCMessage message : messages) {
+            if (message instanceof Member) {
+                ((Member) message).complete(false, reason);
+            }
+        }
+    }
+
+    /**
+     * Gets the group name.
+     *
+     * @return the name
+     */
+    public final String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the host:port targets of the members.
+     *
+     * @return the members
+     */
+    public final List<String> getMembers() {
+        return members;
+    }
+
+    /**
+     * Gets the completion policy.
+     *
+     * @return the policy
+     */
+    public final CompletionPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Gets the number of messages that met the completion policy.
+     *
+     * @return the met count
+     */
+    public final long getMet() {
+        return met.get();
+    }
+
+    /**
+     * Gets the number of messages that did not meet the completion policy.
+     *
+     * @return the not met count
+     */
+    public final long getNotMet() {
+        return notMet.get();
+    }
+
+    /**
+     * The copy of a group message for one member.
+     */
+    public static final class Member extends OSCMessage {
+        /**
+         * The delivery the copy belongs to.
+         */
+        private final Delivery delivery;
+        /**
+         * The member index.
+         */
+        private final int index;
+        /**
+         * True once the outcome was reported.
+         */
+        private boolean completed;
+
+        /**
+         * Instantiates a new member copy.
+         *
+         * @param address   the member address
+         * @param arguments the message arguments
+         * @param delivery  the delivery the copy belongs to
+         * @param index     the member index
+         */
+        private Member(final String address, final Collection<Object> arguments, final Delivery delivery,
+                       final int index) {
+            super(address, arguments);
+            this.delivery = delivery;
+            this.index = index;
+        }
+
+        /**
+         * Report the outcome of the copy, only the first outcome counts.
+         *
+         * @param success true if LightFactory ran the command
+         * @param text    the response or error text
+         */
+        public void complete(final boolean success, final String text) {
+            synchronized (this) {
+                if (completed) {
+                    return;
+                }
+                completed = true;
+            }
+            delivery.complete(index, success, text);
+        }
+    }
+
+    /**
+     * Tracks the member copies of one message.
+     */
+    private final class Delivery {
+        /**
+         * The message addressed to the group.
+         */
+        private final OSCMessage message;
+        /**
+         * Answers the message, null to not answer.
+         */
+        private final OSCReplier replier;
+        /**
+         * The response or error text of each member.
+         */
+        private final String[] results;
+        /**
+         * Whether each member succeeded.
+         */
+        private final boolean[] succeeded;
+        /**
+         * Whether each member answered.
+         */
+        private final boolean[] answered;
+        /**
+         * Members that succeeded.
+         */
+        private int succeededCount;
+        /**
+         * Members that failed.
+         */
+        private int failedCount;
+        /**
+         * True once the outcome of the delivery is known.
+         */
+        private boolean decided;
+
+        /**
+         * Instantiates a new delivery.
+         *
+         * @param message the message addressed to the group
+         * @param replier answers the message, null to not answer
+         */
+        private Delivery(final OSCMessage message, final OSCReplier replier) {
+            this.message = message;
+            this.replier = replier;
+            this.results = new String[members.size()];
+            this.succeeded = new boolean[members.size()];
+            this.answered = new boolean[members.size()];
+        }
+
+        /**
+         * Record the outcome of a member, the member whose answer decides the completion policy completes the
+         * delivery.
+         *
+         * @param index   the member index
+         * @param success true if LightFactory ran the command
+         * @param text    the response or error text
+         */
+        private void complete(final int index, final boolean success, final String text) {
+            LogUtil.trace(OSCFanOut.class, resources.getString("osc.fanout.member"), message.getAddress(),
+                    members.get(index), success);
+            int count;
+            StringBuilder outcome = new StringBuilder();
+            synchronized (this) {
+                if (decided) {
+                    return;
+                }
+                results[index] = text == null ? "" : text.trim();
+                succeeded[index] = success;
+                answered[index] = true;
+                if (success) {
+                    succeededCount++;
+                } else {
+                    failedCount++;
+                }
+                if (!policy.isDecided(succeededCount, failedCount, results.length)) {
+                    return;
+                }
+                decided = true;
+                count = succeededCount;
+                for (int i = 0; i < results.length; i++) {
+                    outcome.append(i == 0 ? "" : ", ").append(members.get(i)).append(' ');
+                    if (!answered[i]) {
+                        outcome.append("pending");
+                    } else {
+                        outcome.append(succeeded[i] ? "ok" : "failed").append(": ").append(results[i]);
+                    }
+                }
+            }
+            boolean delivered = policy.isMet(count, results.length);
+            (delivered ? met : notMet).incrementAndGet();
+            LogUtil.debug(OSCFanOut.class, resources.getString("osc.fanout.complete"), message.getAddress(), name,
+                    count, results.length, policy, delivered);
+            if (replier != null) {
+                replier.reply(message, delivered, MessageFormat.format(resources.getString("osc.fanout.reply"), count,
+                        results.length, outcome));
+            }
+        }
+    }
+}
@@ -1,135 +1,291 @@
-/*
- * Copyright (c) 2014. Peter Crossley (xley.com)
- *  Licensed to the Apache Software Foundation (ASF) under one
- *  or more contributor license agreements.  See the NOTICE file
- *  distributed with this work for additional information
- *  regarding copyright ownership.  The ASF licenses this file
- *  to you under the Apache License, Version 2.0 (the
- *  "License"); you may not use this file except in compliance
- *  with the License.  You may obtain a copy of the License at
- *
- *    http://www.apache.org/licenses/LICENSE-2.0
- *
- *  Unless required by applicable law or agreed to in writing,
- *  software distributed under the License is distributed on an
- *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
- *  KIND, either express or implied.  See the License for the
- *  specific language governing permissions and limitations
- *  under the License.
- */
-
-package com.xley.lfosc.impl;
-
-import com.illposed.osc.OSCMessage;
-import com.xley.lfosc.util.LogUtil;
-
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.Socket;
-import java.nio.charset.Charset;
-import java.text.MessageFormat;
-import java.util.Locale;
-import java.util.ResourceBundle;
-
-/**
- * The type OSC event protocol.
- */
-public class OSCProtocol implements Runnable {
-    /**
-     * The constant resources.
-     */
-    public static final ResourceBundle resources = ResourceBundle.getBundle(OSCProtocol.class.getSimpleName(),
-            Locale.getDefault());
-
-    /**
-     * The address part of the osc event.
-     */
-    private static final int PART_ADDRESS = 2;
-    /**
-     * The command part of the osc event.
-     */
-    private static final int PART_CMD = 3;
-
-
-    /**
-     * THe message to process
-     */
-    private OSCMessage message;
-
-    public OSCProtocol(OSCMessage message) {
-        this.message = message;
-    }
-
-    @Override
-    public void run() {
-        process(this.message);
-    }
-
-    /**
-     * Process an incoming OSC event.
-     * <br><b>Example OSC message:</b> <i>/lf/&lt;ipaddress:port&gt;/&lt;cmd&gt; arguments</i>
-     *
-     * @param message the message to be processed
-     */
-    private void process(final OSCMessage message) {
-        /**
-         * 1. parse message syntax
-         *   /lf/<ipaddress:port/<cmd> arguments
-         */
-
-        try {
-            String[] parts = message.getAddress().split("/");
-            String[] address = parts[PART_ADDRESS].split(":");
-            String cmd = parts[PART_CMD];
-
-            Socket clientSocket = null;
-            try {
-                LogUtil.debug(this.getClass(), MessageFormat.format(resources.getString("osc.lf.port.connect"), address[0],
-                        address[1]));
-                clientSocket = new Socket(address[0], Integer.parseInt(address[1]));
-                DataOutputStream outToLF = new DataOutputStream(clientSocket.getOutputStream());
-                BufferedReader inFromLF = new BufferedReader(new InputStreamReader(clientSocket.getInputStream(),
-                        Charset.defaultCharset()));
-
-                StringBuilder send = new StringBuilder(cmd);
-                for (Object arg : message.getArguments()) {
-                    send.append(" ").append(arg);
-                }
-
-                String inputLine = null;
-                if (clientSocket.isConnected()) {
-                    while ((inputLine = inFromLF.readLine()) != null && !inputLine.equals(">")) {
-                        LogUtil.trace(this.getClass(), " << [" + clientSocket.toString() + "] - " + inputLine);
-                    }
-
-                    if (inputLine != null && inputLine.equals(">")) {
-                        LogUtil.trace(this.getClass(), " << [" + clientSocket.toString() + "] - " + inputLine);
-                        LogUtil.trace(this.getClass(), " >> [" + clientSocket.toString() + "] - " + send);
-                        outToLF.writeBytes(send + "\n");
-                    }
-
-                    while ((inputLine = inFromLF.readLine()) != null) {
-                        LogUtil.trace(this.getClass(), " << [" + clientSocket.toString() + "] - " + inputLine);
-                    }
-                }
-
-            } catch (IOException e) {
-                LogUtil.error(this.getClass(), resources.getString("osc.lf.error"), e);
-            } finally {
-                if (clientSocket != null) {
-                    try {
-                        LogUtil.debug(this.getClass(), MessageFormat.format(resources.getString("osc.lf.port.close"),
-                                address[0], address[1]));
-                        clientSocket.close();
-                    } catch (IOException e) {
-                        LogUtil.trace(this.getClass(), e);
-                    }
-                }
-            }
-        } catch (Throwable throwable) {
-            LogUtil.error(this.getClass(), resources.getString("osc.lf.error"), throwable);
-        }
-    }
-}
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.impl;
+
+import com.illposed.osc.OSCMessage;
+import com.xley.lfosc.util.LogUtil;
+import com.xley.lfosc.util.StripedExecutor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.ResourceBundle;
+
+/**
+ * The type OSC event protocol.
+ * <br>A protocol dropped by the lanes before it ran answers its messages as failed, so group deliveries still
+ * complete.
+ */
+public class OSCProtocol implements StripedExecutor.Discardable {
+    /**
+     * The constant resources.
+     */
+    public static final ResourceBundle resources = ResourceBundle.getBundle(OSCProtocol.class.getSimpleName(),
+            Locale.getDefault());
+
+    /**
+     * The address part of the osc event.
+     */
+    private static final int PART_ADDRESS = 2;
+    /**
+     * The command part of the osc event.
+     */
+    private static final int PART_CMD = 3;
+
+
+    /**
+     * The messages to process, all for the same LightFactory target.
+     */
+    private final List<OSCMessage> messages;
+
+    /**
+     * The LightFactory sessions to send the message with.
+     */
+    private final LightFactorySessionPool sessions;
+    /**
+     * The metrics to record the delivery with, null to not record.
+     */
+    private final ProxyMetrics metrics;
+    /**
+     * The {@link System#nanoTime()} the messages were received.
+     */
+    private final long received;
+    /**
+     * Answers the messages with the LightFactory response, null to not answer.
+     */
+    private final OSCReplier replies;
+
+    public OSCProtocol(OSCMessage message, LightFactorySessionPool sessions) {
+        this(Collections.singletonList(message), sessions);
+    }
+
+    /**
+     * Instantiates a protocol writing several messages for the same LightFactory target as one batch.
+     *
+     * @param messages the messages in the order they are sent
+     * @param sessions the LightFactory sessions to send the messages with
+     */
+    public OSCProtocol(final List<OSCMessage> messages, final LightFactorySessionPool sessions) {
+        this(messages, sessions, null, System.nanoTime());
+    }
+
+    /**
+     * Instantiates a protocol recording the delivery of the messages.
+     *
+     * @param messages the messages in the order they are sent, all for the same LightFactory target
+     * @param sessions the LightFactory sessions to send the messages with
+     * @param metrics  the metrics to record the delivery with, null to not record
+     * @param received the {@link System#nanoTime()} the messages were received
+     */
+    public OSCProtocol(final List<OSCMessage> messages, final LightFactorySessionPool sessions,
+                       final ProxyMetrics metrics, final long received) {
+        this(messages, sessions, metrics, received, null);
+    }
+
+    /**
+     * Instantiates a protocol recording the delivery of the messages and answering them with the LightFactory
+     * response.
+     *
+     * @param messages the messages in the order they are sent, all for the same LightFactory target
+     * @param sessions the LightFactory sessions to send the messages with
+     * @param metrics  the metrics to record the delivery with, null to not record
+     * @param received the {@link System#nanoTime()} the messages were received
+     * @param replies  answers the messages with the LightFactory response, null to not answer
+     */
+    public OSCProtocol(final List<OSCMessage> messages, final LightFactorySessionPool sessions,
+                       final ProxyMetrics metrics, final long received, final OSCReplier replies) {
+        this.messages = messages;
+        this.sessions = sessions;
+        this.metrics = metrics;
+        this.received = received;
+        this.replies = replies;
+    }
+
+    @Override
+    public void run() {
+        if (messages.size() == 1) {
+            process(messages.get(0));
+        } else if (!messages.isEmpty()) {
+            process(messages);
+        }
+    }
+
+    /**
+     * Process an incoming OSC event.
+     * <br><b>Example OSC message:</b> <i>/lf/&lt;ipaddress:port&gt;/&lt;cmd&gt; arguments</i>
+     *
+     * @param message the message to be processed
+     */
+    private void process(final OSCMessage message) {
+        /**
+         * 1. parse message syntax
+         *   /lf/<ipaddress:port/<cmd> arguments
+         */
+
+        try {
+            String[] parts = message.getAddress().split("/");
+            String[] address = parts[PART_ADDRESS].split(":");
+            String send = command(parts, message);
+
+            try {
+                LogUtil.debug(this.getClass(), resources.getString("osc.lf.port.send"), send, address[0], address[1]);
+                String response = sessions.execute(address[0], Integer.parseInt(address[1]), send);
+                delivered(parts[PART_ADDRESS], 1);
+                reply(message, true, response);
+            } catch (LightFactorySessionPool.CircuitOpenException e) {
+                //the target is known to be down, an error with a stack trace for each message would flood the log
+                failed(parts[PART_ADDRESS], 1);
+                LogUtil.debug(this.getClass(), e.getMessage());
+                reply(message, false, e.getMessage());
+            } catch (IOException e) {
+                failed(parts[PART_ADDRESS], 1);
+                LogUtil.error(this.getClass(), resources.getString("osc.lf.error"), e);
+                reply(message, false, e.getMessage());
+            }
+        } catch (Throwable throwable) {
+            failed(null, 1);
+            LogUtil.error(this.getClass(), resources.getString("osc.lf.error"), throwable);
+            reply(message, false, String.valueOf(throwable.getMessage()));
+        }
+    }
+
+    /**
+     * Process a batch of OSC events for the same LightFactory target, the commands are written at once.
+     *
+     * @param batch the messages to be processed
+     */
+    private void process(final List<OSCMessage> batch) {
+        try {
+            String target = batch.get(0).getAddress().split("/")[PART_ADDRESS];
+            String[] address = target.split(":");
+            List<String> commands = new ArrayList<>(batch.size());
+            for (OSCMessage message : batch) {
+                commands.add(command(message.getAddress().split("/"), message));
+            }
+
+            try {
+                LogUtil.debug(this.getClass(), resources.getString("osc.lf.port.batch"), commands.size(), address[0],
+                        address[1]);
+                List<String> responses = sessions.executeBatch(address[0], Integer.parseInt(address[1]), commands);
+                delivered(target, commands.size());
+                for (int i = 0; i < batch.size(); i++) {
+                    reply(batch.get(i), true, responses.get(i));
+                }
+            } catch (LightFactorySessionPool.CircuitOpenException e) {
+                failed(target, commands.size());
+                LogUtil.debug(this.getClass(), e.getMessage());
+                for (OSCMessage message : batch) {
+                    reply(message, false, e.getMessage());
+                }
+            } catch (LightFactorySessionPool.BatchException e) {
+                //the commands LightFactory acknowledged before the failure did run
+                List<String> responses = e.getResponses();
+                if (!responses.isEmpty()) {
+                    delivered(target, responses.size());
+                }
+                failed(target, commands.size() - responses.size());
+                LogUtil.error(this.getClass(), resources.getString("osc.lf.error"), e);
+                for (int i = 0; i < batch.size(); i++) {
+                    if (i < responses.size()) {
+                        reply(batch.get(i), true, responses.get(i));
+                    } else {
+                        reply(batch.get(i), false, e.getMessage());
+                    }
+                }
+            } catch (IOException e) {
+                failed(target, commands.size());
+                LogUtil.error(this.getClass(), resources.getString("osc.lf.error"), e);
+                for (OSCMessage message : batch) {
+                    reply(message, false, e.getMessage());
+                }
+            }
+        } catch (Throwable throwable) {
+            failed(null, batch.size());
+            LogUtil.error(this.getClass(), resources.getString("osc.lf.error"), throwable);
+            for (OSCMessage message : batch) {
+                reply(message, false, String.valueOf(throwable.getMessage()));
+            }
+        }
+    }
+
+    @Override
+    public void discarded() {
+        for (OSCMessage message : messages) {
+            reply(message, false, resources.getString("osc.lf.dropped"));
+        }
+    }
+
+    /**
+     * Answer a message with the LightFactory response, the copy of a group message reports to its group instead.
+     *
+     * @param message the message
+     * @param success true if LightFactory ran the command
+     * @param text    the response or error text
+     */
+    private void reply(final OSCMessage message, final boolean success, final String text) {
+        if (message instanceof OSCFanOut.Member) {
+            ((OSCFanOut.Member) message).complete(success, text);
+        } else if (replies != null) {
+            replies.reply(message, success, text);
+        }
+    }
+
+    /**
+     * Record messages written to LightFactory.
+     *
+     * @param target the LightFactory target
+     * @param count  the number of messages
+     */
+    private void delivered(final String target, final int count) {
+        if (metrics != null) {
+            metrics.delivered(ProxyMetrics.Direction.OSC_TO_LF, target, count, received);
+        }
+    }
+
+    /**
+     * Record messages that could not be written to LightFactory.
+     *
+     * @param target the LightFactory target, null if the address does not name one
+     * @param count  the number of messages
+     */
+    private void failed(final String target, final int count) {
+        if (metrics != null) {
+            metrics.failed(ProxyMetrics.Direction.OSC_TO_LF, target, count);
+        }
+    }
+
+    /**
+     * Build the LightFactory command of an OSC event.
+     *
+     * @param parts   the OSC address split on <i>/</i>
+     * @param message the message
+     * @return the command followed by the arguments
+     */
+    static String command(final String[] parts, final OSCMessage message) {
+        StringBuilder send = new StringBuilder(parts[PART_CMD]);
+        for (Object arg : message.getArguments()) {
+            send.append(" ").append(arg);
+        }
+        return send.toString();
+    }
+}
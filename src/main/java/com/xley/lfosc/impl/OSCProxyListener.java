@@ -1,56 +1,1049 @@
-/*
- * Copyright (c) 2014. Peter Crossley (xley.com)
- *  Licensed to the Apache Software Foundation (ASF) under one
- *  or more contributor license agreements.  See the NOTICE file
- *  distributed with this work for additional information
- *  regarding copyright ownership.  The ASF licenses this file
- *  to you under the Apache License, Version 2.0 (the
- *  "License"); you may not use this file except in compliance
- *  with the License.  You may obtain a copy of the License at
- *
- *    http://www.apache.org/licenses/LICENSE-2.0
- *
- *  Unless required by applicable law or agreed to in writing,
- *  software distributed under the License is distributed on an
- *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
- *  KIND, either express or implied.  See the License for the
- *  specific language governing permissions and limitations
- *  under the License.
- */
-
-package com.xley.lfosc.impl;
-
-import com.illposed.osc.OSCMessage;
-import com.xley.lfosc.util.LogUtil;
-
-import java.util.Date;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-
-/**
- * The type OSC bridge listener.
- */
-public class OSCProxyListener implements com.illposed.osc.OSCListener {
-
-    /**
-     * Executor for LightFactory outbound connections.
-     */
-    private final ExecutorService executorService = Executors.newFixedThreadPool(5);
-
-
-    @Override
-    public final void acceptMessage(final Date time, final OSCMessage message) {
-        executorService.submit(new OSCProtocol(message));
-    }
-
-    public void shutdown() {
-        executorService.shutdown();
-        try {
-            executorService.awaitTermination(5000, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException e) {
-            LogUtil.trace(getClass(), e);
-        }
-    }
-
-}
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.impl;
+
+import com.illposed.osc.AddressSelector;
+import com.illposed.osc.OSCMessage;
+import com.illposed.osc.utility.OSCPatternAddressSelector;
+import com.xley.lfosc.util.LatePolicy;
+import com.xley.lfosc.util.LogUtil;
+import com.xley.lfosc.util.OverloadPolicy;
+import com.xley.lfosc.util.StripedExecutor;
+import com.xley.lfosc.util.ThreadMode;
+import com.xley.lfosc.util.TimingWheel;
+
+import java.net.InetSocketAddress;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The type OSC bridge listener.
+ * <br>Messages are executed on a {@link StripedExecutor} keyed by the LightFactory target of the address, so messages
+ * for one console run in the order they were received while different consoles are served in parallel. Lanes are
+ * bounded, messages arriving at a full lane are shed according to the {@link OverloadPolicy}.
+ * <br>Addresses selected for coalescing keep only their latest pending value, a newer message for such an address
+ * replaces the queued one in place, so a fader sends at most one update at a time to LightFactory.
+ * <br>With batching enabled the messages waiting for the same target are written to LightFactory as one burst.
+ * <br>The messages of a bundle are written as one batch for each target they name, in bundle order. Bundles are not
+ * coalesced and do not wait for a batch window.
+ * <br>With scheduling enabled, messages and bundles with a future time tag are held on a {@link TimingWheel} and
+ * released to the lanes at their time tag.
+ * <br>With a target limit, a LightFactory target may only hold that many messages on the lanes, so a console that is
+ * slow or switched off cannot fill the lanes it shares with other consoles.
+ * <br>With replies enabled, the LightFactory response of each message is sent back to the sender of the message.
+ * <br>A message addressed to an {@link OSCFanOut} group is copied to each member of the group, the copies are not
+ * coalesced and are queued on the lanes of their own targets.
+ */
+public class OSCProxyListener implements OSCDatagramReceiver.BundleListener, OSCDatagramReceiver.SourceListener {
+    /**
+     * The constant resources.
+     */
+    public static final ResourceBundle resources = ResourceBundle.getBundle(OSCProxyListener.class.getSimpleName(),
+            Locale.getDefault());
+
+    /**
+     * Prefix of the OSC addresses handled by the listener.
+     */
+    private static final String PREFIX = "/lf/";
+    /**
+     * Slots of the time tag scheduler, one revolution covers this many ticks.
+     */
+    private static final int WHEEL_SLOTS = 512;
+
+    /**
+     * When an incoming message is due.
+     */
+    private enum Timing {
+        /**
+         * Dispatch right away.
+         */
+        NOW,
+        /**
+         * Hold until the time tag.
+         */
+        LATER,
+        /**
+         * Drop, the time tag has passed.
+         */
+        DROP
+    }
+
+    /**
+     * Executor for LightFactory outbound connections, one lane per group of targets.
+     */
+    private final StripedExecutor executorService;
+
+    /**
+     * Pooled LightFactory sessions shared by all outbound messages.
+     */
+    private final LightFactorySessionPool sessions;
+
+    /**
+     * Latest pending message of each coalesced address.
+     */
+    private final ConcurrentMap<String, OSCMessage> pending = new ConcurrentHashMap<>();
+    /**
+     * Messages replaced by a newer value before they were sent.
+     */
+    private final AtomicLong collapsed = new AtomicLong();
+    /**
+     * Selectors of the coalesced addresses.
+     */
+    private List<AddressSelector> coalesced = Collections.emptyList();
+    /**
+     * Time in milliseconds a coalesced value is held for newer values before it is queued.
+     */
+    private long holdMillis;
+    /**
+     * Pending batch of each LightFactory target, a batch is removed once it is idle.
+     */
+    private final ConcurrentMap<String, Batch> batches = new ConcurrentHashMap<>();
+    /**
+     * Messages shed because the batch of their target, the target limit or the scheduler was full.
+     */
+    private final AtomicLong shed = new AtomicLong();
+    /**
+     * The max number of messages waiting for each target, 0 for no limit.
+     */
+    private final int capacity;
+    /**
+     * Max number of messages queued or running for one target, 0 for no limit.
+     */
+    private int targetLimit;
+    /**
+     * Messages admitted and not yet written or dropped for each target, a count is retired once it drops to 0.
+     */
+    private final ConcurrentMap<String, AtomicInteger> queued = new ConcurrentHashMap<>();
+    /**
+     * Messages shed because their target reached the target limit.
+     */
+    private final AtomicLong targetLimited = new AtomicLong();
+    /**
+     * Max number of commands written in one batch, 1 disables batching.
+     */
+    private int batchSize = 1;
+    /**
+     * Time in milliseconds a batch waits for more messages before it is queued.
+     */
+    private long batchWindow;
+    /**
+     * Timer for held values and batch windows, created when first needed.
+     */
+    private ScheduledExecutorService timer;
+    /**
+     * Scheduler for future time tags, null when time tags are ignored.
+     */
+    private TimingWheel wheel;
+    /**
+     * What to do with a message whose time tag has passed.
+     */
+    private LatePolicy latePolicy = LatePolicy.RUN;
+    /**
+     * Messages and bundles that arrived after their time tag.
+     */
+    private final AtomicLong late = new AtomicLong();
+    /**
+     * The metrics deliveries are recorded with, null to not record.
+     */
+    private volatile ProxyMetrics metrics;
+    /**
+     * Answers messages with the LightFactory response, null to not answer.
+     */
+    private volatile OSCReplier replies;
+    /**
+     * The fan-out groups by name.
+     */
+    private Map<String, OSCFanOut> groups = Collections.emptyMap();
+    /**
+     * Sender of the datagram being accepted, only used by the receive thread.
+     */
+    private InetSocketAddress source;
+
+    /**
+     * Instantiates a new OSC bridge listener.
+     *
+     * @param sessions the LightFactory session pool
+     * @param lanes    the number of ordered lanes
+     * @param capacity the max number of messages waiting on each lane, 0 for unbounded lanes
+     * @param policy   what to do with a message arriving at a full lane
+     */
+    public OSCProxyListener(final LightFactorySessionPool sessions, final int lanes, final int capacity,
+                            final OverloadPolicy policy) {
+        this(sessions, lanes, capacity, policy, ThreadMode.PLATFORM);
+    }
+
+    /**
+     * Instantiates a new OSC bridge listener running its lanes on the given kind of threads.
+     *
+     * @param sessions the LightFactory session pool
+     * @param lanes    the number of ordered lanes
+     * @param capacity the max number of messages waiting on each lane, 0 for unbounded lanes
+     * @param policy   what to do with a message arriving at a full lane
+     * @param mode     the kind of lane threads
+     */
+    public OSCProxyListener(final LightFactorySessionPool sessions, final int lanes, final int capacity,
+                            final OverloadPolicy policy, final ThreadMode mode) {
+        this.sessions = sessions;
+        this.capacity = capacity;
+        this.executorService = new StripedExecutor(OSCProxyListener.class.getSimpleName(), lanes, capacity, policy,
+                mode);
+    }
+
+    /**
+     * Coalesce the addresses matching any of the patterns, set before messages are accepted.
+     *
+     * @param patterns   the OSC address patterns, e.g. <i>/lf/&#42;/fader&#42;</i>
+     * @param holdMillis the time in milliseconds a value is held for newer values before it is queued, 0 to queue
+     *                   it right away
+     */
+    public final synchronized void setCoalescing(final Collection<String> patterns, final long holdMillis) {
+        List<AddressSelector> selectors = new ArrayList<>();
+        for (String pattern : patterns) {
+            selectors.add(new OSCPatternAddressSelector(pattern));
+        }
+        this.coalesced = selectors;
+        this.holdMillis = holdMillis;
+        if (holdMillis > 0 && !selectors.isEmpty()) {
+            startTimer();
+        }
+    }
+
+    /**
+     * Write the messages waiting for the same target as one batch, set before messages are accepted.
+     * <br>A batch is started by the first message for an idle target and written once its window has passed or the
+     * lane gets to it, whichever is later, messages arriving meanwhile join the batch.
+     *
+     * @param maxCommands  the max number of commands written in one batch, 1 to disable batching
+     * @param windowMillis the time in milliseconds a batch waits for more messages, 0 to wait only for the lane
+     */
+    public final synchronized void setBatching(final int maxCommands, final long windowMillis) {
+        this.batchSize = maxCommands;
+        this.batchWindow = windowMillis;
+        if (maxCommands > 1 && windowMillis > 0) {
+            startTimer();
+        }
+    }
+
+    /**
+     * Limit the messages each LightFactory target may hold on the lanes, set before messages are accepted.
+     * <br>Messages beyond the limit are shed, whether they are queued one by one, in batches or as coalesced updates.
+     * Without a limit the messages waiting in the batches of a target are capped at the lane capacity.
+     *
+     * @param maxQueued the max number of messages queued or running for one target, 0 for no limit
+     */
+    public final synchronized void setTargetLimit(final int maxQueued) {
+        this.targetLimit = maxQueued;
+    }
+
+    /**
+     * Deliver messages addressed to a group name to every member of the group, set before messages are accepted.
+     *
+     * @param fanOuts the groups
+     */
+    public final synchronized void setGroups(final Collection<OSCFanOut> fanOuts) {
+        Map<String, OSCFanOut> byName = new ConcurrentHashMap<>();
+        for (OSCFanOut group : fanOuts) {
+            byName.put(group.getName(), group);
+        }
+        this.groups = byName;
+    }
+
+    /**
+     * Honor the time tags of incoming messages and bundles, set before messages are accepted.
+     *
+     * @param tickMillis the scheduler resolution in milliseconds
+     * @param policy     what to do with a message whose time tag has passed by more than a tick
+     */
+    public final synchronized void setScheduling(final long tickMillis, final LatePolicy policy) {
+        this.latePolicy = policy;
+        if (wheel == null) {
+            wheel = new TimingWheel(OSCProxyListener.class.getSimpleName(), tickMillis, WHEEL_SLOTS,
+                    capacity > 0 ? capacity * executorService.getLanes() : 0);
+        }
+    }
+
+    /**
+     * Record deliveries and report queue depths to the proxy metrics, set before messages are accepted.
+     *
+     * @param proxyMetrics the metrics
+     */
+    public final void setMetrics(final ProxyMetrics proxyMetrics) {
+        this.metrics = proxyMetrics;
+        proxyMetrics.setListener(this);
+    }
+
+    /**
+     * Send the LightFactory response of each message back to its sender, set before messages are accepted.
+     *
+     * @param replier the replier
+     */
+    public final void setReplies(final OSCReplier replier) {
+        this.replies = replier;
+    }
+
+    @Override
+    public final void acceptSource(final InetSocketAddress sender) {
+        this.source = sender;
+    }
+
+    @Override
+    public final void acceptMessage(final Date time, final OSCMessage received) {
+        OSCReplier replier = replies;
+        final OSCMessage message = replier != null ? replier.track(received, source) : received;
+        switch (timing(time, message.getAddress())) {
+            case LATER:
+                schedule(time, message.getAddress(), new Runnable() {
+                    @Override
+                    public void run() {
+                        dispatch(message);
+                    }
+                });
+                break;
+            case NOW:
+                dispatch(message);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Hand a message that is due to coalescing, batching or the lanes.
+     *
+     * @param message the message
+     */
+    private void dispatch(final OSCMessage message) {
+        String address = message.getAddress();
+        OSCFanOut group = groups.get(target(address));
+        if (group != null) {
+            long received = System.nanoTime();
+            for (OSCFanOut.Member member : group.expand(message, replies)) {
+                queue(member, received);
+            }
+            return;
+        }
+        if (isCoalesced(address)) {
+            if (pending.put(address, message) != null) {
+                //the queued update for this address sends the newer value
+                collapsed.incrementAndGet();
+                return;
+            }
+            if (!admit(target(address), Collections.singletonList(message))) {
+                pending.remove(address);
+                return;
+            }
+            Coalesced task = new Coalesced(address);
+            if (holdMillis > 0) {
+                try {
+                    timer.schedule(task, holdMillis, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    task.discarded();
+                    rejected(address, e);
+                }
+            } else {
+                task.queue();
+            }
+            return;
+        }
+        queue(message, System.nanoTime());
+    }
+
+    /**
+     * Hand a message to batching or the lanes.
+     *
+     * @param message  the message
+     * @param received the {@link System#nanoTime()} the message was received
+     */
+    private void queue(final OSCMessage message, final long received) {
+        if (batchSize > 1) {
+            batchFor(target(message.getAddress())).offer(message);
+            return;
+        }
+        submit(target(message.getAddress()), Collections.<OSCMessage>singletonList(message), received);
+    }
+
+    @Override
+    public final void acceptBundle(final Date time, final List<OSCMessage> received) {
+        OSCReplier replier = replies;
+        final List<OSCMessage> messages;
+        if (replier != null) {
+            messages = new ArrayList<>(received.size());
+            for (OSCMessage message : received) {
+                messages.add(replier.track(message, source));
+            }
+        } else {
+            messages = received;
+        }
+        switch (timing(time, messages.get(0).getAddress())) {
+            case LATER:
+                schedule(time, messages.get(0).getAddress(), new Runnable() {
+                    @Override
+                    public void run() {
+                        dispatch(messages);
+                    }
+                });
+                break;
+            case NOW:
+                dispatch(messages);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Hand the messages of a bundle that is due to the lanes, one batch for each target.
+     *
+     * @param messages the messages in bundle order
+     */
+    private void dispatch(final List<OSCMessage> messages) {
+        Map<String, List<OSCMessage>> targets = new LinkedHashMap<>();
+        for (OSCMessage message : messages) {
+            OSCFanOut group = groups.get(target(message.getAddress()));
+            if (group == null) {
+                batchFor(targets, message);
+                continue;
+            }
+            for (OSCFanOut.Member member : group.expand(message, replies)) {
+                batchFor(targets, member);
+            }
+        }
+        long received = System.nanoTime();
+        for (Map.Entry<String, List<OSCMessage>> entry : targets.entrySet()) {
+            submit(entry.getKey(), entry.getValue(), received);
+        }
+    }
+
+    /**
+     * Add a bundle message to the batch of its target.
+     *
+     * @param targets the batches by target
+     * @param message the message
+     */
+    private static void batchFor(final Map<String, List<OSCMessage>> targets, final OSCMessage message) {
+        String target = target(message.getAddress());
+        List<OSCMessage> batch = targets.get(target);
+        if (batch == null) {
+            batch = new ArrayList<>();
+            targets.put(target, batch);
+        }
+        batch.add(message);
+    }
+
+    /**
+     * Hand messages to the lane of their target, unless the target has reached the target limit.
+     *
+     * @param target   the LightFactory target
+     * @param messages the messages, all for the target
+     * @param received the {@link System#nanoTime()} the messages were received
+     */
+    private void submit(final String target, final List<OSCMessage> messages, final long received) {
+        if (!admit(target, messages)) {
+            return;
+        }
+        StripedExecutor.Discardable task = new Limited(target, messages, protocol(messages, received));
+        try {
+            executorService.execute(target, task);
+        } catch (RejectedExecutionException e) {
+            task.discarded();
+            rejected(messages.get(0).getAddress(), e);
+        }
+    }
+
+    /**
+     * Admit messages for their target, the single check every path to the lanes passes. Admitted messages count
+     * against the target until they are released once written or dropped.
+     *
+     * @param target   the LightFactory target
+     * @param messages the messages, all for the target
+     * @return true if the messages were admitted, false if they were shed because the target is full
+     */
+    private boolean admit(final String target, final List<OSCMessage> messages) {
+        int limit = targetLimit;
+        if (limit <= 0 && batchSize > 1) {
+            //batch messages wait outside the lanes, so the lane capacity does not bound them
+            limit = capacity;
+        }
+        while (true) {
+            AtomicInteger count = queuedFor(target);
+            int current = count.get();
+            if (current < 0) {
+                //retired by the release that brought it to 0
+                queued.remove(target, count);
+                continue;
+            }
+            if (limit > 0 && current + messages.size() > limit) {
+                break;
+            }
+            if (count.compareAndSet(current, current + messages.size())) {
+                return true;
+            }
+        }
+        shed.addAndGet(messages.size());
+        if (targetLimit > 0) {
+            targetLimited.addAndGet(messages.size());
+        }
+        LogUtil.debug(this.getClass(), resources.getString("osc.listener.target.full"), target, limit);
+        OSCFanOut.abandon(messages, MessageFormat.format(resources.getString("osc.listener.target.full"), target,
+                limit));
+        return false;
+    }
+
+    /**
+     * Release admitted messages that were written or dropped, the count of a target without messages is retired.
+     * <br>A count holding admitted messages is above 0, so it cannot be retired before they are released.
+     *
+     * @param target the LightFactory target
+     * @param count  the number of messages
+     */
+    private void release(final String target, final int count) {
+        AtomicInteger current = queued.get(target);
+        if (count > 0 && current != null && current.addAndGet(-count) == 0
+                && current.compareAndSet(0, Integer.MIN_VALUE)) {
+            queued.remove(target, current);
+        }
+    }
+
+    /**
+     * Gets or creates the queued count of a target.
+     *
+     * @param target the LightFactory target
+     * @return the queued count
+     */
+    private AtomicInteger queuedFor(final String target) {
+        AtomicInteger count = queued.get(target);
+        if (count == null) {
+            AtomicInteger created = new AtomicInteger();
+            count = queued.putIfAbsent(target, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of messages shed because their target reached the target limit.
+     *
+     * @return the target limited count
+     */
+    public final long getTargetLimited() {
+        return targetLimited.get();
+    }
+
+    /**
+     * Gets the number of messages and bundles held for a future time tag.
+     *
+     * @return the scheduled count
+     */
+    public final long getScheduled() {
+        return wheel == null ? 0 : wheel.getScheduled();
+    }
+
+    /**
+     * Gets the number of messages and bundles that arrived after their time tag.
+     *
+     * @return the late count
+     */
+    public final long getLate() {
+        return late.get();
+    }
+
+    /**
+     * Gets the number of messages replaced by a newer value before they were sent.
+     *
+     * @return the collapsed count
+     */
+    public final long getCollapsed() {
+        return collapsed.get();
+    }
+
+    /**
+     * Gets the number of ordered lanes.
+     *
+     * @return the lane count
+     */
+    public final int getLanes() {
+        return executorService.getLanes();
+    }
+
+    /**
+     * Gets the number of messages waiting on each lane.
+     *
+     * @return the queue depths by lane
+     */
+    public final int[] getQueueDepths() {
+        return executorService.getQueueDepths();
+    }
+
+    /**
+     * Gets the number of messages discarded by a drop policy or shed by a full batch or scheduler.
+     *
+     * @return the dropped count
+     */
+    public final long getDropped() {
+        return executorService.getDropped() + shed.get();
+    }
+
+    /**
+     * Gets the number of messages refused by the reject policy.
+     *
+     * @return the rejected count
+     */
+    public final long getRejected() {
+        return executorService.getRejected();
+    }
+
+    /**
+     * Gets the number of messages that held up the receiver with the block policy.
+     *
+     * @return the blocked count
+     */
+    public final long getBlocked() {
+        return executorService.getBlocked();
+    }
+
+    public void shutdown() {
+        LogUtil.debug(this.getClass(), resources.getString("osc.listener.stats"),
+                Arrays.toString(executorService.getQueueDepths()), getDropped(), executorService.getRejected(),
+                executorService.getBlocked(), collapsed.get(), targetLimited.get());
+        for (OSCFanOut group : groups.values()) {
+            LogUtil.debug(this.getClass(), resources.getString("osc.listener.group.stats"), group.getName(),
+                    group.getMembers(), group.getPolicy(), group.getMet(), group.getNotMet());
+        }
+        synchronized (this) {
+            if (timer != null) {
+                timer.shutdownNow();
+            }
+        }
+        try {
+            if (wheel != null) {
+                LogUtil.debug(this.getClass(), resources.getString("osc.listener.schedule.stats"), wheel.getScheduled(),
+                        wheel.getReleased(), wheel.getRefused(), late.get(), wheel.getMeanJitterMicros(),
+                        wheel.getMaxJitterMicros());
+                wheel.stop(1000, TimeUnit.MILLISECONDS);
+            }
+            executorService.shutdown(5000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            LogUtil.trace(getClass(), e);
+        }
+    }
+
+    /**
+     * Decide when a message or bundle is due from its time tag.
+     *
+     * @param time    the time tag, null or the epoch for immediate
+     * @param address the first OSC address, for logging
+     * @return {@link Timing#NOW}, {@link Timing#LATER} or {@link Timing#DROP} for a late message
+     */
+    private Timing timing(final Date time, final String address) {
+        if (wheel == null || time == null || time.getTime() == 0) {
+            //javaosc decodes the immediate time tag as the epoch
+            return Timing.NOW;
+        }
+        long delay = time.getTime() - System.currentTimeMillis();
+        if (delay >= wheel.getTickMillis()) {
+            return Timing.LATER;
+        }
+        if (delay <= -wheel.getTickMillis()) {
+            late.incrementAndGet();
+            if (latePolicy == LatePolicy.DROP) {
+                LogUtil.debug(this.getClass(), resources.getString("osc.listener.late"), address, -delay);
+                return Timing.DROP;
+            }
+        }
+        return Timing.NOW;
+    }
+
+    /**
+     * Hold a message or bundle until its time tag.
+     *
+     * @param time    the time tag
+     * @param address the first OSC address, for logging
+     * @param release dispatches the message or bundle
+     */
+    private void schedule(final Date time, final String address, final Runnable release) {
+        if (!wheel.schedule(time.getTime() - System.currentTimeMillis(), TimeUnit.MILLISECONDS, release)) {
+            shed.incrementAndGet();
+            LogUtil.debug(this.getClass(), resources.getString("osc.listener.rejected"), address);
+        }
+    }
+
+    /**
+     * Start the timer for held values and batch windows.
+     */
+    private synchronized void startTimer() {
+        if (timer == null) {
+            timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    Thread thread = new Thread(r, "OSCProxyListener - Timer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    /**
+     * Gets or creates the batch of a target.
+     *
+     * @param target the LightFactory target
+     * @return the batch
+     */
+    private Batch batchFor(final String target) {
+        Batch batch = batches.get(target);
+        if (batch == null) {
+            Batch created = new Batch(target);
+            batch = batches.putIfAbsent(target, created);
+            if (batch == null) {
+                batch = created;
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Check if an address is coalesced.
+     *
+     * @param address the OSC address
+     * @return true if a coalescing pattern selects the address
+     */
+    private boolean isCoalesced(final String address) {
+        for (AddressSelector selector : coalesced) {
+            if (selector.matches(address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Create the protocol writing messages to their LightFactory target.
+     *
+     * @param messages the messages, all for the same target
+     * @param received the {@link System#nanoTime()} the oldest message was received
+     * @return the protocol
+     */
+    private OSCProtocol protocol(final List<OSCMessage> messages, final long received) {
+        return new OSCProtocol(messages, sessions, metrics, received, replies);
+    }
+
+    /**
+     * Log a message refused by the lanes.
+     *
+     * @param address the OSC address
+     * @param e       the rejection
+     */
+    private void rejected(final String address, final RejectedExecutionException e) {
+        LogUtil.debug(this.getClass(), resources.getString("osc.listener.rejected"), address);
+        LogUtil.trace(this.getClass(), e);
+    }
+
+    /**
+     * Gets the LightFactory target of an address, <i>/lf/&lt;ipaddress:port&gt;/&lt;cmd&gt;</i>.
+     *
+     * @param address the OSC address
+     * @return the target, or the whole address if it does not name a target
+     */
+    static String target(final String address) {
+        if (!address.startsWith(PREFIX)) {
+            return address;
+        }
+        int end = address.indexOf('/', PREFIX.length());
+        return end < 0 ? address : address.substring(PREFIX.length(), end);
+    }
+
+    /**
+     * Sends the latest pending value of a coalesced address.
+     */
+    private final class Coalesced implements StripedExecutor.Discardable {
+        /**
+         * The coalesced address.
+         */
+        private final String address;
+        /**
+         * The {@link System#nanoTime()} the first value of the update was received.
+         */
+        private final long received = System.nanoTime();
+        /**
+         * True once the task was handed to the lanes.
+         */
+        private boolean queued;
+
+        /**
+         * Instantiates a new coalesced update.
+         *
+         * @param address the coalesced address
+         */
+        private Coalesced(final String address) {
+            this.address = address;
+        }
+
+        /**
+         * Hand the update to the lane of its target.
+         */
+        private void queue() {
+            queued = true;
+            try {
+                executorService.execute(target(address), this);
+            } catch (RejectedExecutionException e) {
+                discarded();
+                rejected(address, e);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (!queued) {
+                //the hold time is over
+                queue();
+                return;
+            }
+            try {
+                OSCMessage latest = pending.remove(address);
+                if (latest != null) {
+                    protocol(Collections.singletonList(latest), received).run();
+                }
+            } finally {
+                release(target(address), 1);
+            }
+        }
+
+        @Override
+        public void discarded() {
+            pending.remove(address);
+            release(target(address), 1);
+        }
+    }
+
+    /**
+     * Releases the place of its messages in the target limit once they ran or were discarded.
+     */
+    private final class Limited implements StripedExecutor.Discardable {
+        /**
+         * The LightFactory target.
+         */
+        private final String target;
+        /**
+         * The messages of the task.
+         */
+        private final List<OSCMessage> messages;
+        /**
+         * The task writing the messages.
+         */
+        private final StripedExecutor.Discardable task;
+
+        /**
+         * Instantiates a new limited task.
+         *
+         * @param target   the LightFactory target
+         * @param messages the messages of the task
+         * @param task     the task writing the messages
+         */
+        private Limited(final String target, final List<OSCMessage> messages,
+                        final StripedExecutor.Discardable task) {
+            this.target = target;
+            this.messages = messages;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } finally {
+                release(target, messages.size());
+            }
+        }
+
+        @Override
+        public void discarded() {
+            release(target, messages.size());
+            task.discarded();
+        }
+    }
+
+    /**
+     * Messages waiting to be written to the same target, at most one task of a batch is scheduled at a time.
+     */
+    private final class Batch implements StripedExecutor.Discardable {
+        /**
+         * The LightFactory target.
+         */
+        private final String target;
+        /**
+         * The waiting messages in arrival order.
+         */
+        private final Queue<OSCMessage> messages = new ConcurrentLinkedQueue<>();
+        /**
+         * Number of waiting messages.
+         */
+        private final AtomicInteger size = new AtomicInteger();
+        /**
+         * True while the batch is scheduled on the timer or a lane.
+         */
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        /**
+         * True while the batch window is open.
+         */
+        private volatile boolean waiting;
+        /**
+         * The {@link System#nanoTime()} the batch was started.
+         */
+        private volatile long started;
+
+        /**
+         * Instantiates a new batch.
+         *
+         * @param target the LightFactory target
+         */
+        private Batch(final String target) {
+            this.target = target;
+        }
+
+        /**
+         * Add a message, scheduling the batch if it is idle.
+         *
+         * @param message the message
+         */
+        private void offer(final OSCMessage message) {
+            if (!admit(target, Collections.singletonList(message))) {
+                return;
+            }
+            size.incrementAndGet();
+            messages.offer(message);
+            if (scheduled.compareAndSet(false, true)) {
+                started = System.nanoTime();
+                if (batchWindow > 0) {
+                    waiting = true;
+                    try {
+                        timer.schedule(this, batchWindow, TimeUnit.MILLISECONDS);
+                    } catch (RejectedExecutionException e) {
+                        drain();
+                        rejected(target, e);
+                    }
+                } else {
+                    queue();
+                }
+            }
+        }
+
+        /**
+         * Hand the batch to the lane of its target.
+         */
+        private void queue() {
+            waiting = false;
+            try {
+                executorService.execute(target, this);
+            } catch (RejectedExecutionException e) {
+                drain();
+                rejected(target, e);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (waiting) {
+                //the batch window is over
+                queue();
+                return;
+            }
+            List<OSCMessage> batch = new ArrayList<>(Math.min(batchSize, size.get()));
+            OSCMessage message;
+            while (batch.size() < batchSize && (message = messages.poll()) != null) {
+                batch.add(message);
+            }
+            size.addAndGet(-batch.size());
+            long received = started;
+            scheduled.set(false);
+            if (!messages.isEmpty() && scheduled.compareAndSet(false, true)) {
+                //a backlog is written right after this batch, the window only applies to an idle target
+                started = System.nanoTime();
+                queue();
+            }
+            try {
+                protocol(batch, received).run();
+            } finally {
+                release(target, batch.size());
+                retire();
+            }
+        }
+
+        @Override
+        public void discarded() {
+            //the lanes counted the batch as one dropped message
+            shed.addAndGet(Math.max(0, drain() - 1));
+        }
+
+        /**
+         * Drop the waiting messages and mark the batch idle.
+         *
+         * @return the number of messages dropped
+         */
+        private int drain() {
+            int dropped = 0;
+            do {
+                OSCMessage message;
+                while ((message = messages.poll()) != null) {
+                    OSCFanOut.abandon(Collections.singletonList(message), resources.getString("osc.listener.dropped"));
+                    dropped++;
+                }
+                scheduled.set(false);
+                //a message that raced with the drop has nobody to schedule it, so it is dropped as well
+            } while (!messages.isEmpty() && scheduled.compareAndSet(false, true));
+            size.addAndGet(-dropped);
+            release(target, dropped);
+            retire();
+            return dropped;
+        }
+
+        /**
+         * Remove the batch once it is idle, a message offered to it meanwhile still schedules and writes it.
+         */
+        private void retire() {
+            if (!scheduled.get() && messages.isEmpty()) {
+                batches.remove(target, this);
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+
+package com.xley.lfosc.impl;
+
+import com.illposed.osc.OSCMessage;
+import com.xley.lfosc.util.LogUtil;
+import com.xley.lfosc.util.ObjectPool;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.ResourceBundle;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends the LightFactory response of an OSC event back to the sender of the event.
+ * <br>The reply is sent from the OSC receive channel to the address of the sender, or to a fixed port of that host.
+ * It holds the OSC address of the event, <i>T</i> if LightFactory ran the command or <i>F</i> if it failed, and the
+ * response or error text. Replies are encoded with {@link OSCEncoder}, javaosc drops the type tag terminator of
+ * exactly this message.
+ */
+public class OSCReplier {
+    /**
+     * The constant resources.
+     */
+    public static final ResourceBundle resources = ResourceBundle.getBundle(OSCReplier.class.getSimpleName(),
+            Locale.getDefault());
+
+    /**
+     * Max number of reply encoders kept for reuse.
+     */
+    private static final int ENCODERS_POOLED = 16;
+    /**
+     * Reply encoders shared by all threads.
+     */
+    private static final ObjectPool<OSCEncoder> encoders = new ObjectPool<OSCEncoder>(ENCODERS_POOLED) {
+        @Override
+        protected OSCEncoder create() {
+            return new OSCEncoder();
+        }
+    };
+
+    /**
+     * The receiver the replies are sent from.
+     */
+    private final OSCDatagramReceiver receiver;
+    /**
+     * The OSC address of the replies.
+     */
+    private final String address;
+    /**
+     * The port replies are sent to, 0 for the port of the sender.
+     */
+    private final int port;
+    /**
+     * Replies sent.
+     */
+    private final AtomicLong sent = new AtomicLong();
+    /**
+     * Replies that failed to send.
+     */
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Instantiates a new OSC replier.
+     *
+     * @param receiver the receiver the replies are sent from
+     * @param address  the OSC address of the replies
+     * @param port     the port replies are sent to, 0 for the port of the sender
+     */
+    public OSCReplier(final OSCDatagramReceiver receiver, final String address, final int port) {
+        this.receiver = receiver;
+        this.address = address;
+        this.port = port;
+    }
+
+    /**
+     * Remember the sender of a message, so the message can be answered once it was sent to LightFactory.
+     *
+     * @param message the message
+     * @param source  the sender, null if unknown
+     * @return the message to hand on
+     */
+    public final OSCMessage track(final OSCMessage message, final InetSocketAddress source) {
+        if (source == null || message instanceof Tracked) {
+            return message;
+        }
+        return new Tracked(message, source);
+    }
+
+    /**
+     * Answer a message with the LightFactory response, messages without a known sender are not answered.
+     *
+     * @param message the message
+     * @param success true if LightFactory ran the command
+     * @param text    the response or error text
+     */
+    public final void reply(final OSCMessage message, final boolean success, final String text) {
+        if (!(message instanceof Tracked)) {
+            return;
+        }
+        InetSocketAddress source = ((Tracked) message).source;
+        InetSocketAddress target = port > 0 ? new InetSocketAddress(source.getAddress(), port) : source;
+        OSCEncoder encoder = encoders.acquire();
+        ByteBuffer reply;
+        try {
+            encoder.start(address).addString(message.getAddress()).addBoolean(success)
+                    .addString(text == null ? "" : text);
+            reply = ByteBuffer.allocate(encoder.size());
+            encoder.encode(reply).flip();
+        } finally {
+            encoders.release(encoder);
+        }
+        try {
+            receiver.send(reply, target);
+            sent.incrementAndGet();
+            LogUtil.trace(this.getClass(), resources.getString("osc.reply.sent"), message.getAddress(), target);
+        } catch (IOException e) {
+            failed.incrementAndGet();
+            LogUtil.debug(this.getClass(), resources.getString("osc.reply.failed"), target, e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the number of replies sent.
+     *
+     * @return the sent count
+     */
+    public final long getSent() {
+        return sent.get();
+    }
+
+    /**
+     * Gets the number of replies that failed to send.
+     *
+     * @return the failed count
+     */
+    public final long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * A message that remembers its sender.
+     */
+    private static final class Tracked extends OSCMessage {
+        /**
+         * The sender of the message.
+         */
+        private final InetSocketAddress source;
+
+        /**
+         * Instantiates a copy of a message.
+         *
+         * @param message the message
+         * @param source  the sender
+         */
+        private Tracked(final OSCMessage message, final InetSocketAddress source) {
+            super(message.getAddress(), message.getArguments());
+            this.source = source;
+        }
+    }
+}
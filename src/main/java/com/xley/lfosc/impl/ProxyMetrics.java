@@ -0,0 +1,524 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.impl;
+
+import com.xley.lfosc.util.LogUtil;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Metrics of a running proxy.
+ * <br>Message counts, error counts and latency histograms are kept for each direction, in total and for each target.
+ * OSC to LightFactory latency runs from receiving the OSC message until LightFactory answered the command with its
+ * prompt, so it includes the LightFactory round trip. LightFactory to OSC latency runs from reading the command off the
+ * bridge connection to sending the OSC datagram. Recording only updates atomic counters, the metrics can be exported
+ * as MBeans under {@value #DOMAIN} and dumped to the log.
+ * <br>Targets come from the network, so only the first {@value #MAX_TARGETS} targets of a direction get their own
+ * metrics, the traffic of any further target is folded into the <i>other</i> target.
+ */
+public class ProxyMetrics implements ProxyMetricsMBean {
+    /**
+     * The constant resources.
+     */
+    public static final ResourceBundle resources = ResourceBundle.getBundle(ProxyMetrics.class.getSimpleName(),
+            Locale.getDefault());
+
+    /**
+     * JMX domain of the metrics MBeans.
+     */
+    public static final String DOMAIN = "com.xley.lfosc";
+
+    /**
+     * The directions traffic passes the proxy.
+     */
+    public enum Direction {
+        /**
+         * OSC messages written to LightFactory.
+         */
+        OSC_TO_LF("osc-to-lf"),
+        /**
+         * LightFactory commands sent as OSC messages.
+         */
+        LF_TO_OSC("lf-to-osc");
+
+        /**
+         * Name used in MBean names and the log.
+         */
+        private final String label;
+
+        /**
+         * Instantiates a new direction.
+         *
+         * @param label the name used in MBean names and the log
+         */
+        Direction(final String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    /**
+     * Default max number of targets with their own metrics in each direction.
+     */
+    public static final int MAX_TARGETS = 256;
+
+    /**
+     * Target name of the totals of a direction.
+     */
+    private static final String ALL = "all";
+    /**
+     * Target name of the traffic of the targets beyond the max number of targets.
+     */
+    private static final String OTHER = "other";
+
+    /**
+     * Max number of targets with their own metrics in each direction.
+     */
+    private final int maxTargets;
+
+    /**
+     * Totals of each direction.
+     */
+    private final Map<Direction, TrafficMetrics> totals = new EnumMap<>(Direction.class);
+    /**
+     * Metrics of each target by direction.
+     */
+    private final Map<Direction, ConcurrentMap<String, TrafficMetrics>> targets = new EnumMap<>(Direction.class);
+    /**
+     * Open LightFactory bridge connections.
+     */
+    private final AtomicInteger connections = new AtomicInteger();
+    /**
+     * Target names of the OSC destinations.
+     */
+    private final ConcurrentMap<InetSocketAddress, String> names = new ConcurrentHashMap<>();
+    /**
+     * The OSC listener reporting queue depths, null in bridge mode.
+     */
+    private volatile OSCProxyListener listener;
+    /**
+     * The LightFactory session pool reporting circuit breakers, null in bridge mode.
+     */
+    private volatile LightFactorySessionPool sessions;
+    /**
+     * The MBean server the metrics are registered with, null unless exported.
+     */
+    private MBeanServer server;
+    /**
+     * Names of the registered MBeans.
+     */
+    private final List<ObjectName> registered = new ArrayList<>();
+    /**
+     * Periodic dump to the log, null unless enabled.
+     */
+    private ScheduledExecutorService reporter;
+
+    /**
+     * Instantiates new proxy metrics.
+     */
+    public ProxyMetrics() {
+        this(MAX_TARGETS);
+    }
+
+    /**
+     * Instantiates new proxy metrics with their own limit of targets.
+     *
+     * @param maxTargets the max number of targets with their own metrics in each direction
+     */
+    public ProxyMetrics(final int maxTargets) {
+        this.maxTargets = maxTargets;
+        for (Direction direction : Direction.values()) {
+            totals.put(direction, new TrafficMetrics());
+            targets.put(direction, new ConcurrentHashMap<String, TrafficMetrics>());
+        }
+    }
+
+    /**
+     * Report the circuit breakers of a LightFactory session pool.
+     *
+     * @param sessionPool the session pool
+     */
+    public final void setSessions(final LightFactorySessionPool sessionPool) {
+        this.sessions = sessionPool;
+    }
+
+    /**
+     * Report the queue depths of an OSC listener.
+     *
+     * @param oscListener the OSC listener
+     */
+    public final void setListener(final OSCProxyListener oscListener) {
+        this.listener = oscListener;
+    }
+
+    /**
+     * Record messages delivered to a target.
+     *
+     * @param direction the direction
+     * @param target    the target, e.g. <i>host:port</i>
+     * @param count     the number of messages delivered
+     * @param received  the {@link System#nanoTime()} the messages were received
+     */
+    public final void delivered(final Direction direction, final String target, final int count,
+                                final long received) {
+        long nanos = System.nanoTime() - received;
+        totals.get(direction).delivered(count, nanos);
+        traffic(direction, target).delivered(count, nanos);
+    }
+
+    /**
+     * Record messages delivered to an OSC destination.
+     *
+     * @param direction the direction
+     * @param target    the destination
+     * @param count     the number of messages delivered
+     * @param received  the {@link System#nanoTime()} the messages were received
+     */
+    public final void delivered(final Direction direction, final InetSocketAddress target, final int count,
+                                final long received) {
+        delivered(direction, name(target), count, received);
+    }
+
+    /**
+     * Record messages that failed to reach an OSC destination.
+     *
+     * @param direction the direction
+     * @param target    the destination
+     * @param count     the number of messages that failed
+     */
+    public final void failed(final Direction direction, final InetSocketAddress target, final int count) {
+        failed(direction, name(target), count);
+    }
+
+    /**
+     * Record messages or commands that failed.
+     *
+     * @param direction the direction
+     * @param target    the target, null if the target is not known
+     * @param count     the number of messages or commands that failed
+     */
+    public final void failed(final Direction direction, final String target, final int count) {
+        totals.get(direction).failed(count);
+        if (target != null) {
+            traffic(direction, target).failed(count);
+        }
+    }
+
+    /**
+     * Record an opened LightFactory bridge connection.
+     */
+    public final void connectionOpened() {
+        connections.incrementAndGet();
+    }
+
+    /**
+     * Record a closed LightFactory bridge connection.
+     */
+    public final void connectionClosed() {
+        connections.decrementAndGet();
+    }
+
+    /**
+     * Gets the totals of a direction.
+     *
+     * @param direction the direction
+     * @return the traffic metrics
+     */
+    public final TrafficMetrics getTotals(final Direction direction) {
+        return totals.get(direction);
+    }
+
+    /**
+     * Gets the metrics of a target.
+     *
+     * @param direction the direction
+     * @param target    the target, <i>other</i> for the targets beyond the max number of targets
+     * @return the traffic metrics, null if nothing was recorded for the target
+     */
+    public final TrafficMetrics getTraffic(final Direction direction, final String target) {
+        return targets.get(direction).get(target);
+    }
+
+    @Override
+    public final int getActiveConnections() {
+        return connections.get();
+    }
+
+    @Override
+    public final int[] getQueueDepths() {
+        OSCProxyListener current = listener;
+        return current == null ? new int[0] : current.getQueueDepths();
+    }
+
+    @Override
+    public final int getQueuedMessages() {
+        int queued = 0;
+        for (int depth : getQueueDepths()) {
+            queued += depth;
+        }
+        return queued;
+    }
+
+    @Override
+    public final long getDroppedMessages() {
+        OSCProxyListener current = listener;
+        return current == null ? 0 : current.getDropped();
+    }
+
+    @Override
+    public final long getRejectedMessages() {
+        OSCProxyListener current = listener;
+        return current == null ? 0 : current.getRejected();
+    }
+
+    @Override
+    public final String[] getOpenCircuits() {
+        LightFactorySessionPool current = sessions;
+        if (current == null) {
+            return new String[0];
+        }
+        List<String> open = current.getOpenCircuits();
+        return open.toArray(new String[open.size()]);
+    }
+
+    @Override
+    public final long getFailedFast() {
+        LightFactorySessionPool current = sessions;
+        return current == null ? 0 : current.getFailedFast();
+    }
+
+    /**
+     * Register the metrics with the platform MBean server, targets seen later are registered as they appear.
+     */
+    public final synchronized void export() {
+        if (server != null) {
+            return;
+        }
+        server = ManagementFactory.getPlatformMBeanServer();
+        register(name("type=Proxy"), this);
+        for (Direction direction : Direction.values()) {
+            register(trafficName(direction, ALL), totals.get(direction));
+            for (Map.Entry<String, TrafficMetrics> entry : targets.get(direction).entrySet()) {
+                register(trafficName(direction, entry.getKey()), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Dump the metrics to the log periodically.
+     *
+     * @param seconds the seconds between dumps, 0 or less to not dump
+     */
+    public final synchronized void startReporting(final long seconds) {
+        if (seconds <= 0 || reporter != null) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(r, "ProxyMetrics - Reporter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        reporter.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                report(false);
+            }
+        }, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop reporting and unregister the MBeans.
+     */
+    public final synchronized void close() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+        report(true);
+        if (server != null) {
+            for (ObjectName name : registered) {
+                try {
+                    server.unregisterMBean(name);
+                } catch (JMException e) {
+                    LogUtil.trace(this.getClass(), e);
+                }
+            }
+            registered.clear();
+            server = null;
+        }
+    }
+
+    /**
+     * Log the metrics.
+     *
+     * @param debug true to log at debug level, otherwise at info level
+     */
+    private void report(final boolean debug) {
+        List<String> lines = new ArrayList<>();
+        lines.add(MessageFormat.format(resources.getString("metrics.report.proxy"), getActiveConnections(),
+                Arrays.toString(getQueueDepths()), getDroppedMessages(), getRejectedMessages(),
+                Arrays.toString(getOpenCircuits()), getFailedFast()));
+        for (Direction direction : Direction.values()) {
+            lines.add(line(direction, ALL, totals.get(direction)));
+            for (Map.Entry<String, TrafficMetrics> entry : targets.get(direction).entrySet()) {
+                lines.add(line(direction, entry.getKey(), entry.getValue()));
+            }
+        }
+        for (String line : lines) {
+            if (debug) {
+                LogUtil.debug(this.getClass(), line);
+            } else {
+                LogUtil.info(this.getClass(), line);
+            }
+        }
+    }
+
+    /**
+     * Format the metrics of a target.
+     *
+     * @param direction the direction
+     * @param target    the target
+     * @param traffic   the traffic metrics
+     * @return the log line
+     */
+    private static String line(final Direction direction, final String target, final TrafficMetrics traffic) {
+        return MessageFormat.format(resources.getString("metrics.report.traffic"), direction, target,
+                traffic.getMessages(), traffic.getErrors(), traffic.getLatencyMeanMicros(),
+                traffic.getLatency50Micros(), traffic.getLatency99Micros(), traffic.getLatencyMaxMicros());
+    }
+
+    /**
+     * Gets the target name of an OSC destination, <i>address:port</i>.
+     *
+     * @param target the destination
+     * @return the target name
+     */
+    private String name(final InetSocketAddress target) {
+        String name = names.get(target);
+        if (name == null) {
+            name = (target.getAddress() != null ? target.getAddress().getHostAddress() : target.getHostString())
+                    + ":" + target.getPort();
+            if (names.size() < maxTargets) {
+                names.putIfAbsent(target, name);
+            }
+        }
+        return name;
+    }
+
+    /**
+     * Gets or creates the metrics of a target, the metrics of the <i>other</i> target once the max number of targets
+     * is reached.
+     *
+     * @param direction the direction
+     * @param target    the target
+     * @return the traffic metrics
+     */
+    private TrafficMetrics traffic(final Direction direction, final String target) {
+        ConcurrentMap<String, TrafficMetrics> byTarget = targets.get(direction);
+        TrafficMetrics traffic = byTarget.get(target);
+        if (traffic == null && byTarget.size() >= maxTargets && !OTHER.equals(target)) {
+            return traffic(direction, OTHER);
+        }
+        if (traffic == null) {
+            TrafficMetrics created = new TrafficMetrics();
+            traffic = byTarget.putIfAbsent(target, created);
+            if (traffic == null) {
+                traffic = created;
+                synchronized (this) {
+                    if (server != null) {
+                        register(trafficName(direction, target), created);
+                    }
+                }
+            }
+        }
+        return traffic;
+    }
+
+    /**
+     * Register an MBean, a name already taken by another proxy in the same JVM is skipped.
+     *
+     * @param name  the object name, null to skip
+     * @param mbean the MBean
+     */
+    private void register(final ObjectName name, final Object mbean) {
+        if (name == null) {
+            return;
+        }
+        try {
+            server.registerMBean(mbean, name);
+            registered.add(name);
+        } catch (JMException e) {
+            LogUtil.warn(this.getClass(), resources.getString("metrics.register.failed"), name, e.getMessage());
+        }
+    }
+
+    /**
+     * Build the object name of the traffic metrics of a target.
+     *
+     * @param direction the direction
+     * @param target    the target
+     * @return the object name, null if the target does not make a valid name
+     */
+    private static ObjectName trafficName(final Direction direction, final String target) {
+        return name("type=Traffic,direction=" + direction + ",target=" + ObjectName.quote(target));
+    }
+
+    /**
+     * Build an object name in the metrics domain.
+     *
+     * @param properties the key properties
+     * @return the object name, null if the properties do not make a valid name
+     */
+    private static ObjectName name(final String properties) {
+        try {
+            return new ObjectName(DOMAIN + ":" + properties);
+        } catch (JMException e) {
+            LogUtil.trace(ProxyMetrics.class, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.impl;
+
+/**
+ * Management interface of the {@link ProxyMetrics}.
+ */
+public interface ProxyMetricsMBean {
+
+    /**
+     * Gets the number of open LightFactory bridge connections.
+     *
+     * @return the connection count
+     */
+    int getActiveConnections();
+
+    /**
+     * Gets the number of OSC messages waiting on each lane of the OSC listener.
+     *
+     * @return the queue depths by lane, empty without an OSC listener
+     */
+    int[] getQueueDepths();
+
+    /**
+     * Gets the number of OSC messages waiting on all lanes of the OSC listener.
+     *
+     * @return the queued count
+     */
+    int getQueuedMessages();
+
+    /**
+     * Gets the number of OSC messages dropped by the OSC listener.
+     *
+     * @return the dropped count
+     */
+    long getDroppedMessages();
+
+    /**
+     * Gets the number of OSC messages rejected by the OSC listener.
+     *
+     * @return the rejected count
+     */
+    long getRejectedMessages();
+
+    /**
+     * Gets the LightFactory targets whose circuit breaker is open or probing.
+     *
+     * @return the host:port keys, empty without a LightFactory session pool
+     */
+    String[] getOpenCircuits();
+
+    /**
+     * Gets the number of commands refused by an open circuit breaker.
+     *
+     * @return the failed fast count
+     */
+    long getFailedFast();
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.impl;
+
+import com.xley.lfosc.util.LatencyHistogram;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Message and error counts with a latency histogram for one direction of the proxy and one target.
+ */
+public class TrafficMetrics implements TrafficMetricsMBean {
+
+    /**
+     * Messages delivered.
+     */
+    private final AtomicLong messages = new AtomicLong();
+    /**
+     * Messages or commands that failed.
+     */
+    private final AtomicLong errors = new AtomicLong();
+    /**
+     * Latency of each delivery.
+     */
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * Record a delivery.
+     *
+     * @param count the number of messages delivered
+     * @param nanos the time in nanoseconds from receiving the messages to writing them
+     */
+    final void delivered(final int count, final long nanos) {
+        messages.addAndGet(count);
+        latency.record(nanos);
+    }
+
+    /**
+     * Record a failure.
+     *
+     * @param count the number of messages or commands that failed
+     */
+    final void failed(final int count) {
+        errors.addAndGet(count);
+    }
+
+    /**
+     * Gets the latency histogram.
+     *
+     * @return the histogram
+     */
+    public final LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public final long getMessages() {
+        return messages.get();
+    }
+
+    @Override
+    public final long getErrors() {
+        return errors.get();
+    }
+
+    @Override
+    public final long getLatencyMeanMicros() {
+        return latency.getMean(TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public final long getLatency50Micros() {
+        return latency.getPercentile(50, TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public final long getLatency99Micros() {
+        return latency.getPercentile(99, TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public final long getLatency999Micros() {
+        return latency.getPercentile(99.9, TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public final long getLatencyMaxMicros() {
+        return latency.getMax(TimeUnit.MICROSECONDS);
+    }
+}
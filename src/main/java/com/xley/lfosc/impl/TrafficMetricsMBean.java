@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.impl;
+
+/**
+ * Management interface of the {@link TrafficMetrics} of one direction and target.
+ */
+public interface TrafficMetricsMBean {
+
+    /**
+     * Gets the number of messages delivered.
+     *
+     * @return the message count
+     */
+    long getMessages();
+
+    /**
+     * Gets the number of messages or commands that failed.
+     *
+     * @return the error count
+     */
+    long getErrors();
+
+    /**
+     * Gets the mean latency.
+     *
+     * @return the mean in microseconds
+     */
+    long getLatencyMeanMicros();
+
+    /**
+     * Gets the median latency.
+     *
+     * @return the 50th percentile in microseconds
+     */
+    long getLatency50Micros();
+
+    /**
+     * Gets the 99th percentile latency.
+     *
+     * @return the 99th percentile in microseconds
+     */
+    long getLatency99Micros();
+
+    /**
+     * Gets the 99.9th percentile latency.
+     *
+     * @return the 99.9th percentile in microseconds
+     */
+    long getLatency999Micros();
+
+    /**
+     * Gets the largest latency.
+     *
+     * @return the max in microseconds
+     */
+    long getLatencyMaxMicros();
+}
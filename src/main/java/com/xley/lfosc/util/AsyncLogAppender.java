@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2014. Peter Crossley
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.xley.lfosc.util;
+
+import org.apache.log4j.Appender;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Log4j appender handing events to a single dispatcher thread through a bounded ring buffer.
+ * <br>Logging threads never wait for the console or a file, an event that does not fit the buffer is discarded and
+ * counted, the dispatcher reports the discarded count once the buffer has drained. Unlike
+ * {@link org.apache.log4j.AsyncAppender} closing this appender drains the buffer but leaves the appenders it
+ * delivers to open, so they can be attached to their logger again.
+ */
+public class AsyncLogAppender extends AppenderSkeleton {
+
+    /**
+     * Time in milliseconds {@link #close()} waits for the buffer to drain.
+     */
+    private static final long DRAIN_TIMEOUT = 5000;
+
+    /**
+     * The buffered events.
+     */
+    private final BlockingQueue<LoggingEvent> buffer;
+    /**
+     * The number of events buffered.
+     */
+    private final int capacity;
+    /**
+     * The appenders events are delivered to.
+     */
+    private final List<Appender> appenders;
+    /**
+     * Events discarded because the buffer was full.
+     */
+    private final AtomicLong discarded = new AtomicLong();
+    /**
+     * Discarded events already reported.
+     */
+    private long reported;
+    /**
+     * The dispatcher thread.
+     */
+    private final Thread dispatcher;
+
+    /**
+     * Instantiates a new async appender and starts its dispatcher.
+     *
+     * @param capacity  the number of events buffered
+     * @param appenders the appenders events are delivered to
+     */
+    public AsyncLogAppender(final int capacity, final List<Appender> appenders) {
+        this.capacity = Math.max(1, capacity);
+        this.buffer = new ArrayBlockingQueue<>(this.capacity);
+        this.appenders = new ArrayList<>(appenders);
+        this.dispatcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        }, "LogUtil - Async Appender");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * Gets the appenders events are delivered to.
+     *
+     * @return the appenders
+     */
+    public final List<Appender> getAppenders() {
+        return new ArrayList<>(appenders);
+    }
+
+    /**
+     * Gets the number of events buffered.
+     *
+     * @return the capacity
+     */
+    public final int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Gets the number of events discarded because the buffer was full.
+     *
+     * @return the discarded count
+     */
+    public final long getDiscarded() {
+        return discarded.get();
+    }
+
+    /**
+     * Gets the number of buffered events.
+     *
+     * @return the buffered count
+     */
+    public final int getBuffered() {
+        return buffer.size();
+    }
+
+    @Override
+    protected final void append(final LoggingEvent event) {
+        //capture what depends on the logging thread before the event changes threads
+        event.getThreadName();
+        event.getNDC();
+        event.getMDCCopy();
+        if (!buffer.offer(event)) {
+            discarded.incrementAndGet();
+        }
+    }
+
+    @Override
+    public final void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        dispatcher.interrupt();
+        try {
+            dispatcher.join(DRAIN_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public final boolean requiresLayout() {
+        return false;
+    }
+
+    /**
+     * Deliver buffered events until closed, then drain what is left.
+     */
+    private void dispatch() {
+        while (!closed) {
+            try {
+                LoggingEvent event = buffer.poll(1, TimeUnit.SECONDS);
+                if (event != null) {
+                    deliver(event);
+                }
+                if (buffer.isEmpty()) {
+                    reportDiscarded();
+                }
+            } catch (InterruptedException e) {
+                //closing, drain below
+                break;
+            }
+        }
+        LoggingEvent event;
+        while ((event = buffer.poll()) != null) {
+            deliver(event);
+        }
+        reportDiscarded();
+    }
+
+    /**
+     * Deliver an event to all appenders.
+     *
+     * @param event the event
+     */
+    private void deliver(final LoggingEvent event) {
+        for (Appender appender : appenders) {
+            appender.doAppend(event);
+        }
+    }
+
+    /**
+     * Report events discarded since the last report.
+     */
+    private void reportDiscarded() {
+        long count = discarded.get();
+        if (count > reported) {
+            deliver(new LoggingEvent(AsyncLogAppender.class.getName(), Logger.getLogger(AsyncLogAppender.class),
+                    Level.WARN, "Discarded " + (count - reported) + " log events, the async log buffer was full",
+                    null));
+            reported = count;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2014. Peter Crossley
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.xley.lfosc.util;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of equally sized byte buffers.
+ */
+public class BufferPool {
+
+    /**
+     * The pooled buffers.
+     */
+    private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    /**
+     * Number of buffers currently pooled.
+     */
+    private final AtomicInteger pooled = new AtomicInteger();
+    /**
+     * Size of each buffer.
+     */
+    private final int bufferSize;
+    /**
+     * Max number of buffers kept in the pool.
+     */
+    private final int maxPooled;
+    /**
+     * Allocate direct buffers.
+     */
+    private final boolean direct;
+
+    /**
+     * Instantiates a new buffer pool.
+     *
+     * @param bufferSize the size of each buffer
+     * @param maxPooled  the max number of buffers kept in the pool
+     * @param direct     true to allocate direct buffers
+     */
+    public BufferPool(final int bufferSize, final int maxPooled, final boolean direct) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+        this.direct = direct;
+    }
+
+    /**
+     * Take a cleared buffer from the pool, allocating one if the pool is empty.
+     *
+     * @return the buffer
+     */
+    public final ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+        }
+        pooled.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Return a buffer to the pool, buffers of another size or beyond the pool limit are left to the garbage collector.
+     *
+     * @param buffer the buffer
+     */
+    public final void release(final ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() != bufferSize || buffer.isDirect() != direct) {
+            return;
+        }
+        if (pooled.incrementAndGet() > maxPooled) {
+            pooled.decrementAndGet();
+            return;
+        }
+        buffers.offer(buffer);
+    }
+
+    /**
+     * Gets the size of each buffer.
+     *
+     * @return the buffer size
+     */
+    public final int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Gets the number of buffers currently pooled.
+     *
+     * @return the pooled count
+     */
+    public final int getPooled() {
+        return pooled.get();
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2014. Peter Crossley
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.xley.lfosc.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker for a single destination.
+ * <br>The breaker opens after a number of consecutive failures and refuses all calls while open. Once the open time
+ * has passed it lets a single probe through, the probe closes the breaker on success or opens it again on failure.
+ * Callers report the outcome of every call the breaker let through.
+ */
+public class CircuitBreaker {
+
+    /**
+     * The state of a breaker.
+     */
+    public enum State {
+        /**
+         * Calls go through.
+         */
+        CLOSED,
+        /**
+         * Calls are refused.
+         */
+        OPEN,
+        /**
+         * A single probe call goes through.
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * Consecutive failures that open the breaker.
+     */
+    private final int threshold;
+    /**
+     * Time in nanoseconds the breaker stays open before a probe.
+     */
+    private final long openNanos;
+    /**
+     * The current state.
+     */
+    private State state = State.CLOSED;
+    /**
+     * Consecutive failures.
+     */
+    private int failures;
+    /**
+     * The {@link System#nanoTime()} the breaker opened.
+     */
+    private long opened;
+    /**
+     * True while a probe is running.
+     */
+    private boolean probing;
+
+    /**
+     * Instantiates a new closed circuit breaker.
+     *
+     * @param threshold  the consecutive failures that open the breaker
+     * @param openMillis the time in milliseconds the breaker stays open before a probe
+     */
+    public CircuitBreaker(final int threshold, final long openMillis) {
+        this.threshold = Math.max(1, threshold);
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    /**
+     * Ask to make a call.
+     *
+     * @return true if the call may go ahead
+     */
+    public final boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    /**
+     * Ask to make a call at the given time.
+     *
+     * @param now the current {@link System#nanoTime()}
+     * @return true if the call may go ahead
+     */
+    public final synchronized boolean tryAcquire(final long now) {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now - opened < openNanos) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probing = true;
+                return true;
+            default:
+                if (probing) {
+                    return false;
+                }
+                probing = true;
+                return true;
+        }
+    }
+
+    /**
+     * Report a successful call.
+     *
+     * @return the state before the call was reported
+     */
+    public final synchronized State success() {
+        State previous = state;
+        state = State.CLOSED;
+        failures = 0;
+        probing = false;
+        return previous;
+    }
+
+    /**
+     * Report a failed call.
+     *
+     * @return the state before the call was reported
+     */
+    public final State failure() {
+        return failure(System.nanoTime());
+    }
+
+    /**
+     * Report a failed call at the given time.
+     *
+     * @param now the current {@link System#nanoTime()}
+     * @return the state before the call was reported
+     */
+    public final synchronized State failure(final long now) {
+        State previous = state;
+        failures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= threshold)) {
+            state = State.OPEN;
+            opened = now;
+        }
+        probing = false;
+        return previous;
+    }
+
+    /**
+     * Gets the current state.
+     *
+     * @return the state
+     */
+    public final synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Gets the number of consecutive failures.
+     *
+     * @return the failure count
+     */
+    public final synchronized int getFailures() {
+        return failures;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2014. Peter Crossley
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.xley.lfosc.util;
+
+/**
+ * When a task delivered to several members at once counts as done.
+ */
+public enum CompletionPolicy {
+    /**
+     * Every member succeeded.
+     */
+    ALL,
+    /**
+     * At least one member succeeded.
+     */
+    ANY,
+    /**
+     * More than half of the members succeeded.
+     */
+    QUORUM;
+
+    /**
+     * Check the outcome of a delivery.
+     *
+     * @param succeeded the number of members that succeeded
+     * @param members   the number of members
+     * @return true if the policy is met
+     */
+    public boolean isMet(final int succeeded, final int members) {
+        switch (this) {
+            case ALL:
+                return succeeded == members;
+            case ANY:
+                return succeeded > 0;
+            default:
+                return succeeded > members / 2;
+        }
+    }
+
+    /**
+     * Check if the outcome of a delivery is known, either the policy is met or the members that did not answer yet
+     * can no longer meet it.
+     *
+     * @param succeeded the number of members that succeeded
+     * @param failed    the number of members that failed
+     * @param members   the number of members
+     * @return true if the outcome no longer depends on the members that did not answer yet
+     */
+    public boolean isDecided(final int succeeded, final int failed, final int members) {
+        return isMet(succeeded, members) || !isMet(members - failed, members);
+    }
+
+    /**
+     * Parse a policy from its option value, e.g. <i>quorum</i>.
+     *
+     * @param value the option value
+     * @return the policy
+     * @throws IllegalArgumentException if the value is not a policy
+     */
+    public static CompletionPolicy fromOption(final String value) {
+        return valueOf(value.trim().toUpperCase(java.util.Locale.ENGLISH).replace('-', '_'));
+    }
+}
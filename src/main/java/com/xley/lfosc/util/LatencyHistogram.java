@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2014. Peter Crossley
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.xley.lfosc.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free latency histogram with log linear buckets.
+ * <br>Each power of two is split into {@value #SUB_BUCKETS} buckets, so a reported value is within 12.5% of the
+ * recorded one. Recording is a few atomic increments and never allocates, reads are a consistent enough snapshot for
+ * monitoring while values are being recorded.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Bits of the value below the leading one that select the sub bucket.
+     */
+    private static final int SUB_BITS = 3;
+    /**
+     * Buckets for each power of two.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    /**
+     * Number of buckets covering all positive long values.
+     */
+    private static final int BUCKETS = (Long.SIZE - SUB_BITS) * SUB_BUCKETS;
+
+    /**
+     * Number of values recorded in each bucket.
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    /**
+     * Number of values recorded.
+     */
+    private final AtomicLong count = new AtomicLong();
+    /**
+     * Sum of the values recorded.
+     */
+    private final AtomicLong sum = new AtomicLong();
+    /**
+     * Largest value recorded.
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a latency.
+     *
+     * @param nanos the latency in nanoseconds, negative values are recorded as 0
+     */
+    public final void record(final long nanos) {
+        long value = Math.max(0, nanos);
+        buckets.incrementAndGet(bucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Gets the number of values recorded.
+     *
+     * @return the count
+     */
+    public final long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Gets the mean of the values recorded.
+     *
+     * @param unit the unit of the result
+     * @return the mean, 0 if nothing was recorded
+     */
+    public final long getMean(final TimeUnit unit) {
+        long recorded = count.get();
+        return recorded == 0 ? 0 : unit.convert(sum.get() / recorded, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the largest value recorded.
+     *
+     * @param unit the unit of the result
+     * @return the max, 0 if nothing was recorded
+     */
+    public final long getMax(final TimeUnit unit) {
+        return unit.convert(max.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the value below which the given share of the recorded values fall.
+     *
+     * @param percentile the percentile, e.g. 99.9
+     * @param unit       the unit of the result
+     * @return the upper bound of the bucket holding the percentile, 0 if nothing was recorded
+     */
+    public final long getPercentile(final double percentile, final TimeUnit unit) {
+        long recorded = count.get();
+        if (recorded == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(recorded * Math.min(100, percentile) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return unit.convert(Math.min(upperBound(i), max.get()), TimeUnit.NANOSECONDS);
+            }
+        }
+        return unit.convert(max.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the bucket of a value.
+     *
+     * @param value the value, not negative
+     * @return the bucket index
+     */
+    static int bucket(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Gets the largest value of a bucket.
+     *
+     * @param bucket the bucket index
+     * @return the upper bound
+     */
+    static long upperBound(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
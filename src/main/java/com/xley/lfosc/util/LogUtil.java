@@ -1,120 +1,254 @@
-/*
- * Copyright (c) 2014. Peter Crossley
- *
- * Licensed to the Apache Software Foundation (ASF) under one
- * or more contributor license agreements.  See the NOTICE file
- * distributed with this work for additional information
- * regarding copyright ownership.  The ASF licenses this file
- * to you under the Apache License, Version 2.0 (the
- * "License"); you may not use this file except in compliance
- * with the License.  You may obtain a copy of the License at
- *
- *   http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing,
- * software distributed under the License is distributed on an
- * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
- * KIND, either express or implied.  See the License for the
- * specific language governing permissions and limitations
- * under the License.
- */
-
-package com.xley.lfosc.util;
-
-import com.xley.lfosc.OSCProxy;
-import org.apache.log4j.Level;
-import org.apache.log4j.Logger;
-
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-
-public class LogUtil {
-
-    /**
-     * The constant LogUtil.
-     */
-
-    private static Map<Class, Logger> loggerMap = new ConcurrentHashMap<>();
-    private static Level level = null;
-
-    public static void trace(Object message) {
-        getLogger(OSCProxy.class).trace(message);
-    }
-
-    public static void debug(Object message) {
-        getLogger(OSCProxy.class).debug(message);
-    }
-
-    public static void info(Object message) {
-        getLogger(OSCProxy.class).info(message);
-    }
-
-    public static void warn(Object message) {
-        getLogger(OSCProxy.class).warn(message);
-    }
-
-    public static void error(Object message) {
-        getLogger(OSCProxy.class).error(message);
-    }
-
-    public static void error(Object message, Throwable throwable) {
-        getLogger(OSCProxy.class).error(message, throwable);
-    }
-
-    public static void fatal(Object message) {
-        getLogger(OSCProxy.class).fatal(message);
-    }
-
-    public static void fatal(Object message, Throwable throwable) {
-        getLogger(OSCProxy.class).fatal(message, throwable);
-    }
-
-    public static void trace(Class clazz, Object message) {
-        getLogger(clazz).trace(message);
-    }
-
-    public static void debug(Class clazz, Object message) {
-        getLogger(clazz).debug(message);
-    }
-
-    public static void info(Class clazz, Object message) {
-        getLogger(clazz).info(message);
-    }
-
-    public static void warn(Class clazz, Object message) {
-        getLogger(clazz).warn(message);
-    }
-
-    public static void error(Class clazz, Object message) {
-        getLogger(clazz).error(message);
-    }
-
-    public static void error(Class clazz, Object message, Throwable throwable) {
-        getLogger(clazz).error(message, throwable);
-    }
-
-    public static void fatal(Class clazz, Object message) {
-        getLogger(clazz).fatal(message);
-    }
-
-    public static void fatal(Class clazz, Object message, Throwable throwable) {
-        getLogger(clazz).fatal(message, throwable);
-    }
-
-    private static Logger getLogger(Class clazz) {
-        Logger log = Logger.getLogger(clazz);
-        if (level != null && !loggerMap.containsKey(clazz)) {
-            log.setLevel(level);
-        }
-        loggerMap.put(clazz, log);
-        return log;
-    }
-
-    public static void setLevel(Level logLevel) {
-        level = logLevel;
-        for (Logger log : loggerMap.values()) {
-            log.setLevel(level);
-        }
-    }
-}
-
+/*
+ * Copyright (c) 2014. Peter Crossley
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.xley.lfosc.util;
+
+import com.xley.lfosc.OSCProxy;
+import org.apache.log4j.Appender;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Logging facade over log4j.
+ * <br>The parameterized methods take a {@link MessageFormat} pattern and only format it when the level is enabled,
+ * so hot paths do not build messages that are never logged. Logger handles are cached per class.
+ */
+public class LogUtil {
+
+    /**
+     * The cached logger handles.
+     */
+    private static final ConcurrentMap<Class<?>, Logger> loggerMap = new ConcurrentHashMap<>();
+    /**
+     * The level set with {@link #setLevel(Level)}, null for the configured levels.
+     */
+    private static volatile Level level = null;
+    /**
+     * The async appender of the root logger, null when logging synchronously.
+     */
+    private static AsyncLogAppender async = null;
+
+    public static void trace(Object message) {
+        getLogger(OSCProxy.class).trace(message);
+    }
+
+    public static void debug(Object message) {
+        getLogger(OSCProxy.class).debug(message);
+    }
+
+    public static void info(Object message) {
+        getLogger(OSCProxy.class).info(message);
+    }
+
+    public static void warn(Object message) {
+        getLogger(OSCProxy.class).warn(message);
+    }
+
+    public static void error(Object message) {
+        getLogger(OSCProxy.class).error(message);
+    }
+
+    public static void error(Object message, Throwable throwable) {
+        getLogger(OSCProxy.class).error(message, throwable);
+    }
+
+    public static void fatal(Object message) {
+        getLogger(OSCProxy.class).fatal(message);
+    }
+
+    public static void fatal(Object message, Throwable throwable) {
+        getLogger(OSCProxy.class).fatal(message, throwable);
+    }
+
+    public static void trace(Class<?> clazz, Object message) {
+        getLogger(clazz).trace(message);
+    }
+
+    public static void debug(Class<?> clazz, Object message) {
+        getLogger(clazz).debug(message);
+    }
+
+    public static void info(Class<?> clazz, Object message) {
+        getLogger(clazz).info(message);
+    }
+
+    public static void warn(Class<?> clazz, Object message) {
+        getLogger(clazz).warn(message);
+    }
+
+    public static void error(Class<?> clazz, Object message) {
+        getLogger(clazz).error(message);
+    }
+
+    public static void error(Class<?> clazz, Object message, Throwable throwable) {
+        getLogger(clazz).error(message, throwable);
+    }
+
+    public static void fatal(Class<?> clazz, Object message) {
+        getLogger(clazz).fatal(message);
+    }
+
+    public static void fatal(Class<?> clazz, Object message, Throwable throwable) {
+        getLogger(clazz).fatal(message, throwable);
+    }
+
+    /**
+     * Log a formatted trace message, the pattern is only formatted when trace is enabled.
+     *
+     * @param clazz   the logging class
+     * @param pattern the {@link MessageFormat} pattern
+     * @param args    the pattern arguments
+     */
+    public static void trace(Class<?> clazz, String pattern, Object... args) {
+        Logger log = getLogger(clazz);
+        if (log.isTraceEnabled()) {
+            log.trace(MessageFormat.format(pattern, args));
+        }
+    }
+
+    /**
+     * Log a formatted debug message, the pattern is only formatted when debug is enabled.
+     *
+     * @param clazz   the logging class
+     * @param pattern the {@link MessageFormat} pattern
+     * @param args    the pattern arguments
+     */
+    public static void debug(Class<?> clazz, String pattern, Object... args) {
+        Logger log = getLogger(clazz);
+        if (log.isDebugEnabled()) {
+            log.debug(MessageFormat.format(pattern, args));
+        }
+    }
+
+    /**
+     * Log a formatted info message, the pattern is only formatted when info is enabled.
+     *
+     * @param clazz   the logging class
+     * @param pattern the {@link MessageFormat} pattern
+     * @param args    the pattern arguments
+     */
+    public static void info(Class<?> clazz, String pattern, Object... args) {
+        Logger log = getLogger(clazz);
+        if (log.isInfoEnabled()) {
+            log.info(MessageFormat.format(pattern, args));
+        }
+    }
+
+    /**
+     * Log a formatted warning, the pattern is only formatted when warnings are enabled.
+     *
+     * @param clazz   the logging class
+     * @param pattern the {@link MessageFormat} pattern
+     * @param args    the pattern arguments
+     */
+    public static void warn(Class<?> clazz, String pattern, Object... args) {
+        Logger log = getLogger(clazz);
+        if (log.isEnabledFor(Level.WARN)) {
+            log.warn(MessageFormat.format(pattern, args));
+        }
+    }
+
+    public static boolean isInfoEnabled(Class<?> clazz) {
+        return getLogger(clazz).isInfoEnabled();
+    }
+
+    public static boolean isDebugEnabled(Class<?> clazz) {
+        return getLogger(clazz).isDebugEnabled();
+    }
+
+    public static boolean isTraceEnabled(Class<?> clazz) {
+        return getLogger(clazz).isTraceEnabled();
+    }
+
+    private static Logger getLogger(Class<?> clazz) {
+        Logger log = loggerMap.get(clazz);
+        if (log == null) {
+            log = Logger.getLogger(clazz);
+            if (level != null) {
+                log.setLevel(level);
+            }
+            Logger cached = loggerMap.putIfAbsent(clazz, log);
+            if (cached != null) {
+                log = cached;
+            }
+        }
+        return log;
+    }
+
+    public static void setLevel(Level logLevel) {
+        level = logLevel;
+        for (Logger log : loggerMap.values()) {
+            log.setLevel(level);
+        }
+    }
+
+    /**
+     * Switch the root logger between synchronous and asynchronous appending.
+     * <br>With a capacity the appenders of the root logger are moved behind an {@link AsyncLogAppender} with a
+     * buffer of that many events, with 0 the buffered events are drained and the appenders are attached again.
+     *
+     * @param capacity the number of events buffered, 0 to log synchronously
+     */
+    public static synchronized void setAsync(int capacity) {
+        Logger root = Logger.getRootLogger();
+        if (async != null) {
+            if (capacity == async.getCapacity()) {
+                return;
+            }
+            //attach the appenders before detaching the buffer, so no event is lost while switching
+            for (Appender appender : async.getAppenders()) {
+                root.addAppender(appender);
+            }
+            root.removeAppender(async);
+            async.close();
+            async = null;
+        }
+        if (capacity <= 0) {
+            return;
+        }
+        List<Appender> appenders = new ArrayList<>();
+        for (Enumeration<?> e = root.getAllAppenders(); e.hasMoreElements(); ) {
+            appenders.add((Appender) e.nextElement());
+        }
+        async = new AsyncLogAppender(capacity, appenders);
+        root.addAppender(async);
+        for (Appender appender : appenders) {
+            root.removeAppender(appender);
+        }
+    }
+
+    /**
+     * Gets the async appender of the root logger.
+     *
+     * @return the appender, null when logging synchronously
+     */
+    public static synchronized AsyncLogAppender getAsync() {
+        return async;
+    }
+}
+
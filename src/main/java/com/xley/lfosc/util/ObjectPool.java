@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2014. Peter Crossley
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.xley.lfosc.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of reusable objects that are not thread safe, such as parsers and encoders.
+ * <br>Unlike a thread local the number of objects kept follows the number of concurrent callers, not the number of
+ * threads, so it stays small with a thread per connection.
+ *
+ * @param <T> the type of the pooled objects
+ */
+public abstract class ObjectPool<T> {
+
+    /**
+     * The pooled objects.
+     */
+    private final Queue<T> objects = new ConcurrentLinkedQueue<>();
+    /**
+     * Number of objects currently pooled.
+     */
+    private final AtomicInteger pooled = new AtomicInteger();
+    /**
+     * Max number of objects kept in the pool.
+     */
+    private final int maxPooled;
+
+    /**
+     * Instantiates a new object pool.
+     *
+     * @param maxPooled the max number of objects kept in the pool
+     */
+    protected ObjectPool(final int maxPooled) {
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * Create an object when the pool is empty.
+     *
+     * @return the new object
+     */
+    protected abstract T create();
+
+    /**
+     * Take an object from the pool, creating one if the pool is empty.
+     *
+     * @return the object, owned by the caller until it is released
+     */
+    public final T acquire() {
+        T object = objects.poll();
+        if (object == null) {
+            return create();
+        }
+        pooled.decrementAndGet();
+        return object;
+    }
+
+    /**
+     * Return an object to the pool, objects beyond the pool limit are left to the garbage collector.
+     *
+     * @param object the object, not used by the caller afterwards
+     */
+    public final void release(final T object) {
+        if (object == null) {
+            return;
+        }
+        if (pooled.incrementAndGet() > maxPooled) {
+            pooled.decrementAndGet();
+            return;
+        }
+        objects.offer(object);
+    }
+
+    /**
+     * Gets the number of objects currently pooled.
+     *
+     * @return the pooled count
+     */
+    public final int getPooled() {
+        return pooled.get();
+    }
+}
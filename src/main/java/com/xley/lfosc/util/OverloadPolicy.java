@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2014. Peter Crossley
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.xley.lfosc.util;
+
+/**
+ * What a bounded queue does with a new task when it is full.
+ */
+public enum OverloadPolicy {
+    /**
+     * Discard the new task.
+     */
+    DROP_NEWEST,
+    /**
+     * Discard the oldest queued task and queue the new one.
+     */
+    DROP_OLDEST,
+    /**
+     * Refuse the new task with a {@link java.util.concurrent.RejectedExecutionException}.
+     */
+    REJECT,
+    /**
+     * Wait for room in the queue, holding up the submitting thread.
+     */
+    BLOCK;
+
+    /**
+     * Parse a policy from its option value, e.g. <i>drop-oldest</i>.
+     *
+     * @param value the option value
+     * @return the policy
+     * @throws IllegalArgumentException if the value is not a policy
+     */
+    public static OverloadPolicy fromOption(final String value) {
+        return valueOf(value.trim().toUpperCase(java.util.Locale.ENGLISH).replace('-', '_'));
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) 2014. Peter Crossley
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.xley.lfosc.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor with a fixed number of single threaded lanes.
+ * <br>Tasks submitted with the same key always run on the same lane, so they run one at a time in submission order,
+ * tasks for keys on different lanes run in parallel. Lanes can be bounded, the {@link OverloadPolicy} decides what
+ * happens to a task submitted to a full lane and every task shed is counted.
+ * <br>Lanes run on platform threads or, with {@link ThreadMode#VIRTUAL}, on virtual threads so many lanes can block
+ * on I/O at the same time without holding a platform thread each.
+ */
+public class StripedExecutor {
+
+    /**
+     * Milliseconds a submission blocked by {@link OverloadPolicy#BLOCK} waits before checking the lane is running.
+     */
+    private static final int BLOCK_CHECK = 100;
+    /**
+     * The lanes.
+     */
+    private final ThreadPoolExecutor[] lanes;
+    /**
+     * Tasks discarded by {@link OverloadPolicy#DROP_NEWEST} or {@link OverloadPolicy#DROP_OLDEST}.
+     */
+    private final AtomicLong dropped = new AtomicLong();
+    /**
+     * Tasks refused by {@link OverloadPolicy#REJECT}.
+     */
+    private final AtomicLong rejected = new AtomicLong();
+    /**
+     * Submissions that waited for room with {@link OverloadPolicy#BLOCK}.
+     */
+    private final AtomicLong blocked = new AtomicLong();
+
+    /**
+     * Instantiates a new striped executor with unbounded lanes.
+     *
+     * @param name  the thread name prefix
+     * @param lanes the number of lanes
+     */
+    public StripedExecutor(final String name, final int lanes) {
+        this(name, lanes, 0, OverloadPolicy.REJECT);
+    }
+
+    /**
+     * Instantiates a new striped executor.
+     *
+     * @param name     the thread name prefix
+     * @param lanes    the number of lanes
+     * @param capacity the max number of tasks waiting on each lane, 0 for unbounded lanes
+     * @param policy   what to do with a task submitted to a full lane
+     */
+    public StripedExecutor(final String name, final int lanes, final int capacity, final OverloadPolicy policy) {
+        this(name, lanes, capacity, policy, ThreadMode.PLATFORM);
+    }
+
+    /**
+     * Instantiates a new striped executor running its lanes on the given kind of threads.
+     *
+     * @param name     the thread name prefix
+     * @param lanes    the number of lanes
+     * @param capacity the max number of tasks waiting on each lane, 0 for unbounded lanes
+     * @param policy   what to do with a task submitted to a full lane
+     * @param mode     the kind of lane threads
+     */
+    public StripedExecutor(final String name, final int lanes, final int capacity, final OverloadPolicy policy,
+                           final ThreadMode mode) {
+        this.lanes = new ThreadPoolExecutor[Math.max(1, lanes)];
+        RejectedExecutionHandler handler = handler(policy);
+        for (int i = 0; i < this.lanes.length; i++) {
+            final String thread = name + " - Lane " + (i + 1);
+            BlockingQueue<Runnable> queue = capacity > 0 ? new ArrayBlockingQueue<Runnable>(capacity)
+                    : new LinkedBlockingQueue<Runnable>();
+            ThreadFactory factory;
+            if (mode == ThreadMode.VIRTUAL) {
+                factory = mode.factory(thread + " #");
+            } else {
+                factory = new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        Thread t = new Thread(r, thread);
+                        t.setDaemon(true);
+                        return t;
+                    }
+                };
+            }
+            this.lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, queue, factory, handler);
+        }
+    }
+
+    /**
+     * Run a task on the lane of a key.
+     *
+     * @param key  the ordering key
+     * @param task the task
+     * @throws RejectedExecutionException if the executor is shut down or the lane is full with
+     *                                    {@link OverloadPolicy#REJECT}
+     */
+    public final void execute(final Object key, final Runnable task) {
+        lanes[laneOf(key)].execute(task);
+    }
+
+    /**
+     * Gets the lane of a key.
+     *
+     * @param key the ordering key
+     * @return the lane index
+     */
+    public final int laneOf(final Object key) {
+        int hash = key == null ? 0 : key.hashCode();
+        hash ^= hash >>> 16;
+        return (hash & Integer.MAX_VALUE) % lanes.length;
+    }
+
+    /**
+     * Gets the number of lanes.
+     *
+     * @return the lane count
+     */
+    public final int getLanes() {
+        return lanes.length;
+    }
+
+    /**
+     * Gets the number of tasks waiting on a lane.
+     *
+     * @param lane the lane index
+     * @return the queue depth
+     */
+    public final int getQueueDepth(final int lane) {
+        return lanes[lane].getQueue().size();
+    }
+
+    /**
+     * Gets the number of tasks waiting on each lane.
+     *
+     * @return the queue depths by lane index
+     */
+    public final int[] getQueueDepths() {
+        int[] depths = new int[lanes.length];
+        for (int i = 0; i < lanes.length; i++) {
+            depths[i] = getQueueDepth(i);
+        }
+        return depths;
+    }
+
+    /**
+     * Gets the number of tasks completed on a lane.
+     *
+     * @param lane the lane index
+     * @return the completed count
+     */
+    public final long getCompleted(final int lane) {
+        return lanes[lane].getCompletedTaskCount();
+    }
+
+    /**
+     * Gets the number of tasks discarded by a drop policy.
+     *
+     * @return the dropped count
+     */
+    public final long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Gets the number of tasks refused by the reject policy.
+     *
+     * @return the rejected count
+     */
+    public final long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Gets the number of submissions that waited for room with the block policy.
+     *
+     * @return the blocked count
+     */
+    public final long getBlocked() {
+        return blocked.get();
+    }
+
+    /**
+     * Stop accepting tasks and wait for the queued tasks to finish.
+     *
+     * @param timeout the max time to wait
+     * @param unit    the time unit
+     * @return true if all lanes finished in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public final boolean shutdown(final long timeout, final TimeUnit unit) throws InterruptedException {
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.shutdown();
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (ThreadPoolExecutor lane : lanes) {
+            if (!lane.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Count a task discarded by a drop policy and tell it about it.
+     *
+     * @param task the task
+     */
+    private void discard(final Runnable task) {
+        dropped.incrementAndGet();
+        if (task instanceof Discardable) {
+            ((Discardable) task).discarded();
+        }
+    }
+
+    /**
+     * Create the handler for tasks submitted to a full lane.
+     *
+     * @param policy the overload policy
+     * @return the handler
+     */
+    private RejectedExecutionHandler handler(final OverloadPolicy policy) {
+        return new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(final Runnable task, final ThreadPoolExecutor lane) {
+                if (lane.isShutdown()) {
+                    throw new RejectedExecutionException();
+                }
+                switch (policy) {
+                    case DROP_NEWEST:
+                        discard(task);
+                        break;
+                    case DROP_OLDEST:
+                        Runnable oldest = lane.getQueue().poll();
+                        if (oldest != null) {
+                            discard(oldest);
+                        }
+                        lane.execute(task);
+                        break;
+                    case BLOCK:
+                        blocked.incrementAndGet();
+                        try {
+                            while (!lane.getQueue().offer(task, BLOCK_CHECK, TimeUnit.MILLISECONDS)) {
+                                if (lane.isShutdown()) {
+                                    throw new RejectedExecutionException();
+                                }
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new RejectedExecutionException(e);
+                        }
+                        //a lane shut down while the task was queued may never run it
+                        if (lane.isShutdown() && lane.getQueue().remove(task)) {
+                            throw new RejectedExecutionException();
+                        }
+                        break;
+                    default:
+                        rejected.incrementAndGet();
+                        throw new RejectedExecutionException();
+                }
+            }
+        };
+    }
+
+    /**
+     * A task that wants to know when a drop policy discards it.
+     */
+    public interface Discardable extends Runnable {
+        /**
+         * Called instead of {@link #run()} when the task is discarded.
+         */
+        void discarded();
+    }
+}
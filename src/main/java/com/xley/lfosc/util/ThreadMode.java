@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2014. Peter Crossley
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.xley.lfosc.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The kind of threads running blocking per connection and per message work.
+ * <br>Virtual threads need a Java 21 runtime, they are created through reflection so the proxy still builds for and
+ * runs on older runtimes, where {@link #VIRTUAL} falls back to platform threads.
+ */
+public enum ThreadMode {
+    /**
+     * Platform threads.
+     */
+    PLATFORM,
+    /**
+     * Virtual threads, parked instead of blocked while waiting for I/O.
+     */
+    VIRTUAL;
+
+    /**
+     * Parse a mode from its option value, e.g. <i>virtual</i>.
+     *
+     * @param value the option value
+     * @return the mode
+     * @throws IllegalArgumentException if the value is not a mode
+     */
+    public static ThreadMode fromOption(final String value) {
+        return valueOf(value.trim().toUpperCase(java.util.Locale.ENGLISH).replace('-', '_'));
+    }
+
+    /**
+     * Check if the runtime supports this mode.
+     *
+     * @return false for {@link #VIRTUAL} before Java 21
+     */
+    public boolean isSupported() {
+        return this == PLATFORM || Virtual.OF_VIRTUAL != null;
+    }
+
+    /**
+     * Create a factory of threads named with a prefix and a sequence number. Platform threads are daemon threads,
+     * virtual threads always are.
+     *
+     * @param prefix the thread name prefix
+     * @return the thread factory, of platform threads if this mode is not supported
+     */
+    public ThreadFactory factory(final String prefix) {
+        if (this == VIRTUAL && isSupported()) {
+            try {
+                Object builder = Virtual.NAME.invoke(Virtual.OF_VIRTUAL.invoke(null), prefix, 1L);
+                return (ThreadFactory) Virtual.FACTORY.invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                LogUtil.trace(ThreadMode.class, e);
+            }
+        }
+        return new ThreadFactory() {
+            private int count;
+
+            @Override
+            public synchronized Thread newThread(final Runnable r) {
+                Thread thread = new Thread(r, prefix + (++count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * The virtual thread builder methods, null before Java 21.
+     */
+    private static final class Virtual {
+        /**
+         * <i>Thread.ofVirtual()</i>.
+         */
+        private static final Method OF_VIRTUAL;
+        /**
+         * <i>Thread.Builder.name(String, long)</i>.
+         */
+        private static final Method NAME;
+        /**
+         * <i>Thread.Builder.factory()</i>.
+         */
+        private static final Method FACTORY;
+
+        static {
+            Method ofVirtual = null;
+            Method name = null;
+            Method factory = null;
+            try {
+                Class<?> builder = Class.forName("java.lang.Thread$Builder");
+                ofVirtual = Thread.class.getMethod("ofVirtual");
+                name = builder.getMethod("name", String.class, long.class);
+                factory = builder.getMethod("factory");
+                //a preview runtime without --enable-preview refuses to create the builder
+                ofVirtual.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                ofVirtual = null;
+            }
+            OF_VIRTUAL = ofVirtual;
+            NAME = name;
+            FACTORY = factory;
+        }
+
+        /**
+         * Not instantiated.
+         */
+        private Virtual() {
+        }
+    }
+}
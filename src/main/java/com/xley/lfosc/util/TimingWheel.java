@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2014. Peter Crossley
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.xley.lfosc.util;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timing wheel releasing tasks at their deadline with a fixed tick resolution.
+ * <br>Scheduling is a lock free hand off to the wheel thread, which files each task in the slot of its tick and runs
+ * the tasks of a slot once the tick has passed. A task therefore runs between zero and one tick after its deadline,
+ * the difference is recorded as the release jitter. The wheel thread parks while no task is pending. Tasks run on the
+ * wheel thread and are expected to hand their work off quickly.
+ */
+public class TimingWheel {
+
+    /**
+     * Deadline of each pending task is kept in nanoseconds relative to this time.
+     */
+    private final long start = System.nanoTime();
+    /**
+     * Length of a tick in nanoseconds.
+     */
+    private final long tickNanos;
+    /**
+     * The slots, one per tick of a wheel revolution.
+     */
+    private final ArrayDeque<Timeout>[] wheel;
+    /**
+     * Mask giving the slot of a tick.
+     */
+    private final int mask;
+    /**
+     * Max number of pending tasks, 0 for no limit.
+     */
+    private final int capacity;
+    /**
+     * Tasks scheduled but not yet filed in a slot.
+     */
+    private final Queue<Timeout> incoming = new ConcurrentLinkedQueue<>();
+    /**
+     * Number of pending tasks.
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+    /**
+     * The wheel thread.
+     */
+    private final Thread worker;
+    /**
+     * Wheel state.
+     */
+    private volatile boolean running = true;
+    /**
+     * Next tick to expire, only used by the wheel thread.
+     */
+    private long tick;
+
+    /**
+     * Tasks scheduled.
+     */
+    private final AtomicLong scheduled = new AtomicLong();
+    /**
+     * Tasks released.
+     */
+    private final AtomicLong released = new AtomicLong();
+    /**
+     * Tasks refused because the wheel was full or stopped.
+     */
+    private final AtomicLong refused = new AtomicLong();
+    /**
+     * Sum of the release jitter in microseconds.
+     */
+    private final AtomicLong jitterTotal = new AtomicLong();
+    /**
+     * Largest release jitter in microseconds.
+     */
+    private final AtomicLong jitterMax = new AtomicLong();
+
+    /**
+     * Instantiates and starts a new timing wheel.
+     *
+     * @param name       the thread name prefix
+     * @param tickMillis the tick resolution in milliseconds
+     * @param slots      the number of slots, rounded up to a power of two
+     * @param capacity   the max number of pending tasks, 0 for no limit
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(final String name, final long tickMillis, final int slots, final int capacity) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        int size = Integer.highestOneBit(Math.max(1, slots - 1)) << 1;
+        this.wheel = (ArrayDeque<Timeout>[]) new ArrayDeque<?>[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+        this.mask = size - 1;
+        this.capacity = capacity;
+        this.worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        }, name + " - Wheel");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Schedule a task.
+     *
+     * @param delay the delay, a task with no delay runs on the next tick
+     * @param unit  the delay unit
+     * @param task  the task
+     * @return false if the wheel is full or stopped
+     */
+    public final boolean schedule(final long delay, final TimeUnit unit, final Runnable task) {
+        if (!running) {
+            refused.incrementAndGet();
+            return false;
+        }
+        if (pending.incrementAndGet() > capacity && capacity > 0) {
+            pending.decrementAndGet();
+            refused.incrementAndGet();
+            return false;
+        }
+        incoming.offer(new Timeout(System.nanoTime() - start + unit.toNanos(Math.max(0, delay)), task));
+        scheduled.incrementAndGet();
+        LockSupport.unpark(worker);
+        return true;
+    }
+
+    /**
+     * Gets the tick resolution.
+     *
+     * @return the tick in milliseconds
+     */
+    public final long getTickMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(tickNanos);
+    }
+
+    /**
+     * Gets the number of tasks waiting for their deadline.
+     *
+     * @return the pending count
+     */
+    public final int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Gets the number of tasks scheduled.
+     *
+     * @return the scheduled count
+     */
+    public final long getScheduled() {
+        return scheduled.get();
+    }
+
+    /**
+     * Gets the number of tasks released.
+     *
+     * @return the released count
+     */
+    public final long getReleased() {
+        return released.get();
+    }
+
+    /**
+     * Gets the number of tasks refused because the wheel was full or stopped.
+     *
+     * @return the refused count
+     */
+    public final long getRefused() {
+        return refused.get();
+    }
+
+    /**
+     * Gets the mean time between the deadline and the release of a task.
+     *
+     * @return the mean jitter in microseconds
+     */
+    public final long getMeanJitterMicros() {
+        long count = released.get();
+        return count == 0 ? 0 : jitterTotal.get() / count;
+    }
+
+    /**
+     * Gets the largest time between the deadline and the release of a task.
+     *
+     * @return the max jitter in microseconds
+     */
+    public final long getMaxJitterMicros() {
+        return jitterMax.get();
+    }
+
+    /**
+     * Stop the wheel, pending tasks are discarded.
+     *
+     * @param timeout the max time to wait for the wheel thread
+     * @param unit    the timeout unit
+     * @return true if the wheel thread ended
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public final boolean stop(final long timeout, final TimeUnit unit) throws InterruptedException {
+        running = false;
+        LockSupport.unpark(worker);
+        worker.join(Math.max(1, unit.toMillis(timeout)));
+        return !worker.isAlive();
+    }
+
+    /**
+     * The wheel thread loop.
+     */
+    private void work() {
+        while (running) {
+            if (pending.get() == 0) {
+                LockSupport.park(this);
+                //nothing was pending, skip the ticks that passed while parked
+                tick = Math.max(tick, (System.nanoTime() - start) / tickNanos);
+                continue;
+            }
+            long tickEnd = (tick + 1) * tickNanos;
+            long wait = tickEnd - (System.nanoTime() - start);
+            if (wait > 0) {
+                LockSupport.parkNanos(this, wait);
+                //woken early by a new task or the end of the tick, file new tasks before the slot expires
+                transfer();
+                continue;
+            }
+            transfer();
+            expire(wheel[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    /**
+     * File the newly scheduled tasks in their slots.
+     */
+    private void transfer() {
+        Timeout timeout;
+        while ((timeout = incoming.poll()) != null) {
+            long ticks = timeout.deadline / tickNanos;
+            timeout.rounds = Math.max(0, ticks - tick) / wheel.length;
+            wheel[(int) (Math.max(ticks, tick) & mask)].add(timeout);
+        }
+    }
+
+    /**
+     * Run the tasks of a slot that are due this revolution.
+     *
+     * @param slot the slot
+     */
+    private void expire(final ArrayDeque<Timeout> slot) {
+        Iterator<Timeout> timeouts = slot.iterator();
+        while (timeouts.hasNext()) {
+            Timeout timeout = timeouts.next();
+            if (timeout.rounds > 0) {
+                timeout.rounds--;
+                continue;
+            }
+            timeouts.remove();
+            pending.decrementAndGet();
+            long jitter = TimeUnit.NANOSECONDS.toMicros(Math.max(0, System.nanoTime() - start - timeout.deadline));
+            jitterTotal.addAndGet(jitter);
+            long max;
+            while (jitter > (max = jitterMax.get()) && !jitterMax.compareAndSet(max, jitter)) {
+                //retry with the new max
+            }
+            released.incrementAndGet();
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                LogUtil.error(TimingWheel.class, e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * A scheduled task.
+     */
+    private static final class Timeout {
+        /**
+         * Deadline in nanoseconds relative to the wheel start.
+         */
+        private final long deadline;
+        /**
+         * The task.
+         */
+        private final Runnable task;
+        /**
+         * Wheel revolutions left before the task is due.
+         */
+        private long rounds;
+
+        /**
+         * Instantiates a new timeout.
+         *
+         * @param deadline the deadline relative to the wheel start
+         * @param task     the task
+         */
+        private Timeout(final long deadline, final Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2014. Peter Crossley
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.xley.lfosc.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter, refilled lazily when tokens are taken.
+ * <br>A bucket instance is not thread safe.
+ */
+public class TokenBucket {
+
+    /**
+     * Tokens added per nanosecond.
+     */
+    private final double ratePerNano;
+    /**
+     * Max number of tokens.
+     */
+    private final double burst;
+    /**
+     * Tokens available.
+     */
+    private double tokens;
+    /**
+     * Time of the last refill.
+     */
+    private long refilled;
+
+    /**
+     * Instantiates a new full token bucket.
+     *
+     * @param ratePerSecond the tokens added per second
+     * @param burst         the max number of tokens
+     */
+    public TokenBucket(final double ratePerSecond, final int burst) {
+        this.ratePerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.refilled = System.nanoTime();
+    }
+
+    /**
+     * Take a token if one is available.
+     *
+     * @return true if a token was taken
+     */
+    public final boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    /**
+     * Take a token if one is available at the given time.
+     *
+     * @param now the current {@link System#nanoTime()}
+     * @return true if a token was taken
+     */
+    public final boolean tryAcquire(final long now) {
+        long elapsed = now - refilled;
+        if (elapsed > 0) {
+            tokens = Math.min(burst, tokens + elapsed * ratePerNano);
+            refilled = now;
+        }
+        if (tokens >= 1) {
+            tokens--;
+            return true;
+        }
+        return false;
+    }
+}
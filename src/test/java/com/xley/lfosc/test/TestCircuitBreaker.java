@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package com.xley.lfosc.test;
+
+import com.xley.lfosc.util.CircuitBreaker;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestCircuitBreaker {
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testOpenAndProbe() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(3, 100);
+        long now = 0;
+        for (int i = 0; i < 2; i++) {
+            assertTrue(breaker.tryAcquire(now));
+            assertEquals(CircuitBreaker.State.CLOSED, breaker.failure(now));
+        }
+        //a success in between resets the count
+        assertTrue(breaker.tryAcquire(now));
+        breaker.success();
+        assertEquals(0, breaker.getFailures());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(breaker.tryAcquire(now));
+            breaker.failure(now);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire(now + 50 * MS));
+
+        //a single probe once the open time has passed, a failed probe opens the breaker again
+        assertTrue(breaker.tryAcquire(now + 100 * MS));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire(now + 100 * MS));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.failure(now + 110 * MS));
+        assertFalse(breaker.tryAcquire(now + 150 * MS));
+
+        //a successful probe closes it
+        assertTrue(breaker.tryAcquire(now + 210 * MS));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.success());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire(now + 210 * MS));
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package com.xley.lfosc.test;
+
+import com.xley.lfosc.impl.EndpointCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestEndpointCache {
+    private final AtomicInteger lookups = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final EndpointCache.Resolver resolver = new EndpointCache.Resolver() {
+        @Override
+        public InetAddress resolve(final String host) throws UnknownHostException {
+            lookups.incrementAndGet();
+            if (host.startsWith("bad")) {
+                throw new UnknownHostException(host);
+            }
+            if (host.startsWith("slow")) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return InetAddress.getByAddress(host, new byte[]{10, 0, 0, 1});
+        }
+    };
+    private EndpointCache cache = null;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new EndpointCache(1000, 100, resolver);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        cache.shutdown();
+    }
+
+    @Test
+    public void testPositiveTtl() throws Exception {
+        InetSocketAddress address = cache.resolve("console", 3100, 0);
+        assertEquals(3100, address.getPort());
+        assertEquals("10.0.0.1", address.getAddress().getHostAddress());
+        assertEquals(address, cache.resolve("console", 3100, 500));
+        assertEquals(1, lookups.get());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+
+        //a different port is a different endpoint
+        cache.resolve("console", 3101, 500);
+        assertEquals(2, lookups.get());
+
+        cache.resolve("console", 3100, 1000);
+        assertEquals(3, lookups.get());
+        assertEquals(3, cache.getMisses());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testNegativeTtl() throws Exception {
+        for (long now : new long[]{0, 50, 100}) {
+            try {
+                cache.resolve("bad.host", 3100, now);
+                assertTrue("resolved", false);
+            } catch (UnknownHostException e) {
+                assertEquals("bad.host", e.getMessage());
+            }
+        }
+        //the second attempt is answered from the negative cache, the third one has expired
+        assertEquals(2, lookups.get());
+        assertEquals(2, cache.getFailures());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testRefreshAhead() throws Exception {
+        cache.resolve("console", 3100, 0);
+        cache.resolve("console", 3100, 799);
+        assertEquals(1, lookups.get());
+
+        //past 80% of the TTL the cached address is served while a refresh runs in the background
+        cache.resolve("console", 3100, 800);
+        long timeout = System.currentTimeMillis() + 5000;
+        while (cache.getRefreshes() < 1 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, cache.getRefreshes());
+        assertEquals(2, lookups.get());
+
+        //the refreshed entry is good for another TTL
+        cache.resolve("console", 3100, 1500);
+        assertEquals(2, lookups.get());
+        assertEquals(1, cache.getMisses());
+        assertEquals(3, cache.getHits());
+    }
+
+    @Test
+    public void testMaxEntries() throws Exception {
+        EndpointCache small = new EndpointCache(1000, 100, resolver, 2);
+        try {
+            small.resolve("a", 3100, 0);
+            small.resolve("b", 3100, 0);
+            assertEquals(2, small.size());
+            //the expired endpoints make room first
+            small.resolve("c", 3100, 2000);
+            assertEquals(1, small.size());
+            small.resolve("d", 3100, 2000);
+            small.resolve("e", 3100, 2000);
+            assertEquals(2, small.size());
+            assertEquals(5, lookups.get());
+        } finally {
+            small.shutdown();
+        }
+    }
+
+    @Test
+    public void testSharedLookup() throws Exception {
+        final AtomicInteger resolved = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        cache.resolve("slow.console", 3100);
+                        resolved.incrementAndGet();
+                    } catch (UnknownHostException e) {
+                        //counted as not resolved
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        long timeout = System.currentTimeMillis() + 5000;
+        while (cache.getMisses() < threads.length && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        //give the last thread time to join the lookup in progress
+        Thread.sleep(100);
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+        assertEquals(threads.length, resolved.get());
+        assertEquals(1, lookups.get());
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.test;
+
+import com.illposed.osc.OSCImpulse;
+import com.illposed.osc.OSCMessage;
+import com.xley.lfosc.impl.LightFactoryArgumentParser;
+import com.xley.lfosc.impl.OSCEncoder;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestLightFactoryArgumentParser {
+
+    private static final String[] UNTYPED = {
+            "0", "-0", "+5", "42", "00012", "2147483647", "-2147483648", "2147483648", "99999999999",
+            "1.5", "-1.5", ".5", "5.", ".", "-", "+", "1e5", "1E-5", "1e", "1e+", "1.5e3", "0.1", "3.14159",
+            "16777215.5", "16777217", "123456789.123", "3.4028235e38", "1e39", "1e-50", "1e-10", "1e10",
+            "00000000000000000000001", "1.5f", "2d", "0x10", "NaN", "-NaN", "-Infinity", "Infinity", "Intro",
+            "Nope", "1abc", "abc", "\"quoted value\"", "\"\"", "go", "/path", "a:b", "12:30", "x:1"
+    };
+
+    @Test
+    public void testUntypedMatchesNumberParsers() {
+        LightFactoryArgumentParser parser = new LightFactoryArgumentParser();
+        Random random = new Random(20141122L);
+        for (int i = 0; i < UNTYPED.length + 2000; i++) {
+            String token = i < UNTYPED.length ? UNTYPED[i] : randomNumber(random);
+            parser.parse(token);
+            assertEquals(token, reference(token), parser.toJava());
+        }
+    }
+
+    @Test
+    public void testTyped() {
+        LightFactoryArgumentParser parser = new LightFactoryArgumentParser();
+        assertEquals(42, typed(parser, "i:42", 'i'));
+        assertEquals(-1, typed(parser, "i:0xFFFFFFFF", 'i'));
+        assertEquals(Long.MIN_VALUE, typed(parser, "h:-9223372036854775808", 'h'));
+        assertEquals(0x7FL, typed(parser, "h:0x7f", 'h'));
+        assertEquals(5f, typed(parser, "f:5", 'f'));
+        assertEquals(0.1, typed(parser, "d:0.1", 'd'));
+        assertEquals(1.0E300, typed(parser, "d:1e300", 'd'));
+        assertEquals(Double.NEGATIVE_INFINITY, typed(parser, "d:-Infinity", 'd'));
+        assertEquals("123", typed(parser, "s:123", 's'));
+        assertEquals("T:", typed(parser, "s:T:", 's'));
+        assertEquals("sym", typed(parser, "S:sym", 'S'));
+        assertEquals('x', typed(parser, "c:x", 'c'));
+        assertEquals(0xFF0000FF, typed(parser, "r:FF0000FF", 'r'));
+        assertEquals(0x00903C7F, typed(parser, "m:00903c7f", 'm'));
+        assertArrayEquals(new byte[]{0x0a, (byte) 0xff}, (byte[]) typed(parser, "b:0aff", 'b'));
+        assertEquals(new Date(1416614400000L), typed(parser, "t:1416614400000", 't'));
+        assertEquals(Boolean.TRUE, typed(parser, "T:", 'T'));
+        assertEquals(Boolean.FALSE, typed(parser, "F:", 'F'));
+        assertNull(typed(parser, "N:", 'N'));
+        assertEquals(OSCImpulse.INSTANCE, typed(parser, "I:", 'I'));
+    }
+
+    @Test
+    public void testInvalidTypedIsString() {
+        LightFactoryArgumentParser parser = new LightFactoryArgumentParser();
+        String[] invalid = {"i:2147483648", "i:1.5", "i:", "i:0x123456789", "h:9223372036854775808", "h:0x",
+                "f:abc", "d:1e", "c:", "c:ab", "r:FF00", "m:0090ZZ7F", "b:abc", "b:zz", "t:now", "T:x", "N:0",
+                "i:abc", "c:\\show", "F:\\cues", "d:\\x", "C:\\Program\\LightFactory", "I:\\", "b:\\backup"};
+        for (String token : invalid) {
+            assertEquals(token, token, typed(parser, token, 's'));
+        }
+    }
+
+    @Test
+    public void testDrivePathsEncodeAsString() {
+        LightFactoryArgumentParser parser = new LightFactoryArgumentParser();
+        OSCEncoder encoder = new OSCEncoder().start("/load");
+        OSCMessage message = new OSCMessage("/load");
+        for (String token : new String[]{"c:\\show", "F:\\cues", "d:\\x", "s:foo", "i:abc"}) {
+            parser.parse(token);
+            parser.encode(encoder);
+            message.addArgument(parser.toJava());
+        }
+        assertEquals(Arrays.<Object>asList("c:\\show", "F:\\cues", "d:\\x", "foo", "i:abc"),
+                message.getArguments());
+        ByteBuffer buffer = encoder.encode(ByteBuffer.allocate(encoder.size()));
+        assertArrayEquals(message.getByteArray(), buffer.array());
+    }
+
+    @Test
+    public void testEncodeMatchesJavaOSC() {
+        LightFactoryArgumentParser parser = new LightFactoryArgumentParser();
+        //javaosc writes a char into the first instead of the last byte of its int32, so c is left out
+        String[] tokens = {"i:7", "h:7", "f:0.5", "d:0.5", "s:12", "b:0102030405", "t:1416614400000", "T:", "F:",
+                "N:", "I:", "12", "1.25", "text"};
+        OSCEncoder encoder = new OSCEncoder().start("/typed");
+        OSCMessage message = new OSCMessage("/typed");
+        for (String token : tokens) {
+            parser.parse(token);
+            parser.encode(encoder);
+            message.addArgument(parser.toJava());
+        }
+        ByteBuffer buffer = encoder.encode(ByteBuffer.allocate(encoder.size()));
+        assertArrayEquals(message.getByteArray(), buffer.array());
+    }
+
+    private static Object typed(final LightFactoryArgumentParser parser, final String token, final char type) {
+        parser.parse(token);
+        assertEquals(token, type, parser.type());
+        return parser.toJava();
+    }
+
+    /**
+     * Typing as done before the scanner, with the JDK number parsers.
+     */
+    private static Object reference(final String token) {
+        try {
+            return Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            //not an int
+        }
+        try {
+            return Float.parseFloat(token);
+        } catch (NumberFormatException e) {
+            return token;
+        }
+    }
+
+    private static String randomNumber(final Random random) {
+        StringBuilder number = new StringBuilder();
+        if (random.nextInt(4) == 0) {
+            number.append('-');
+        }
+        int digits = 1 + random.nextInt(12);
+        for (int i = 0; i < digits; i++) {
+            number.append((char) ('0' + random.nextInt(10)));
+        }
+        if (random.nextBoolean()) {
+            number.insert(random.nextInt(number.length() + 1), '.');
+        }
+        if (random.nextInt(4) == 0) {
+            number.append('e').append(random.nextInt(25) - 12);
+        }
+        return number.toString();
+    }
+}
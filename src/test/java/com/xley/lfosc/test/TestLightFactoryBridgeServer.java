@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package com.xley.lfosc.test;
+
+import com.xley.lfosc.impl.EndpointCache;
+import com.xley.lfosc.impl.LightFactoryBridgeServer;
+import com.xley.lfosc.impl.LightFactoryProtocol;
+import com.xley.lfosc.impl.OSCDatagramSender;
+import com.xley.lfosc.util.ThreadMode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestLightFactoryBridgeServer {
+    private final CountDownLatch looking = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private DatagramSocket osc = null;
+    private OSCDatagramSender sender = null;
+    private EndpointCache endpoints = null;
+    private LightFactoryBridgeServer server = null;
+    private Thread acceptor = null;
+    private int port;
+
+    @Before
+    public void setUp() throws Exception {
+        osc = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        sender = new OSCDatagramSender(1);
+        endpoints = new EndpointCache(60000, 1000, new EndpointCache.Resolver() {
+            @Override
+            public InetAddress resolve(final String host) throws UnknownHostException {
+                if (host.startsWith("slow")) {
+                    //a DNS lookup that hangs
+                    looking.countDown();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return InetAddress.getLoopbackAddress();
+            }
+        });
+        ServerSocket free = new ServerSocket(0);
+        port = free.getLocalPort();
+        free.close();
+        server = new LightFactoryBridgeServer(new LightFactoryProtocol(sender, endpoints), 1, 2, ThreadMode.PLATFORM,
+                0, 0);
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 10);
+        acceptor = new Thread(server);
+        acceptor.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        server.close();
+        acceptor.join(5000);
+        endpoints.shutdown();
+        sender.close();
+        osc.close();
+    }
+
+    @Test
+    public void testSlowLookupDoesNotStallLoop() throws Exception {
+        String success = LightFactoryProtocol.resources.getString("lf.osc.success");
+        try (Socket slow = connect(); Socket fast = connect()) {
+            slow.getOutputStream().write(("osc@slow.host:" + osc.getLocalPort() + " /cue/go\n"
+                    + "osc@127.0.0.1:" + osc.getLocalPort() + " /cue/next\n").getBytes(Charset.defaultCharset()));
+            assertTrue(looking.await(5, TimeUnit.SECONDS));
+
+            //both connections share the only event loop, the other connection is still answered
+            fast.getOutputStream().write(("osc@127.0.0.1:" + osc.getLocalPort() + " /cue/go\n")
+                    .getBytes(Charset.defaultCharset()));
+            assertEquals(success, reader(fast).readLine());
+
+            //the pipelined lines of the slow connection are answered in order once the lookup returns
+            release.countDown();
+            BufferedReader replies = reader(slow);
+            assertEquals(success, replies.readLine());
+            assertEquals(success, replies.readLine());
+        }
+    }
+
+    private Socket connect() throws Exception {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private static BufferedReader reader(final Socket socket) throws Exception {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), Charset.defaultCharset()));
+    }
+}
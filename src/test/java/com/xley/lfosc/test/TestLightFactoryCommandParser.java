@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.test;
+
+import com.xley.lfosc.impl.LightFactoryCommandParser;
+import com.xley.lfosc.impl.LightFactoryProtocol;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestLightFactoryCommandParser {
+
+    private static final String[] HAND_CASES = {
+            "osc@localhost:57110 /message/receiving",
+            "osc@localhost:57110 /message/receiving 1 2.5 text",
+            "OSC@LocalHost:57110 /Message/Receiving MixedCase",
+            "osc@localhost:57110 /a \"quoted arg\" after",
+            "osc@localhost:57110 /a \"escaped \\\" quote\" after",
+            "osc@localhost:57110 /a \"\" empty",
+            "osc@localhost:57110 /a \"unterminated quote",
+            "osc@localhost:57110 /a \"a\"b \"c d\"e",
+            "osc@localhost:57110\t/a\targ1\t\targ2",
+            "osc@host:with:colons:57110 /a b",
+            "osc@host:1 /a b:2 /c d",
+            "osc@host:1 /a b:x /c d",
+            "osc@:1 /a",
+            "osc@host:/a",
+            "osc@host:1/a",
+            "osc@host:1 /",
+            "osc@host:1 / a",
+            "osc@host:65535 /a",
+            "osc@host:1 /a\nosc@other:2 /b c\n\nnot a command\r\nosc@third:3 /c \"d e\"",
+            "junk osc@host:1 /a",
+            "osc@",
+            ""
+    };
+
+    private static final String[] FUZZ_PIECES = {
+            "osc@", "OSC@", ":", "1", "80", "57110", "65535", "99999", " ", " ", "\t", "\f", "/", "/a", "\"", "\\",
+            "\\\"", "a", "B", "x y", ":80 /addr", "@", "."
+    };
+
+    @Test
+    public void testHandCases() {
+        for (String input : HAND_CASES) {
+            assertEquals(input, reference(input), parse(input));
+        }
+    }
+
+    @Test
+    public void testFuzzedCases() {
+        Random random = new Random(20141120L);
+        int compared = 0;
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder input = new StringBuilder(random.nextInt(4) == 0 ? "" : "osc@");
+            int pieces = random.nextInt(16);
+            for (int j = 0; j < pieces; j++) {
+                input.append(FUZZ_PIECES[random.nextInt(FUZZ_PIECES.length)]);
+            }
+            List<String> expected = reference(input);
+            if (expected != null) {
+                assertEquals(input.toString(), expected, parse(input));
+                compared++;
+            }
+        }
+        assertEquals(true, compared > 10000);
+    }
+
+    @Test
+    public void testPortRange() {
+        assertEquals(0, parse("osc@host:99999 /a").size());
+        assertEquals(0, parse("osc@host:655350000000 /a").size());
+        assertEquals("host:99999|1|/a|b", parse("osc@host:99999:1 /a b").get(0));
+    }
+
+    @Test
+    public void testParserReuse() {
+        LightFactoryCommandParser parser = new LightFactoryCommandParser();
+        parser.reset("osc@first:1 /a 1 2 3 4 5 6 7 8 9 10 11 12 13 14 15 16 17 18 19 20");
+        assertEquals(true, parser.find());
+        assertEquals(20, parser.tokenCount());
+        assertEquals("20", parser.token(19));
+        assertEquals(false, parser.find());
+
+        parser.reset("osc@second:2 /b");
+        assertEquals(true, parser.find());
+        assertEquals("second", parser.host());
+        assertEquals(0, parser.tokenCount());
+    }
+
+    private static List<String> parse(final CharSequence input) {
+        List<String> commands = new ArrayList<>();
+        LightFactoryCommandParser parser = new LightFactoryCommandParser().reset(input);
+        while (parser.find()) {
+            StringBuilder command = new StringBuilder();
+            command.append(parser.host()).append('|').append(parser.port()).append('|').append(parser.address());
+            for (int i = 0; i < parser.tokenCount(); i++) {
+                command.append('|').append(parser.token(i));
+            }
+            commands.add(command.toString());
+        }
+        return commands;
+    }
+
+    /**
+     * The regular expression parsing of the protocol, null when a port is out of range.
+     */
+    private static List<String> reference(final CharSequence input) {
+        return Patterns.reference(input);
+    }
+
+    private static final class Patterns extends LightFactoryProtocol {
+        private Patterns() {
+            super(null, null);
+        }
+
+        private static List<String> reference(final CharSequence input) {
+            List<String> commands = new ArrayList<>();
+            Matcher matches = oscPattern.matcher(input);
+            while (matches.find()) {
+                String port = matches.group(2);
+                if (port.length() > 5 || Integer.parseInt(port) > 65535) {
+                    return null;
+                }
+                StringBuilder command = new StringBuilder();
+                command.append(matches.group(1)).append('|').append(Integer.parseInt(port)).append('|')
+                        .append(matches.group(3));
+                Matcher data = dataPattern.matcher(matches.group(4));
+                while (data.find()) {
+                    command.append('|').append(data.group(2));
+                }
+                commands.add(command.toString());
+            }
+            return commands;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.test;
+
+import com.illposed.osc.OSCMessage;
+import com.illposed.osc.utility.OSCByteArrayToJavaConverter;
+import com.xley.lfosc.impl.EndpointCache;
+import com.xley.lfosc.impl.LightFactoryProtocol;
+import com.xley.lfosc.impl.OSCDatagramSender;
+import org.junit.Test;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestLightFactoryProtocol {
+
+    @Test
+    public void testAsyncAcknowledge() throws Exception {
+        DatagramSocket socket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        socket.setSoTimeout(2000);
+        OSCDatagramSender sender = new OSCDatagramSender(1);
+        EndpointCache endpoints = new EndpointCache(60000, 1000);
+        Protocol protocol = new Protocol(sender, endpoints, true);
+        protocol.setAsyncAcknowledge(2, 10);
+        try {
+            String success = LightFactoryProtocol.resources.getString("lf.osc.success");
+            for (int i = 0; i < 5; i++) {
+                assertEquals(success, protocol.send("osc@127.0.0.1:" + socket.getLocalPort() + " /cue/go i:" + i));
+            }
+            for (int i = 0; i < 5; i++) {
+                byte[] data = receive(socket);
+                OSCMessage message = (OSCMessage) new OSCByteArrayToJavaConverter().convert(data, data.length);
+                assertEquals(Arrays.<Object>asList(i), message.getArguments());
+            }
+
+            //syntax errors are still answered
+            assertEquals(LightFactoryProtocol.resources.getString("lf.osc.error.invalid"),
+                    protocol.send("osc@127.0.0.1:" + socket.getLocalPort()));
+
+            //arguments that do not match their type are sent as strings
+            assertEquals(success,
+                    protocol.send("osc@127.0.0.1:" + socket.getLocalPort() + " /cue/load i:one c:\\show"));
+            byte[] data = receive(socket);
+            OSCMessage message = (OSCMessage) new OSCByteArrayToJavaConverter().convert(data, data.length);
+            assertEquals(Arrays.<Object>asList("i:one", "c:\\show"), message.getArguments());
+
+            //send failures are only counted
+            assertEquals(success, protocol.send("osc@unknown.host.invalid:9999 /cue/go"));
+            protocol.shutdown();
+            assertEquals(1, protocol.getAsyncFailures());
+        } finally {
+            protocol.shutdown();
+            sender.close();
+            endpoints.shutdown();
+            socket.close();
+        }
+    }
+
+    private static byte[] receive(final DatagramSocket socket) throws Exception {
+        DatagramPacket packet = new DatagramPacket(new byte[1536], 1536);
+        socket.receive(packet);
+        return Arrays.copyOf(packet.getData(), packet.getLength());
+    }
+
+    private static final class Protocol extends LightFactoryProtocol {
+        private Protocol(final OSCDatagramSender sender, final EndpointCache endpoints, final boolean nativeEncoder) {
+            super(sender, endpoints, nativeEncoder);
+        }
+
+        private String send(final String cmd) {
+            return process(cmd);
+        }
+    }
+}
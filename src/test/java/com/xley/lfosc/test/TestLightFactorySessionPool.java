@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.test;
+
+import com.xley.lfosc.impl.EndpointCache;
+import com.xley.lfosc.impl.LightFactorySessionPool;
+import com.xley.lfosc.test.support.MockLightFactoryServer;
+import com.xley.lfosc.util.CircuitBreaker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestLightFactorySessionPool {
+    private static final String KEY = "127.0.0.1:3410";
+
+    private MockLightFactoryServer lightFactory = null;
+    private Thread server = null;
+    private EndpointCache endpoints = null;
+    private LightFactorySessionPool sessions = null;
+
+    @Before
+    public void setUp() throws Exception {
+        lightFactory = new MockLightFactoryServer(3410);
+        server = new Thread(lightFactory);
+        server.start();
+        assertTrue(lightFactory.awaitListening(5000));
+        endpoints = new EndpointCache(60000, 1000);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (sessions != null) {
+            sessions.shutdown();
+        }
+        endpoints.shutdown();
+        server.interrupt();
+        lightFactory.shutdown();
+        server.join(10000);
+    }
+
+    @Test
+    public void testRetryDroppedSession() throws Exception {
+        sessions = new LightFactorySessionPool(1, 60000, endpoints);
+        assertEquals("> cue 1 : Success", sessions.execute("127.0.0.1", 3410, "cue 1").trim());
+        assertEquals(1, sessions.getIdleCount(KEY));
+
+        //the mock hangs up after a command, the pooled session is dropped without the pool noticing
+        Thread.sleep(200);
+        lightFactory.reset();
+        assertEquals("> cue 2 : Success", sessions.execute("127.0.0.1", 3410, "cue 2").trim());
+        assertEquals("cue 2", lightFactory.getLastValue());
+        assertEquals(1, sessions.getIdleCount(KEY));
+    }
+
+    @Test
+    public void testIdleReaping() throws Exception {
+        sessions = new LightFactorySessionPool(1, 200, endpoints);
+        sessions.execute("127.0.0.1", 3410, "cue 1");
+        assertEquals(1, sessions.getIdleCount(KEY));
+        long timeout = System.currentTimeMillis() + 5000;
+        while (sessions.getIdleTargets() > 0 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, sessions.getIdleCount(KEY));
+        //the target without idle sessions is forgotten
+        assertEquals(0, sessions.getIdleTargets());
+    }
+
+    @Test
+    public void testCircuitReaping() throws Exception {
+        sessions = new LightFactorySessionPool(1, 200, endpoints);
+        sessions.setCircuitBreaker(2, 60000);
+        ServerSocket free = new ServerSocket(0);
+        int dead = free.getLocalPort();
+        free.close();
+        sessions.execute("127.0.0.1", 3410, "cue 1");
+        try {
+            sessions.execute("127.0.0.1", dead, "cue 1");
+            assertTrue("delivered", false);
+        } catch (IOException e) {
+            //connection refused
+        }
+        assertEquals(2, sessions.getCircuitCount());
+
+        //the healthy target loses its breaker, the failing one keeps counting
+        long timeout = System.currentTimeMillis() + 5000;
+        while (sessions.getCircuitCount() > 1 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, sessions.getCircuitCount());
+        try {
+            sessions.execute("127.0.0.1", dead, "cue 1");
+            assertTrue("delivered", false);
+        } catch (IOException e) {
+            //connection refused
+        }
+        assertEquals(CircuitBreaker.State.OPEN, sessions.getCircuitState("127.0.0.1:" + dead));
+    }
+
+    @Test
+    public void testPrewarm() throws Exception {
+        sessions = new LightFactorySessionPool(2, 60000, endpoints);
+        //capped at the max idle sessions
+        sessions.prewarm("127.0.0.1", 3410, 3);
+        long timeout = System.currentTimeMillis() + 5000;
+        while (sessions.getIdleCount(KEY) < 2 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        assertEquals(2, sessions.getIdleCount(KEY));
+
+        //a prewarmed session answers and goes back to the pool
+        assertEquals("> cue 1 : Success", sessions.execute("127.0.0.1", 3410, "cue 1").trim());
+        assertEquals(2, sessions.getIdleCount(KEY));
+    }
+
+    @Test
+    public void testNoRetryAfterPartialBatch() throws Exception {
+        final AtomicInteger connections = new AtomicInteger();
+        final ServerSocket lf = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Thread mock = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (Socket socket = lf.accept();
+                     BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                             StandardCharsets.US_ASCII))) {
+                    connections.incrementAndGet();
+                    //answer the single command and the first command of the batch, then hang up
+                    OutputStream out = socket.getOutputStream();
+                    out.write("LightFactory MOCK-SERVER\n>\n".getBytes(StandardCharsets.US_ASCII));
+                    for (int i = 0; i < 2; i++) {
+                        String line = in.readLine();
+                        out.write(("> " + line + " : Success\n>\n").getBytes(StandardCharsets.US_ASCII));
+                    }
+                    socket.shutdownOutput();
+                    while (in.readLine() != null) {
+                        //drain the commands that are not acknowledged
+                    }
+                    lf.setSoTimeout(500);
+                    while (true) {
+                        try {
+                            lf.accept().close();
+                            connections.incrementAndGet();
+                        } catch (SocketTimeoutException e) {
+                            //no retry so far
+                        }
+                    }
+                } catch (Exception e) {
+                    //test ended
+                }
+            }
+        });
+        mock.start();
+        try {
+            sessions = new LightFactorySessionPool(1, 60000, endpoints);
+            sessions.execute("127.0.0.1", lf.getLocalPort(), "cue 1");
+            try {
+                sessions.executeBatch("127.0.0.1", lf.getLocalPort(), Arrays.asList("cue 2", "cue 3", "cue 4"));
+                assertTrue("batch delivered", false);
+            } catch (LightFactorySessionPool.BatchException e) {
+                assertEquals(1, e.getResponses().size());
+                assertEquals("> cue 2 : Success", e.getResponses().get(0).trim());
+            }
+            //the acknowledged command ran, writing the batch again would repeat it
+            Thread.sleep(200);
+            assertEquals(1, connections.get());
+            assertEquals(2, sessions.getFailedCommands());
+        } finally {
+            lf.close();
+            mock.join(5000);
+        }
+    }
+}
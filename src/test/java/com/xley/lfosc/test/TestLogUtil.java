@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.test;
+
+import com.xley.lfosc.util.AsyncLogAppender;
+import com.xley.lfosc.util.LogUtil;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestLogUtil {
+
+    @Test
+    public void testLazyFormat() {
+        final AtomicInteger formatted = new AtomicInteger();
+        Object argument = new Object() {
+            @Override
+            public String toString() {
+                formatted.incrementAndGet();
+                return "argument";
+            }
+        };
+        //create the cached logger first, LogUtil applies the -d level of other tests on creation
+        LogUtil.isDebugEnabled(Lazy.class);
+        Logger.getLogger(Lazy.class).setLevel(Level.INFO);
+        LogUtil.trace(Lazy.class, "trace {0}", argument);
+        LogUtil.debug(Lazy.class, "debug {0}", argument);
+        assertEquals(0, formatted.get());
+        LogUtil.info(Lazy.class, "info {0}", argument);
+        assertEquals(1, formatted.get());
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        Capture capture = new Capture(release);
+        Logger root = Logger.getRootLogger();
+        root.addAppender(capture);
+        try {
+            LogUtil.setAsync(2);
+            AsyncLogAppender async = LogUtil.getAsync();
+            assertTrue(async.getAppenders().contains(capture));
+            for (int i = 0; i < 10; i++) {
+                LogUtil.warn(TestLogUtil.class, "event {0}", i);
+            }
+            //one event is held by the blocked capture, two are buffered
+            assertTrue(async.getDiscarded() >= 7);
+            release.countDown();
+            LogUtil.setAsync(0);
+            assertNull(LogUtil.getAsync());
+            assertEquals(capture, root.getAppender("capture"));
+            assertEquals("event 0", capture.messages.get(0));
+            assertTrue(capture.messages.get(capture.messages.size() - 1).startsWith("Discarded "));
+            assertEquals(10 - async.getDiscarded() + 1, capture.messages.size());
+        } finally {
+            release.countDown();
+            LogUtil.setAsync(0);
+            root.removeAppender(capture);
+        }
+    }
+
+    /**
+     * Logging class of the lazy format test.
+     */
+    private static final class Lazy {
+    }
+
+    /**
+     * Appender recording messages, blocked until released.
+     */
+    private static final class Capture extends AppenderSkeleton {
+        private final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+        private final CountDownLatch release;
+
+        Capture(final CountDownLatch release) {
+            this.release = release;
+            setName("capture");
+        }
+
+        @Override
+        protected void append(final LoggingEvent event) {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            messages.add(event.getRenderedMessage());
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean requiresLayout() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.test;
+
+import com.illposed.osc.OSCBundle;
+import com.illposed.osc.OSCMessage;
+import com.xley.lfosc.impl.OSCDatagramReceiver;
+import com.xley.lfosc.test.support.MockOSCListener;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestOSCDatagramReceiver {
+    private OSCDatagramReceiver receiver = null;
+    private MockOSCListener listener = null;
+    private DatagramChannel client = null;
+    private SocketAddress target = null;
+
+    @Before
+    public void setUp() throws Exception {
+        receiver = new OSCDatagramReceiver(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 65536);
+        listener = new MockOSCListener();
+        receiver.addListener("/lf/*/*", listener);
+        receiver.startListening();
+        target = receiver.getLocalAddress();
+        client = DatagramChannel.open();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        receiver.close();
+    }
+
+    @Test
+    public void testRouting() throws Exception {
+        OSCMessage selected = new OSCMessage("/lf/127.0.0.1:3300/go");
+        selected.addArgument(1);
+        send(selected.getByteArray());
+        send(new OSCMessage("/other/address").getByteArray());
+        send(new OSCMessage("/other/address").getByteArray());
+
+        OSCBundle bundle = new OSCBundle();
+        bundle.addPacket(new OSCMessage("/other/address"));
+        bundle.addPacket(new OSCMessage("/lf/127.0.0.1:3300/stop"));
+        send(bundle.getByteArray());
+
+        OSCBundle unmatched = new OSCBundle();
+        unmatched.addPacket(new OSCMessage("/other/address"));
+        send(unmatched.getByteArray());
+
+        awaitProcessed(5);
+        assertEquals(5, receiver.getReceived());
+        assertEquals(2, receiver.getDispatched());
+        assertEquals(3, receiver.getUnmatched());
+        assertEquals(2, listener.getMessages().size());
+        assertEquals(1, listener.getMessages().iterator().next().getArguments().get(0));
+    }
+
+    @Test
+    public void testDrops() throws Exception {
+        send(new byte[]{'/', 'l', 'f'});
+        send(new byte[]{'/', 'l', 'f', '/', 'x', 'y', 'z', 'w'});
+        send(new byte[]{'#', 'b', 'u', 'n', 'd', 'l', 'e', 0, 0, 0, 0, 0, 0, 0, 0, 1, 0, 0, 0, 64});
+        send(new byte[16384]);
+
+        awaitProcessed(4);
+        assertEquals(3, receiver.getMalformed());
+        assertEquals(1, receiver.getOverruns());
+        assertEquals(0, receiver.getDispatched());
+        assertEquals(0, listener.getMessages().size());
+    }
+
+    @Test
+    public void testBundleListener() throws Exception {
+        receiver.close();
+        receiver = new OSCDatagramReceiver(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        final List<List<String>> bundles = Collections.synchronizedList(new ArrayList<List<String>>());
+        receiver.addListener("/lf/*/*", new OSCDatagramReceiver.BundleListener() {
+            @Override
+            public void acceptBundle(final Date time, final List<OSCMessage> messages) {
+                List<String> addresses = new ArrayList<>();
+                for (OSCMessage message : messages) {
+                    addresses.add(message.getAddress());
+                }
+                bundles.add(addresses);
+            }
+
+            @Override
+            public void acceptMessage(final Date time, final OSCMessage message) {
+                bundles.add(Collections.singletonList(message.getAddress()));
+            }
+        });
+        receiver.startListening();
+        target = receiver.getLocalAddress();
+
+        OSCBundle nested = new OSCBundle();
+        nested.addPacket(new OSCMessage("/lf/127.0.0.1:3300/two"));
+        nested.addPacket(new OSCMessage("/other/address"));
+        OSCBundle bundle = new OSCBundle();
+        bundle.addPacket(new OSCMessage("/lf/127.0.0.1:3300/one"));
+        bundle.addPacket(nested);
+        bundle.addPacket(new OSCMessage("/lf/127.0.0.1:3300/three"));
+        send(bundle.getByteArray());
+        send(new OSCMessage("/lf/127.0.0.1:3300/four").getByteArray());
+
+        awaitProcessed(2);
+        assertEquals("[[/lf/127.0.0.1:3300/one, /lf/127.0.0.1:3300/two, /lf/127.0.0.1:3300/three], "
+                + "[/lf/127.0.0.1:3300/four]]", bundles.toString());
+    }
+
+    @Test
+    public void testRateLimit() throws Exception {
+        receiver.close();
+        receiver = new OSCDatagramReceiver(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        receiver.addListener("/lf/*/*", listener);
+        receiver.setRateLimit(0.001, 2);
+        receiver.startListening();
+        target = receiver.getLocalAddress();
+
+        byte[] data = new OSCMessage("/lf/127.0.0.1:3300/go").getByteArray();
+        for (int i = 0; i < 5; i++) {
+            send(data);
+        }
+        for (int i = 0; i < 200 && receiver.getReceived() < 5; i++) {
+            Thread.sleep(10);
+        }
+        awaitProcessed(2);
+        assertEquals(3, receiver.getRateLimited());
+        assertEquals(2, receiver.getDispatched());
+    }
+
+    private void send(final byte[] data) throws Exception {
+        client.send(ByteBuffer.wrap(data), target);
+    }
+
+    private void awaitProcessed(final long count) throws Exception {
+        for (int i = 0; i < 200; i++) {
+            if (receiver.getDispatched() + receiver.getUnmatched() + receiver.getMalformed()
+                    + receiver.getOverruns() >= count) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.test;
+
+import com.illposed.osc.OSCMessage;
+import com.xley.lfosc.impl.OSCDatagramSender;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestOSCDatagramSender {
+
+    @Test
+    public void testMaxTargets() throws Exception {
+        OSCDatagramSender sender = new OSCDatagramSender(1);
+        try {
+            OSCMessage message = new OSCMessage("/cue/go");
+            for (int i = 0; i < OSCDatagramSender.MAX_TARGETS + 10; i++) {
+                sender.send(message, new InetSocketAddress(InetAddress.getLoopbackAddress(), 20000 + i));
+            }
+            int targets = 0;
+            for (InetSocketAddress target : sender.getTargets()) {
+                assertEquals(1, sender.getSentCount(target));
+                targets++;
+            }
+            assertEquals(OSCDatagramSender.MAX_TARGETS, targets);
+        } finally {
+            sender.close();
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.test;
+
+import com.illposed.osc.OSCBundle;
+import com.illposed.osc.OSCImpulse;
+import com.illposed.osc.OSCMessage;
+import com.illposed.osc.OSCPacket;
+import com.illposed.osc.utility.OSCByteArrayToJavaConverter;
+import com.xley.lfosc.impl.EndpointCache;
+import com.xley.lfosc.impl.LightFactoryProtocol;
+import com.xley.lfosc.impl.OSCDatagramSender;
+import com.xley.lfosc.impl.OSCEncoder;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestOSCEncoder {
+
+    private static final String[] TOKENS = {
+            "0", "-0", "+5", "42", "00012", "2147483647", "-2147483648", "2147483648", "99999999999",
+            "1.5", "-1.5", ".5", "5.", ".", "-", "+", "1e5", "1E-5", "1e", "1e+", "1.5e3", "0.1", "3.14159",
+            "16777215.5", "16777217", "123456789.123", "3.4028235e38", "1e39", "1e-50", "1e-10", "1e10",
+            "00000000000000000000001", "1.5f", "2d", "0x1p3", "0x10", "NaN", "-Infinity", "Infinity", "Intro",
+            "Nope", "1abc", "abc", "\"quoted value\"", "\"\"", "go", "/path", "a:b", "12:30"
+    };
+
+    @Test
+    public void testTypesMatchJavaOSC() throws Exception {
+        OSCEncoder encoder = new OSCEncoder();
+        OSCMessage message = new OSCMessage("/types/test");
+        encoder.start("/types/test");
+        assertEncoded(message, encoder);
+
+        message.addArgument(42);
+        encoder.addInt(42);
+        message.addArgument(-1.25f);
+        encoder.addFloat(-1.25f);
+        message.addArgument(Long.MIN_VALUE + 7);
+        encoder.addLong(Long.MIN_VALUE + 7);
+        message.addArgument(Math.PI);
+        encoder.addDouble(Math.PI);
+        message.addArgument(Boolean.TRUE);
+        encoder.addBoolean(true);
+        message.addArgument(Boolean.FALSE);
+        encoder.addBoolean(false);
+        message.addArgument(null);
+        encoder.addNil();
+        message.addArgument(OSCImpulse.INSTANCE);
+        encoder.addImpulse();
+        Date date = new Date(1416441600123L);
+        message.addArgument(date);
+        encoder.addTimeTag(OSCEncoder.toNtpTime(date.getTime()));
+        for (int length = 0; length < 10; length++) {
+            char[] text = new char[length];
+            Arrays.fill(text, 'a');
+            message.addArgument(new String(text));
+            encoder.addString(new String(text));
+            byte[] blob = new byte[length];
+            Arrays.fill(blob, (byte) length);
+            message.addArgument(blob);
+            encoder.addBlob(blob, 0, blob.length);
+        }
+        assertEncoded(message, encoder);
+    }
+
+    @Test
+    public void testUtf8Padding() {
+        OSCEncoder encoder = new OSCEncoder().start("/utf8").addString("éé");
+        ByteBuffer out = encoder.encode(ByteBuffer.allocate(encoder.size()));
+        assertEquals(8 + 4 + 8, out.position());
+        assertEquals(0, out.get(8 + 4 + 4));
+        encoder.start("/u").addColor(0x11223344).addMidi(0x00904060);
+        out = encoder.encode(ByteBuffer.allocate(encoder.size()));
+        assertArrayEquals(new byte[]{'/', 'u', 0, 0, ',', 'r', 'm', 0, 0x11, 0x22, 0x33, 0x44, 0, (byte) 0x90, 0x40, 0x60},
+                out.array());
+    }
+
+    @Test
+    public void testTypeTagTerminator() {
+        OSCEncoder encoder = new OSCEncoder().start("/m").addInt(1).addInt(2).addChar('x');
+        ByteBuffer out = encoder.encode(ByteBuffer.allocate(encoder.size()));
+        assertArrayEquals(new byte[]{'/', 'm', 0, 0, ',', 'i', 'i', 'c', 0, 0, 0, 0, 0, 0, 0, 1, 0, 0, 0, 2,
+                0, 0, 0, 'x'}, out.array());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidAddress() {
+        new OSCEncoder().start("/not valid");
+    }
+
+    @Test
+    public void testSteadyStateAllocation() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        OSCEncoder encoder = new OSCEncoder();
+        ByteBuffer out = ByteBuffer.allocateDirect(1536);
+        String command = "osc@localhost:57110 /message/receiving 12 1.5 text";
+        for (int i = 0; i < 20000; i++) {
+            encode(encoder, out, command);
+        }
+        long before = allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (int i = 0; i < 20000; i++) {
+            encode(encoder, out, command);
+        }
+        long allocated = allocations.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        assertTrue("allocated " + allocated + " bytes", allocated < 4096);
+    }
+
+    @Test
+    public void testProtocolMatchesJavaOSC() throws Exception {
+        DatagramSocket socket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        socket.setSoTimeout(2000);
+        OSCDatagramSender sender = new OSCDatagramSender(1);
+        EndpointCache endpoints = new EndpointCache(60000, 1000);
+        try {
+            Protocol nativeProtocol = new Protocol(sender, endpoints, true);
+            Protocol javaOSCProtocol = new Protocol(sender, endpoints, false);
+            String target = "osc@127.0.0.1:" + socket.getLocalPort() + " /message/receiving";
+            Random random = new Random(20141121L);
+            for (int i = 0; i < 300; i++) {
+                StringBuilder command = new StringBuilder(target);
+                int count = random.nextInt(6);
+                for (int j = 0; j < count; j++) {
+                    command.append(' ').append(random.nextBoolean() ? TOKENS[random.nextInt(TOKENS.length)]
+                            : randomNumber(random));
+                }
+                String cmd = command.toString();
+                assertEquals(cmd, LightFactoryProtocol.resources.getString("lf.osc.success"),
+                        nativeProtocol.send(cmd));
+                byte[] expected = receive(socket);
+                assertEquals(cmd, LightFactoryProtocol.resources.getString("lf.osc.success"),
+                        javaOSCProtocol.send(cmd));
+                byte[] actual = receive(socket);
+                if (count % 4 != 3) {
+                    //javaosc drops the type tag terminator when the tags fill a 4 byte boundary
+                    assertArrayEquals(cmd, actual, expected);
+                }
+            }
+        } finally {
+            sender.close();
+            endpoints.shutdown();
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testBundlePacking() throws Exception {
+        DatagramSocket first = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        DatagramSocket second = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        first.setSoTimeout(2000);
+        second.setSoTimeout(2000);
+        OSCDatagramSender sender = new OSCDatagramSender(1);
+        EndpointCache endpoints = new EndpointCache(60000, 1000);
+        try {
+            String cmd = "osc@127.0.0.1:" + first.getLocalPort() + " /cue/go 1 2.5\n"
+                    + "osc@127.0.0.1:" + second.getLocalPort() + " /cue/stop\n"
+                    + "osc@127.0.0.1:" + first.getLocalPort() + " /cue/fade \"all\"";
+            byte[] nativeBundle = null;
+            for (boolean nativeEncoder : new boolean[]{true, false}) {
+                Protocol protocol = new Protocol(sender, endpoints, nativeEncoder);
+                assertEquals(LightFactoryProtocol.resources.getString("lf.osc.success"), protocol.send(cmd));
+
+                byte[] bundle = receive(first);
+                if (nativeBundle == null) {
+                    nativeBundle = bundle;
+                } else {
+                    assertArrayEquals(bundle, nativeBundle);
+                }
+                OSCPacket packet = new OSCByteArrayToJavaConverter().convert(bundle, bundle.length);
+                assertTrue(packet instanceof OSCBundle);
+                List<OSCPacket> packets = ((OSCBundle) packet).getPackets();
+                assertEquals(2, packets.size());
+                assertEquals("/cue/go", ((OSCMessage) packets.get(0)).getAddress());
+                assertEquals(Arrays.<Object>asList(1, 2.5f), ((OSCMessage) packets.get(0)).getArguments());
+                assertEquals("/cue/fade", ((OSCMessage) packets.get(1)).getAddress());
+
+                OSCMessage expected = new OSCMessage("/cue/stop");
+                assertArrayEquals(expected.getByteArray(), receive(second));
+            }
+        } finally {
+            sender.close();
+            endpoints.shutdown();
+            first.close();
+            second.close();
+        }
+    }
+
+    private static void encode(final OSCEncoder encoder, final ByteBuffer out, final String command) {
+        out.clear();
+        encoder.start(command, 20, 38).addInt(12).addFloat(1.5f).addString(command, 46, 50).encode(out);
+    }
+
+    private static String randomNumber(final Random random) {
+        StringBuilder number = new StringBuilder();
+        if (random.nextInt(4) == 0) {
+            number.append('-');
+        }
+        int digits = 1 + random.nextInt(12);
+        for (int i = 0; i < digits; i++) {
+            number.append((char) ('0' + random.nextInt(10)));
+        }
+        if (random.nextBoolean()) {
+            number.insert(random.nextInt(number.length() + 1), '.');
+        }
+        if (random.nextInt(4) == 0) {
+            number.append('e').append(random.nextInt(25) - 12);
+        }
+        return number.toString();
+    }
+
+    private static byte[] receive(final DatagramSocket socket) throws Exception {
+        DatagramPacket packet = new DatagramPacket(new byte[1536], 1536);
+        socket.receive(packet);
+        return Arrays.copyOf(packet.getData(), packet.getLength());
+    }
+
+    private static void assertEncoded(final OSCMessage message, final OSCEncoder encoder) {
+        ByteBuffer out = ByteBuffer.allocate(encoder.size());
+        encoder.encode(out);
+        assertEquals(out.capacity(), out.position());
+        assertArrayEquals(message.getByteArray(), out.array());
+    }
+
+    private static final class Protocol extends LightFactoryProtocol {
+        private Protocol(final OSCDatagramSender sender, final EndpointCache endpoints, final boolean nativeEncoder) {
+            super(sender, endpoints, nativeEncoder);
+        }
+
+        private String send(final String cmd) {
+            return process(cmd);
+        }
+    }
+}
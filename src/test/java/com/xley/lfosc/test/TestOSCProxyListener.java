@@ -0,0 +1,529 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.test;
+
+import com.illposed.osc.OSCMessage;
+import com.illposed.osc.utility.OSCByteArrayToJavaConverter;
+import com.xley.lfosc.impl.EndpointCache;
+import com.xley.lfosc.impl.LightFactorySessionPool;
+import com.xley.lfosc.impl.OSCDatagramReceiver;
+import com.xley.lfosc.impl.OSCFanOut;
+import com.xley.lfosc.impl.OSCProtocol;
+import com.xley.lfosc.impl.OSCProxyListener;
+import com.xley.lfosc.impl.OSCReplier;
+import com.xley.lfosc.impl.ProxyMetrics;
+import com.xley.lfosc.impl.TrafficMetrics;
+import com.xley.lfosc.test.support.MockLightFactoryServer;
+import com.xley.lfosc.util.CircuitBreaker;
+import com.xley.lfosc.util.CompletionPolicy;
+import com.xley.lfosc.util.LatePolicy;
+import com.xley.lfosc.util.OverloadPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestOSCProxyListener {
+    private MockLightFactoryServer lightFactory = null;
+    private Thread server = null;
+    private EndpointCache endpoints = null;
+    private LightFactorySessionPool sessions = null;
+    private OSCProxyListener listener = null;
+
+    @Before
+    public void setUp() throws Exception {
+        lightFactory = new MockLightFactoryServer(3400);
+        server = new Thread(lightFactory);
+        server.start();
+        endpoints = new EndpointCache(60000, 1000);
+        sessions = new LightFactorySessionPool(1, 60000, endpoints);
+        listener = new OSCProxyListener(sessions, 1, 100, OverloadPolicy.REJECT);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        listener.shutdown();
+        sessions.shutdown();
+        endpoints.shutdown();
+        server.interrupt();
+        lightFactory.shutdown();
+        server.join(10000);
+    }
+
+    @Test
+    public void testCoalescing() throws Exception {
+        listener.setCoalescing(Arrays.asList("/lf/*/fader"), 500);
+        for (int i = 1; i <= 10; i++) {
+            OSCMessage message = new OSCMessage("/lf/127.0.0.1:3400/fader");
+            message.addArgument(i);
+            listener.acceptMessage(new Date(), message);
+        }
+        long timeout = System.currentTimeMillis() + 5000;
+        while (lightFactory.getLastValue() == null && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertEquals("fader 10", lightFactory.getLastValue());
+        assertEquals(9, listener.getCollapsed());
+    }
+
+    @Test
+    public void testScheduling() throws Exception {
+        listener.setScheduling(1, LatePolicy.DROP);
+        OSCMessage late = new OSCMessage("/lf/127.0.0.1:3400/late");
+        listener.acceptMessage(new Date(System.currentTimeMillis() - 1000), late);
+        long due = System.currentTimeMillis() + 300;
+        listener.acceptBundle(new Date(due), Collections.singletonList(new OSCMessage("/lf/127.0.0.1:3400/cue")));
+        assertEquals(1, listener.getLate());
+        assertEquals(1, listener.getScheduled());
+
+        Thread.sleep(100);
+        assertEquals(null, lightFactory.getLastValue());
+        long timeout = System.currentTimeMillis() + 5000;
+        while (lightFactory.getLastValue() == null && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertTrue(System.currentTimeMillis() >= due);
+        assertEquals("cue", lightFactory.getLastValue());
+    }
+
+    @Test
+    public void testBatching() throws Exception {
+        final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+        final ServerSocket lf = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Thread mock = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (Socket socket = lf.accept();
+                     BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                             StandardCharsets.US_ASCII))) {
+                    OutputStream out = socket.getOutputStream();
+                    out.write("LightFactory MOCK-SERVER\n>\n".getBytes(StandardCharsets.US_ASCII));
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        received.add(line);
+                        out.write(("> " + line + " : Success\n>\n").getBytes(StandardCharsets.US_ASCII));
+                    }
+                } catch (Exception e) {
+                    //test ended
+                }
+            }
+        });
+        mock.start();
+        try {
+            listener.setBatching(10, 200);
+            for (int i = 1; i <= 5; i++) {
+                OSCMessage message = new OSCMessage("/lf/127.0.0.1:" + lf.getLocalPort() + "/cue");
+                message.addArgument(i);
+                listener.acceptMessage(new Date(), message);
+            }
+            long timeout = System.currentTimeMillis() + 5000;
+            while (sessions.getBatchedCommands() < 5 && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            timeout = System.currentTimeMillis() + 5000;
+            while (received.size() < 5 && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            assertEquals("[cue 1, cue 2, cue 3, cue 4, cue 5]", received.toString());
+            assertEquals(1, sessions.getBatches());
+            assertEquals(5, sessions.getBatchedCommands());
+            assertEquals(0, sessions.getFailedCommands());
+        } finally {
+            sessions.shutdown();
+            lf.close();
+            mock.join(5000);
+        }
+    }
+
+    @Test
+    public void testPartialBatch() throws Exception {
+        final ServerSocket lf = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Thread mock = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (Socket socket = lf.accept();
+                     BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                             StandardCharsets.US_ASCII))) {
+                    //acknowledge the first command, then hang up without resetting the unread commands
+                    OutputStream out = socket.getOutputStream();
+                    out.write("LightFactory MOCK-SERVER\n>\n".getBytes(StandardCharsets.US_ASCII));
+                    String line = in.readLine();
+                    out.write(("> " + line + " : Success\n>\n").getBytes(StandardCharsets.US_ASCII));
+                    socket.shutdownOutput();
+                    while (in.readLine() != null) {
+                        //drain the commands that are not acknowledged
+                    }
+                } catch (Exception e) {
+                    //test ended
+                }
+            }
+        });
+        mock.start();
+        try {
+            String target = "127.0.0.1:" + lf.getLocalPort();
+            List<OSCMessage> batch = new ArrayList<>();
+            for (int i = 1; i <= 3; i++) {
+                OSCMessage message = new OSCMessage("/lf/" + target + "/cue");
+                message.addArgument(i);
+                batch.add(message);
+            }
+            ProxyMetrics metrics = new ProxyMetrics();
+            new OSCProtocol(batch, sessions, metrics, System.nanoTime()).run();
+
+            //only the commands after the acknowledged one failed
+            TrafficMetrics traffic = metrics.getTraffic(ProxyMetrics.Direction.OSC_TO_LF, target);
+            assertEquals(1, traffic.getMessages());
+            assertEquals(2, traffic.getErrors());
+            assertEquals(2, sessions.getFailedCommands());
+        } finally {
+            lf.close();
+            mock.join(5000);
+        }
+    }
+
+    @Test
+    public void testReplies() throws Exception {
+        OSCDatagramReceiver receiver = new OSCDatagramReceiver(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        DatagramSocket client = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        try {
+            client.setSoTimeout(5000);
+            OSCReplier replier = new OSCReplier(receiver, "/lf/reply", 0);
+            listener.setReplies(replier);
+            receiver.addListener("/lf/*/*", listener);
+            receiver.startListening();
+
+            OSCMessage message = new OSCMessage("/lf/127.0.0.1:3400/cue");
+            message.addArgument(1);
+            byte[] data = message.getByteArray();
+            client.send(new DatagramPacket(data, data.length, receiver.getLocalAddress()));
+
+            DatagramPacket packet = new DatagramPacket(new byte[1536], 1536);
+            client.receive(packet);
+            OSCMessage reply = (OSCMessage) new OSCByteArrayToJavaConverter().convert(packet.getData(),
+                    packet.getLength());
+            assertEquals("/lf/reply", reply.getAddress());
+            assertEquals(Arrays.<Object>asList("/lf/127.0.0.1:3400/cue", true, "> cue 1 : Success"),
+                    reply.getArguments());
+            long timeout = System.currentTimeMillis() + 5000;
+            while (replier.getSent() < 1 && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, replier.getSent());
+        } finally {
+            client.close();
+            receiver.close();
+        }
+    }
+
+    @Test
+    public void testReadTimeout() throws Exception {
+        final ServerSocket lf = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Thread mock = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (Socket socket = lf.accept()) {
+                    //prompt once, then never answer
+                    socket.getOutputStream().write("LightFactory MOCK-SERVER\n>\n".getBytes(StandardCharsets.US_ASCII));
+                    socket.getInputStream().read(new byte[1024]);
+                    Thread.sleep(5000);
+                } catch (Exception e) {
+                    //test ended
+                }
+            }
+        });
+        mock.start();
+        try {
+            sessions.setTimeouts(1000, 300);
+            long start = System.currentTimeMillis();
+            try {
+                sessions.execute("127.0.0.1", lf.getLocalPort(), "cue 1");
+                assertTrue("no timeout", false);
+            } catch (SocketTimeoutException e) {
+                long elapsed = System.currentTimeMillis() - start;
+                assertTrue("waited " + elapsed + " ms", elapsed >= 300 && elapsed < 3000);
+            }
+            assertEquals(0, sessions.getIdleCount("127.0.0.1:" + lf.getLocalPort()));
+        } finally {
+            lf.close();
+            mock.interrupt();
+            mock.join(5000);
+        }
+    }
+
+    @Test
+    public void testCircuitBreaker() throws Exception {
+        ServerSocket free = new ServerSocket(0);
+        int port = free.getLocalPort();
+        free.close();
+        String key = "127.0.0.1:" + port;
+        sessions.setCircuitBreaker(2, 300);
+        for (int i = 0; i < 2; i++) {
+            try {
+                sessions.execute("127.0.0.1", port, "cue 1");
+                assertTrue("delivered", false);
+            } catch (LightFactorySessionPool.CircuitOpenException e) {
+                assertTrue("failed fast too early", false);
+            } catch (IOException e) {
+                //connection refused
+            }
+        }
+        assertEquals(CircuitBreaker.State.OPEN, sessions.getCircuitState(key));
+        assertEquals(Collections.singletonList(key), sessions.getOpenCircuits());
+        try {
+            sessions.execute("127.0.0.1", port, "cue 1");
+            assertTrue("not failed fast", false);
+        } catch (LightFactorySessionPool.CircuitOpenException e) {
+            assertEquals(1, sessions.getFailedFast());
+        }
+
+        //the console comes back, the probe closes the circuit once the open time has passed
+        MockLightFactoryServer console = new MockLightFactoryServer(port);
+        Thread consoleThread = new Thread(console);
+        consoleThread.start();
+        try {
+            Thread.sleep(400);
+            sessions.execute("127.0.0.1", port, "cue 2");
+            assertEquals(CircuitBreaker.State.CLOSED, sessions.getCircuitState(key));
+            assertTrue(sessions.getOpenCircuits().isEmpty());
+            assertEquals("cue 2", console.getLastValue());
+        } finally {
+            consoleThread.interrupt();
+            console.shutdown();
+            consoleThread.join(5000);
+        }
+    }
+
+    @Test
+    public void testTargetLimit() throws Exception {
+        final ServerSocket lf = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Thread mock = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (Socket socket = lf.accept()) {
+                    //never prompt, the first message holds the lane until it gives up on the session
+                    socket.getInputStream().read(new byte[1024]);
+                } catch (Exception e) {
+                    //test ended
+                }
+            }
+        });
+        mock.start();
+        try {
+            sessions.setTimeouts(1000, 1000);
+            listener.setTargetLimit(2);
+            for (int i = 0; i < 6; i++) {
+                listener.acceptMessage(new Date(), new OSCMessage("/lf/127.0.0.1:" + lf.getLocalPort() + "/cue"));
+            }
+            //one message runs or waits, two more wait, the rest are shed
+            assertTrue(String.valueOf(listener.getTargetLimited()), listener.getTargetLimited() >= 3);
+            assertFalse(listener.getTargetLimited() == 6);
+        } finally {
+            lf.close();
+            mock.interrupt();
+            mock.join(5000);
+        }
+    }
+
+    @Test
+    public void testTargetLimitHeldMessages() throws Exception {
+        //batch windows and hold times keep the messages off the lanes, the target limit still counts them
+        listener.setTargetLimit(2);
+        listener.setBatching(10, 5000);
+        listener.setCoalescing(Arrays.asList("/lf/*/fader*"), 5000);
+        for (int i = 0; i < 3; i++) {
+            listener.acceptMessage(new Date(), new OSCMessage("/lf/127.0.0.1:3400/cue"));
+        }
+        assertEquals(1, listener.getTargetLimited());
+        for (int i = 0; i < 3; i++) {
+            listener.acceptMessage(new Date(), new OSCMessage("/lf/127.0.0.2:3400/fader" + i));
+        }
+        assertEquals(2, listener.getTargetLimited());
+        listener.acceptBundle(new Date(), Arrays.asList(new OSCMessage("/lf/127.0.0.1:3400/cue"),
+                new OSCMessage("/lf/127.0.0.3:3400/cue")));
+        assertEquals(3, listener.getTargetLimited());
+    }
+
+    @Test
+    public void testFanOut() throws Exception {
+        ServerSocket free = new ServerSocket(0);
+        int dead = free.getLocalPort();
+        free.close();
+        OSCFanOut any = OSCFanOut.fromOption("rig=127.0.0.1:3400, 127.0.0.1:" + dead, CompletionPolicy.ANY);
+        OSCFanOut all = OSCFanOut.fromOption("all=127.0.0.1:3400,127.0.0.1:" + dead, CompletionPolicy.ALL);
+        listener.setGroups(Arrays.asList(any, all));
+
+        OSCDatagramReceiver receiver = new OSCDatagramReceiver(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        DatagramSocket client = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        try {
+            client.setSoTimeout(5000);
+            listener.setReplies(new OSCReplier(receiver, "/lf/reply", 0));
+            receiver.addListener("/lf/*/*", listener);
+            receiver.startListening();
+
+            OSCMessage message = new OSCMessage("/lf/rig/cue");
+            message.addArgument(1);
+            byte[] data = message.getByteArray();
+            client.send(new DatagramPacket(data, data.length, receiver.getLocalAddress()));
+
+            //one reply for the group listing each member
+            DatagramPacket packet = new DatagramPacket(new byte[1536], 1536);
+            client.receive(packet);
+            OSCMessage reply = (OSCMessage) new OSCByteArrayToJavaConverter().convert(packet.getData(),
+                    packet.getLength());
+            assertEquals("/lf/rig/cue", reply.getArguments().get(0));
+            assertEquals(true, reply.getArguments().get(1));
+            String text = String.valueOf(reply.getArguments().get(2));
+            //the first success decides any, the dead member may not have failed yet
+            assertTrue(text, text.startsWith("1 of 2 members [127.0.0.1:3400 ok: > cue 1 : Success, 127.0.0.1:"
+                    + dead + " "));
+            assertEquals("cue 1", lightFactory.getLastValue());
+            assertEquals(1, any.getMet());
+
+            listener.acceptMessage(new Date(), new OSCMessage("/lf/all/cue"));
+            long timeout = System.currentTimeMillis() + 5000;
+            while (all.getNotMet() < 1 && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, all.getMet());
+            assertEquals(1, all.getNotMet());
+        } finally {
+            client.close();
+            receiver.close();
+        }
+    }
+
+    @Test
+    public void testFanOutShed() throws Exception {
+        final ServerSocket lf = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Thread mock = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (Socket socket = lf.accept()) {
+                    //never prompt, the first message holds the lane
+                    socket.getInputStream().read(new byte[1024]);
+                } catch (Exception e) {
+                    //test ended
+                }
+            }
+        });
+        mock.start();
+        OSCProxyListener shedding = new OSCProxyListener(sessions, 1, 1, OverloadPolicy.DROP_NEWEST);
+        try {
+            sessions.setTimeouts(1000, 1000);
+            OSCFanOut group = OSCFanOut.fromOption("stalled=127.0.0.1:" + lf.getLocalPort(), CompletionPolicy.ALL);
+            shedding.setGroups(Collections.singletonList(group));
+            shedding.setTargetLimit(0);
+            for (int i = 0; i < 4; i++) {
+                shedding.acceptMessage(new Date(), new OSCMessage("/lf/stalled/cue"));
+            }
+            //the copies the lanes shed complete their delivery right away
+            assertTrue(String.valueOf(group.getNotMet()), group.getNotMet() >= 2);
+            assertEquals(0, group.getMet());
+        } finally {
+            shedding.shutdown();
+            lf.close();
+            mock.interrupt();
+            mock.join(5000);
+        }
+    }
+
+    @Test
+    public void testFanOutDecidesEarly() throws Exception {
+        String members = "=10.0.0.1:3100,10.0.0.2:3100,10.0.0.3:3100";
+        OSCFanOut any = OSCFanOut.fromOption("any" + members, CompletionPolicy.ANY);
+        OSCFanOut all = OSCFanOut.fromOption("all" + members, CompletionPolicy.ALL);
+        OSCFanOut quorum = OSCFanOut.fromOption("quorum" + members, CompletionPolicy.QUORUM);
+
+        List<OSCFanOut.Member> copies = any.expand(new OSCMessage("/lf/any/cue"), null);
+        copies.get(1).complete(true, "ok");
+        assertEquals(1, any.getMet());
+        copies.get(0).complete(false, "late");
+        copies.get(2).complete(false, "late");
+        assertEquals(1, any.getMet());
+        assertEquals(0, any.getNotMet());
+
+        copies = all.expand(new OSCMessage("/lf/all/cue"), null);
+        copies.get(0).complete(true, "ok");
+        assertEquals(0, all.getMet() + all.getNotMet());
+        copies.get(2).complete(false, "failed");
+        assertEquals(1, all.getNotMet());
+        copies.get(1).complete(true, "late");
+        assertEquals(0, all.getMet());
+
+        copies = quorum.expand(new OSCMessage("/lf/quorum/cue"), null);
+        copies.get(0).complete(true, "ok");
+        copies.get(1).complete(true, "ok");
+        assertEquals(1, quorum.getMet());
+        copies = quorum.expand(new OSCMessage("/lf/quorum/cue"), null);
+        copies.get(0).complete(false, "failed");
+        assertEquals(0, quorum.getNotMet());
+        copies.get(2).complete(false, "failed");
+        assertEquals(1, quorum.getNotMet());
+        copies.get(1).complete(true, "late");
+        assertEquals(1, quorum.getMet());
+        assertEquals(1, quorum.getNotMet());
+    }
+
+    @Test
+    public void testGroupOption() throws Exception {
+        OSCFanOut group = OSCFanOut.fromOption("stage=10.0.0.1:3100, backup:3100,preview:3101",
+                CompletionPolicy.QUORUM);
+        assertEquals("stage", group.getName());
+        assertEquals(Arrays.asList("10.0.0.1:3100", "backup:3100", "preview:3101"), group.getMembers());
+        assertTrue(CompletionPolicy.QUORUM.isMet(2, 3));
+        assertFalse(CompletionPolicy.QUORUM.isMet(1, 2));
+        assertTrue(CompletionPolicy.QUORUM.isDecided(0, 2, 3));
+        assertFalse(CompletionPolicy.QUORUM.isDecided(1, 1, 4));
+        assertTrue(CompletionPolicy.QUORUM.isDecided(1, 2, 4));
+        for (String invalid : new String[]{"stage", "=a:1", "a:1=b:2", "stage=backup", "stage=backup:0",
+                "stage=backup:x", "stage=backup:1,backup:1", "stage=a:1,"}) {
+            try {
+                OSCFanOut.fromOption(invalid, CompletionPolicy.ALL);
+                assertTrue(invalid, false);
+            } catch (IllegalArgumentException e) {
+                //expected
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.test;
+
+import com.xley.lfosc.impl.ProxyMetrics;
+import com.xley.lfosc.impl.TrafficMetrics;
+import com.xley.lfosc.util.LatencyHistogram;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestProxyMetrics {
+
+    @Test
+    public void testHistogram() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(99, TimeUnit.MICROSECONDS));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax(TimeUnit.MICROSECONDS));
+        assertEquals(500, histogram.getMean(TimeUnit.MICROSECONDS));
+        assertWithin(500, histogram.getPercentile(50, TimeUnit.MICROSECONDS));
+        assertWithin(990, histogram.getPercentile(99, TimeUnit.MICROSECONDS));
+        assertEquals(1000, histogram.getPercentile(100, TimeUnit.MICROSECONDS));
+    }
+
+    @Test
+    public void testMBeans() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName target = new ObjectName(ProxyMetrics.DOMAIN + ":type=Traffic,direction=osc-to-lf,target="
+                + ObjectName.quote("127.0.0.1:3300"));
+        ObjectName total = new ObjectName(ProxyMetrics.DOMAIN + ":type=Traffic,direction=osc-to-lf,target="
+                + ObjectName.quote("all"));
+        ObjectName proxy = new ObjectName(ProxyMetrics.DOMAIN + ":type=Proxy");
+
+        ProxyMetrics metrics = new ProxyMetrics();
+        metrics.export();
+        try {
+            metrics.delivered(ProxyMetrics.Direction.OSC_TO_LF, "127.0.0.1:3300", 2,
+                    System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(2));
+            metrics.failed(ProxyMetrics.Direction.OSC_TO_LF, "127.0.0.1:3300", 1);
+            metrics.failed(ProxyMetrics.Direction.OSC_TO_LF, (String) null, 1);
+            metrics.connectionOpened();
+
+            assertEquals(2L, server.getAttribute(target, "Messages"));
+            assertEquals(1L, server.getAttribute(target, "Errors"));
+            assertTrue((Long) server.getAttribute(target, "LatencyMaxMicros") >= 2000);
+            assertEquals(2L, server.getAttribute(total, "Messages"));
+            assertEquals(2L, server.getAttribute(total, "Errors"));
+            assertEquals(1, server.getAttribute(proxy, "ActiveConnections"));
+            assertEquals(0, server.getAttribute(proxy, "QueuedMessages"));
+        } finally {
+            metrics.close();
+        }
+        assertFalse(server.isRegistered(target));
+        assertFalse(server.isRegistered(proxy));
+    }
+
+    @Test
+    public void testMaxTargets() throws Exception {
+        ProxyMetrics metrics = new ProxyMetrics(2);
+        for (int i = 1; i <= 5; i++) {
+            metrics.delivered(ProxyMetrics.Direction.OSC_TO_LF, "10.0.0." + i + ":3100", 1, System.nanoTime());
+        }
+        metrics.failed(ProxyMetrics.Direction.OSC_TO_LF, "10.0.0.6:3100", 1);
+        assertEquals(1, metrics.getTraffic(ProxyMetrics.Direction.OSC_TO_LF, "10.0.0.2:3100").getMessages());
+        assertEquals(null, metrics.getTraffic(ProxyMetrics.Direction.OSC_TO_LF, "10.0.0.3:3100"));
+        TrafficMetrics other = metrics.getTraffic(ProxyMetrics.Direction.OSC_TO_LF, "other");
+        assertEquals(3, other.getMessages());
+        assertEquals(1, other.getErrors());
+        assertEquals(5, metrics.getTotals(ProxyMetrics.Direction.OSC_TO_LF).getMessages());
+    }
+
+    private static void assertWithin(final long expected, final long actual) {
+        assertTrue(expected + " ~ " + actual, Math.abs(actual - expected) <= expected / 8);
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.test;
+
+import com.xley.lfosc.util.OverloadPolicy;
+import com.xley.lfosc.util.StripedExecutor;
+import com.xley.lfosc.util.ThreadMode;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestStripedExecutor {
+
+    @Test
+    public void testOrderPerKey() throws Exception {
+        StripedExecutor executor = new StripedExecutor("TestStripedExecutor", 4);
+        final List<List<Integer>> seen = new ArrayList<>();
+        for (int key = 0; key < 8; key++) {
+            seen.add(Collections.synchronizedList(new ArrayList<Integer>()));
+        }
+        for (int i = 0; i < 1000; i++) {
+            for (int key = 0; key < seen.size(); key++) {
+                final List<Integer> target = seen.get(key);
+                final int value = i;
+                executor.execute("10.0.0." + key + ":3100", new Runnable() {
+                    @Override
+                    public void run() {
+                        target.add(value);
+                    }
+                });
+            }
+        }
+        assertTrue(executor.shutdown(5, TimeUnit.SECONDS));
+        for (List<Integer> values : seen) {
+            assertEquals(1000, values.size());
+            for (int i = 0; i < values.size(); i++) {
+                assertEquals(Integer.valueOf(i), values.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testSlowLaneDoesNotBlockOthers() throws Exception {
+        StripedExecutor executor = new StripedExecutor("TestStripedExecutor", 2);
+        String slow = "slow";
+        String fast = "fast";
+        for (int i = 0; executor.laneOf(slow) == executor.laneOf(fast); i++) {
+            fast = "fast" + i;
+        }
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        for (int i = 0; i < 3; i++) {
+            executor.execute(slow, new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        final CountDownLatch done = new CountDownLatch(1);
+        executor.execute(fast, new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertTrue(started.await(2, TimeUnit.SECONDS));
+        assertEquals(2, executor.getQueueDepth(executor.laneOf(slow)));
+        assertEquals(0, executor.getQueueDepth(executor.laneOf(fast)));
+        release.countDown();
+        assertTrue(executor.shutdown(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testOverloadPolicies() throws Exception {
+        assertEquals("[1, 2, 3]", overload(OverloadPolicy.DROP_NEWEST, 2, 0, 0));
+        assertEquals("[1, 4, 5]", overload(OverloadPolicy.DROP_OLDEST, 2, 0, 0));
+        assertEquals("[1, 2, 3]", overload(OverloadPolicy.REJECT, 0, 2, 0));
+    }
+
+    @Test
+    public void testThreadModes() throws Exception {
+        for (ThreadMode mode : ThreadMode.values()) {
+            StripedExecutor executor = new StripedExecutor("TestStripedExecutor", 2, 0, OverloadPolicy.REJECT, mode);
+            final List<Integer> ran = Collections.synchronizedList(new ArrayList<Integer>());
+            final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+            for (int i = 0; i < 100; i++) {
+                final int value = i;
+                executor.execute("key", new Runnable() {
+                    @Override
+                    public void run() {
+                        ran.add(value);
+                        threads.add(Thread.currentThread());
+                    }
+                });
+            }
+            assertTrue(executor.shutdown(5, TimeUnit.SECONDS));
+            assertEquals(100, ran.size());
+            for (int i = 0; i < ran.size(); i++) {
+                assertEquals(Integer.valueOf(i), ran.get(i));
+            }
+            String name = threads.get(0).getName();
+            assertTrue(name, name.startsWith("TestStripedExecutor - Lane "));
+            assertEquals(mode.toString(), mode == ThreadMode.VIRTUAL && mode.isSupported(), isVirtual(threads.get(0)));
+        }
+    }
+
+    private static boolean isVirtual(final Thread thread) throws Exception {
+        //Thread.isVirtual() is Java 21, threads are never virtual before
+        try {
+            return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    @Test
+    public void testBlockPolicy() throws Exception {
+        final StripedExecutor executor = new StripedExecutor("TestStripedExecutor", 1, 1, OverloadPolicy.BLOCK);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> ran = Collections.synchronizedList(new ArrayList<Integer>());
+        executor.execute("key", blocker(release, ran, 1));
+        executor.execute("key", blocker(null, ran, 2));
+        Thread submitter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                executor.execute("key", blocker(null, ran, 3));
+            }
+        });
+        submitter.start();
+        submitter.join(200);
+        assertTrue(submitter.isAlive());
+        release.countDown();
+        submitter.join(2000);
+        assertTrue(executor.shutdown(5, TimeUnit.SECONDS));
+        assertEquals("[1, 2, 3]", ran.toString());
+        assertEquals(1, executor.getBlocked());
+    }
+
+    @Test
+    public void testBlockPolicyShutdown() throws Exception {
+        final StripedExecutor executor = new StripedExecutor("TestStripedExecutor", 1, 1, OverloadPolicy.BLOCK);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> ran = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicBoolean refused = new AtomicBoolean();
+        executor.execute("key", blocker(release, ran, 1));
+        executor.execute("key", blocker(null, ran, 2));
+        Thread submitter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    executor.execute("key", blocker(null, ran, 3));
+                } catch (RejectedExecutionException e) {
+                    refused.set(true);
+                }
+            }
+        });
+        submitter.start();
+        submitter.join(200);
+        assertTrue(submitter.isAlive());
+
+        //the blocked submission is refused once the lane shuts down, not left waiting for room
+        assertFalse(executor.shutdown(0, TimeUnit.MILLISECONDS));
+        submitter.join(2000);
+        assertFalse(submitter.isAlive());
+        assertTrue(refused.get());
+        release.countDown();
+        assertTrue(executor.shutdown(5, TimeUnit.SECONDS));
+        assertEquals("[1, 2]", ran.toString());
+    }
+
+    private static String overload(final OverloadPolicy policy, final long dropped, final long rejected,
+                                   final long blocked) throws Exception {
+        StripedExecutor executor = new StripedExecutor("TestStripedExecutor", 1, 2, policy);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> ran = Collections.synchronizedList(new ArrayList<Integer>());
+        CountDownLatch started = new CountDownLatch(1);
+        executor.execute("key", blocker(release, ran, 1, started));
+        assertTrue(started.await(2, TimeUnit.SECONDS));
+        for (int i = 2; i <= 5; i++) {
+            try {
+                executor.execute("key", blocker(null, ran, i));
+            } catch (RejectedExecutionException e) {
+                ran.add(-i);
+            }
+        }
+        release.countDown();
+        assertTrue(executor.shutdown(5, TimeUnit.SECONDS));
+        assertEquals(dropped, executor.getDropped());
+        assertEquals(rejected, executor.getRejected());
+        assertEquals(blocked, executor.getBlocked());
+        List<Integer> executed = new ArrayList<>();
+        for (Integer value : ran) {
+            if (value > 0) {
+                executed.add(value);
+            }
+        }
+        Collections.sort(executed);
+        return executed.toString();
+    }
+
+    private static Runnable blocker(final CountDownLatch release, final List<Integer> ran, final int value) {
+        return blocker(release, ran, value, new CountDownLatch(1));
+    }
+
+    private static Runnable blocker(final CountDownLatch release, final List<Integer> ran, final int value,
+                                    final CountDownLatch started) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    if (release != null) {
+                        release.await();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                ran.add(value);
+            }
+        };
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.test;
+
+import com.xley.lfosc.util.TimingWheel;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestTimingWheel {
+
+    @Test
+    public void testReleaseOrder() throws Exception {
+        //8 slots of 5 ms, the later deadlines need more than one revolution
+        TimingWheel wheel = new TimingWheel("TestTimingWheel", 5, 8, 0);
+        final List<Integer> released = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(5);
+        final long start = System.nanoTime();
+        int[] delays = {120, 10, 60, 0, 35};
+        for (final int delay : delays) {
+            assertTrue(wheel.schedule(delay, TimeUnit.MILLISECONDS, new Runnable() {
+                @Override
+                public void run() {
+                    if (System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(delay)) {
+                        released.add(delay);
+                    }
+                    done.countDown();
+                }
+            }));
+        }
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals("[0, 10, 35, 60, 120]", released.toString());
+        assertEquals(5, wheel.getReleased());
+        assertEquals(0, wheel.getPending());
+        assertTrue(wheel.stop(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCapacity() throws Exception {
+        TimingWheel wheel = new TimingWheel("TestTimingWheel", 1, 64, 2);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        assertTrue(wheel.schedule(1, TimeUnit.SECONDS, task));
+        assertTrue(wheel.schedule(1, TimeUnit.SECONDS, task));
+        assertFalse(wheel.schedule(1, TimeUnit.SECONDS, task));
+        assertEquals(1, wheel.getRefused());
+        assertTrue(wheel.stop(1, TimeUnit.SECONDS));
+        assertFalse(wheel.schedule(0, TimeUnit.SECONDS, task));
+        assertEquals(2, wheel.getRefused());
+    }
+}
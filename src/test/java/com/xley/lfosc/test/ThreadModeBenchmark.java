@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.test;
+
+import com.illposed.osc.OSCMessage;
+import com.xley.lfosc.impl.EndpointCache;
+import com.xley.lfosc.impl.LightFactorySessionPool;
+import com.xley.lfosc.impl.OSCProxyListener;
+import com.xley.lfosc.util.OverloadPolicy;
+import com.xley.lfosc.util.ThreadMode;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares OSC to LightFactory throughput with platform and virtual lane threads.
+ * <br>Each mock LightFactory target answers a command after a fixed delay, so throughput is bound by how many
+ * targets are served at the same time. Run with the test classpath:
+ * <i>java -cp target/classes:target/test-classes:&lt;dependencies&gt; com.xley.lfosc.test.ThreadModeBenchmark
+ * [targets] [messages] [delay ms]</i>
+ */
+public final class ThreadModeBenchmark {
+
+    private ThreadModeBenchmark() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        int targets = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int delay = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        if (!ThreadMode.VIRTUAL.isSupported()) {
+            System.out.println("Virtual threads need Java 21, the virtual run falls back to platform threads.");
+        }
+        run(ThreadMode.PLATFORM, 5, targets, messages, delay);
+        run(ThreadMode.VIRTUAL, 256, targets, messages, delay);
+    }
+
+    private static void run(final ThreadMode mode, final int lanes, final int targets, final int messages,
+                            final int delay) throws Exception {
+        CountDownLatch answered = new CountDownLatch(messages);
+        List<ServerSocket> servers = new ArrayList<>();
+        for (int i = 0; i < targets; i++) {
+            ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            servers.add(server);
+            serve(server, answered, delay);
+        }
+        EndpointCache endpoints = new EndpointCache(60000, 1000);
+        LightFactorySessionPool sessions = new LightFactorySessionPool(4, 60000, endpoints);
+        OSCProxyListener listener = new OSCProxyListener(sessions, lanes, 0, OverloadPolicy.BLOCK, mode);
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < messages; i++) {
+                OSCMessage message = new OSCMessage("/lf/127.0.0.1:" + servers.get(i % targets).getLocalPort()
+                        + "/cue");
+                message.addArgument(i);
+                listener.acceptMessage(new Date(), message);
+            }
+            boolean done = answered.await(10, TimeUnit.MINUTES);
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            System.out.println(String.format("%s lanes=%d targets=%d messages=%d delay=%dms: %d ms, %.0f msg/s%s",
+                    mode, lanes, targets, messages, delay, elapsed, messages * 1000.0 / Math.max(1, elapsed),
+                    done ? "" : " (timed out)"));
+        } finally {
+            listener.shutdown();
+            sessions.shutdown();
+            endpoints.shutdown();
+            for (ServerSocket server : servers) {
+                server.close();
+            }
+        }
+    }
+
+    private static void serve(final ServerSocket server, final CountDownLatch answered, final int delay) {
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!server.isClosed()) {
+                    try {
+                        final Socket socket = server.accept();
+                        Thread session = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                answer(socket, answered, delay);
+                            }
+                        });
+                        session.setDaemon(true);
+                        session.start();
+                    } catch (Exception e) {
+                        return;
+                    }
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private static void answer(final Socket socket, final CountDownLatch answered, final int delay) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(),
+                     StandardCharsets.US_ASCII))) {
+            OutputStream out = s.getOutputStream();
+            out.write("LightFactory MOCK-SERVER\n>\n".getBytes(StandardCharsets.US_ASCII));
+            String line;
+            while ((line = in.readLine()) != null) {
+                Thread.sleep(delay);
+                out.write(("> " + line + " : Success\n>\n").getBytes(StandardCharsets.US_ASCII));
+                answered.countDown();
+            }
+        } catch (Exception e) {
+            //benchmark ended
+        }
+    }
+}
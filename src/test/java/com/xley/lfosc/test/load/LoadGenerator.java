@@ -0,0 +1,489 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.test.load;
+
+import com.illposed.osc.OSCBundle;
+import com.illposed.osc.OSCMessage;
+import com.illposed.osc.OSCPacket;
+import com.illposed.osc.utility.OSCByteArrayToJavaConverter;
+import com.xley.lfosc.OSCProxy;
+import com.xley.lfosc.ProxyDaemon;
+import com.xley.lfosc.util.LatencyHistogram;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load generator and soak test for a running or embedded proxy.
+ * <br>Simulated OSC controllers send <i>/lf/host:port/load</i> messages to the OSC port of the proxy, which are
+ * answered by {@link NioMockLightFactory} consoles. Simulated LightFactory consoles send <i>osc@host:port /load</i>
+ * commands to the LightFactory port of the proxy, which are received as OSC messages. Each message carries its send
+ * time, every run reports the throughput, loss and latency percentiles of both directions.
+ * <br>With <i>--sweep</i> the embedded proxy is restarted for each worker count, running the OSC lanes and bridge
+ * selectors with that many threads; pin the JVM to fewer cores (e.g. <i>taskset -c 0-3</i>) to compare core counts.
+ * Run with the test classpath:
+ * <i>java -cp target/classes:target/test-classes:&lt;dependencies&gt; com.xley.lfosc.test.load.LoadGenerator
+ * [options]</i>
+ */
+public final class LoadGenerator {
+
+    /**
+     * Time without progress after which in flight messages are counted as lost.
+     */
+    private static final long DRAIN_MILLIS = 1000;
+    /**
+     * Longest time to wait for in flight messages after the senders stop.
+     */
+    private static final long DRAIN_MAX_MILLIS = 30000;
+
+    private final OptionSet options;
+    private final InetAddress proxy;
+    private final int lfPort;
+    private final int oscPort;
+    private final int controllers;
+    private final int consoles;
+    private final int rate;
+    private final int targets;
+    private final int mockPort;
+    private final int replyPort;
+    private final int duration;
+
+    private LoadGenerator(final OptionSet options) throws IOException {
+        this.options = options;
+        this.proxy = InetAddress.getByName((String) options.valueOf("proxy"));
+        this.lfPort = (int) options.valueOf("lf-port");
+        this.oscPort = (int) options.valueOf("osc-port");
+        this.controllers = (int) options.valueOf("controllers");
+        this.consoles = (int) options.valueOf("consoles");
+        this.rate = (int) options.valueOf("rate");
+        this.targets = (int) options.valueOf("targets");
+        this.mockPort = (int) options.valueOf("mock-port");
+        this.replyPort = (int) options.valueOf("reply-port");
+        this.duration = (int) options.valueOf("duration");
+    }
+
+    public static void main(final String[] args) throws Exception {
+        OptionParser parser = parser();
+        OptionSet options = parser.parse(args);
+        if (options.has("?")) {
+            parser.printHelpOn(System.out);
+            return;
+        }
+        new LoadGenerator(options).run();
+    }
+
+    private static OptionParser parser() {
+        return new OptionParser() {
+            {
+                accepts("proxy").withRequiredArg().ofType(String.class)
+                        .describedAs("address of the proxy").defaultsTo("127.0.0.1");
+                accepts("external", "use a proxy that is already running instead of an embedded one");
+                accepts("lf-port").withRequiredArg().ofType(Integer.class)
+                        .describedAs("LightFactory port of the proxy").defaultsTo(3100);
+                accepts("osc-port").withRequiredArg().ofType(Integer.class)
+                        .describedAs("OSC port of the proxy").defaultsTo(3200);
+                accepts("controllers").withRequiredArg().ofType(Integer.class)
+                        .describedAs("simulated OSC controllers").defaultsTo(8);
+                accepts("consoles").withRequiredArg().ofType(Integer.class)
+                        .describedAs("simulated LightFactory consoles").defaultsTo(8);
+                accepts("rate").withRequiredArg().ofType(Integer.class)
+                        .describedAs("messages per second of each controller and console").defaultsTo(500);
+                accepts("targets").withRequiredArg().ofType(Integer.class)
+                        .describedAs("mock LightFactory consoles the controllers send to").defaultsTo(8);
+                accepts("mock-port").withRequiredArg().ofType(Integer.class)
+                        .describedAs("first port of the mock LightFactory consoles").defaultsTo(3300);
+                accepts("reply-port").withRequiredArg().ofType(Integer.class)
+                        .describedAs("port receiving the OSC messages of the consoles").defaultsTo(3299);
+                accepts("duration").withRequiredArg().ofType(Integer.class)
+                        .describedAs("seconds to run").defaultsTo(10);
+                accepts("sweep").withRequiredArg().ofType(Integer.class).withValuesSeparatedBy(',')
+                        .describedAs("worker counts to run the embedded proxy with");
+                accepts("proxy-args").withRequiredArg().ofType(String.class).withValuesSeparatedBy(' ')
+                        .describedAs("additional options of the embedded proxy");
+                accepts("?", "show help").forHelp();
+            }
+        };
+    }
+
+    private void run() throws Exception {
+        List<Integer> sweep = new ArrayList<>();
+        for (Object workers : options.valuesOf("sweep")) {
+            sweep.add((Integer) workers);
+        }
+        if (sweep.isEmpty()) {
+            sweep.add(0);
+        }
+        NioMockLightFactory mock = new NioMockLightFactory(mockPort, targets);
+        Thread mockThread = new Thread(mock, "LoadGenerator - Mock LightFactory");
+        mockThread.setDaemon(true);
+        mockThread.start();
+        try {
+            System.out.println(String.format(Locale.ROOT, "%d processors, %d controllers, %d consoles, %d msg/s each,"
+                    + " %d targets, %ds per run", Runtime.getRuntime().availableProcessors(), controllers, consoles,
+                    rate, targets, duration));
+            System.out.println(String.format(Locale.ROOT, "%-8s %-10s %10s %10s %7s %10s %9s %9s %9s %9s",
+                    "workers", "direction", "sent", "received", "loss%", "msg/s", "p50 us", "p99 us", "p999 us",
+                    "max us"));
+            for (int workers : sweep) {
+                ProxyDaemon daemon = options.has("external") ? null : startProxy(workers);
+                try {
+                    mock.reset();
+                    runOnce(workers, mock);
+                } finally {
+                    if (daemon != null) {
+                        daemon.stop().get(30, TimeUnit.SECONDS);
+                    }
+                }
+            }
+        } finally {
+            mock.close();
+        }
+    }
+
+    private ProxyDaemon startProxy(final int workers) throws Exception {
+        List<String> args = new ArrayList<>(Arrays.asList("-d", "WARN", "-m", "both", "-b", proxy.getHostAddress(),
+                "-p", String.valueOf(lfPort), "-l", String.valueOf(oscPort), "--metrics-jmx", "off"));
+        if (workers > 0) {
+            args.addAll(Arrays.asList("--osc-lanes", String.valueOf(workers),
+                    "--bridge-selectors", String.valueOf(workers)));
+        }
+        for (Object arg : options.valuesOf("proxy-args")) {
+            if (!((String) arg).isEmpty()) {
+                args.add((String) arg);
+            }
+        }
+        ProxyDaemon daemon = new OSCProxy().create(args.toArray(new String[args.size()]));
+        daemon.start().get(30, TimeUnit.SECONDS);
+        return daemon;
+    }
+
+    private void runOnce(final int workers, final NioMockLightFactory mock) throws Exception {
+        Receiver receiver = new Receiver(replyPort);
+        Thread receiverThread = new Thread(receiver, "LoadGenerator - OSC Receiver");
+        receiverThread.setDaemon(true);
+        receiverThread.start();
+        Controllers oscSide = new Controllers();
+        Consoles lfSide = new Consoles();
+        Thread oscThread = new Thread(oscSide, "LoadGenerator - Controllers");
+        Thread lfThread = new Thread(lfSide, "LoadGenerator - Consoles");
+        try {
+            oscThread.start();
+            lfThread.start();
+            oscThread.join();
+            lfThread.join();
+            drain(mock, receiver);
+        } finally {
+            lfSide.close();
+            receiver.close();
+        }
+        String label = workers > 0 ? String.valueOf(workers) : "default";
+        report(label, "osc-to-lf", oscSide.sent.get(), mock.getCommands(), mock.getLatency());
+        report(label, "lf-to-osc", lfSide.sent.get(), receiver.received.get(), receiver.latency);
+        if (lfSide.reconnects.get() > 0) {
+            System.out.println(String.format(Locale.ROOT, "%-8s %-10s %d console reconnects", label, "lf-to-osc",
+                    lfSide.reconnects.get()));
+        }
+    }
+
+    private static void drain(final NioMockLightFactory mock, final Receiver receiver) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + DRAIN_MAX_MILLIS;
+        long last = -1;
+        long current = mock.getCommands() + receiver.received.get();
+        while (current != last && System.currentTimeMillis() < deadline) {
+            Thread.sleep(DRAIN_MILLIS);
+            last = current;
+            current = mock.getCommands() + receiver.received.get();
+        }
+    }
+
+    private void report(final String workers, final String direction, final long sent, final long received,
+                        final LatencyHistogram latency) {
+        double loss = sent == 0 ? 0 : Math.max(0, sent - received) * 100.0 / sent;
+        System.out.println(String.format(Locale.ROOT, "%-8s %-10s %10d %10d %7.2f %10.0f %9d %9d %9d %9d",
+                workers, direction, sent, received, loss, received / (double) duration,
+                latency.getPercentile(50, TimeUnit.MICROSECONDS), latency.getPercentile(99, TimeUnit.MICROSECONDS),
+                latency.getPercentile(99.9, TimeUnit.MICROSECONDS), latency.getMax(TimeUnit.MICROSECONDS)));
+    }
+
+    /**
+     * Paces a sender at the given total rate for the run duration.
+     */
+    private abstract class Paced implements Runnable {
+        protected final AtomicLong sent = new AtomicLong();
+        private final int clients;
+
+        Paced(final int clients) {
+            this.clients = clients;
+        }
+
+        @Override
+        public final void run() {
+            if (clients == 0 || rate == 0) {
+                return;
+            }
+            try {
+                open();
+                long interval = TimeUnit.SECONDS.toNanos(1) / ((long) clients * rate);
+                long start = System.nanoTime();
+                long end = start + TimeUnit.SECONDS.toNanos(duration);
+                long next = start;
+                long seq = 0;
+                while (next < end) {
+                    long now = System.nanoTime();
+                    if (now < next) {
+                        long wait = next - now;
+                        if (wait > TimeUnit.MILLISECONDS.toNanos(1)) {
+                            TimeUnit.NANOSECONDS.sleep(wait);
+                        }
+                        continue;
+                    }
+                    if (send((int) (seq % clients), seq)) {
+                        sent.incrementAndGet();
+                    }
+                    seq++;
+                    next += interval;
+                }
+            } catch (IOException | InterruptedException e) {
+                System.err.println(getClass().getSimpleName() + " stopped: " + e);
+            } finally {
+                closeSenders();
+            }
+        }
+
+        protected abstract void open() throws IOException;
+
+        protected abstract boolean send(int client, long seq) throws IOException;
+
+        protected abstract void closeSenders();
+    }
+
+    /**
+     * OSC controllers, each with its own datagram channel.
+     */
+    private final class Controllers extends Paced {
+        private DatagramChannel[] channels;
+        private final InetSocketAddress target = new InetSocketAddress(proxy, oscPort);
+
+        Controllers() {
+            super(controllers);
+        }
+
+        @Override
+        protected void open() throws IOException {
+            channels = new DatagramChannel[controllers];
+            for (int i = 0; i < controllers; i++) {
+                channels[i] = DatagramChannel.open();
+            }
+        }
+
+        @Override
+        protected boolean send(final int client, final long seq) throws IOException {
+            String address = "/lf/127.0.0.1:" + (mockPort + (int) (seq % targets)) + "/load";
+            OSCMessage message = new OSCMessage(address, Arrays.<Object>asList((int) seq, "t" + System.nanoTime()));
+            return channels[client].send(ByteBuffer.wrap(message.getByteArray()), target) > 0;
+        }
+
+        @Override
+        protected void closeSenders() {
+            if (channels != null) {
+                for (DatagramChannel channel : channels) {
+                    try {
+                        if (channel != null) {
+                            channel.close();
+                        }
+                    } catch (IOException e) {
+                        //closing
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * LightFactory consoles, each with its own connection, the answers of the proxy are drained as they arrive.
+     */
+    private final class Consoles extends Paced {
+        private SocketChannel[] channels;
+        private Selector selector;
+        private final ByteBuffer drain = ByteBuffer.allocateDirect(64 * 1024);
+        private final AtomicLong reconnects = new AtomicLong();
+
+        Consoles() {
+            super(consoles);
+        }
+
+        @Override
+        protected void open() throws IOException {
+            selector = Selector.open();
+            channels = new SocketChannel[consoles];
+            for (int i = 0; i < consoles; i++) {
+                connect(i);
+            }
+        }
+
+        private void connect(final int client) throws IOException {
+            channels[client] = SocketChannel.open(new InetSocketAddress(proxy, lfPort));
+            channels[client].socket().setTcpNoDelay(true);
+            channels[client].configureBlocking(false);
+            channels[client].register(selector, SelectionKey.OP_READ);
+        }
+
+        @Override
+        protected boolean send(final int client, final long seq) throws IOException {
+            ByteBuffer line = ByteBuffer.wrap(("osc@127.0.0.1:" + replyPort + " /load " + seq + " t"
+                    + System.nanoTime() + "\n").getBytes(StandardCharsets.US_ASCII));
+            while (line.hasRemaining()) {
+                try {
+                    if (channels[client].write(line) == 0) {
+                        drain();
+                    }
+                } catch (IOException e) {
+                    //the proxy closes connections after --bridge-max-commands, reconnect like a console would
+                    reconnects.incrementAndGet();
+                    channels[client].close();
+                    connect(client);
+                    line.rewind();
+                }
+            }
+            if (seq % consoles == 0) {
+                drain();
+            }
+            return true;
+        }
+
+        private void drain() throws IOException {
+            if (selector.selectNow() == 0) {
+                return;
+            }
+            for (SelectionKey key : selector.selectedKeys()) {
+                drain.clear();
+                try {
+                    if (((SocketChannel) key.channel()).read(drain) < 0) {
+                        key.cancel();
+                    }
+                } catch (IOException e) {
+                    key.cancel();
+                }
+            }
+            selector.selectedKeys().clear();
+        }
+
+        @Override
+        protected void closeSenders() {
+            //the connections stay open until the replies have been received
+        }
+
+        void close() {
+            if (channels != null) {
+                for (SocketChannel channel : channels) {
+                    try {
+                        if (channel != null) {
+                            channel.close();
+                        }
+                    } catch (IOException e) {
+                        //closing
+                    }
+                }
+            }
+            try {
+                if (selector != null) {
+                    selector.close();
+                }
+            } catch (IOException e) {
+                //closing
+            }
+        }
+    }
+
+    /**
+     * Receives the OSC messages of the consoles and times them.
+     */
+    private static final class Receiver implements Runnable {
+        private final DatagramChannel channel;
+        private final OSCByteArrayToJavaConverter converter = new OSCByteArrayToJavaConverter();
+        private final AtomicLong received = new AtomicLong();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        Receiver(final int port) throws IOException {
+            channel = DatagramChannel.open();
+            channel.socket().setReceiveBufferSize(4 * 1024 * 1024);
+            channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        }
+
+        @Override
+        public void run() {
+            ByteBuffer buffer = ByteBuffer.allocate(65536);
+            try {
+                while (channel.isOpen()) {
+                    buffer.clear();
+                    channel.receive(buffer);
+                    long arrived = System.nanoTime();
+                    OSCPacket packet = converter.convert(buffer.array(), buffer.position());
+                    count(packet, arrived);
+                }
+            } catch (IOException e) {
+                //closed
+            }
+        }
+
+        private void count(final OSCPacket packet, final long arrived) {
+            if (packet instanceof OSCBundle) {
+                for (OSCPacket inner : ((OSCBundle) packet).getPackets()) {
+                    count(inner, arrived);
+                }
+            } else if (packet instanceof OSCMessage) {
+                received.incrementAndGet();
+                List<Object> args = ((OSCMessage) packet).getArguments();
+                Object stamp = args.isEmpty() ? null : args.get(args.size() - 1);
+                if (stamp instanceof String && ((String) stamp).startsWith("t")) {
+                    try {
+                        latency.record(arrived - Long.parseLong(((String) stamp).substring(1)));
+                    } catch (NumberFormatException e) {
+                        //not timed
+                    }
+                }
+            }
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                //closing
+            }
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2014. Peter Crossley (xley.com)
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package com.xley.lfosc.test.load;
+
+import com.xley.lfosc.util.LatencyHistogram;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mock LightFactory consoles on a range of ports served by a single selector thread, so thousands of sessions cost
+ * no thread each.
+ * <br>Every command line is answered like LightFactory, with the echoed command and a prompt. A command whose last
+ * argument is <i>t&lt;nanoTime&gt;</i> is timed from that stamp to its arrival.
+ */
+public class NioMockLightFactory implements Runnable, Closeable {
+
+    /**
+     * The greeting sent to a new session.
+     */
+    private static final byte[] GREETING = "LightFactory remote command interface on MOCK-SERVER\n>\n"
+            .getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The selector serving all ports and sessions.
+     */
+    private final Selector selector;
+    /**
+     * The listening channels.
+     */
+    private final List<ServerSocketChannel> servers = new ArrayList<>();
+    /**
+     * Command lines received.
+     */
+    private final AtomicLong commands = new AtomicLong();
+    /**
+     * Open sessions.
+     */
+    private final AtomicInteger sessions = new AtomicInteger();
+    /**
+     * Latency of the timed commands.
+     */
+    private volatile LatencyHistogram latency = new LatencyHistogram();
+    /**
+     * Shared read buffer.
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+
+    /**
+     * Instantiates mock consoles listening on consecutive loopback ports.
+     *
+     * @param firstPort the first port
+     * @param count     the number of consoles
+     * @throws IOException if a port could not be bound
+     */
+    public NioMockLightFactory(final int firstPort, final int count) throws IOException {
+        selector = Selector.open();
+        try {
+            for (int i = 0; i < count; i++) {
+                ServerSocketChannel server = ServerSocketChannel.open();
+                servers.add(server);
+                server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), firstPort + i), 1024);
+                server.configureBlocking(false);
+                server.register(selector, SelectionKey.OP_ACCEPT);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the number of command lines received.
+     *
+     * @return the command count
+     */
+    public final long getCommands() {
+        return commands.get();
+    }
+
+    /**
+     * Gets the number of open sessions.
+     *
+     * @return the session count
+     */
+    public final int getSessions() {
+        return sessions.get();
+    }
+
+    /**
+     * Gets the latency of the timed commands since the last reset.
+     *
+     * @return the latency histogram
+     */
+    public final LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Start counting a new run.
+     */
+    public final void reset() {
+        commands.set(0);
+        latency = new LatencyHistogram();
+    }
+
+    @Override
+    public final void run() {
+        try {
+            while (selector.isOpen()) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (key.isAcceptable()) {
+                            accept((ServerSocketChannel) key.channel());
+                        } else if (key.isReadable()) {
+                            read(key);
+                        }
+                    } catch (IOException e) {
+                        drop(key);
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            //closed
+        }
+    }
+
+    @Override
+    public final void close() {
+        for (ServerSocketChannel server : servers) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                //closing
+            }
+        }
+        try {
+            if (selector.isOpen()) {
+                for (SelectionKey key : selector.keys()) {
+                    key.channel().close();
+                }
+            }
+            selector.close();
+        } catch (IOException | RuntimeException e) {
+            //closing
+        }
+    }
+
+    /**
+     * Accept a session and greet it.
+     *
+     * @param server the listening channel
+     * @throws IOException if the session failed
+     */
+    private void accept(final ServerSocketChannel server) throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        channel.register(selector, SelectionKey.OP_READ, new StringBuilder());
+        sessions.incrementAndGet();
+        write(channel, ByteBuffer.wrap(GREETING));
+    }
+
+    /**
+     * Read and answer the complete command lines of a session.
+     *
+     * @param key the session key
+     * @throws IOException if the session failed
+     */
+    private void read(final SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        StringBuilder line = (StringBuilder) key.attachment();
+        buffer.clear();
+        if (channel.read(buffer) < 0) {
+            drop(key);
+            return;
+        }
+        buffer.flip();
+        StringBuilder answers = null;
+        while (buffer.hasRemaining()) {
+            char c = (char) buffer.get();
+            if (c == '\n') {
+                String command = line.toString().trim();
+                line.setLength(0);
+                long arrived = System.nanoTime();
+                commands.incrementAndGet();
+                time(command, arrived);
+                if (answers == null) {
+                    answers = new StringBuilder();
+                }
+                answers.append("> ").append(command).append(" : Success\n>\n");
+            } else if (c != '\r') {
+                line.append(c);
+            }
+        }
+        if (answers != null) {
+            write(channel, ByteBuffer.wrap(answers.toString().getBytes(StandardCharsets.US_ASCII)));
+        }
+    }
+
+    /**
+     * Record the latency of a timed command.
+     *
+     * @param command the command line
+     * @param arrived the {@link System#nanoTime()} the command arrived
+     */
+    private void time(final String command, final long arrived) {
+        int stamp = command.lastIndexOf(" t");
+        if (stamp < 0) {
+            return;
+        }
+        try {
+            latency.record(arrived - Long.parseLong(command.substring(stamp + 2)));
+        } catch (NumberFormatException e) {
+            //not a timed command
+        }
+    }
+
+    /**
+     * Write an answer, the few bytes of a prompt are written at once on loopback.
+     *
+     * @param channel the session
+     * @param answer  the answer
+     * @throws IOException if the session failed
+     */
+    private static void write(final SocketChannel channel, final ByteBuffer answer) throws IOException {
+        while (answer.hasRemaining()) {
+            if (channel.write(answer) == 0) {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Close a session.
+     *
+     * @param key the session key
+     */
+    private void drop(final SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            //closing
+        }
+        if (key.channel() instanceof SocketChannel) {
+            sessions.decrementAndGet();
+        }
+    }
+}